@@ -0,0 +1,295 @@
+/*
+ * <p>Copyright (c) 1998-2010, Peter T Mount<br>
+ * All rights reserved.</p>
+ *
+ * <p>Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:</p>
+ *
+ * <ul>
+ *   <li>Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.</li>
+ *
+ *   <li>Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.</li>
+ *
+ *   <li>Neither the name of the retep.org.uk nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.</li>
+ *
+ * </ul>
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.</p>
+ */
+package uk.org.retep.niosax;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import org.xml.sax.SAXException;
+import uk.org.retep.niosax.charset.Charset;
+
+/**
+ * A {@link NioSaxSource} which reads from a chain of
+ * {@link java.nio.ByteBuffer}'s, such as those filled by a scattering read
+ * or taken from a pool, rather than a single buffer.
+ *
+ * <p>
+ *  Buffers are appended to the chain with {@link #add(java.nio.ByteBuffer)}
+ *  once they are ready to be read, and {@link #parse(NioSaxParser)} parses as
+ *  much of the chain as possible. As each buffer is completely parsed it is
+ *  removed from the chain and passed to the {@link Recycler}, so unlike a
+ *  plain {@link NioSaxSource} there is never any need to
+ *  {@link java.nio.ByteBuffer#compact()} the content.
+ * </p>
+ *
+ * <p>
+ *  A character split between two buffers is decoded by copying its bytes,
+ *  along with a few that follow it, into a small carry buffer. Only those
+ *  bytes are ever copied. An incomplete character at the end of the last
+ *  buffer is kept in the chain until more content is added.
+ * </p>
+ *
+ * <pre>
+ * CompositeNioSaxSource source = new CompositeNioSaxSource( null, pool );
+ * parser.startDocument();
+ * while( ... )
+ * {
+ *     ByteBuffer buffer = pool.acquire();
+ *     channel.read( buffer );
+ *     buffer.flip();
+ *     source.add( buffer );
+ *     source.parse( parser );
+ * }
+ * parser.endDocument();
+ * </pre>
+ *
+ * <p>
+ *  This class is not thread safe.
+ * </p>
+ *
+ * @author peter
+ * @since 10.7
+ */
+public class CompositeNioSaxSource
+        extends NioSaxSource
+{
+
+    /**
+     * Enough for a split character in any {@link Charset} and the characters
+     * following it
+     */
+    private static final int CARRY_SIZE = 16;
+    private final ArrayDeque<ByteBuffer> chain;
+    private final Recycler recycler;
+    private final ByteBuffer carry;
+
+    /**
+     * Create an empty source
+     *
+     * @param charset {@link Charset} to use, null for UTF-8
+     * @param recycler {@link Recycler} to receive buffers once parsed, null
+     * if they are not to be reused
+     */
+    public CompositeNioSaxSource( final Charset charset,
+                                  final Recycler recycler )
+    {
+        super( charset );
+        this.recycler = recycler;
+        chain = new ArrayDeque<ByteBuffer>();
+        carry = ByteBuffer.allocate( CARRY_SIZE );
+    }
+
+    /**
+     * Append a buffer to the chain. Its content, between its position and
+     * limit, follows that of the buffers already in the chain. The buffer
+     * must not be modified until it has been recycled.
+     *
+     * @param buffer {@link java.nio.ByteBuffer} ready to be read
+     * @return this to allow method chaining
+     */
+    public final CompositeNioSaxSource add( final ByteBuffer buffer )
+    {
+        if( buffer.hasRemaining() )
+        {
+            chain.addLast( buffer );
+        }
+        else
+        {
+            recycle( buffer );
+        }
+        return this;
+    }
+
+    /**
+     * The number of buffers in the chain
+     * @return number of buffers
+     */
+    public final int getBufferCount()
+    {
+        return chain.size();
+    }
+
+    /**
+     * The number of bytes in the chain yet to be parsed
+     * @return number of bytes remaining
+     */
+    public final long remaining()
+    {
+        long n = 0;
+        for( ByteBuffer b : chain )
+        {
+            n += b.remaining();
+        }
+        return n;
+    }
+
+    /**
+     * Parse as much of the chain as possible, recycling each buffer once it
+     * has been completely parsed.
+     *
+     * <p>
+     *  This returns when the chain is empty, when all that remains is an
+     *  incomplete character, or when the parser has been paused. Calling it
+     *  again resumes from where it stopped. This does not call
+     *  {@link NioSaxParser#startDocument()} or {@link NioSaxParser#endDocument()}.
+     * </p>
+     *
+     * @param parser {@link NioSaxParser} to parse the content
+     * @throws SAXException if the content fails to parse
+     */
+    public final void parse( final NioSaxParser parser )
+            throws SAXException
+    {
+        for( ByteBuffer head = chain.peekFirst(); head != null; head = chain.peekFirst() )
+        {
+            setByteBuffer( head );
+            parser.parse( this );
+
+            if( !head.hasRemaining() )
+            {
+                recycle( chain.pollFirst() );
+            }
+            else if( parser.isPaused() || !parseCarry( parser, head ) )
+            {
+                break;
+            }
+
+            // parse would clear the flag so check before moving on
+            if( parser.isPaused() )
+            {
+                break;
+            }
+        }
+        setByteBuffer( null );
+    }
+
+    /**
+     * Parse a character split between the head of the chain and the buffers
+     * that follow it
+     *
+     * @return true if the split character was parsed
+     */
+    private boolean parseCarry( final NioSaxParser parser, final ByteBuffer head )
+            throws SAXException
+    {
+        if( chain.size() < 2 )
+        {
+            return false;
+        }
+
+        // Copy without consuming anything, so nothing changes if the rest of
+        // the chain does not complete the character
+        carry.clear();
+        final int carried = head.remaining();
+        carry.put( head.duplicate() );
+        for( ByteBuffer b : chain )
+        {
+            if( b != head )
+            {
+                final ByteBuffer dup = b.duplicate();
+                if( dup.remaining() > carry.remaining() )
+                {
+                    dup.limit( dup.position() + carry.remaining() );
+                }
+                carry.put( dup );
+                if( !carry.hasRemaining() )
+                {
+                    break;
+                }
+            }
+        }
+        carry.flip();
+
+        setByteBuffer( carry );
+        parser.parse( this );
+
+        if( carry.position() < carried )
+        {
+            // Still incomplete
+            return false;
+        }
+
+        // Consume what was parsed from the chain
+        head.position( head.limit() );
+        recycle( chain.pollFirst() );
+        int consumed = carry.position() - carried;
+        while( consumed > 0 )
+        {
+            final ByteBuffer b = chain.peekFirst();
+            final int n = Math.min( consumed, b.remaining() );
+            b.position( b.position() + n );
+            consumed -= n;
+            if( !b.hasRemaining() )
+            {
+                recycle( chain.pollFirst() );
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Remove all buffers from the chain, recycling them
+     */
+    public final void clear()
+    {
+        ByteBuffer b;
+        while( (b = chain.pollFirst()) != null )
+        {
+            recycle( b );
+        }
+        setByteBuffer( null );
+    }
+
+    private void recycle( final ByteBuffer buffer )
+    {
+        if( recycler != null )
+        {
+            recycler.recycle( buffer );
+        }
+    }
+
+    /**
+     * Receives buffers from a {@link CompositeNioSaxSource} once they have
+     * been parsed, usually to return them to a pool
+     */
+    public interface Recycler
+    {
+
+        /**
+         * Called once a buffer is no longer needed by the source
+         * @param buffer {@link java.nio.ByteBuffer} no longer in use
+         */
+        void recycle( ByteBuffer buffer );
+    }
+}
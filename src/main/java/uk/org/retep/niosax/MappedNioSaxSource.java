@@ -0,0 +1,249 @@
+/*
+ * <p>Copyright (c) 1998-2010, Peter T Mount<br>
+ * All rights reserved.</p>
+ *
+ * <p>Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:</p>
+ *
+ * <ul>
+ *   <li>Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.</li>
+ *
+ *   <li>Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.</li>
+ *
+ *   <li>Neither the name of the retep.org.uk nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.</li>
+ *
+ * </ul>
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.</p>
+ */
+package uk.org.retep.niosax;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import org.xml.sax.SAXException;
+import uk.org.retep.niosax.charset.Charset;
+
+/**
+ * A {@link NioSaxSource} which reads a file by mapping it into memory with
+ * {@link FileChannel#map(java.nio.channels.FileChannel.MapMode, long, long) }.
+ *
+ * <p>
+ *  The file is mapped a window at a time, so files of any size, including
+ *  those larger than 2Gb, can be parsed without the content being copied
+ *  into a heap buffer. Each call to {@link #nextWindow()} maps the next
+ *  window starting from the current position within the file, so any
+ *  incomplete character left at the end of the previous window by the
+ *  {@link Charset} is simply included at the start of the next one.
+ * </p>
+ *
+ * <p>
+ *  The simplest way to use this source is with {@link #parse(NioSaxParser)}:
+ * </p>
+ *
+ * <pre>
+ * try( MappedNioSaxSource source = new MappedNioSaxSource( file ) )
+ * {
+ *     parser.startDocument();
+ *     source.parse( parser );
+ *     parser.endDocument();
+ * }
+ * </pre>
+ *
+ * <p>
+ *  The mapped buffers are read only so {@link #compact()} must not be called.
+ *  Java 8 has no means of unmapping a buffer so each window is released when
+ *  it is garbage collected.
+ * </p>
+ *
+ * @author peter
+ * @since 10.7
+ */
+public class MappedNioSaxSource
+        extends NioSaxSource
+        implements Closeable
+{
+
+    /**
+     * The default size of each window, 64Mb
+     */
+    public static final int DEFAULT_WINDOW_SIZE = 64 << 20;
+    /**
+     * The smallest window allowed, which must hold at least one character
+     * in any {@link Charset}
+     */
+    public static final int MIN_WINDOW_SIZE = 16;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long size;
+    private final int windowSize;
+    /**
+     * The position within the file of the start of the current window
+     */
+    private long windowStart;
+
+    /**
+     * Create a source for a file using the default UTF-8 {@link Charset} and
+     * window size
+     *
+     * @param file {@link File} to parse
+     * @throws IOException if the file cannot be opened
+     */
+    public MappedNioSaxSource( final File file )
+            throws IOException
+    {
+        this( file, null, DEFAULT_WINDOW_SIZE );
+    }
+
+    /**
+     * Create a source for a file using the default window size
+     *
+     * @param file {@link File} to parse
+     * @param charset {@link Charset} to use, null for UTF-8
+     * @throws IOException if the file cannot be opened
+     */
+    public MappedNioSaxSource( final File file, final Charset charset )
+            throws IOException
+    {
+        this( file, charset, DEFAULT_WINDOW_SIZE );
+    }
+
+    /**
+     * Create a source for a file
+     *
+     * @param file {@link File} to parse
+     * @param charset {@link Charset} to use, null for UTF-8
+     * @param windowSize the maximum number of bytes to map at a time
+     * @throws IOException if the file cannot be opened
+     */
+    public MappedNioSaxSource( final File file, final Charset charset,
+                               final int windowSize )
+            throws IOException
+    {
+        super( charset );
+
+        if( windowSize < MIN_WINDOW_SIZE )
+        {
+            throw new IllegalArgumentException( "windowSize must be at least " + MIN_WINDOW_SIZE );
+        }
+
+        this.windowSize = windowSize;
+        this.file = new RandomAccessFile( file, "r" );
+        channel = this.file.getChannel();
+        size = channel.size();
+    }
+
+    /**
+     * The size of the file
+     * @return size of the file in bytes
+     */
+    public final long size()
+    {
+        return size;
+    }
+
+    /**
+     * The position within the file that parsing has reached
+     * @return position in bytes from the start of the file
+     */
+    public final long getPosition()
+    {
+        return getByteBuffer() == null ? 0 : windowStart + getByteBuffer().position();
+    }
+
+    /**
+     * Is there any content after the current position
+     * @return true if the position is before the end of the file
+     */
+    public final boolean hasRemaining()
+    {
+        return getPosition() < size;
+    }
+
+    /**
+     * Maps the next window of the file, starting from the current position.
+     *
+     * <p>
+     *  Any bytes left in the current window, i.e. an incomplete character,
+     *  become the start of the new window. If no content was consumed from
+     *  the current window, for example because the file ends with an
+     *  incomplete character, then no progress can be made and this returns
+     *  false.
+     * </p>
+     *
+     * @return true if a new window was mapped, false at the end of the file
+     * @throws IOException if the file cannot be mapped
+     */
+    public final boolean nextWindow()
+            throws IOException
+    {
+        final long position = getPosition();
+        if( position >= size || (getByteBuffer() != null && position == windowStart) )
+        {
+            return false;
+        }
+
+        final long length = Math.min( windowSize, size - position );
+        setByteBuffer( channel.map( FileChannel.MapMode.READ_ONLY, position, length ) );
+        windowStart = position;
+        return true;
+    }
+
+    /**
+     * Pass the remainder of the file to a parser, one window at a time.
+     *
+     * <p>
+     *  This does not call {@link NioSaxParser#startDocument()} or
+     *  {@link NioSaxParser#endDocument()}. If the parser is paused this
+     *  returns early, and calling it again resumes from where it stopped.
+     * </p>
+     *
+     * @param parser {@link NioSaxParser} to parse the file
+     * @throws IOException if the file cannot be mapped
+     * @throws SAXException if the content fails to parse
+     */
+    public final void parse( final NioSaxParser parser )
+            throws IOException,
+                   SAXException
+    {
+        // Finish the current window first if we were paused
+        if( getByteBuffer() != null && getByteBuffer().hasRemaining() )
+        {
+            parser.parse( this );
+        }
+
+        while( !parser.isPaused() && nextWindow() )
+        {
+            parser.parse( this );
+        }
+    }
+
+    /**
+     * Closes the underlying file
+     * @throws IOException on failure
+     */
+    @Override
+    public void close()
+            throws IOException
+    {
+        file.close();
+    }
+}
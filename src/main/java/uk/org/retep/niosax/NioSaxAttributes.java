@@ -0,0 +1,85 @@
+/*
+ * <p>Copyright (c) 1998-2010, Peter T Mount<br>
+ * All rights reserved.</p>
+ *
+ * <p>Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:</p>
+ *
+ * <ul>
+ *   <li>Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.</li>
+ *
+ *   <li>Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.</li>
+ *
+ *   <li>Neither the name of the retep.org.uk nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.</li>
+ *
+ * </ul>
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.</p>
+ */
+package uk.org.retep.niosax;
+
+import org.xml.sax.Attributes;
+
+/**
+ * Extension of {@link Attributes} passed to
+ * {@link org.xml.sax.ContentHandler#startElement(java.lang.String, java.lang.String, java.lang.String, org.xml.sax.Attributes) }
+ * by an {@link NioSaxParser}.
+ *
+ * <p>
+ *  Attribute values are held as ranges within a single character buffer and
+ *  a String is only created when one of the getValue methods is called.
+ *  Handlers that can consume characters directly can use
+ *  {@link #getValueCharacters()}, {@link #getValueStart(int)} and
+ *  {@link #getValueLength(int)} to read a value without creating a String,
+ *  in the same way as
+ *  {@link org.xml.sax.ContentHandler#characters(char[], int, int) }.
+ * </p>
+ *
+ * <p>
+ *  The instance and its character buffer are reused by the parser, so they
+ *  are only valid for the duration of the startElement callback.
+ * </p>
+ *
+ * @author peter
+ * @since 10.7
+ */
+public interface NioSaxAttributes
+        extends Attributes
+{
+
+    /**
+     * The character buffer holding the values of all attributes
+     * @return character buffer
+     */
+    char[] getValueCharacters();
+
+    /**
+     * The start of an attribute's value within {@link #getValueCharacters()}
+     * @param index index of the attribute
+     * @return start of the value, or -1 if the index is out of range
+     */
+    int getValueStart( int index );
+
+    /**
+     * The length of an attribute's value within {@link #getValueCharacters()}
+     * @param index index of the attribute
+     * @return length of the value, or -1 if the index is out of range
+     */
+    int getValueLength( int index );
+}
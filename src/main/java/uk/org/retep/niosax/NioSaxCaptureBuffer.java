@@ -0,0 +1,132 @@
+/*
+ * <p>Copyright (c) 1998-2010, Peter T Mount<br>
+ * All rights reserved.</p>
+ *
+ * <p>Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:</p>
+ *
+ * <ul>
+ *   <li>Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.</li>
+ *
+ *   <li>Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.</li>
+ *
+ *   <li>Neither the name of the retep.org.uk nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.</li>
+ *
+ * </ul>
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.</p>
+ */
+package uk.org.retep.niosax;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link NioSaxCaptureHandler} which copies the captured bytes into a
+ * {@link java.nio.ByteBuffer}, growing it as required.
+ *
+ * <p>
+ *  Once {@link #isComplete()} returns true, {@link #getByteBuffer()} holds the
+ *  whole element. Call {@link #clear()} to reuse the instance for another
+ *  element.
+ * </p>
+ *
+ * @author peter
+ * @since 10.7
+ */
+public class NioSaxCaptureBuffer
+        implements NioSaxCaptureHandler
+{
+
+    private ByteBuffer buffer;
+    private boolean complete;
+
+    /**
+     * Create a NioSaxCaptureBuffer with a 1K heap buffer
+     */
+    public NioSaxCaptureBuffer()
+    {
+        this( ByteBuffer.allocate( 1024 ) );
+    }
+
+    /**
+     * Create a NioSaxCaptureBuffer which fills the supplied buffer from its
+     * current position. If it fills, it is replaced by a larger heap buffer.
+     *
+     * @param buffer {@link java.nio.ByteBuffer} to copy into
+     */
+    public NioSaxCaptureBuffer( final ByteBuffer buffer )
+    {
+        this.buffer = buffer;
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public void captured( final ByteBuffer bytes )
+    {
+        if( bytes.remaining() > buffer.remaining() )
+        {
+            final ByteBuffer b = ByteBuffer.allocate(
+                    Math.max( buffer.capacity() << 1, buffer.position() + bytes.remaining() ) );
+            buffer.flip();
+            b.put( buffer );
+            buffer = b;
+        }
+        buffer.put( bytes );
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public void endCapture()
+    {
+        complete = true;
+    }
+
+    /**
+     * Has the end tag been captured
+     * @return true once the element is complete
+     */
+    public boolean isComplete()
+    {
+        return complete;
+    }
+
+    /**
+     * A view of the bytes captured so far, between its position and limit
+     * @return {@link java.nio.ByteBuffer} view of the captured bytes
+     */
+    public ByteBuffer getByteBuffer()
+    {
+        final ByteBuffer b = buffer.duplicate();
+        b.flip();
+        return b;
+    }
+
+    /**
+     * Discard the captured bytes ready to capture another element
+     */
+    public void clear()
+    {
+        buffer.clear();
+        complete = false;
+    }
+}
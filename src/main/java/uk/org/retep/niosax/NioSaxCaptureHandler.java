@@ -0,0 +1,86 @@
+/*
+ * <p>Copyright (c) 1998-2010, Peter T Mount<br>
+ * All rights reserved.</p>
+ *
+ * <p>Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:</p>
+ *
+ * <ul>
+ *   <li>Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.</li>
+ *
+ *   <li>Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.</li>
+ *
+ *   <li>Neither the name of the retep.org.uk nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.</li>
+ *
+ * </ul>
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.</p>
+ */
+package uk.org.retep.niosax;
+
+import java.nio.ByteBuffer;
+import org.xml.sax.SAXException;
+
+/**
+ * Receives the raw bytes of an element captured with
+ * {@link NioSaxParser#capture(uk.org.retep.niosax.NioSaxCaptureHandler)}.
+ *
+ * <p>
+ *  The bytes are exactly those of the source, from the &lt; of the start tag
+ *  up to and including the &gt; of the end tag, in the source's encoding.
+ *  They are delivered in one or more parts as the element is parsed, which
+ *  may be spread over many calls to
+ *  {@link NioSaxParser#parse(uk.org.retep.niosax.NioSaxSource)}, allowing an
+ *  element to be forwarded verbatim without serialising its events again.
+ * </p>
+ *
+ * @author peter
+ * @since 10.7
+ * @see NioSaxCaptureBuffer
+ */
+public interface NioSaxCaptureHandler
+{
+
+    /**
+     * Receive the next part of the element.
+     *
+     * <p>
+     *  The buffer is a read only slice of the source and is only valid
+     *  during this call, as the source may be compacted or reused once parse
+     *  returns. The bytes must be written or copied before returning.
+     * </p>
+     *
+     * @param bytes read only {@link java.nio.ByteBuffer} holding the next
+     * part of the element between its position and limit
+     * @throws SAXException to abort parsing
+     */
+    void captured( ByteBuffer bytes )
+            throws SAXException;
+
+    /**
+     * Called once the end tag has been captured, after the element's
+     * {@link org.xml.sax.ContentHandler#endElement(String, String, String)}
+     * and any {@link org.xml.sax.ContentHandler#endPrefixMapping(String)}
+     * events.
+     *
+     * @throws SAXException to abort parsing
+     */
+    void endCapture()
+            throws SAXException;
+}
@@ -36,6 +36,8 @@ package uk.org.retep.niosax;
 
 import org.xml.sax.ContentHandler;
 import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.SAXNotSupportedException;
 import org.xml.sax.ext.LexicalHandler;
 import org.xml.sax.helpers.NamespaceSupport;
 
@@ -53,6 +55,22 @@ import org.xml.sax.helpers.NamespaceSupport;
 public interface NioSaxParser
 {
 
+    /**
+     * SAX feature: all element names, prefixes, attribute names, namespace
+     * URIs and local names are interned using {@link String#intern()}.
+     * Defaults to true.
+     */
+    String FEATURE_STRING_INTERNING = "http://xml.org/sax/features/string-interning";
+    /**
+     * SAX feature: perform namespace processing. This is always true.
+     */
+    String FEATURE_NAMESPACES = "http://xml.org/sax/features/namespaces";
+    /**
+     * SAX feature: report the attributes used for namespace declarations.
+     * This is always true.
+     */
+    String FEATURE_NAMESPACE_PREFIXES = "http://xml.org/sax/features/namespace-prefixes";
+
     /**
      * The SAX {@link org.xml.sax.ContentHandler} to receive events
      * @return SAX {@link org.xml.sax.ContentHandler} to receive events
@@ -72,6 +90,11 @@ public interface NioSaxParser
      *  will also call {@link #setNioSaxParserHandler(uk.org.retep.niosax.NioSaxParserHandler)}.
      * </p>
      *
+     * <p>
+     *  If the handler also implements {@link NioSaxStanzaHandler} then this method
+     *  will also call {@link #setStanzaHandler(uk.org.retep.niosax.NioSaxStanzaHandler)}.
+     * </p>
+     *
      * @param handler SAX {@link org.xml.sax.ContentHandler} to receive events
      * @throws NullPointerException if handler is null
      */
@@ -104,6 +127,21 @@ public interface NioSaxParser
      */
     void setNioSaxParserHandler(NioSaxParserHandler nioSaxParserHandler);
 
+    /**
+     * The {@link NioSaxStanzaHandler} to receive events.
+     *
+     * @return {@link NioSaxStanzaHandler} or null if not in stanza mode.
+     */
+    NioSaxStanzaHandler getStanzaHandler();
+
+    /**
+     * Set the {@link NioSaxStanzaHandler} to receive events. Setting a
+     * handler puts the parser into stanza mode.
+     *
+     * @param stanzaHandler {@link NioSaxStanzaHandler} or null if none.
+     */
+    void setStanzaHandler(NioSaxStanzaHandler stanzaHandler);
+
     /**
      * This must be called by client code before passing any data to this
      * {@link uk.org.retep.niosax.NioSaxParser}. It initialises the parser for a new document and
@@ -123,6 +161,22 @@ public interface NioSaxParser
     void endDocument()
             throws SAXException;
 
+    /**
+     * Discard any document in progress so that this parser can be reused
+     * for a new document with {@link #startDocument()}. The handler is not
+     * notified.
+     *
+     * <p>
+     *  Handlers and features are retained, as are the parser's internal
+     *  buffers and symbol table, so a reused parser does not have to warm
+     *  up again. This is usually called after a parse has failed, as
+     *  {@link #endDocument()} already leaves the parser ready for reuse.
+     * </p>
+     *
+     * @see NioSaxParserPool
+     */
+    void reset();
+
     /**
      * Parse the content of a {@link java.nio.ByteBuffer} for SAX events
      * @param input {@link java.nio.ByteBuffer} containing data to parse
@@ -132,8 +186,124 @@ public interface NioSaxParser
             throws SAXException;
 
     /**
-     * The {@link org.xml.sax.helpers.NamespaceSupport} instance attached to this parser
-     * @return {@link org.xml.sax.helpers.NamespaceSupport} instance attached to this parser
+     * Suspend parsing. This is intended to be called from within a handler
+     * callback, for example when a downstream queue is full.
+     *
+     * <p>
+     *  Once the character that generated the current event has been parsed,
+     *  {@link #parse(uk.org.retep.niosax.NioSaxSource)} returns leaving the
+     *  buffer positioned immediately after that character, with all parser
+     *  state preserved. Any further events generated by that same character,
+     *  such as the end of an empty element, are still delivered. The next
+     *  call to {@link #parse(uk.org.retep.niosax.NioSaxSource)} resumes from
+     *  that position, so the unparsed content must be passed to it again.
+     * </p>
+     */
+    void pause();
+
+    /**
+     * Has {@link #pause()} been called since parse was last called. This
+     * allows client code to tell whether parse returned because it was
+     * paused or because it ran out of content.
+     *
+     * @return true if parsing is paused
+     */
+    boolean isPaused();
+
+    /**
+     * Capture the raw bytes of the current element. This must be called from
+     * within {@link org.xml.sax.ContentHandler#startElement(String, String, String, org.xml.sax.Attributes)}.
+     *
+     * <p>
+     *  The handler receives the bytes of the element exactly as they appear
+     *  in the source, from the start tag through to the end tag, as the
+     *  element is parsed. Events for the element and its content are still
+     *  delivered as usual. Only one element can be captured at a time.
+     * </p>
+     *
+     * @param handler {@link NioSaxCaptureHandler} to receive the bytes
+     * @throws org.xml.sax.SAXException from the handler
+     * @throws IllegalStateException if not called from startElement or if an
+     * element is already being captured
+     */
+    void capture(NioSaxCaptureHandler handler)
+            throws SAXException;
+
+    /**
+     * The {@link NioSaxCaptureHandler} receiving the raw bytes of the source.
+     *
+     * @return {@link NioSaxCaptureHandler} or null if not passing through
+     */
+    NioSaxCaptureHandler getPassThroughHandler();
+
+    /**
+     * Set a {@link NioSaxCaptureHandler} to receive every byte of the source,
+     * exactly as it appears in the source, apart from elements removed with
+     * {@link #skip()}.
+     *
+     * <p>
+     *  The bytes are delivered in order as they are parsed, with the start
+     *  of any tag still being parsed held back until it is known whether it
+     *  is skipped. {@link NioSaxCaptureHandler#endCapture()} is called by
+     *  {@link #endDocument()}. This cannot be used together with
+     *  {@link #capture(uk.org.retep.niosax.NioSaxCaptureHandler)}.
+     * </p>
+     *
+     * @param handler {@link NioSaxCaptureHandler} or null to stop passing through
+     */
+    void setPassThroughHandler(NioSaxCaptureHandler handler);
+
+    /**
+     * Remove the current element from the bytes passed to the pass through
+     * handler. This must be called from within
+     * {@link org.xml.sax.ContentHandler#startElement(String, String, String, org.xml.sax.Attributes)}.
+     *
+     * <p>
+     *  Everything before the start tag is passed through first, then nothing
+     *  more is until after the element's end tag. Events for the element and
+     *  its content are still delivered as usual, so the handler can write a
+     *  replacement in their place.
+     * </p>
+     *
+     * @throws org.xml.sax.SAXException from the pass through handler
+     * @throws IllegalStateException if there is no pass through handler, if
+     * not called from startElement or if an element is already being skipped
+     */
+    void skip()
+            throws SAXException;
+
+    /**
+     * Look up the value of a feature flag.
+     *
+     * @param name The feature name, which is a fully-qualified URI
+     * @return The current value of the feature
+     * @throws org.xml.sax.SAXNotRecognizedException if the feature is not known
+     * @throws org.xml.sax.SAXNotSupportedException if the feature cannot be
+     * determined at this time
+     * @see #FEATURE_STRING_INTERNING
+     * @see #FEATURE_NAMESPACES
+     * @see #FEATURE_NAMESPACE_PREFIXES
+     */
+    boolean getFeature(String name)
+            throws SAXNotRecognizedException, SAXNotSupportedException;
+
+    /**
+     * Set the value of a feature flag.
+     *
+     * @param name The feature name, which is a fully-qualified URI
+     * @param value The requested value of the feature
+     * @throws org.xml.sax.SAXNotRecognizedException if the feature is not known
+     * @throws org.xml.sax.SAXNotSupportedException if the value is not
+     * supported, or the feature cannot be changed whilst parsing a document
+     */
+    void setFeature(String name, boolean value)
+            throws SAXNotRecognizedException, SAXNotSupportedException;
+
+    /**
+     * A read-only {@link org.xml.sax.helpers.NamespaceSupport} view of the
+     * namespace declarations currently in scope. Attempts to modify it throw
+     * {@link UnsupportedOperationException}.
+     * @return {@link org.xml.sax.helpers.NamespaceSupport} view of the namespaces in scope
      */
     NamespaceSupport getNamespaceSupport();
 }
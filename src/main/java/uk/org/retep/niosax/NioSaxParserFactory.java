@@ -42,10 +42,19 @@ import org.xml.sax.ContentHandler;
  *
  * <p>
  *  This will use the default implementation unless the system property
- *  "retep.niosax.factory" is set. If so then it will use the class
+ *  "retep.nioparser.factory" is set. If so then it will use the class
  *  defined by that property as the factory instance.
  * </p>
  *
+ * <p>
+ *  Two implementations are provided:
+ * </p>
+ * <ul>
+ *  <li>uk.org.retep.niosax.internal.core.DefaultNioSaxFactory - the default</li>
+ *  <li>uk.org.retep.niosax.internal.flat.FlatNioSaxFactory - a parser built
+ *  around a single flat state machine</li>
+ * </ul>
+ *
  * @author peter
  * @since 9.10
  */
@@ -83,6 +92,17 @@ public abstract class NioSaxParserFactory
         return parser;
     }
 
+    /**
+     * Create a new {@link NioSaxParserPool} of parsers from this factory
+     * @param capacity maximum number of idle parsers kept by the pool
+     * @return {@link NioSaxParserPool}
+     * @throws IllegalArgumentException if capacity is less than 1
+     */
+    public final NioSaxParserPool newPool( final int capacity )
+    {
+        return new NioSaxParserPool( this, capacity );
+    }
+
     /**
      * Manages the instantiation of the factory using a initialise-on-demand
      * holder pattern. This ensures that the factory is only created when it is
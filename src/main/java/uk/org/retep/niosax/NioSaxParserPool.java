@@ -0,0 +1,165 @@
+/*
+ * <p>Copyright (c) 1998-2010, Peter T Mount<br>
+ * All rights reserved.</p>
+ *
+ * <p>Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:</p>
+ *
+ * <ul>
+ *   <li>Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.</li>
+ *
+ *   <li>Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.</li>
+ *
+ *   <li>Neither the name of the retep.org.uk nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.</li>
+ *
+ * </ul>
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.</p>
+ */
+package uk.org.retep.niosax;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * A bounded, thread safe pool of {@link NioSaxParser}'s created by a
+ * {@link NioSaxParserFactory}.
+ *
+ * <p>
+ *  This is intended for services that parse many small documents, where
+ *  creating a parser and warming up its buffers would otherwise be a large
+ *  part of the cost of each document. A parser taken from the pool with
+ *  {@link #acquire(org.xml.sax.ContentHandler)} must only be used by one
+ *  thread until it is returned with {@link #release(NioSaxParser)}.
+ * </p>
+ *
+ * <p>
+ *  The pool never blocks. If no idle parser is available a new one is
+ *  created, and parsers released once the pool is full are discarded.
+ * </p>
+ *
+ * <pre>
+ * NioSaxParser parser = pool.acquire( handler );
+ * try
+ * {
+ *     parser.startDocument();
+ *     parser.parse( source );
+ *     parser.endDocument();
+ * }
+ * finally
+ * {
+ *     pool.release( parser );
+ * }
+ * </pre>
+ *
+ * @author peter
+ * @since 10.7
+ * @see NioSaxParserFactory#newPool(int)
+ */
+public final class NioSaxParserPool
+{
+
+    /**
+     * Handler set on idle parsers so they do not hold on to the last one
+     */
+    private static final ContentHandler IDLE_HANDLER = new DefaultHandler();
+    private final NioSaxParserFactory factory;
+    private final int capacity;
+    private final BlockingQueue<NioSaxParser> idle;
+
+    NioSaxParserPool( final NioSaxParserFactory factory, final int capacity )
+    {
+        if( capacity < 1 )
+        {
+            throw new IllegalArgumentException( "capacity must be at least 1" );
+        }
+
+        this.factory = factory;
+        this.capacity = capacity;
+        idle = new ArrayBlockingQueue<NioSaxParser>( capacity );
+    }
+
+    /**
+     * The maximum number of idle parsers held by this pool
+     * @return capacity of the pool
+     */
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    /**
+     * The number of idle parsers currently held by this pool
+     * @return number of idle parsers
+     */
+    public int size()
+    {
+        return idle.size();
+    }
+
+    /**
+     * Take a parser from the pool, creating a new one if none are idle
+     *
+     * @param handler {@link org.xml.sax.ContentHandler} to receive events
+     * @return {@link NioSaxParser} ready for {@link NioSaxParser#startDocument()}
+     */
+    public NioSaxParser acquire( final ContentHandler handler )
+    {
+        NioSaxParser parser = idle.poll();
+        if( parser == null )
+        {
+            parser = factory.newInstance();
+        }
+        parser.setHandler( handler );
+        return parser;
+    }
+
+    /**
+     * Return a parser to the pool. Any document in progress is discarded and
+     * the parser's handlers and features are restored to their defaults. If
+     * the pool is full the parser is left for the garbage collector.
+     *
+     * @param parser {@link NioSaxParser} obtained from
+     * {@link #acquire(org.xml.sax.ContentHandler)}
+     */
+    public void release( final NioSaxParser parser )
+    {
+        parser.reset();
+        parser.setHandler( IDLE_HANDLER );
+        parser.setLexicalHandler( null );
+        parser.setNioSaxParserHandler( null );
+        parser.setStanzaHandler( null );
+        parser.setPassThroughHandler( null );
+
+        try
+        {
+            parser.setFeature( NioSaxParser.FEATURE_STRING_INTERNING, true );
+        }
+        catch( SAXException ex )
+        {
+            // Not possible as the parser has been reset
+            return;
+        }
+
+        idle.offer( parser );
+    }
+}
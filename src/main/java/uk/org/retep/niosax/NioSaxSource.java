@@ -52,7 +52,7 @@ import uk.org.retep.niosax.charset.CharsetFactory;
  *  in any way. However the {@link Charset} will change the {@link java.nio.ByteBuffer#position()}
  *  value as it decodes. When parsing completes, the position will be set to
  *  where parsing stops, which may be before {@link java.nio.ByteBuffer#limit()} if
- *  the remaining content is not a valid character for the {@link Charset}.
+ *  the remaining content is an incomplete character for the {@link Charset}.
  * </p>
  *
  * <p>
@@ -227,4 +227,38 @@ public class NioSaxSource
     {
         return charset.decode( buffer );
     }
+
+    /**
+     * Decode a run of characters from the {@link java.nio.ByteBuffer} into
+     * a char array.
+     *
+     * @param c char array to decode into
+     * @param offset offset in the array
+     * @param length maximum number of characters to decode
+     * @return number of characters decoded
+     * @see Charset#decode(java.nio.ByteBuffer, char[], int, int)
+     */
+    public final int decode( final char[] c, final int offset, final int length )
+    {
+        return charset.decode( buffer, c, offset, length );
+    }
+
+    /**
+     * Decode a run of characters from the {@link java.nio.ByteBuffer} into
+     * a char array, stopping before the first occurrence of either delimiter.
+     *
+     * @param c char array to decode into
+     * @param offset offset in the array
+     * @param length maximum number of characters to decode
+     * @param d1 first delimiter
+     * @param d2 second delimiter
+     * @return number of characters decoded
+     * @see Charset#decodeUntil(java.nio.ByteBuffer, char[], int, int, char, char)
+     */
+    public final int decodeUntil( final char[] c, final int offset,
+                                  final int length, final char d1,
+                                  final char d2 )
+    {
+        return charset.decodeUntil( buffer, c, offset, length, d1, d2 );
+    }
 }
@@ -0,0 +1,68 @@
+/*
+ * <p>Copyright (c) 1998-2010, Peter T Mount<br>
+ * All rights reserved.</p>
+ *
+ * <p>Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:</p>
+ *
+ * <ul>
+ *   <li>Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.</li>
+ *
+ *   <li>Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.</li>
+ *
+ *   <li>Neither the name of the retep.org.uk nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.</li>
+ *
+ * </ul>
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.</p>
+ */
+package uk.org.retep.niosax;
+
+import org.xml.sax.SAXException;
+
+/**
+ * Optional extension handler which puts a {@link NioSaxParser} into stanza
+ * mode, for protocols such as XMPP where the root element stays open for the
+ * lifetime of a connection and each child of it is a self contained unit,
+ * or stanza.
+ *
+ * <p>
+ *  In stanza mode the parser releases any internal buffers that grew while
+ *  parsing a stanza once it ends, so the memory held by the parser is
+ *  bounded by a stanza rather than by how long the connection has been open.
+ * </p>
+ *
+ * @author peter
+ * @since 10.7
+ * @see NioSaxParser#setStanzaHandler(uk.org.retep.niosax.NioSaxStanzaHandler)
+ */
+public interface NioSaxStanzaHandler
+{
+
+    /**
+     * Called once a child of the root element has been completely parsed,
+     * after its {@link org.xml.sax.ContentHandler#endElement(String, String, String)}
+     * and any {@link org.xml.sax.ContentHandler#endPrefixMapping(String)}
+     * events.
+     *
+     * @throws SAXException to abort parsing
+     */
+    void endStanza()
+            throws SAXException;
+}
@@ -0,0 +1,111 @@
+/*
+ * <p>Copyright (c) 1998-2010, Peter T Mount<br>
+ * All rights reserved.</p>
+ *
+ * <p>Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:</p>
+ *
+ * <ul>
+ *   <li>Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.</li>
+ *
+ *   <li>Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.</li>
+ *
+ *   <li>Neither the name of the retep.org.uk nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.</li>
+ *
+ * </ul>
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.</p>
+ */
+package uk.org.retep.niosax.charset;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Base implementation of {@link Charset}s where the 7 bit ASCII characters
+ * are encoded as a single byte of the same value, and no byte below 0x80
+ * appears within the encoding of any other character.
+ * <p/>
+ * <p>
+ * This means a search for an ASCII delimiter can be performed on the raw
+ * bytes without decoding them first.
+ * </p>
+ *
+ * @author peter
+ */
+public abstract class AbstractAsciiCharset
+        extends AbstractCharset {
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * <p>
+     * When both delimiters are ASCII the bytes are scanned for them first and
+     * the run before the delimiter is handed to
+     * {@link #decode(java.nio.ByteBuffer, char[], int, int)} in one go.
+     * </p>
+     */
+    @Override
+    public int decodeUntil(final ByteBuffer buffer,
+                           final char[] c,
+                           final int offset,
+                           final int length,
+                           final char d1,
+                           final char d2) {
+        if (d1 >= 0x80 || d2 >= 0x80) {
+            return super.decodeUntil(buffer, c, offset, length, d1, d2);
+        }
+
+        // Every character is at least one byte, so length bytes is as far as
+        // we need to look
+        final int limit = buffer.limit();
+        final int p = buffer.position();
+        final int scanLimit = (int) Math.min((long) limit, (long) p + length);
+        final byte b1 = (byte) d1;
+        final byte b2 = (byte) d2;
+
+        int i = p;
+        if (buffer.hasArray()) {
+            final byte[] b = buffer.array();
+            final int base = buffer.arrayOffset();
+            while (i < scanLimit) {
+                final byte b0 = b[base + i];
+                if (b0 == b1 || b0 == b2) {
+                    break;
+                }
+                i++;
+            }
+        } else {
+            while (i < scanLimit) {
+                final byte b0 = buffer.get(i);
+                if (b0 == b1 || b0 == b2) {
+                    break;
+                }
+                i++;
+            }
+        }
+
+        // Decode up to the delimiter
+        buffer.limit(i);
+        try {
+            return decode(buffer, c, offset, length);
+        } finally {
+            buffer.limit(limit);
+        }
+    }
+}
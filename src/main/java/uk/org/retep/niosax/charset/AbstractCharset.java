@@ -116,6 +116,65 @@ public abstract class AbstractCharset
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * <p>
+     * The default implementation calls {@link #decode(java.nio.ByteBuffer)}
+     * for each character. Implementations should override this where a faster
+     * path is available.
+     * </p>
+     */
+    @Override
+    public int decode(final ByteBuffer buffer,
+                      final char[] c,
+                      final int offset,
+                      final int length) {
+        int i = offset;
+        final int end = offset + length;
+        while (i < end) {
+            final int pos = buffer.position();
+            final char d = decode(buffer);
+            if (!isValid(d)) {
+                // Leave the incomplete or invalid character in the buffer
+                buffer.position(pos);
+                break;
+            }
+            c[i++] = d;
+        }
+        return i - offset;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * <p>
+     * The default implementation calls {@link #decode(java.nio.ByteBuffer)}
+     * for each character.
+     * </p>
+     */
+    @Override
+    public int decodeUntil(final ByteBuffer buffer,
+                           final char[] c,
+                           final int offset,
+                           final int length,
+                           final char d1,
+                           final char d2) {
+        int i = offset;
+        final int end = offset + length;
+        while (i < end) {
+            final int pos = buffer.position();
+            final char d = decode(buffer);
+            if (!isValid(d) || d == d1 || d == d2) {
+                // Leave the delimiter or incomplete character in the buffer
+                buffer.position(pos);
+                break;
+            }
+            c[i++] = d;
+        }
+        return i - offset;
+    }
+
     /**
      * {@inheritDoc}
      */
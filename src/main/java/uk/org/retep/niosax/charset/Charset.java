@@ -53,9 +53,9 @@ import java.nio.ByteBuffer;
  * </p>
  * <p/>
  * <p>
- * The {@link #encode(java.nio.ByteBuffer, char)} method is only provided for
- * completeness - usually it's best to use the jdk's when writing as that's
- * not hampered by the problem of incomplete buffers.
+ * The {@link #encode(java.nio.ByteBuffer, char)} method is used by
+ * {@link uk.org.retep.niosax.io.NioSaxWriter} so that the same charset
+ * layer is used for reading and writing.
  * </p>
  *
  * @author peter
@@ -123,6 +123,47 @@ public interface Charset {
      */
     char decode(ByteBuffer buffer);
 
+    /**
+     * Decode a run of characters starting at the current position in the
+     * {@link java.nio.ByteBuffer} into a char array.
+     * <p/>
+     * <p>
+     * Decoding stops once length characters have been decoded or when the
+     * next character is either incomplete or invalid. The position is left
+     * immediately after the last character decoded, so an incomplete character
+     * remains in the buffer for a later call and an invalid one is reported by
+     * the next call to {@link #decode(java.nio.ByteBuffer)}.
+     * </p>
+     *
+     * @param buffer {@link java.nio.ByteBuffer} to read from
+     * @param c      char array to decode into
+     * @param offset offset in the array
+     * @param length maximum number of characters to decode
+     * @return number of characters decoded
+     */
+    int decode(ByteBuffer buffer, char[] c, int offset, int length);
+
+    /**
+     * Decode a run of characters into a char array in the same way as
+     * {@link #decode(java.nio.ByteBuffer, char[], int, int)} but also stop
+     * at the first occurrence of either delimiter. The delimiter is left in
+     * the buffer.
+     * <p/>
+     * <p>
+     * This is used to pull in text content up to the next piece of markup
+     * in one call.
+     * </p>
+     *
+     * @param buffer {@link java.nio.ByteBuffer} to read from
+     * @param c      char array to decode into
+     * @param offset offset in the array
+     * @param length maximum number of characters to decode
+     * @param d1     first delimiter
+     * @param d2     second delimiter
+     * @return number of characters decoded
+     */
+    int decodeUntil(ByteBuffer buffer, char[] c, int offset, int length, char d1, char d2);
+
     /**
      * Encode the character into the specified {@link java.nio.ByteBuffer} at the current
      * position.
@@ -62,7 +62,7 @@ import java.nio.ByteBuffer;
                 "ISO8859-1"
         })
 public class ISO_8859_1
-        extends AbstractCharset {
+        extends AbstractAsciiCharset {
 
     /**
      * {@inheritDoc}
@@ -70,19 +70,48 @@ public class ISO_8859_1
     @Override
     public char decode(final ByteBuffer buffer) {
         if (buffer.hasRemaining()) {
-            return (char) buffer.get();
+            return (char) (buffer.get() & 0xff);
         } else {
             return NOT_ENOUGH_DATA;
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * <p>
+     * Every byte maps directly onto a character so this is a straight copy.
+     * </p>
+     */
+    @Override
+    public int decode(final ByteBuffer buffer,
+                      final char[] c,
+                      final int offset,
+                      final int length) {
+        final int n = Math.min(length, buffer.remaining());
+        final int p = buffer.position();
+        if (buffer.hasArray()) {
+            final byte[] b = buffer.array();
+            final int base = buffer.arrayOffset() + p;
+            for (int j = 0; j < n; j++) {
+                c[offset + j] = (char) (b[base + j] & 0xff);
+            }
+        } else {
+            for (int j = 0; j < n; j++) {
+                c[offset + j] = (char) (buffer.get(p + j) & 0xff);
+            }
+        }
+        buffer.position(p + n);
+        return n;
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public boolean encode(final ByteBuffer buffer, final char c) {
         if (buffer.hasRemaining()) {
-            buffer.put((byte) (c < 0xff ? c : ' '));
+            buffer.put((byte) (c <= 0xff ? c : ' '));
             return true;
         } else {
             return false;
@@ -63,7 +63,7 @@ import java.nio.ByteBuffer;
                 "ascii7"
         })
 public class US_ASCII
-        extends AbstractCharset {
+        extends AbstractAsciiCharset {
 
     /**
      * {@inheritDoc}
@@ -82,6 +82,43 @@ public class US_ASCII
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * <p>
+     * Copies bytes straight across, stopping at the first byte outside the
+     * 7 bit range.
+     * </p>
+     */
+    @Override
+    public int decode(final ByteBuffer buffer,
+                      final char[] c,
+                      final int offset,
+                      final int length) {
+        final int n = Math.min(length, buffer.remaining());
+        final int p = buffer.position();
+        int j = 0;
+        if (buffer.hasArray()) {
+            final byte[] b = buffer.array();
+            final int base = buffer.arrayOffset() + p;
+            while (j < n && b[base + j] >= 0) {
+                c[offset + j] = (char) b[base + j];
+                j++;
+            }
+        } else {
+            while (j < n) {
+                final byte b = buffer.get(p + j);
+                if (b < 0) {
+                    break;
+                }
+                c[offset + j] = (char) b;
+                j++;
+            }
+        }
+        buffer.position(p + j);
+        return j;
+    }
+
     /**
      * {@inheritDoc}
      */
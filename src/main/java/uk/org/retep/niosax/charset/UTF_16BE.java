@@ -77,6 +77,6 @@ public class UTF_16BE
      */
     @Override
     public boolean encode(final ByteBuffer buffer, final char c) {
-        return encodeLittle(buffer, c);
+        return encodeBig(buffer, c);
     }
 }
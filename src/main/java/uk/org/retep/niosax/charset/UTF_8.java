@@ -61,7 +61,7 @@ import java.nio.ByteBuffer;
                 "unicode-1-1-utf-8"
         })
 public class UTF_8
-        extends AbstractCharset {
+        extends AbstractAsciiCharset {
 
     /**
      * Is the character a continuation char
@@ -110,7 +110,7 @@ public class UTF_8
 
             case 14:
                 // 3 bytes, 16 bits: 1110xxxx 10xxxxxx 10xxxxxx
-                if (buffer.remaining() > 2) {
+                if (buffer.remaining() > 1) {
                     int b2 = buffer.get();
                     int b3 = buffer.get();
                     if (isContinuation(b2) && isContinuation(b3)) {
@@ -128,6 +128,67 @@ public class UTF_8
         return NOT_ENOUGH_DATA;
     }
 
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * <p>
+     * Runs of 7 bit ASCII are copied straight across without the per
+     * character buffer bookkeeping, reading the backing array directly when
+     * the buffer has one. Multi-byte sequences fall back to
+     * {@link #decode(java.nio.ByteBuffer)}.
+     * </p>
+     */
+    @Override
+    public int decode(final ByteBuffer buffer,
+                      final char[] c,
+                      final int offset,
+                      final int length) {
+        final int limit = buffer.limit();
+        final int end = offset + length;
+        int p = buffer.position();
+        int i = offset;
+
+        while (i < end) {
+            final int run = Math.min(end - i, limit - p);
+            int j = 0;
+            if (buffer.hasArray()) {
+                final byte[] b = buffer.array();
+                final int base = buffer.arrayOffset() + p;
+                while (j < run && b[base + j] >= 0) {
+                    c[i + j] = (char) b[base + j];
+                    j++;
+                }
+            } else {
+                while (j < run) {
+                    final byte b = buffer.get(p + j);
+                    if (b < 0) {
+                        break;
+                    }
+                    c[i + j] = (char) b;
+                    j++;
+                }
+            }
+            i += j;
+            p += j;
+
+            if (i == end || p == limit) {
+                break;
+            }
+
+            // A multi-byte sequence
+            buffer.position(p);
+            final char d = decode(buffer);
+            if (!isValid(d)) {
+                break;
+            }
+            c[i++] = d;
+            p = buffer.position();
+        }
+
+        buffer.position(p);
+        return i - offset;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -153,7 +214,7 @@ public class UTF_8
                 buffer.put((byte) (0xe0 | ((c >> 12))));
                 buffer.put((byte) (0x80 | ((c >> 06) & 0x3f)));
                 buffer.put((byte) (0x80 | ((c >> 00) & 0x3f)));
-
+                return true;
             }
         }
 
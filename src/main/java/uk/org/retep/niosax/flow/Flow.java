@@ -0,0 +1,130 @@
+/*
+ * <p>Copyright (c) 1998-2010, Peter T Mount<br>
+ * All rights reserved.</p>
+ *
+ * <p>Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:</p>
+ *
+ * <ul>
+ *   <li>Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.</li>
+ *
+ *   <li>Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.</li>
+ *
+ *   <li>Neither the name of the retep.org.uk nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.</li>
+ *
+ * </ul>
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.</p>
+ */
+package uk.org.retep.niosax.flow;
+
+/**
+ * The Reactive Streams interfaces.
+ *
+ * <p>
+ *  niosax targets Java 8 so cannot use {@code java.util.concurrent.Flow}.
+ *  These interfaces have exactly the same methods and contracts, so
+ *  adapting between the two, or to the org.reactivestreams interfaces, is
+ *  a matter of simple delegation.
+ * </p>
+ *
+ * @author peter
+ * @since 10.7
+ */
+public final class Flow
+{
+
+    private Flow()
+    {
+    }
+
+    /**
+     * A producer of items received by {@link Subscriber}s
+     * @param <T> the published item type
+     */
+    public static interface Publisher<T>
+    {
+
+        /**
+         * Adds the given Subscriber
+         * @param subscriber the subscriber
+         */
+        void subscribe( Subscriber<? super T> subscriber );
+    }
+
+    /**
+     * A receiver of items. Methods are called in order and never
+     * concurrently.
+     * @param <T> the subscribed item type
+     */
+    public static interface Subscriber<T>
+    {
+
+        /**
+         * Called before any other method for a new {@link Subscription}
+         * @param subscription the subscription
+         */
+        void onSubscribe( Subscription subscription );
+
+        /**
+         * The next item, only called when there is outstanding demand
+         * @param item the item
+         */
+        void onNext( T item );
+
+        /**
+         * The subscription has failed, no further methods will be called
+         * @param throwable the cause
+         */
+        void onError( Throwable throwable );
+
+        /**
+         * The subscription has completed, no further methods will be called
+         */
+        void onComplete();
+    }
+
+    /**
+     * Links a {@link Publisher} and {@link Subscriber}
+     */
+    public static interface Subscription
+    {
+
+        /**
+         * Adds n items to the current unfulfilled demand
+         * @param n the increment of demand, must be positive
+         */
+        void request( long n );
+
+        /**
+         * Stops the Subscriber from receiving further items
+         */
+        void cancel();
+    }
+
+    /**
+     * A component that is both a {@link Subscriber} and a {@link Publisher}
+     * @param <T> the subscribed item type
+     * @param <R> the published item type
+     */
+    public static interface Processor<T, R>
+            extends Subscriber<T>, Publisher<R>
+    {
+    }
+}
@@ -0,0 +1,599 @@
+/*
+ * <p>Copyright (c) 1998-2010, Peter T Mount<br>
+ * All rights reserved.</p>
+ *
+ * <p>Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:</p>
+ *
+ * <ul>
+ *   <li>Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.</li>
+ *
+ *   <li>Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.</li>
+ *
+ *   <li>Neither the name of the retep.org.uk nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.</li>
+ *
+ * </ul>
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.</p>
+ */
+package uk.org.retep.niosax.flow;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import uk.org.retep.niosax.NioSaxParser;
+import uk.org.retep.niosax.NioSaxSource;
+import uk.org.retep.niosax.charset.Charset;
+
+/**
+ * A {@link Flow.Processor} which parses a stream of {@link ByteBuffer}s with
+ * an {@link NioSaxParser}, publishing each SAX event as an {@link XmlEvent}.
+ *
+ * <p>
+ *  Input is only requested from upstream, one buffer at a time, when the
+ *  subscriber has outstanding demand and the previous buffer has been
+ *  parsed. When demand runs out part way through a buffer the parser is
+ *  paused with {@link NioSaxParser#pause()}, so parsing stops after the
+ *  character that generated the event and resumes from there once more is
+ *  requested, and events are never queued without bound. The few
+ *  events a single character can produce beyond the demand, such as the
+ *  end of an empty element, are copied into a small pool of reused events.
+ * </p>
+ *
+ * <p>
+ *  A single {@link XmlEvent} instance is published for every event so a
+ *  subscriber that consumes each event within onNext creates no garbage.
+ *  Input buffers are not modified other than their position, are fully
+ *  consumed before the next one is requested, and characters split between
+ *  two buffers are handled internally.
+ * </p>
+ *
+ * <p>
+ *  Only one subscriber is supported. The parser is started when the first
+ *  event is requested, and the document is ended when upstream completes.
+ * </p>
+ *
+ * @author peter
+ * @since 10.7
+ */
+public final class NioSaxProcessor
+        implements Flow.Processor<ByteBuffer, XmlEvent>
+{
+
+    /**
+     * Enough to hold an incomplete character in any charset plus the bytes
+     * needed to complete it
+     */
+    private static final int CARRY_SIZE = 16;
+    private final NioSaxParser parser;
+    private final NioSaxSource source;
+    private final XmlEvent event = new XmlEvent();
+    /**
+     * Events generated beyond the current demand
+     */
+    private final ArrayDeque<XmlEvent> pending = new ArrayDeque<XmlEvent>();
+    private final ArrayDeque<XmlEvent> free = new ArrayDeque<XmlEvent>();
+    private final AtomicLong demand = new AtomicLong();
+    private final AtomicInteger wip = new AtomicInteger();
+    private volatile Flow.Subscription upstream;
+    private volatile Flow.Subscriber<? super XmlEvent> downstream;
+    private volatile ByteBuffer next;
+    private volatile boolean upstreamComplete;
+    private volatile Throwable upstreamError;
+    private volatile Throwable requestError;
+    private volatile boolean cancelled;
+    // The following are only used within drain()
+    private ByteBuffer input;
+    private ByteBuffer carry;
+    private int carried;
+    private boolean requested;
+    private boolean started;
+    private boolean ended;
+    private boolean done;
+
+    /**
+     * Create a processor. The parser's {@link ContentHandler} is replaced by
+     * one that publishes events.
+     *
+     * @param parser {@link NioSaxParser} to use, which must not have started a
+     * document
+     * @param charset {@link Charset} of the content, null for UTF-8
+     */
+    public NioSaxProcessor( final NioSaxParser parser, final Charset charset )
+    {
+        this.parser = parser;
+        this.source = new NioSaxSource( charset );
+        parser.setHandler( new Handler() );
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public void subscribe( final Flow.Subscriber<? super XmlEvent> subscriber )
+    {
+        if( subscriber == null )
+        {
+            throw new NullPointerException();
+        }
+
+        if( downstream != null )
+        {
+            subscriber.onSubscribe( new Flow.Subscription()
+            {
+
+                @Override
+                public void request( long n )
+                {
+                }
+
+                @Override
+                public void cancel()
+                {
+                }
+            } );
+            subscriber.onError( new IllegalStateException( "Only one subscriber is supported" ) );
+            return;
+        }
+
+        downstream = subscriber;
+        subscriber.onSubscribe( new Flow.Subscription()
+        {
+
+            @Override
+            public void request( final long n )
+            {
+                if( n <= 0 )
+                {
+                    requestError = new IllegalArgumentException( "Demand must be positive" );
+                }
+                else
+                {
+                    long d;
+                    do
+                    {
+                        d = demand.get();
+                    } while( d != Long.MAX_VALUE
+                             && !demand.compareAndSet( d, d + n < 0 ? Long.MAX_VALUE : d + n ) );
+                }
+                drain();
+            }
+
+            @Override
+            public void cancel()
+            {
+                cancelled = true;
+                drain();
+            }
+        } );
+        drain();
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public void onSubscribe( final Flow.Subscription subscription )
+    {
+        if( upstream != null )
+        {
+            subscription.cancel();
+            return;
+        }
+        upstream = subscription;
+        drain();
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public void onNext( final ByteBuffer item )
+    {
+        next = item;
+        drain();
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public void onError( final Throwable throwable )
+    {
+        upstreamError = throwable;
+        drain();
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public void onComplete()
+    {
+        upstreamComplete = true;
+        drain();
+    }
+
+    /**
+     * Does as much work as the current demand allows. Only one thread runs
+     * the loop at a time, any other thread calling drain() just tells it to
+     * go round again.
+     */
+    private void drain()
+    {
+        if( wip.getAndIncrement() != 0 )
+        {
+            return;
+        }
+
+        int missed = 1;
+        do
+        {
+            try
+            {
+                work();
+            }
+            catch( SAXException ex )
+            {
+                fail( ex );
+            }
+            catch( RuntimeException ex )
+            {
+                fail( ex );
+            }
+            missed = wip.addAndGet( -missed );
+        } while( missed != 0 );
+    }
+
+    private void work()
+            throws SAXException
+    {
+        final Flow.Subscriber<? super XmlEvent> subscriber = downstream;
+        if( done || subscriber == null )
+        {
+            return;
+        }
+
+        for(;;)
+        {
+            if( cancelled )
+            {
+                done = true;
+                release();
+                if( upstream != null )
+                {
+                    upstream.cancel();
+                }
+                return;
+            }
+
+            // Deliver anything left over from the last character parsed
+            while( !pending.isEmpty() && demand.get() > 0 )
+            {
+                final XmlEvent e = pending.poll();
+                deliver( subscriber, e );
+                free.add( e );
+            }
+
+            if( !pending.isEmpty() )
+            {
+                return;
+            }
+
+            if( ended )
+            {
+                done = true;
+                release();
+                subscriber.onComplete();
+                return;
+            }
+
+            if( requestError != null )
+            {
+                fail( requestError );
+                return;
+            }
+
+            if( upstreamError != null )
+            {
+                fail( upstreamError );
+                return;
+            }
+
+            if( demand.get() == 0 )
+            {
+                return;
+            }
+
+            if( !started )
+            {
+                started = true;
+                parser.startDocument();
+            }
+            else if( carry != null && input != null )
+            {
+                parseCarry();
+            }
+            else if( input != null )
+            {
+                parseInput();
+            }
+            else if( next != null )
+            {
+                input = next;
+                next = null;
+                requested = false;
+            }
+            else if( upstreamComplete )
+            {
+                if( carry != null )
+                {
+                    throw new SAXException( "Incomplete character at end of input" );
+                }
+                ended = true;
+                parser.endDocument();
+            }
+            else
+            {
+                // Only ask for more once this input has been consumed
+                if( !requested && upstream != null )
+                {
+                    requested = true;
+                    upstream.request( 1 );
+                    continue;
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Parse the current input buffer
+     */
+    private void parseInput()
+            throws SAXException
+    {
+        parse( input );
+
+        if( !parser.isPaused() && input.hasRemaining() )
+        {
+            // An incomplete character so keep it until the next buffer
+            if( carry == null )
+            {
+                carry = ByteBuffer.allocate( CARRY_SIZE );
+            }
+            carry.clear();
+            carry.put( input );
+            carried = carry.position();
+        }
+
+        if( !input.hasRemaining() )
+        {
+            input = null;
+        }
+    }
+
+    /**
+     * Parse the incomplete character from the previous buffer together with
+     * the start of the current one
+     */
+    private void parseCarry()
+            throws SAXException
+    {
+        final ByteBuffer dup = input.duplicate();
+        final int n = Math.min( carry.remaining(), dup.remaining() );
+        dup.limit( dup.position() + n );
+        carry.put( dup );
+        carry.flip();
+
+        parse( carry );
+
+        final int consumed = carry.position() - carried;
+        if( consumed > 0 )
+        {
+            // The split character is complete, carry on with the input
+            input.position( input.position() + consumed );
+            carry = null;
+        }
+        else
+        {
+            // Still incomplete, keep everything we have copied
+            input.position( input.position() + n );
+            carry.position( carry.limit() );
+            carry.limit( carry.capacity() );
+            carried = carry.position();
+        }
+
+        if( !input.hasRemaining() )
+        {
+            input = null;
+        }
+    }
+
+    private void parse( final ByteBuffer buffer )
+            throws SAXException
+    {
+        source.setByteBuffer( buffer );
+        parser.parse( source );
+    }
+
+    /**
+     * Publish the current event, or queue a copy if there is no demand
+     */
+    private void emit()
+    {
+        if( pending.isEmpty() && demand.get() > 0 )
+        {
+            deliver( downstream, event );
+        }
+        else
+        {
+            XmlEvent e = free.poll();
+            if( e == null )
+            {
+                e = new XmlEvent();
+            }
+            e.copyFrom( event );
+            pending.add( e );
+        }
+
+        if( demand.get() == 0 )
+        {
+            // Stop the parser after the current character
+            parser.pause();
+        }
+    }
+
+    private void deliver( final Flow.Subscriber<? super XmlEvent> subscriber,
+                          final XmlEvent e )
+    {
+        if( demand.get() != Long.MAX_VALUE )
+        {
+            demand.decrementAndGet();
+        }
+        subscriber.onNext( e );
+    }
+
+    private void fail( final Throwable t )
+    {
+        if( done )
+        {
+            return;
+        }
+        done = true;
+        release();
+        if( upstream != null && t != upstreamError && !upstreamComplete )
+        {
+            upstream.cancel();
+        }
+        downstream.onError( t );
+    }
+
+    private void release()
+    {
+        input = null;
+        next = null;
+        carry = null;
+        pending.clear();
+        free.clear();
+    }
+
+    /**
+     * Turns each {@link ContentHandler} call into an {@link XmlEvent}
+     */
+    private final class Handler
+            implements ContentHandler
+    {
+
+        @Override
+        public void setDocumentLocator( final Locator locator )
+        {
+        }
+
+        @Override
+        public void startDocument()
+                throws SAXException
+        {
+            event.set( XmlEvent.Type.START_DOCUMENT, null, null, null );
+            emit();
+        }
+
+        @Override
+        public void endDocument()
+                throws SAXException
+        {
+            event.set( XmlEvent.Type.END_DOCUMENT, null, null, null );
+            emit();
+        }
+
+        @Override
+        public void startPrefixMapping( final String prefix, final String uri )
+                throws SAXException
+        {
+            event.set( XmlEvent.Type.START_PREFIX_MAPPING, uri, null, null ).setPrefix( prefix );
+            emit();
+        }
+
+        @Override
+        public void endPrefixMapping( final String prefix )
+                throws SAXException
+        {
+            event.set( XmlEvent.Type.END_PREFIX_MAPPING, null, null, null ).setPrefix( prefix );
+            emit();
+        }
+
+        @Override
+        public void startElement( final String uri, final String localName,
+                                  final String qName, final Attributes atts )
+                throws SAXException
+        {
+            event.set( XmlEvent.Type.START_ELEMENT, uri, localName, qName ).setAttributes( atts );
+            emit();
+        }
+
+        @Override
+        public void endElement( final String uri, final String localName,
+                                final String qName )
+                throws SAXException
+        {
+            event.set( XmlEvent.Type.END_ELEMENT, uri, localName, qName );
+            emit();
+        }
+
+        @Override
+        public void characters( final char[] ch, final int start,
+                                final int length )
+                throws SAXException
+        {
+            event.set( XmlEvent.Type.CHARACTERS, null, null, null ).setCharacters( ch, start, length );
+            emit();
+        }
+
+        @Override
+        public void ignorableWhitespace( final char[] ch, final int start,
+                                         final int length )
+                throws SAXException
+        {
+            event.set( XmlEvent.Type.IGNORABLE_WHITESPACE, null, null, null ).setCharacters( ch, start, length );
+            emit();
+        }
+
+        @Override
+        public void processingInstruction( final String target,
+                                           final String data )
+                throws SAXException
+        {
+            event.set( XmlEvent.Type.PROCESSING_INSTRUCTION, null, null, null ).setProcessingInstruction( target, data );
+            emit();
+        }
+
+        @Override
+        public void skippedEntity( final String name )
+                throws SAXException
+        {
+            event.set( XmlEvent.Type.SKIPPED_ENTITY, null, null, name );
+            emit();
+        }
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ * <p>Copyright (c) 1998-2010, Peter T Mount<br>
+ * All rights reserved.</p>
+ *
+ * <p>Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:</p>
+ *
+ * <ul>
+ *   <li>Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.</li>
+ *
+ *   <li>Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.</li>
+ *
+ *   <li>Neither the name of the retep.org.uk nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.</li>
+ *
+ * </ul>
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.</p>
+ */
+package uk.org.retep.niosax.flow;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * A single SAX event published by a {@link NioSaxProcessor}.
+ *
+ * <p>
+ *  The same instance is reused for every event, so like the arguments of
+ *  a {@link org.xml.sax.ContentHandler} method its content is only valid
+ *  during the call to {@link Flow.Subscriber#onNext(java.lang.Object) }.
+ *  Subscribers that need to keep an event must use {@link #copy()}.
+ * </p>
+ *
+ * @author peter
+ * @since 10.7
+ */
+public final class XmlEvent
+{
+
+    /**
+     * The type of event, each corresponding to a
+     * {@link org.xml.sax.ContentHandler} method
+     */
+    public static enum Type
+    {
+
+        START_DOCUMENT,
+        END_DOCUMENT,
+        START_PREFIX_MAPPING,
+        END_PREFIX_MAPPING,
+        START_ELEMENT,
+        END_ELEMENT,
+        CHARACTERS,
+        IGNORABLE_WHITESPACE,
+        PROCESSING_INSTRUCTION,
+        SKIPPED_ENTITY
+    }
+    private static final char[] EMPTY = new char[ 0 ];
+    private Type type;
+    private String uri;
+    private String localName;
+    private String qName;
+    private String prefix;
+    private String target;
+    private String data;
+    private Attributes attributes;
+    private char[] ch = EMPTY;
+    private int start;
+    private int length;
+    /**
+     * Holds a copy of the attributes once copied
+     */
+    private AttributesImpl attributesCopy;
+
+    /**
+     * The type of this event
+     * @return {@link Type}
+     */
+    public Type getType()
+    {
+        return type;
+    }
+
+    /**
+     * The namespace uri of an element, or the uri of a
+     * {@link Type#START_PREFIX_MAPPING}
+     * @return uri
+     */
+    public String getURI()
+    {
+        return uri;
+    }
+
+    /**
+     * The local name of an element
+     * @return local name
+     */
+    public String getLocalName()
+    {
+        return localName;
+    }
+
+    /**
+     * The qName of an element, or the name of a {@link Type#SKIPPED_ENTITY}
+     * @return qName
+     */
+    public String getQName()
+    {
+        return qName;
+    }
+
+    /**
+     * The prefix of a prefix mapping
+     * @return prefix
+     */
+    public String getPrefix()
+    {
+        return prefix;
+    }
+
+    /**
+     * The target of a processing instruction
+     * @return target
+     */
+    public String getTarget()
+    {
+        return target;
+    }
+
+    /**
+     * The data of a processing instruction
+     * @return data
+     */
+    public String getData()
+    {
+        return data;
+    }
+
+    /**
+     * The attributes of a {@link Type#START_ELEMENT}. Unless the event has
+     * been copied this is an {@link uk.org.retep.niosax.NioSaxAttributes}.
+     * @return attributes
+     */
+    public Attributes getAttributes()
+    {
+        return attributes;
+    }
+
+    /**
+     * The characters of a {@link Type#CHARACTERS} or
+     * {@link Type#IGNORABLE_WHITESPACE} event
+     * @return character buffer
+     */
+    public char[] getCharacters()
+    {
+        return ch;
+    }
+
+    /**
+     * The start of the characters within {@link #getCharacters()}
+     * @return start
+     */
+    public int getStart()
+    {
+        return start;
+    }
+
+    /**
+     * The number of characters within {@link #getCharacters()}
+     * @return length
+     */
+    public int getLength()
+    {
+        return length;
+    }
+
+    /**
+     * Create a copy of this event which remains valid after the event has
+     * been delivered
+     * @return copy of this event
+     */
+    public XmlEvent copy()
+    {
+        final XmlEvent e = new XmlEvent();
+        e.copyFrom( this );
+        return e;
+    }
+
+    /**
+     * Copy the content of another event into this one, reusing any buffers
+     * already held
+     * @param e event to copy
+     */
+    void copyFrom( final XmlEvent e )
+    {
+        set( e.type, e.uri, e.localName, e.qName );
+        prefix = e.prefix;
+        target = e.target;
+        data = e.data;
+
+        if( e.attributes != null )
+        {
+            if( attributesCopy == null )
+            {
+                attributesCopy = new AttributesImpl();
+            }
+            attributesCopy.setAttributes( e.attributes );
+            attributes = attributesCopy;
+        }
+
+        if( e.length > 0 )
+        {
+            if( ch.length < e.length )
+            {
+                ch = new char[ e.length ];
+            }
+            System.arraycopy( e.ch, e.start, ch, 0, e.length );
+        }
+        start = 0;
+        length = e.length;
+    }
+
+    /**
+     * Clear the event and set its type and names
+     */
+    XmlEvent set( final Type type, final String uri, final String localName,
+                  final String qName )
+    {
+        this.type = type;
+        this.uri = uri;
+        this.localName = localName;
+        this.qName = qName;
+        prefix = null;
+        target = null;
+        data = null;
+        attributes = null;
+        start = 0;
+        length = 0;
+        return this;
+    }
+
+    XmlEvent setPrefix( final String prefix )
+    {
+        this.prefix = prefix;
+        return this;
+    }
+
+    XmlEvent setProcessingInstruction( final String target, final String data )
+    {
+        this.target = target;
+        this.data = data;
+        return this;
+    }
+
+    XmlEvent setAttributes( final Attributes attributes )
+    {
+        this.attributes = attributes;
+        return this;
+    }
+
+    /**
+     * Refer to characters held elsewhere, used for the live event
+     */
+    XmlEvent setCharacters( final char[] ch, final int start, final int length )
+    {
+        this.ch = ch;
+        this.start = start;
+        this.length = length;
+        return this;
+    }
+
+    @Override
+    public String toString()
+    {
+        switch( type )
+        {
+            case START_ELEMENT:
+            case END_ELEMENT:
+                return type + " " + qName;
+            case CHARACTERS:
+            case IGNORABLE_WHITESPACE:
+                return type + " " + String.valueOf( ch, start, length );
+            case START_PREFIX_MAPPING:
+                return type + " " + prefix + "=" + uri;
+            case END_PREFIX_MAPPING:
+                return type + " " + prefix;
+            case PROCESSING_INSTRUCTION:
+                return type + " " + target + " " + data;
+            case SKIPPED_ENTITY:
+                return type + " " + qName;
+            default:
+                return String.valueOf( type );
+        }
+    }
+}
@@ -34,14 +34,24 @@
  */
 package uk.org.retep.niosax.internal.core;
 
+import java.util.Arrays;
 import org.xml.sax.ContentHandler;
 import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.SAXNotSupportedException;
 import org.xml.sax.ext.LexicalHandler;
 import org.xml.sax.helpers.NamespaceSupport;
 import uk.org.retep.niosax.NioSaxParser;
+import uk.org.retep.niosax.NioSaxCaptureHandler;
 import uk.org.retep.niosax.NioSaxParserHandler;
+import uk.org.retep.niosax.NioSaxStanzaHandler;
 import uk.org.retep.niosax.UndeclaredNamespaceException;
-import uk.org.retep.niosax.internal.helper.XmlSpec;
+import uk.org.retep.niosax.internal.helper.AttributeList;
+import uk.org.retep.niosax.internal.helper.NamespaceStack;
+import uk.org.retep.niosax.internal.helper.QualifiedName;
+import uk.org.retep.niosax.internal.helper.RawCapture;
+import uk.org.retep.niosax.internal.helper.ReferenceDecoder;
+import uk.org.retep.niosax.internal.helper.SymbolTable;
 
 /**
  * Base implementation of {@link NioSaxParser}
@@ -53,16 +63,44 @@ public abstract class AbstractNioSaxParser
         implements NioSaxParser
 {
 
-    private final NamespaceSupport namespaceSupport;
+    /**
+     * In stanza mode, buffers that have grown beyond this number of
+     * characters are released at the end of each stanza
+     */
+    public static final int STANZA_BUFFER_LIMIT = 4096;
+    /**
+     * In stanza mode, the number of element depths whose delegates are kept
+     * for reuse at the end of each stanza
+     */
+    private static final int STANZA_FRAMES = 16;
+    private NamespaceStack namespaceStack;
     private ContentHandler handler;
     private LexicalHandler lexicalHandler;
     private NioSaxParserHandler nioSaxParserHandler;
+    private NioSaxStanzaHandler stanzaHandler;
     // The current ParserDelegate in use.
     private ParserDelegate parserState;
+    // Reusable ParserDelegates indexed by depth
+    private ParserDelegate[] frames;
+    // The names used within the document
+    private SymbolTable symbolTable;
+
+    private final AttributeList attributeList;
+
+    private final ReferenceDecoder referenceDecoder;
+
+    private final RawCapture rawCapture;
+
+    private boolean paused;
 
     public AbstractNioSaxParser()
     {
-        namespaceSupport = new NamespaceSupport();
+        frames = new ParserDelegate[ 16 ];
+        symbolTable = new SymbolTable( true );
+        namespaceStack = new NamespaceStack( symbolTable );
+        attributeList = new AttributeList( this );
+        referenceDecoder = new ReferenceDecoder();
+        rawCapture = new RawCapture();
     }
 
     /**
@@ -96,6 +134,11 @@ public abstract class AbstractNioSaxParser
         {
             nioSaxParserHandler = (NioSaxParserHandler) handler;
         }
+
+        if( handler instanceof NioSaxStanzaHandler )
+        {
+            stanzaHandler = (NioSaxStanzaHandler) handler;
+        }
     }
 
     /**
@@ -135,6 +178,63 @@ public abstract class AbstractNioSaxParser
         this.nioSaxParserHandler = nioSaxParserHandler;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public final NioSaxStanzaHandler getStanzaHandler()
+    {
+        return stanzaHandler;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public final void setStanzaHandler( final NioSaxStanzaHandler stanzaHandler )
+    {
+        this.stanzaHandler = stanzaHandler;
+    }
+
+    /**
+     * Called by implementations when a child of the root element has ended,
+     * after any prefix mappings it declared have been ended.
+     *
+     * <p>
+     *  In stanza mode, any buffers enlarged by the stanza are released and
+     *  delegates pooled for elements deeper than usual are discarded before
+     *  the {@link NioSaxStanzaHandler} is notified. Otherwise this does
+     *  nothing.
+     * </p>
+     *
+     * @throws org.xml.sax.SAXException from the handler
+     */
+    public final void endStanza()
+            throws SAXException
+    {
+        if( stanzaHandler == null )
+        {
+            return;
+        }
+
+        if( frames.length > STANZA_FRAMES )
+        {
+            frames = Arrays.copyOf( frames, STANZA_FRAMES );
+        }
+
+        for( ParserDelegate frame : frames )
+        {
+            if( frame instanceof AppendableParserDelegate )
+            {
+                ((AppendableParserDelegate<?>) frame).getAppendable().trim( STANZA_BUFFER_LIMIT );
+            }
+        }
+
+        attributeList.trim( STANZA_BUFFER_LIMIT );
+
+        stanzaHandler.endStanza();
+    }
+
     /**
      * The current {@link ParserDelegate}
      * @param <T> type of {@link ParserDelegate}
@@ -156,6 +256,203 @@ public abstract class AbstractNioSaxParser
         this.parserState = parserState;
     }
 
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public final boolean getFeature( final String name )
+            throws SAXNotRecognizedException, SAXNotSupportedException
+    {
+        if( FEATURE_STRING_INTERNING.equals( name ) )
+        {
+            return symbolTable.isIntern();
+        }
+        else if( FEATURE_NAMESPACES.equals( name )
+                || FEATURE_NAMESPACE_PREFIXES.equals( name ) )
+        {
+            return true;
+        }
+        throw new SAXNotRecognizedException( name );
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public final void setFeature( final String name, final boolean value )
+            throws SAXNotRecognizedException, SAXNotSupportedException
+    {
+        if( FEATURE_STRING_INTERNING.equals( name ) )
+        {
+            if( parserState != null )
+            {
+                throw new SAXNotSupportedException(
+                        "Cannot change " + name + " whilst parsing" );
+            }
+
+            if( value != symbolTable.isIntern() )
+            {
+                // The NamespaceStack caches names from the old table
+                symbolTable = new SymbolTable( value );
+                namespaceStack = new NamespaceStack( symbolTable );
+            }
+        }
+        else if( FEATURE_NAMESPACES.equals( name )
+                || FEATURE_NAMESPACE_PREFIXES.equals( name ) )
+        {
+            if( !value )
+            {
+                throw new SAXNotSupportedException( name );
+            }
+        }
+        else
+        {
+            throw new SAXNotRecognizedException( name );
+        }
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public final void pause()
+    {
+        paused = true;
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public final boolean isPaused()
+    {
+        return paused;
+    }
+
+    /**
+     * Called by implementations at the start of
+     * {@link #parse(uk.org.retep.niosax.NioSaxSource)} to resume parsing
+     * after a {@link #pause()}
+     */
+    protected final void resume()
+    {
+        paused = false;
+    }
+
+    /**
+     * The {@link SymbolTable} holding the names used by the document
+     * @return {@link SymbolTable}
+     */
+    public final SymbolTable getSymbolTable()
+    {
+        return symbolTable;
+    }
+
+    /**
+     * The {@link AttributeList} shared by all elements parsed by this parser.
+     * As only one start tag can be parsed at a time, the list is reset once
+     * the handler has been notified of the start of the element.
+     * @return {@link AttributeList}
+     */
+    public final AttributeList getAttributeList()
+    {
+        return attributeList;
+    }
+
+    /**
+     * The {@link ReferenceDecoder} shared by element content and attribute
+     * values
+     * @return {@link ReferenceDecoder}
+     */
+    public final ReferenceDecoder getReferenceDecoder()
+    {
+        return referenceDecoder;
+    }
+
+    /**
+     * The {@link RawCapture} tracking the source bytes of start tags
+     * @return {@link RawCapture}
+     */
+    public final RawCapture getRawCapture()
+    {
+        return rawCapture;
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public final void capture( final NioSaxCaptureHandler handler )
+            throws SAXException
+    {
+        rawCapture.capture( handler );
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public final NioSaxCaptureHandler getPassThroughHandler()
+    {
+        return rawCapture.getPassThroughHandler();
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public final void setPassThroughHandler( final NioSaxCaptureHandler handler )
+    {
+        rawCapture.setPassThroughHandler( handler );
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public final void skip()
+            throws SAXException
+    {
+        rawCapture.skip();
+    }
+
+    /**
+     * Returns the reusable {@link ParserDelegate} held for a depth within the
+     * document, or null if none has been stored.
+     *
+     * <p>
+     *  This allows delegates that are created for every element, such as
+     *  {@link uk.org.retep.niosax.internal.core.delegate.Element}, to be
+     *  recycled once finished. As only one element can be open at any depth
+     *  the instance for a depth is always free when a new one is needed.
+     * </p>
+     *
+     * @param <T> type of {@link ParserDelegate}
+     * @param depth depth within the document, 0 for the root element
+     * @return {@link ParserDelegate} or null
+     */
+    @SuppressWarnings( "unchecked" )
+    public final <T extends ParserDelegate> T getFrame( final int depth )
+    {
+        return depth < frames.length ? (T) frames[depth] : null;
+    }
+
+    /**
+     * Stores the reusable {@link ParserDelegate} for a depth within the document
+     *
+     * @param depth depth within the document, 0 for the root element
+     * @param frame {@link ParserDelegate} to store
+     * @see #getFrame(int)
+     */
+    public final void setFrame( final int depth, final ParserDelegate frame )
+    {
+        if( depth >= frames.length )
+        {
+            frames = Arrays.copyOf( frames, Math.max( frames.length << 1, depth + 1 ) );
+        }
+        frames[depth] = frame;
+    }
+
     /**
      * Finishes the current {@link ParserDelegate}, cleaning up any resources
      * it may have and makes its parent the active one.
@@ -189,10 +486,13 @@ public abstract class AbstractNioSaxParser
             throw new SAXException( "Document already started" );
         }
 
-        // Reset the NamespaceSupport
-        namespaceSupport.reset();
-        namespaceSupport.setNamespaceDeclUris( true );
-        namespaceSupport.pushContext();
+        paused = false;
+        rawCapture.reset();
+
+        // Reset the namespaces
+        namespaceStack.reset();
+        namespaceStack.pushContext();
+        attributeList.reset();
 
         try
         {
@@ -216,6 +516,7 @@ public abstract class AbstractNioSaxParser
     {
         try
         {
+            rawCapture.endDocument();
             getHandler().endDocument();
         }
         finally
@@ -232,59 +533,92 @@ public abstract class AbstractNioSaxParser
      * {@inheritDoc }
      */
     @Override
+    public final void reset()
+    {
+        // Unwind any open elements, returning them to the frame pool
+        while( parserState != null )
+        {
+            finish();
+        }
+
+        paused = false;
+        namespaceStack.reset();
+        attributeList.reset();
+        referenceDecoder.reset();
+        rawCapture.reset();
+    }
+
+    /**
+     * {@inheritDoc }
+     * <p>
+     *  The parser resolves names with a {@link NamespaceStack}, so this is a
+     *  read-only view of it.
+     * </p>
+     */
+    @Override
     public final NamespaceSupport getNamespaceSupport()
     {
-        return namespaceSupport;
+        return namespaceStack.getNamespaceSupport();
     }
 
     /**
-     * Declare a Namespace prefix. All prefixes must be declared before they are
-     * referenced.
+     * The {@link NamespaceStack} holding the namespace declarations in scope
+     * @return {@link NamespaceStack}
+     */
+    public final NamespaceStack getNamespaceStack()
+    {
+        return namespaceStack;
+    }
+
+    /**
+     * Declare a Namespace prefix within the current context and notify the
+     * handler. All prefixes must be declared before they are referenced.
      *
      * <p>
-     *  This is similar to {@code getNamespaceSupport().declarePrefix(prefix,uri)}
-     *  and throwing SAXException if that method returned false.
+     *  The handler is notified of the end of the mapping by
+     *  {@link #endNamespaceContext()}.
      * </p>
      *
      * @param prefix The prefix to declare, or the empty string to indicate the
      * default element namespace. This may never have the value "xml" or "xmlns".
      * @param uri The Namespace URI to associate with the prefix.
      * @throws org.xml.sax.SAXException if the prefix was not legal.
-     * @see org.xml.sax.helpers.NamespaceSupport#declarePrefix(String, String)
+     * @see NamespaceStack#declarePrefix(String, String)
      */
     public final void declarePrefix( final String prefix, final String uri )
             throws SAXException
     {
-        handler.startPrefixMapping( prefix, uri );
+        final String prefixSymbol = symbolTable.getSymbol( prefix );
+        final String uriSymbol = symbolTable.getSymbol( uri );
 
-        if( !namespaceSupport.declarePrefix( prefix, uri ) )
+        if( !namespaceStack.declarePrefix( prefixSymbol, uriSymbol ) )
         {
             throw new SAXException(
                     "Illegal namespace declaration " + prefix + "=\"" + uri + "\"" );
         }
 
-        handler.endPrefixMapping( prefix );
+        handler.startPrefixMapping( prefixSymbol, uriSymbol );
     }
 
     /**
      * Convenience method to process a raw XML qualified name, after all
      * declarations in the current context have been handled by
-     * @param name qName to process
+     * {@link #declarePrefix(String, String)}.
+     *
+     * @param name qName to process, which should be a symbol from the
+     * {@link #getSymbolTable() SymbolTable}
      * @param attribute true if the name is for an attribute, false for an element
-     * @return String[] containing the processed qName
-     * @throws org.xml.sax.SAXException
-     * @see org.xml.sax.helpers.NamespaceSupport#processName(String, String[], boolean)
-     * @see XmlSpec#NAMESPACEURI
-     * @see XmlSpec#LOCALNAME
-     * @see XmlSpec#QNAME
-     */
-    public final String[] processName( final String name,
-                                       final boolean attribute )
+     * @return {@link QualifiedName} of the processed qName
+     * @throws org.xml.sax.SAXException if the prefix has not been declared
+     * @see NamespaceStack#processName(String, boolean)
+     */
+    public final QualifiedName processName( final String name,
+                                            final boolean attribute )
             throws SAXException
     {
-        final String[] qName = new String[ XmlSpec.PROCESSED_NAME_SIZE ];
+        final QualifiedName qName = namespaceStack.processName( name, attribute );
 
-        if( namespaceSupport.processName( name, qName, attribute ) == null )
+        if( qName == null )
         {
             throw new UndeclaredNamespaceException( name );
         }
@@ -293,18 +627,42 @@ public abstract class AbstractNioSaxParser
     }
 
     /**
-     * Convenience method for {@link org.xml.sax.helpers.NamespaceSupport#pushContext() }
+     * Start a new namespace context, used when an element contains namespace
+     * declarations
      */
-    public final void pushNamespaceSupportContext()
+    public final void pushNamespaceContext()
     {
-        namespaceSupport.pushContext();
+        namespaceStack.pushContext();
+    }
+
+    /**
+     * End the current namespace context at the end of an element, notifying
+     * the handler of the end of each prefix mapping declared within it.
+     *
+     * @throws org.xml.sax.SAXException from the handler
+     */
+    public final void endNamespaceContext()
+            throws SAXException
+    {
+        try
+        {
+            for( int i = namespaceStack.getDeclaredPrefixCount() - 1; i >= 0; i-- )
+            {
+                handler.endPrefixMapping( namespaceStack.getDeclaredPrefix( i ) );
+            }
+        }
+        finally
+        {
+            namespaceStack.popContext();
+        }
     }
 
     /**
-     * Convenience method for {@link org.xml.sax.helpers.NamespaceSupport#pushContext() }
+     * Discard the current namespace context without notifying the handler.
+     * This is used when cleaning up after a failed parse.
      */
-    public final void popNamespaceSupportContext()
+    public final void popNamespaceContext()
     {
-        namespaceSupport.popContext();
+        namespaceStack.popContext();
     }
 }
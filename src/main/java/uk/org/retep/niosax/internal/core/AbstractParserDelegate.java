@@ -34,9 +34,6 @@
  */
 package uk.org.retep.niosax.internal.core;
 
-import org.xml.sax.SAXException;
-import uk.org.retep.niosax.NioSaxSource;
-
 /**
  * Abstract class for all {@link ParserDelegate} implementations that have a
  * parent.
@@ -70,7 +67,7 @@ public abstract class AbstractParserDelegate<P extends ParserDelegate>
         extends ParserDelegate
 {
 
-    private final P parent;
+    private P parent;
 
     /**
      * Constructor used by all {@link ParserDelegate} implementations.
@@ -93,28 +90,20 @@ public abstract class AbstractParserDelegate<P extends ParserDelegate>
     }
 
     /**
-     * {@inheritDoc }
+     * Reuse a previously finished instance, attaching it to a new parent and
+     * making it the active {@link ParserDelegate} again.
+     *
+     * <p>
+     *  This allows implementations to be pooled rather than creating a new
+     *  instance every time. Subclasses holding state must override this to
+     *  reset it and must call {@code super.reuse( parent )}.
+     * </p>
+     *
+     * @param parent The parent {@link ParserDelegate}
      */
-    @Override
-    public void parse( final NioSaxSource source )
-            throws SAXException
+    protected void reuse( final P parent )
     {
-        char c = source.decode();
-        while( source.isValid( c ) && parse( source, c ) )
-        {
-            c = source.decode();
-        }
+        this.parent = parent;
+        parser.setParserState( this );
     }
-
-    /**
-     * Parse a character provided by the main {@link #parse(uk.org.retep.niosax.NioSaxSource) }
-     * method.
-     *
-     * @param source {@link NioSaxSource}
-     * @param c char read
-     * @return true if processing should continue, false to abort the loop
-     * @throws org.xml.sax.SAXException if the parse fails
-     */
-    public abstract boolean parse( final NioSaxSource source, final char c )
-            throws SAXException;
 }
@@ -34,6 +34,7 @@
  */
 package uk.org.retep.niosax.internal.core;
 
+import uk.org.retep.niosax.NioSaxSource;
 import uk.org.retep.niosax.internal.helper.Appendable;
 import uk.org.retep.niosax.internal.helper.CharAppendable;
 
@@ -61,6 +62,19 @@ public abstract class AppendableParserDelegate<P extends ParserDelegate>
         appendable = new CharAppendable();
     }
 
+    /**
+     * {@inheritDoc }
+     * <p>
+     *  The {@link Appendable} is emptied ready for reuse.
+     * </p>
+     */
+    @Override
+    protected void reuse( final P parent )
+    {
+        appendable.reset();
+        super.reuse( parent );
+    }
+
     /**
      * The underlying {@link Appendable} used to store parsed characters
      * @param <T> type of {@link Appendable}
@@ -116,6 +130,27 @@ public abstract class AppendableParserDelegate<P extends ParserDelegate>
         return s;
     }
 
+    /**
+     * Convert the content of the writer into a symbol using the parsers
+     * {@link uk.org.retep.niosax.internal.helper.SymbolTable}, then reset it
+     * so any new data begins a new string.
+     *
+     * <p>
+     *  This should be used in place of {@link #getAppendableString()} for
+     *  names, as the same String instance is returned for each occurrence of
+     *  a name without allocating.
+     * </p>
+     *
+     * @return symbol of the data in the writer
+     */
+    public final String getAppendableSymbol()
+    {
+        final String s = parser.getSymbolTable().getSymbol(
+                appendable.getCharBuffer(), 0, appendable.size() );
+        appendable.reset();
+        return s;
+    }
+
     /**
      * Convert the content of the writer into a char[], then reset it so any
      * new data begins a new string.
@@ -147,4 +182,23 @@ public abstract class AppendableParserDelegate<P extends ParserDelegate>
     {
         return getAppendable().append( c );
     }
+
+    /**
+     * Append characters from the source up to, but not including, the first
+     * occurrence of either delimiter to the current {@link Appendable}.
+     *
+     * <p>
+     *  This is the equivalent of {@code getAppendable().appendUntil( source, d1, d2 );}
+     * </p>
+     *
+     * @param source {@link NioSaxSource} to read from
+     * @param d1 first delimiter
+     * @param d2 second delimiter
+     * @return the number of characters appended
+     */
+    public final int appendUntil( final NioSaxSource source, final char d1,
+                                  final char d2 )
+    {
+        return getAppendable().appendUntil( source, d1, d2 );
+    }
 }
@@ -34,9 +34,13 @@
  */
 package uk.org.retep.niosax.internal.core;
 
+import java.nio.ByteBuffer;
 import org.xml.sax.SAXException;
+import uk.org.retep.niosax.IllegalCharacterException;
 import uk.org.retep.niosax.NioSaxSource;
+import uk.org.retep.niosax.charset.Charset;
 import uk.org.retep.niosax.internal.core.delegate.DefaultProlog;
+import uk.org.retep.niosax.internal.helper.RawCapture;
 
 /**
  * A {@link uk.org.retep.niosax.NioSaxParser} implementation that uses the
@@ -65,10 +69,31 @@ public class DefaultNioSaxParser
     public void parse( final NioSaxSource source )
             throws SAXException
     {
-        // Loop until we run out of available data
-        while( source.hasCharacter(  ) )
+        resume();
+
+        final ByteBuffer buffer = source.getByteBuffer();
+        final RawCapture rawCapture = getRawCapture();
+        rawCapture.startParse( buffer );
+
+        // Decode each character once and hand it to the active delegate,
+        // looping until we run out of available data or are paused
+        while( !isPaused() )
         {
-            getParserState().parse( source );
+            final int pos = buffer.position();
+            final char c = source.decode();
+            if( c == Charset.NOT_ENOUGH_DATA )
+            {
+                break;
+            }
+            else if( c == Charset.INVALID_CHAR )
+            {
+                throw new IllegalCharacterException();
+            }
+
+            rawCapture.update( pos, c );
+            getParserState().parse( source, c );
         }
+
+        rawCapture.endParse();
     }
 }
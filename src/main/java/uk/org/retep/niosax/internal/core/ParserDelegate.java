@@ -91,8 +91,8 @@ public abstract class ParserDelegate<P extends ParserDelegate>
      * Equivalent to {@code getParser().finish()}.
      * 
      * <p>
-     *  Normally this is used in a subclass as {@code return finish();} so that
-     *  the main loop in {@link #parse(uk.org.retep.niosax.NioSaxSource)} will terminate.
+     *  Normally this is used in a subclass as {@code return finish();} from
+     *  {@link #parse(uk.org.retep.niosax.NioSaxSource, char)}.
      * </p>
      *
      * @return false
@@ -151,12 +151,21 @@ public abstract class ParserDelegate<P extends ParserDelegate>
     }
 
     /**
-     * Called by {@link AbstractNioSaxParser} to parse the input.
+     * Called by the parser with each character decoded from the input.
+     *
+     * <p>
+     *  The parser decodes each character exactly once and passes it to the
+     *  active {@link ParserDelegate}, so implementations must not decode the
+     *  character again from the source.
+     * </p>
      *
      * @param source {@link NioSaxSource}
+     * @param c char read
+     * @return true if this delegate is to continue with the next character,
+     * false if control has passed to another delegate
      * @throws org.xml.sax.SAXException if the parse fails
      */
-    public abstract void parse( final NioSaxSource source )
+    public abstract boolean parse( final NioSaxSource source, final char c )
             throws SAXException;
 
 }
@@ -63,4 +63,14 @@ public abstract class Prolog
     {
         return null;
     }
+
+    /**
+     * Reuse this instance for a new document, making it the active
+     * {@link ParserDelegate} again. Subclasses holding state must override
+     * this to reset it and must call {@code super.reuse()}.
+     */
+    protected void reuse()
+    {
+        parser.setParserState( this );
+    }
 }
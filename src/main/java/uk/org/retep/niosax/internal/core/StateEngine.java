@@ -59,12 +59,13 @@ public interface StateEngine<T extends StateEngineDelegate>
             throws SAXException;
 
     /**
-     * Should the parser continue looping whilst in this state?
+     * Does the {@link StateEngineDelegate} keep control whilst in this state?
      *
      * <p>
-     *  The {@link ParserDelegate} will loop whilst this method returns true
-     *  so when the state engine indicates it's finished it should switch to
-     *  a state where this returns false, then the loop will terminate.
+     *  This is returned from {@link ParserDelegate#parse(NioSaxSource, char)}
+     *  so when the state engine indicates it's finished, or has passed control
+     *  to another {@link ParserDelegate}, it should switch to a state where
+     *  this returns false.
      * </p>
      *
      * @return true to continue, false to exit
@@ -159,6 +159,19 @@ public abstract class StateEngineDelegate<P extends ParserDelegate>
         state = getInitialState();
     }
 
+    /**
+     * {@inheritDoc }
+     * <p>
+     *  The state engine is returned to its initial state.
+     * </p>
+     */
+    @Override
+    protected void reuse( final P parent )
+    {
+        state = getInitialState();
+        super.reuse( parent );
+    }
+
     /**
      * The initial state for this instance
      * @return initial State value
@@ -166,9 +179,8 @@ public abstract class StateEngineDelegate<P extends ParserDelegate>
     protected abstract StateEngine getInitialState();
 
     /**
-     * Parses content by using the current {@link StateEngine}. This method will loop
-     * until the {@link StateEngine#continueLoop()} returns false or no more content
-     * is available in the buffer.
+     * Parses a character by using the current {@link StateEngine}, returning
+     * the result of {@link StateEngine#continueLoop()} for the new state.
      *
      * {@inheritDoc }
      */
@@ -75,14 +75,11 @@ public class DefaultProlog
      * {@inheritDoc }
      */
     @Override
-    public void parse( final NioSaxSource source )
+    public boolean parse( final NioSaxSource source, final char c )
             throws SAXException
     {
-        final char c = source.decode();
-        if( source.isValid( c ) )
-        {
-            state = state.parse( this, source, c );
-        }
+        state = state.parse( this, source, c );
+        return true;
     }
 
     /**
@@ -34,18 +34,17 @@
  */
 package uk.org.retep.niosax.internal.core.delegate;
 
-import java.util.Arrays;
-import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
-import org.xml.sax.helpers.AttributesImpl;
 import uk.org.retep.niosax.IllegalCharacterException;
 import uk.org.retep.niosax.NioSaxSource;
+import uk.org.retep.niosax.internal.core.AbstractNioSaxParser;
 import uk.org.retep.niosax.internal.core.ParserDelegate;
 import uk.org.retep.niosax.internal.core.StateEngine;
 import uk.org.retep.niosax.internal.core.StateEngineDelegate;
 import uk.org.retep.niosax.internal.core.engine.CommentCDataStateEngine;
 import uk.org.retep.niosax.internal.helper.Appendable;
 import uk.org.retep.niosax.internal.helper.AttributeList;
+import uk.org.retep.niosax.internal.helper.QualifiedName;
 import static uk.org.retep.niosax.internal.helper.XmlSpec.*;
 
 /**
@@ -58,6 +57,10 @@ public class Element
         extends StateEngineDelegate<ParserDelegate>
 {
 
+    /**
+     * The depth of this element within the document, 0 for the root
+     */
+    private final int depth;
     /**
      * True if this element has created a new scope in NamespaceSupport
      */
@@ -67,35 +70,48 @@ public class Element
      */
     private String qName;
     /**
-     * The qName of this element. This is actually parsed into
-     * [uri,localName,qName]
+     * The qName of this element once processed
      */
-    private String parsedQName[];
-    /**
-     * The element attributes, lazy init to save memory
-     */
-    private AttributeList attributeList;
+    private QualifiedName parsedQName;
     /**
      * cache of the attribute qName
      */
     private String attrQName;
 
-    private StringBuilder reference;
-
     /**
      * Delegate of an xml element.
+     *
+     * <p>
+     *  Instances are pooled by the parser, one per depth, so once the pool has
+     *  grown to the depth of the document no further instances are created.
+     * </p>
      * 
      * @param parent parent {@link ParserDelegate}
-     * @return new instance
+     * @return instance which will be active within the parser
      */
     public static Element delegate( final ParserDelegate parent )
     {
-        return new Element( parent );
+        final int depth = parent instanceof Element ? ((Element) parent).depth + 1 : 0;
+        final AbstractNioSaxParser parser = parent.getParser();
+        parser.getRawCapture().startTag();
+
+        Element e = parser.getFrame( depth );
+        if( e == null )
+        {
+            e = new Element( parent, depth );
+            parser.setFrame( depth, e );
+        }
+        else
+        {
+            e.reuse( parent );
+        }
+        return e;
     }
 
-    private Element( final ParserDelegate parent )
+    private Element( final ParserDelegate parent, final int depth )
     {
         super( parent );
+        this.depth = depth;
     }
 
     /**
@@ -116,9 +132,15 @@ public class Element
         // If we pushed a context due to a namespace decl then we must pop it
         if( namespaceScope )
         {
-            parser.popNamespaceSupportContext();
+            parser.popNamespaceContext();
+            namespaceScope = false;
         }
 
+        // Release everything from this element ready for reuse
+        qName = null;
+        parsedQName = null;
+        attrQName = null;
+
         super.cleanup();
     }
 
@@ -127,26 +149,33 @@ public class Element
      */
     final void setQName()
     {
-        qName = getAppendableString();
+        qName = getAppendableSymbol();
     }
 
     /**
-     * Used by {@link uk.org.retep.niosax.internal.core.delegate.Element.StartState} to validate a close element against this one
-     * @throws org.xml.sax.SAXException if the found qName is not declared then if it does
-     * not match the qName of the start element
+     * Used by {@link uk.org.retep.niosax.internal.core.delegate.Element.CloseState} to validate a close element against this one.
+     *
+     * <p>
+     *  The name in the end tag must be the same as in the start tag, so the
+     *  parsed characters are compared directly against the raw qName without
+     *  resolving any namespace or creating a String.
+     * </p>
+     *
+     * @throws org.xml.sax.SAXException if the name does not match the qName
+     * of the start element
      */
     final void validateQName()
             throws SAXException
     {
-        final String qn[] = parser.processName( getAppendableString(), false );
-
-        if( !Arrays.deepEquals( parsedQName, qn ) )
+        final Appendable a = getAppendable();
+        if( !a.contentEquals( qName ) )
         {
             throw new SAXException( String.format(
                     "Element <%s> must end with </%<s> but found </%s>",
-                    parsedQName[QNAME],
-                    qn[QNAME] ) );
+                    qName,
+                    a.toString() ) );
         }
+        a.reset();
     }
 
     /**
@@ -155,30 +184,26 @@ public class Element
     final void startElement()
             throws SAXException
     {
-        Attributes attrs = null;
-
-        if( attributeList == null || attributeList.isEmpty() )
-        {
-            // no attributes but we must have an instance when we notify the handler
-            attrs = new AttributesImpl();
-        }
-        else
+        final AttributeList attributeList = parser.getAttributeList();
+        try
         {
             // process any namespace declarations in the attributes
             namespaceScope = attributeList.processNames();
 
-            // get the attribtues to pass to the handler
-            attrs = attributeList.getAttributes();
-        }
-
-        // parse the qName (which may be within the current scope)
-        parsedQName = parser.processName( qName, false );
+            // parse the qName (which may be within the current scope)
+            parsedQName = parser.processName( qName, false );
 
-        // Now notify the handler of the start
-        getHandler().startElement( parsedQName[NAMESPACEURI],
-                                   parsedQName[LOCALNAME],
-                                   parsedQName[QNAME],
-                                   attrs );
+            // Now notify the handler of the start
+            getHandler().startElement( parsedQName.getURI(),
+                                       parsedQName.getLocalName(),
+                                       parsedQName.getQName(),
+                                       attributeList.getAttributes() );
+            parser.getRawCapture().startElement();
+        }
+        finally
+        {
+            attributeList.reset();
+        }
     }
 
     /**
@@ -188,9 +213,23 @@ public class Element
             throws SAXException
     {
         // If this throws an NPE it's because setQName has not been called
-        getHandler().endElement( parsedQName[NAMESPACEURI],
-                                 parsedQName[LOCALNAME],
-                                 parsedQName[QNAME] );
+        getHandler().endElement( parsedQName.getURI(),
+                                 parsedQName.getLocalName(),
+                                 parsedQName.getQName() );
+
+        // End any prefix mappings declared by this element
+        if( namespaceScope )
+        {
+            namespaceScope = false;
+            parser.endNamespaceContext();
+        }
+
+        parser.getRawCapture().endElement();
+
+        if( depth == 1 )
+        {
+            parser.endStanza();
+        }
     }
 
     /**
@@ -198,7 +237,7 @@ public class Element
      */
     final void setAttrQName()
     {
-        attrQName = getAppendableString();
+        attrQName = getAppendableSymbol();
     }
 
     /**
@@ -206,12 +245,30 @@ public class Element
      */
     final void setAttrValue()
     {
-        if( attributeList == null )
-        {
-            attributeList = new AttributeList( parser );
-        }
+        final Appendable a = getAppendable();
+        parser.getAttributeList().addAttribute( attrQName, a.getCharBuffer(), 0, a.size() );
+        a.reset();
+    }
 
-        attributeList.addAttribute( attrQName, getAppendableString() );
+    /**
+     * Used by the content and attribute states when an &amp; is found
+     */
+    final void startReference()
+    {
+        parser.getReferenceDecoder().reset();
+    }
+
+    /**
+     * Used by the reference states to decode the next character of an entity
+     * or character reference into the appendable
+     * @param c character to decode
+     * @return true once the reference is complete
+     * @throws SAXException if the reference is invalid
+     */
+    final boolean reference( final char c )
+            throws SAXException
+    {
+        return parser.getReferenceDecoder().parse( c, getAppendable() );
     }
 
     /**
@@ -420,7 +477,8 @@ public class Element
                 }
                 else if( c == '&' )
                 {
-                    // Reference?
+                    // Reference (EntityRef or CharRef)
+                    e.startReference();
                     return QUOTED_REFERENCE;
                 }
                 else if( c == '<' )
@@ -435,6 +493,9 @@ public class Element
                 }
             }
         },
+        /**
+         * A reference within a '..' value
+         */
         QUOTED_REFERENCE
         {
 
@@ -444,16 +505,7 @@ public class Element
                                       final char c )
                     throws SAXException
             {
-                if( isNCNameStartChar( c ) )
-                {
-                    // Fixme start reference delegate
-                    throw new IllegalCharacterException( c );
-                    //return QUOTED_DELEGATE;
-                }
-                else
-                {
-                    throw new IllegalCharacterException( c );
-                }
+                return e.reference( c ) ? QUOTED_VALUE : this;
             }
         },
         /**
@@ -475,7 +527,8 @@ public class Element
                 }
                 else if( c == '&' )
                 {
-                    // Reference?
+                    // Reference (EntityRef or CharRef)
+                    e.startReference();
                     return DOUBLE_QUOTED_REFERENCE;
                 }
                 else if( c == '<' )
@@ -490,6 +543,9 @@ public class Element
                 }
             }
         },
+        /**
+         * A reference within a ".." value
+         */
         DOUBLE_QUOTED_REFERENCE
         {
 
@@ -499,23 +555,9 @@ public class Element
                                       final char c )
                     throws SAXException
             {
-                if( isNCNameStartChar( c ) )
-                {
-                    // Fixme start reference delegate
-                    throw new IllegalCharacterException( c );
-                    //return DOUBLE_QUOTED_DELEGATE;
-                }
-                else
-                {
-                    throw new IllegalCharacterException( c );
-                }
+                return e.reference( c ) ? DOUBLE_QUOTED_VALUE : this;
             }
         };
-        // Delegates for '..' and ".." 
-        private static final StateEngine<Element> QUOTED_DELEGATE =
-                createDelegatedState( QUOTED_VALUE );
-        private static final StateEngine<Element> DOUBLE_QUOTED_DELEGATE =
-                createDelegatedState( DOUBLE_QUOTED_VALUE );
 
         @Override
         public boolean continueLoop()
@@ -552,50 +594,34 @@ public class Element
                 else if( c == '&' )
                 {
                     // Reference (EntityRef or CharRef)
-		    e.reference = new StringBuilder ();
-		    e.reference.append (c);
-		    return REFERENCE;
+                    e.startReference();
+                    return REFERENCE;
                 }
                 else
                 {
                     e.append( c );
+                    // Pull in the rest of the text up to the next markup
+                    e.appendUntil( source, '<', '&' );
                     return this;
                 }
             }
         },
 
-	REFERENCE
-	{
-	    @Override
-	    public StateEngine parse (final Element e,
-				      final NioSaxSource source,
-				      final char c)
-		throws SAXException
-	    {
-		e.reference.append (c);
-
-		if (';' == c) {
-		    String ref = e.reference.toString ();
-
-		    e.reference = null;
-
-		    if ("&lt;".equals (ref))
-			e.append ('<');
-		    else if ("&gt;".equals (ref))
-			e.append ('>');
-		    else if ("&quot;".equals (ref))
-			e.append ('"');
-		    else if ("&apos;".equals (ref))
-			e.append ('\'');
-		    else if ("&amp;".equals (ref))
-			e.append ('&');
-
-		    return CONTENT;
-		}
-
-		return this;
-	    }
-	},
+        /**
+         * An entity or character reference within the content
+         */
+        REFERENCE
+        {
+
+            @Override
+            public StateEngine parse( final Element e,
+                                      final NioSaxSource source,
+                                      final char c )
+                    throws SAXException
+            {
+                return e.reference( c ) ? CONTENT : this;
+            }
+        },
 
         /**
          * A Child element
@@ -712,6 +738,7 @@ public class Element
                 }
                 else if( c == '>' )
                 {
+                    e.validateQName();
                     e.endElement();
                     e.finish();
                     return stateCompleted();
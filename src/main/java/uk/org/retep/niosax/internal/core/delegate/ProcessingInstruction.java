@@ -176,7 +176,7 @@ public abstract class ProcessingInstruction<P extends ParserDelegate>
      */
     protected final void setTarget()
     {
-        this.target = getAppendableString();
+        this.target = getAppendableSymbol();
     }
 
     /**
@@ -267,7 +267,7 @@ public abstract class ProcessingInstruction<P extends ParserDelegate>
                     p.setTarget();
                     return PITARGET_QUERY;
                 }
-                else if( isNameStartChar( c ) )
+                else if( isNameChar( c ) )
                 {
                     // Simply append and keep
                     p.append( c );
@@ -298,6 +298,7 @@ public abstract class ProcessingInstruction<P extends ParserDelegate>
                     if( !parsingDelegated( p ) )
                     {
                         p.getHandler().processingInstruction( p.getTarget(), "" );
+                        p.finish();
                     }
 
                     return stateCompleted();
@@ -378,6 +379,7 @@ public abstract class ProcessingInstruction<P extends ParserDelegate>
                     // The instructions complete
                     p.getHandler().processingInstruction( p.getTarget(),
                                                           p.getAppendableString() );
+                    p.finish();
                     return stateCompleted();
                 }
                 else
@@ -0,0 +1,1002 @@
+/*
+ * <p>Copyright (c) 1998-2010, Peter T Mount<br>
+ * All rights reserved.</p>
+ *
+ * <p>Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:</p>
+ *
+ * <ul>
+ *   <li>Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.</li>
+ *
+ *   <li>Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.</li>
+ *
+ *   <li>Neither the name of the retep.org.uk nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.</li>
+ *
+ * </ul>
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.</p>
+ */
+package uk.org.retep.niosax.internal.flat;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+import uk.org.retep.niosax.IllegalCharacterException;
+import uk.org.retep.niosax.NioSaxParserHandler;
+import uk.org.retep.niosax.NioSaxSource;
+import uk.org.retep.niosax.charset.Charset;
+import uk.org.retep.niosax.charset.CharsetFactory;
+import uk.org.retep.niosax.internal.core.AbstractNioSaxParser;
+import uk.org.retep.niosax.internal.core.Prolog;
+import uk.org.retep.niosax.internal.helper.AttributeList;
+import uk.org.retep.niosax.internal.helper.CharAppendable;
+import uk.org.retep.niosax.internal.helper.QualifiedName;
+import uk.org.retep.niosax.internal.helper.RawCapture;
+import uk.org.retep.niosax.internal.helper.ReferenceDecoder;
+import static uk.org.retep.niosax.internal.helper.XmlSpec.*;
+
+/**
+ * {@link Prolog} used by {@link FlatNioSaxParser} which parses the entire
+ * document with a single integer state machine.
+ *
+ * <p>
+ *  Unlike {@link uk.org.retep.niosax.internal.core.delegate.DefaultProlog}
+ *  this never delegates to another
+ *  {@link uk.org.retep.niosax.internal.core.ParserDelegate}. Open elements are
+ *  held on an explicit stack indexed by depth and all parsed characters share
+ *  a single {@link CharAppendable}, so each character costs one switch on the
+ *  current state.
+ * </p>
+ *
+ * @author peter
+ * @since 10.7
+ */
+final class FlatProlog
+        extends Prolog
+{
+
+    // Between markup in the prolog or after the root element
+    private static final int PROLOG = 0;
+    private static final int PROLOG_LT = 1;
+    // Start and empty element tags
+    private static final int START_NAME = 2;
+    private static final int ATTR_WHITESPACE = 3;
+    private static final int ATTR_NAME = 4;
+    private static final int ATTR_EQ = 5;
+    private static final int ATTR_VALUE = 6;
+    private static final int ATTR_REFERENCE = 7;
+    private static final int EMPTY = 8;
+    // Element content
+    private static final int CONTENT = 9;
+    private static final int CONTENT_REFERENCE = 10;
+    private static final int CONTENT_LT = 11;
+    // End tags
+    private static final int CLOSE_NAME = 12;
+    private static final int CLOSE_NAME1 = 13;
+    private static final int CLOSE_WHITESPACE = 14;
+    // Comments and CDATA sections
+    private static final int BANG = 15;
+    private static final int COMMENT_START = 16;
+    private static final int CDATA_START = 17;
+    private static final int COMMENT = 18;
+    private static final int COMMENT_END1 = 19;
+    private static final int COMMENT_END2 = 20;
+    private static final int CDATA = 21;
+    private static final int CDATA_END1 = 22;
+    private static final int CDATA_END2 = 23;
+    // Processing instructions
+    private static final int PI_TARGET = 24;
+    private static final int PI_TARGET1 = 25;
+    private static final int PI_TARGET_QUERY = 26;
+    private static final int PI_WHITESPACE = 27;
+    private static final int PI_DATA = 28;
+    private static final int PI_DATA_QUERY = 29;
+    // The xml declaration
+    private static final int DECL_WHITESPACE = 30;
+    private static final int DECL_NAME = 31;
+    private static final int DECL_EQ = 32;
+    private static final int DECL_VALUE = 33;
+    private static final int DECL_QUERY = 34;
+    /**
+     * The characters following &lt;![ that open a CDATA section
+     */
+    private static final char[] CDATA_OPEN = "CDATA[".toCharArray();
+    private static final String XMLU = "XML";
+    private static final String XMLL = "xml";
+    private static final String DOCTYPE = "DOCTYPE";
+    private static final String VERSION = "version";
+    private static final String ENCODING = "encoding";
+    private static final String STANDALONE = "standalone";
+    private static final int INITIAL_DEPTH = 16;
+    private int state;
+    /**
+     * Characters parsed for the current construct
+     */
+    private final CharAppendable buffer;
+    /**
+     * The parser's shared decoder for entity and character references
+     */
+    private final ReferenceDecoder referenceDecoder;
+    /**
+     * The parser's shared attributes, passed to the handler for each element
+     */
+    private final AttributeList attributeList;
+    /**
+     * The parser's tracker of the source bytes of start tags
+     */
+    private final RawCapture rawCapture;
+    /**
+     * The quote character of the attribute value being parsed
+     */
+    private char quote;
+    /**
+     * Number of characters of {@link #CDATA_OPEN} matched so far
+     */
+    private int match;
+    // The raw qName of the start tag being parsed
+    private String qName;
+    // The name of the attribute being parsed
+    private String attrQName;
+    // The target of the processing instruction being parsed
+    private String target;
+    // The xml declaration
+    private String version;
+    private String encoding;
+    private boolean standalone;
+    /**
+     * The element stack, indexed by depth
+     */
+    private int depth;
+    private String[] qNames;
+    private QualifiedName[] parsedQNames;
+    private boolean[] namespaceScopes;
+
+    /**
+     * Creates a new instance of {@link FlatProlog}
+     * @param parser The containing parser
+     * @return instance
+     */
+    static FlatProlog delegate( final AbstractNioSaxParser parser )
+    {
+        return new FlatProlog( parser );
+    }
+
+    private FlatProlog( final AbstractNioSaxParser parser )
+    {
+        super( parser );
+        state = PROLOG;
+        buffer = new CharAppendable( 128 );
+        referenceDecoder = parser.getReferenceDecoder();
+        attributeList = parser.getAttributeList();
+        rawCapture = parser.getRawCapture();
+        qNames = new String[ INITIAL_DEPTH ];
+        parsedQNames = new QualifiedName[ INITIAL_DEPTH ];
+        namespaceScopes = new boolean[ INITIAL_DEPTH ];
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    protected void reuse()
+    {
+        state = PROLOG;
+        buffer.reset();
+        quote = 0;
+        match = 0;
+        qName = null;
+        attrQName = null;
+        target = null;
+        version = null;
+        encoding = null;
+        standalone = false;
+        Arrays.fill( namespaceScopes, false );
+        super.reuse();
+    }
+
+    /**
+     * Parse all complete characters available in the source
+     *
+     * @param source {@link NioSaxSource} to parse
+     * @throws org.xml.sax.SAXException if the content is invalid
+     */
+    void parse( final NioSaxSource source )
+            throws SAXException
+    {
+        final ByteBuffer byteBuffer = source.getByteBuffer();
+        rawCapture.startParse( byteBuffer );
+
+        while( !parser.isPaused() )
+        {
+            final int pos = byteBuffer.position();
+            final char c = source.decode();
+            if( c == Charset.NOT_ENOUGH_DATA )
+            {
+                break;
+            }
+            else if( c == Charset.INVALID_CHAR )
+            {
+                throw new IllegalCharacterException();
+            }
+
+            rawCapture.update( pos, c );
+            parse( source, c );
+        }
+
+        rawCapture.endParse();
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public boolean parse( final NioSaxSource source, final char c )
+            throws SAXException
+    {
+        switch( state )
+        {
+            case PROLOG:
+                if( c == '<' )
+                {
+                    state = PROLOG_LT;
+                }
+                else if( !isWhitespace( c ) )
+                {
+                    throw new IllegalCharacterException( c );
+                }
+                break;
+
+            case PROLOG_LT:
+            case CONTENT_LT:
+                if( c == '!' )
+                {
+                    state = BANG;
+                }
+                else if( c == '?' )
+                {
+                    state = PI_TARGET;
+                }
+                else if( c == '/' && state == CONTENT_LT )
+                {
+                    state = CLOSE_NAME;
+                }
+                else if( isNameStartChar( c ) )
+                {
+                    buffer.append( c );
+                    rawCapture.startTag();
+                    state = START_NAME;
+                }
+                else
+                {
+                    throw new IllegalCharacterException( c );
+                }
+                break;
+
+            case START_NAME:
+                if( isNameChar( c ) )
+                {
+                    buffer.append( c );
+                }
+                else if( isWhitespace( c ) )
+                {
+                    qName = getBufferSymbol();
+                    state = ATTR_WHITESPACE;
+                }
+                else if( c == '/' )
+                {
+                    qName = getBufferSymbol();
+                    state = EMPTY;
+                }
+                else if( c == '>' )
+                {
+                    qName = getBufferSymbol();
+                    startElement();
+                    state = CONTENT;
+                }
+                else
+                {
+                    throw new IllegalCharacterException( c );
+                }
+                break;
+
+            case ATTR_WHITESPACE:
+                if( c == '/' )
+                {
+                    state = EMPTY;
+                }
+                else if( c == '>' )
+                {
+                    startElement();
+                    state = CONTENT;
+                }
+                else if( isNameStartChar( c ) )
+                {
+                    buffer.append( c );
+                    state = ATTR_NAME;
+                }
+                else if( !isWhitespace( c ) )
+                {
+                    throw new IllegalCharacterException( c );
+                }
+                break;
+
+            case ATTR_NAME:
+                if( isNameChar( c ) )
+                {
+                    buffer.append( c );
+                }
+                else if( c == '=' )
+                {
+                    attrQName = getBufferSymbol();
+                    state = ATTR_EQ;
+                }
+                else
+                {
+                    throw new IllegalCharacterException( c );
+                }
+                break;
+
+            case ATTR_EQ:
+            case DECL_EQ:
+                if( c != '\'' && c != '\"' )
+                {
+                    throw new IllegalCharacterException( c );
+                }
+                quote = c;
+                state = state == ATTR_EQ ? ATTR_VALUE : DECL_VALUE;
+                break;
+
+            case ATTR_VALUE:
+                if( c == quote )
+                {
+                    attributeList.addAttribute( attrQName, buffer.getCharBuffer(), 0, buffer.size() );
+                    buffer.reset();
+                    state = ATTR_WHITESPACE;
+                }
+                else if( c == '&' )
+                {
+                    referenceDecoder.reset();
+                    state = ATTR_REFERENCE;
+                }
+                else if( c == '<' )
+                {
+                    // < is illegal
+                    throw new IllegalCharacterException( c );
+                }
+                else
+                {
+                    buffer.append( c );
+                }
+                break;
+
+            case ATTR_REFERENCE:
+                if( referenceDecoder.parse( c, buffer ) )
+                {
+                    state = ATTR_VALUE;
+                }
+                break;
+
+            case EMPTY:
+                if( c != '>' )
+                {
+                    throw new IllegalCharacterException( c );
+                }
+                startElement();
+                endElement();
+                break;
+
+            case CONTENT:
+                if( c == '<' )
+                {
+                    characters();
+                    state = CONTENT_LT;
+                }
+                else if( c == '&' )
+                {
+                    referenceDecoder.reset();
+                    state = CONTENT_REFERENCE;
+                }
+                else
+                {
+                    buffer.append( c );
+                    // Pull in the rest of the text up to the next markup
+                    buffer.appendUntil( source, '<', '&' );
+                }
+                break;
+
+            case CONTENT_REFERENCE:
+                if( referenceDecoder.parse( c, buffer ) )
+                {
+                    state = CONTENT;
+                }
+                break;
+
+            case CLOSE_NAME:
+                if( !isNameStartChar( c ) )
+                {
+                    throw new IllegalCharacterException( c );
+                }
+                buffer.append( c );
+                state = CLOSE_NAME1;
+                break;
+
+            case CLOSE_NAME1:
+                if( isNameChar( c ) )
+                {
+                    buffer.append( c );
+                }
+                else if( isWhitespace( c ) )
+                {
+                    state = CLOSE_WHITESPACE;
+                }
+                else if( c == '>' )
+                {
+                    closeElement();
+                }
+                else
+                {
+                    throw new IllegalCharacterException( c );
+                }
+                break;
+
+            case CLOSE_WHITESPACE:
+                if( c == '>' )
+                {
+                    closeElement();
+                }
+                else if( !isWhitespace( c ) )
+                {
+                    throw new IllegalCharacterException( c );
+                }
+                break;
+
+            case BANG:
+                if( c == '-' )
+                {
+                    state = COMMENT_START;
+                }
+                else if( c == '[' )
+                {
+                    match = 0;
+                    state = CDATA_START;
+                }
+                else
+                {
+                    throw new IllegalCharacterException( c );
+                }
+                break;
+
+            case COMMENT_START:
+                if( c != '-' )
+                {
+                    throw new IllegalCharacterException( c );
+                }
+                state = COMMENT;
+                break;
+
+            case CDATA_START:
+                if( c != CDATA_OPEN[match] )
+                {
+                    throw new IllegalCharacterException( c );
+                }
+                if( ++match == CDATA_OPEN.length )
+                {
+                    startCDATA();
+                    state = CDATA;
+                }
+                break;
+
+            case COMMENT:
+                if( c == '-' )
+                {
+                    state = COMMENT_END1;
+                }
+                else
+                {
+                    buffer.append( c );
+                    buffer.appendUntil( source, '-', '-' );
+                }
+                break;
+
+            case COMMENT_END1:
+                if( c == '-' )
+                {
+                    state = COMMENT_END2;
+                }
+                else
+                {
+                    // Note: -&gt; is valid, just not --&gt;
+                    buffer.append( '-' ).append( c );
+                    state = COMMENT;
+                }
+                break;
+
+            case COMMENT_END2:
+                if( c != '>' )
+                {
+                    throw new IllegalCharacterException( c );
+                }
+                comment();
+                break;
+
+            case CDATA:
+                if( c == ']' )
+                {
+                    state = CDATA_END1;
+                }
+                else
+                {
+                    buffer.append( c );
+                    buffer.appendUntil( source, ']', ']' );
+                }
+                break;
+
+            case CDATA_END1:
+                if( c == ']' )
+                {
+                    state = CDATA_END2;
+                }
+                else
+                {
+                    buffer.append( ']' ).append( c );
+                    state = CDATA;
+                }
+                break;
+
+            case CDATA_END2:
+                if( c == '>' )
+                {
+                    endCDATA();
+                }
+                else if( c == ']' )
+                {
+                    // ]]] so the first ] is content
+                    buffer.append( ']' );
+                }
+                else
+                {
+                    buffer.append( ']' ).append( ']' ).append( c );
+                    state = CDATA;
+                }
+                break;
+
+            case PI_TARGET:
+                if( !isNameStartChar( c ) )
+                {
+                    throw new IllegalCharacterException( c );
+                }
+                buffer.append( c );
+                state = PI_TARGET1;
+                break;
+
+            case PI_TARGET1:
+                if( isNameChar( c ) )
+                {
+                    buffer.append( c );
+                }
+                else if( isWhitespace( c ) )
+                {
+                    target = getBufferSymbol();
+                    state = isDeclaration() ? DECL_WHITESPACE : PI_WHITESPACE;
+                }
+                else if( c == '?' )
+                {
+                    target = getBufferSymbol();
+                    state = isDeclaration() ? DECL_QUERY : PI_TARGET_QUERY;
+                }
+                else
+                {
+                    throw new IllegalCharacterException( c );
+                }
+                break;
+
+            case PI_TARGET_QUERY:
+                if( c != '>' )
+                {
+                    throw new IllegalCharacterException( c );
+                }
+                processingInstruction( "" );
+                break;
+
+            case PI_WHITESPACE:
+                if( c == '?' )
+                {
+                    state = PI_DATA_QUERY;
+                }
+                else if( !isWhitespace( c ) )
+                {
+                    buffer.append( c );
+                    state = PI_DATA;
+                }
+                break;
+
+            case PI_DATA:
+                if( c == '?' )
+                {
+                    state = PI_DATA_QUERY;
+                }
+                else
+                {
+                    buffer.append( c );
+                    buffer.appendUntil( source, '?', '?' );
+                }
+                break;
+
+            case PI_DATA_QUERY:
+                if( c == '>' )
+                {
+                    processingInstruction( getBufferString() );
+                }
+                else
+                {
+                    // The ? is part of the instruction
+                    buffer.append( '?' );
+                    if( c != '?' )
+                    {
+                        buffer.append( c );
+                        state = PI_DATA;
+                    }
+                }
+                break;
+
+            case DECL_WHITESPACE:
+                if( c == '?' )
+                {
+                    state = DECL_QUERY;
+                }
+                else if( isNameStartChar( c ) )
+                {
+                    buffer.append( c );
+                    state = DECL_NAME;
+                }
+                else if( !isWhitespace( c ) )
+                {
+                    throw new IllegalCharacterException( c );
+                }
+                break;
+
+            case DECL_NAME:
+                if( c == '=' )
+                {
+                    attrQName = getBufferSymbol();
+                    state = DECL_EQ;
+                }
+                else if( isNameChar( c ) )
+                {
+                    buffer.append( c );
+                }
+                else
+                {
+                    throw new IllegalCharacterException( c );
+                }
+                break;
+
+            case DECL_VALUE:
+                if( c == quote )
+                {
+                    setDeclarationAttribute();
+                    state = DECL_WHITESPACE;
+                }
+                else
+                {
+                    buffer.append( c );
+                }
+                break;
+
+            case DECL_QUERY:
+                if( c != '>' )
+                {
+                    throw new IllegalCharacterException( c );
+                }
+                xmlDeclaration( source );
+                state = PROLOG;
+                break;
+
+            default:
+                throw new IllegalStateException( "Unknown state " + state );
+        }
+
+        return true;
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public void cleanup()
+    {
+        // The NamespaceSupport is reset by the next startDocument() so just
+        // release what we are holding on to
+        Arrays.fill( qNames, 0, depth, null );
+        Arrays.fill( parsedQNames, 0, depth, null );
+        depth = 0;
+        attributeList.reset();
+        super.cleanup();
+    }
+
+    /**
+     * The content of the buffer as a String, resetting the buffer
+     * @return String
+     */
+    private String getBufferString()
+    {
+        final String s = buffer.toString();
+        buffer.reset();
+        return s;
+    }
+
+    /**
+     * The content of the buffer as a symbol, resetting the buffer
+     * @return symbol
+     */
+    private String getBufferSymbol()
+    {
+        final String s = parser.getSymbolTable().getSymbol(
+                buffer.getCharBuffer(), 0, buffer.size() );
+        buffer.reset();
+        return s;
+    }
+
+    /**
+     * The state to return to once a comment, cdata section, processing
+     * instruction or element has completed
+     * @return state
+     */
+    private int afterMarkup()
+    {
+        return depth == 0 ? PROLOG : CONTENT;
+    }
+
+    private void startElement()
+            throws SAXException
+    {
+        // process any namespace declarations in the attributes
+        final boolean namespaceScope = attributeList.processNames();
+
+        // parse the qName (which may be within the current scope)
+        final QualifiedName parsedQName = parser.processName( qName, false );
+
+        if( depth == qNames.length )
+        {
+            final int newDepth = depth << 1;
+            qNames = Arrays.copyOf( qNames, newDepth );
+            parsedQNames = Arrays.copyOf( parsedQNames, newDepth );
+            namespaceScopes = Arrays.copyOf( namespaceScopes, newDepth );
+        }
+        qNames[depth] = qName;
+        parsedQNames[depth] = parsedQName;
+        namespaceScopes[depth] = namespaceScope;
+        depth++;
+        qName = null;
+
+        try
+        {
+            getHandler().startElement( parsedQName.getURI(),
+                                       parsedQName.getLocalName(),
+                                       parsedQName.getQName(),
+                                       attributeList.getAttributes() );
+            rawCapture.startElement();
+        }
+        finally
+        {
+            attributeList.reset();
+        }
+    }
+
+    /**
+     * Validate the end tag in the buffer against the current element then end it
+     * @throws SAXException if the end tag does not match
+     */
+    private void closeElement()
+            throws SAXException
+    {
+        // Compare in place, the end tag must have the same name as the start
+        if( !buffer.contentEquals( qNames[depth - 1] ) )
+        {
+            throw new SAXException( String.format(
+                    "Element <%s> must end with </%<s> but found </%s>",
+                    qNames[depth - 1],
+                    buffer.toString() ) );
+        }
+        buffer.reset();
+        endElement();
+    }
+
+    private void endElement()
+            throws SAXException
+    {
+        depth--;
+        final QualifiedName parsedQName = parsedQNames[depth];
+        qNames[depth] = null;
+        parsedQNames[depth] = null;
+
+        getHandler().endElement( parsedQName.getURI(),
+                                 parsedQName.getLocalName(),
+                                 parsedQName.getQName() );
+
+        // End any prefix mappings declared by this element
+        if( namespaceScopes[depth] )
+        {
+            parser.endNamespaceContext();
+        }
+
+        state = afterMarkup();
+        rawCapture.endElement();
+
+        if( depth == 1 )
+        {
+            if( parser.getStanzaHandler() != null )
+            {
+                buffer.trim( AbstractNioSaxParser.STANZA_BUFFER_LIMIT );
+            }
+            parser.endStanza();
+        }
+    }
+
+    /**
+     * send any captured content to the handler
+     */
+    private void characters()
+            throws SAXException
+    {
+        if( buffer.size() > 0 )
+        {
+            getHandler().characters( buffer.getCharBuffer(), 0, buffer.size() );
+            buffer.reset();
+        }
+    }
+
+    private void comment()
+            throws SAXException
+    {
+        final LexicalHandler lh = getLexicalHandler();
+        if( lh != null )
+        {
+            lh.comment( buffer.getCharBuffer(), 0, buffer.size() );
+        }
+        buffer.reset();
+        state = afterMarkup();
+    }
+
+    private void startCDATA()
+            throws SAXException
+    {
+        final LexicalHandler lh = getLexicalHandler();
+        if( lh != null )
+        {
+            lh.startCDATA();
+        }
+    }
+
+    private void endCDATA()
+            throws SAXException
+    {
+        getHandler().characters( buffer.getCharBuffer(), 0, buffer.size() );
+        buffer.reset();
+
+        final LexicalHandler lh = getLexicalHandler();
+        if( lh != null )
+        {
+            lh.endCDATA();
+        }
+        state = afterMarkup();
+    }
+
+    private void processingInstruction( final String data )
+            throws SAXException
+    {
+        getHandler().processingInstruction( target, data );
+        target = null;
+        state = afterMarkup();
+    }
+
+    /**
+     * Checks the processing instruction target for xml or DOCTYPE.
+     *
+     * @return true if this is an xml declaration
+     * @throws SAXException if the target is not permitted here
+     */
+    private boolean isDeclaration()
+            throws SAXException
+    {
+        if( XMLL.equals( target ) || XMLU.equals( target ) )
+        {
+            if( depth > 0 )
+            {
+                throw new SAXException( "Illegal XML declaration found" );
+            }
+            version = null;
+            encoding = null;
+            standalone = false;
+            return true;
+        }
+        else if( DOCTYPE.equals( target ) )
+        {
+            if( depth > 0 )
+            {
+                throw new SAXException( "Illegal DOCTYPE declaration found" );
+            }
+            throw new SAXException( "DOCTYPE declarations are not supported" );
+        }
+        return false;
+    }
+
+    private void setDeclarationAttribute()
+            throws SAXException
+    {
+        final String value = getBufferString();
+
+        if( VERSION.equals( attrQName ) )
+        {
+            version = value;
+        }
+        else if( ENCODING.equals( attrQName ) )
+        {
+            encoding = value;
+        }
+        else if( STANDALONE.equals( attrQName ) )
+        {
+            if( "yes".equals( value ) )
+            {
+                standalone = true;
+            }
+            else if( "no".equals( value ) )
+            {
+                standalone = false;
+            }
+            else
+            {
+                throw new SAXException( "Unsupported standalone attribute " + value );
+            }
+        }
+        else
+        {
+            throw new SAXException( "Illegal attribute " + attrQName );
+        }
+    }
+
+    /**
+     * Ensures the source uses the declared {@link Charset} and notifies any
+     * {@link NioSaxParserHandler}.
+     *
+     * @param source {@link NioSaxSource} to change
+     * @throws SAXException if the charset is not supported
+     */
+    private void xmlDeclaration( final NioSaxSource source )
+            throws SAXException
+    {
+        if( encoding != null && !encoding.isEmpty() )
+        {
+            final Charset cs = CharsetFactory.getCharset( encoding );
+            if( cs == null )
+            {
+                throw new SAXException( "Unsupported encoding " + encoding );
+            }
+            source.setCharset( cs );
+        }
+
+        final NioSaxParserHandler handler = getNioSaxParserHandler();
+        if( handler != null )
+        {
+            handler.xmlDeclaration( version, encoding, standalone );
+        }
+        target = null;
+    }
+}
@@ -34,6 +34,8 @@
  */
 package uk.org.retep.niosax.internal.helper;
 
+import uk.org.retep.niosax.NioSaxSource;
+
 /**
  * A class which stores an extensible char array for storing parsed content.
  * 
@@ -59,6 +61,18 @@ public interface Appendable
      */
     Appendable append(final char[] c, final int off, final int len);
 
+    /**
+     * Decodes characters from a {@link NioSaxSource} straight into the buffer,
+     * stopping before the first occurrence of either delimiter or when the
+     * source has no more complete characters.
+     *
+     * @param source {@link NioSaxSource} to decode from
+     * @param d1 first delimiter
+     * @param d2 second delimiter
+     * @return the number of characters appended
+     */
+    int appendUntil(final NioSaxSource source, final char d1, final char d2);
+
     /**
      * Returns a copy of the input data.
      *
@@ -98,6 +112,24 @@ public interface Appendable
      */
     int size();
 
+    /**
+     * Compares the content of the buffer against a String without creating
+     * any objects.
+     *
+     * @param s String to compare against
+     * @return true if the buffer holds exactly the characters in s
+     */
+    boolean contentEquals(final String s);
+
+    /**
+     * Release the buffer if it has grown beyond a size, so that one large
+     * piece of content does not hold on to memory once it has been parsed.
+     * Any content in the buffer is kept.
+     *
+     * @param maxSize the largest buffer to keep
+     */
+    void trim(final int maxSize);
+
     /**
      * Converts input data to a string.
      * @return the string.
@@ -36,46 +36,149 @@ package uk.org.retep.niosax.internal.helper;
 
 import java.util.Arrays;
 
-import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
-import org.xml.sax.helpers.AttributesImpl;
+import uk.org.retep.niosax.NioSaxAttributes;
 import uk.org.retep.niosax.internal.core.AbstractNioSaxParser;
 import static uk.org.retep.niosax.internal.helper.XmlSpec.*;
 
 /**
  * A collection of qName/value pairs. This collection is used to hold attributes
  * whilst they are being parsed. Once parsing is complete, it parses the qNames
- * for namespace declarations, declares them in the current scope
+ * for namespace declarations, declares them in the current scope, then
+ * resolves the remaining names so the list can be passed directly to
+ * {@link org.xml.sax.ContentHandler#startElement(java.lang.String, java.lang.String, java.lang.String, org.xml.sax.Attributes) }.
+ *
+ * <p>
+ *  Values are copied into a single shared character buffer and only
+ *  converted into a String when requested.
+ * </p>
+ *
+ * <p>
+ *  A single instance is owned by the parser and reused for every element, so
+ *  as the SAX contract allows the content is only valid for the duration of
+ *  the startElement callback. Handlers wishing to keep the attributes must
+ *  copy them, for example with {@link org.xml.sax.helpers.AttributesImpl}.
+ * </p>
+ *
  * @author peter
  */
 public class AttributeList
+        implements NioSaxAttributes
 {
 
+    private static final int INITIAL_SIZE = 10;
+    private static final int INITIAL_CHARS = 256;
     private final AbstractNioSaxParser parser;
-    private String[][] buf;
+    private String[] qNames;
+    private String[] uris;
+    private String[] localNames;
+    /**
+     * Values once materialised as a String, null until requested
+     */
+    private String[] values;
+    private int[] valueStarts;
+    private int[] valueLengths;
+    /**
+     * The values of all attributes, one after the other
+     */
+    private char[] valueChars;
+    private int valueCount;
     private int count;
 
     public AttributeList( final AbstractNioSaxParser parser )
     {
         this.parser = parser;
-        buf = new String[ 10 ][];
+        qNames = new String[ INITIAL_SIZE ];
+        uris = new String[ INITIAL_SIZE ];
+        localNames = new String[ INITIAL_SIZE ];
+        values = new String[ INITIAL_SIZE ];
+        valueStarts = new int[ INITIAL_SIZE ];
+        valueLengths = new int[ INITIAL_SIZE ];
+        valueChars = new char[ INITIAL_CHARS ];
+        valueCount = 0;
         count = 0;
     }
 
-    public void addAttribute( final String qName, final String value )
+    /**
+     * Add an attribute, copying its value from a character buffer
+     *
+     * @param qName qName of the attribute
+     * @param c buffer holding the value
+     * @param off offset of the value within c
+     * @param len length of the value
+     */
+    public void addAttribute( final String qName, final char[] c,
+                              final int off, final int len )
     {
-        final int newcount = count + 1;
-        if( newcount > buf.length )
+        if( count == qNames.length )
         {
-            buf = Arrays.copyOf( buf, Math.max( buf.length << 1, newcount ) );
+            final int newSize = qNames.length << 1;
+            qNames = Arrays.copyOf( qNames, newSize );
+            uris = Arrays.copyOf( uris, newSize );
+            localNames = Arrays.copyOf( localNames, newSize );
+            values = Arrays.copyOf( values, newSize );
+            valueStarts = Arrays.copyOf( valueStarts, newSize );
+            valueLengths = Arrays.copyOf( valueLengths, newSize );
         }
 
-        buf[count] = new String[]
-                {
-                    qName, value
-                };
+        final int newValueCount = valueCount + len;
+        if( newValueCount > valueChars.length )
+        {
+            valueChars = Arrays.copyOf( valueChars, Math.max( valueChars.length << 1, newValueCount ) );
+        }
+        System.arraycopy( c, off, valueChars, valueCount, len );
 
-        count = newcount;
+        qNames[count] = qName;
+        uris[count] = null;
+        localNames[count] = null;
+        values[count] = null;
+        valueStarts[count] = valueCount;
+        valueLengths[count] = len;
+        valueCount = newValueCount;
+        count++;
+    }
+
+    /**
+     * Empties the list so it can be reused for another element
+     */
+    public void reset()
+    {
+        Arrays.fill( qNames, 0, count, null );
+        Arrays.fill( uris, 0, count, null );
+        Arrays.fill( localNames, 0, count, null );
+        Arrays.fill( values, 0, count, null );
+        valueCount = 0;
+        count = 0;
+    }
+
+    /**
+     * Release the arrays if they have grown beyond their initial size, so
+     * that one element with many or large attributes does not hold on to
+     * memory. This does nothing unless the list is empty.
+     *
+     * @param maxChars the largest buffer of attribute values to keep
+     */
+    public void trim( final int maxChars )
+    {
+        if( count > 0 )
+        {
+            return;
+        }
+
+        if( qNames.length > INITIAL_SIZE )
+        {
+            qNames = new String[ INITIAL_SIZE ];
+            uris = new String[ INITIAL_SIZE ];
+            localNames = new String[ INITIAL_SIZE ];
+            values = new String[ INITIAL_SIZE ];
+            valueStarts = new int[ INITIAL_SIZE ];
+            valueLengths = new int[ INITIAL_SIZE ];
+        }
+
+        if( valueChars.length > maxChars )
+        {
+            valueChars = new char[ INITIAL_CHARS ];
+        }
     }
 
     public int size()
@@ -95,24 +198,30 @@ public class AttributeList
 
         for( int i = 0; i < count; i++ )
         {
-            final String qName = buf[i][0];
+            final String qName = qNames[i];
             if( qName.startsWith( XMLNS ) )
             {
                 if( !newContext )
                 {
-                    parser.pushNamespaceSupportContext();
+                    parser.pushNamespaceContext();
                     newContext = true;
                 }
 
+                // The uri is a symbol so this does not create a String
+                final SymbolTable symbolTable = parser.getSymbolTable();
+                final String uri = symbolTable.getSymbol(
+                        valueChars, valueStarts[i], valueLengths[i] );
+
                 final int idx = qName.indexOf( ':' ) + 1;
                 if( idx == 0 )
                 {
                     // The default namespace
-                    parser.declarePrefix( "", buf[i][1] );
+                    parser.declarePrefix( "", uri );
                 }
                 else
                 {
-                    parser.declarePrefix( qName.substring( idx ), buf[i][1] );
+                    parser.declarePrefix( symbolTable.getSymbol(
+                            qName, idx, qName.length() - idx ), uri );
                 }
             }
         }
@@ -120,23 +229,188 @@ public class AttributeList
         return newContext;
     }
 
-    public Attributes getAttributes()
+    /**
+     * Resolves the namespace of each attribute. This must be called after
+     * {@link #processNames()} so that any declarations made by the element
+     * are in scope.
+     *
+     * @return this instance
+     * @throws SAXException if an attribute's namespace is undeclared
+     */
+    public NioSaxAttributes getAttributes()
             throws SAXException
     {
-        final AttributesImpl ai = new AttributesImpl();
+        for( int i = 0; i < count; i++ )
+        {
+            final QualifiedName qName = parser.processName( qNames[i], true );
+            uris[i] = qName.getURI();
+            localNames[i] = qName.getLocalName();
+        }
+
+        return this;
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public int getLength()
+    {
+        return count;
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public String getURI( final int index )
+    {
+        return index >= 0 && index < count ? uris[index] : null;
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public String getLocalName( final int index )
+    {
+        return index >= 0 && index < count ? localNames[index] : null;
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public String getQName( final int index )
+    {
+        return index >= 0 && index < count ? qNames[index] : null;
+    }
+
+    /**
+     * {@inheritDoc }
+     * <p>
+     *  This is always "CDATA" as stated in the XML 1.0 Recommentation
+     *  clause 3.3.3, Attribute-Value Normalization
+     * </p>
+     */
+    @Override
+    public String getType( final int index )
+    {
+        return index >= 0 && index < count ? TYPE_CDATA : null;
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public String getValue( final int index )
+    {
+        if( index < 0 || index >= count )
+        {
+            return null;
+        }
 
+        String value = values[index];
+        if( value == null )
+        {
+            value = new String( valueChars, valueStarts[index], valueLengths[index] );
+            values[index] = value;
+        }
+        return value;
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public char[] getValueCharacters()
+    {
+        return valueChars;
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public int getValueStart( final int index )
+    {
+        return index >= 0 && index < count ? valueStarts[index] : -1;
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public int getValueLength( final int index )
+    {
+        return index >= 0 && index < count ? valueLengths[index] : -1;
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public int getIndex( final String uri, final String localName )
+    {
         for( int i = 0; i < count; i++ )
         {
-            final String qName[] = parser.processName( buf[i][0], true );
-            ai.addAttribute( qName[NAMESPACEURI],
-                             qName[LOCALNAME],
-                             qName[QNAME],
-                             // CDATA" as stated in the XML 1.0 Recommentation
-                             // clause 3.3.3, Attribute-Value Normalization
-                             TYPE_CDATA,
-                             buf[i][1] );
+            if( localNames[i].equals( localName ) && uris[i].equals( uri ) )
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public int getIndex( final String qName )
+    {
+        for( int i = 0; i < count; i++ )
+        {
+            if( qNames[i].equals( qName ) )
+            {
+                return i;
+            }
         }
+        return -1;
+    }
 
-        return ai;
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public String getType( final String uri, final String localName )
+    {
+        return getType( getIndex( uri, localName ) );
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public String getType( final String qName )
+    {
+        return getType( getIndex( qName ) );
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public String getValue( final String uri, final String localName )
+    {
+        return getValue( getIndex( uri, localName ) );
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public String getValue( final String qName )
+    {
+        return getValue( getIndex( qName ) );
     }
 }
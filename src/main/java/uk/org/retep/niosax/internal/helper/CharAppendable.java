@@ -35,6 +35,7 @@
 package uk.org.retep.niosax.internal.helper;
 
 import java.util.Arrays;
+import uk.org.retep.niosax.NioSaxSource;
 
 /**
  * A base {@link Appendable} implementation which stores an extensible char
@@ -52,6 +53,12 @@ public class CharAppendable
         implements Appendable
 {
 
+    /**
+     * The smallest amount the buffer grows by in
+     * {@link #appendUntil(NioSaxSource, char, char)}
+     */
+    private static final int MIN_GROWTH = 16;
+
     private Appendable parent;
     /**
      * The buffer where data is stored.
@@ -174,6 +181,42 @@ public class CharAppendable
         return this;
     }
 
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public final int appendUntil( final NioSaxSource source, final char d1,
+                                  final char d2 )
+    {
+        final int start = count;
+        while( true )
+        {
+            if( count == buf.length )
+            {
+                // Each char takes at least one byte, so never grow beyond
+                // what the source could still deliver
+                final int remaining = source.getByteBuffer().remaining();
+                if( remaining == 0 )
+                {
+                    break;
+                }
+                buf = Arrays.copyOf( buf, count + Math.min( Math.max( count, MIN_GROWTH ),
+                                                            remaining ) );
+            }
+
+            // A charset may return early without filling the buffer, so
+            // stop only once nothing more is decoded
+            final int n = source.decodeUntil( buf, count, buf.length - count, d1, d2 );
+            if( n == 0 )
+            {
+                break;
+            }
+            count += n;
+        }
+
+        return count - start;
+    }
+
     /**
      * {@inheritDoc }
      */
@@ -202,6 +245,18 @@ public class CharAppendable
         return this;
     }
 
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public final void trim( final int maxSize )
+    {
+        if( buf.length > maxSize && count <= maxSize )
+        {
+            buf = Arrays.copyOf( buf, maxSize );
+        }
+    }
+
     /**
      * {@inheritDoc }
      */
@@ -211,6 +266,27 @@ public class CharAppendable
         return count;
     }
 
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public final boolean contentEquals( final String s )
+    {
+        if( s.length() != count )
+        {
+            return false;
+        }
+
+        for( int i = 0; i < count; i++ )
+        {
+            if( buf[i] != s.charAt( i ) )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * {@inheritDoc }
      */
@@ -0,0 +1,513 @@
+/*
+ * <p>Copyright (c) 1998-2010, Peter T Mount<br>
+ * All rights reserved.</p>
+ *
+ * <p>Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:</p>
+ *
+ * <ul>
+ *   <li>Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.</li>
+ *
+ *   <li>Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.</li>
+ *
+ *   <li>Neither the name of the retep.org.uk nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.</li>
+ *
+ * </ul>
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.</p>
+ */
+package uk.org.retep.niosax.internal.helper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import org.xml.sax.helpers.NamespaceSupport;
+
+/**
+ * The Namespace prefixes in scope whilst parsing a document.
+ *
+ * <p>
+ *  This replaces {@link org.xml.sax.helpers.NamespaceSupport} within the
+ *  parser. Declarations are held in a pair of arrays with a context marking
+ *  where each element's declarations begin, so pushing and popping a context
+ *  costs nothing. Prefixes are matched against the qName in place rather than
+ *  extracting a substring.
+ * </p>
+ *
+ * <p>
+ *  Resolved names are cached by qName and Namespace URI, so once a name has
+ *  been seen with a URI {@link #processName(String, boolean)} returns the same
+ *  {@link QualifiedName} without allocating.
+ * </p>
+ *
+ * <p>
+ *  For compatibility {@link #getNamespaceSupport()} provides a read-only
+ *  {@link org.xml.sax.helpers.NamespaceSupport} view.
+ * </p>
+ *
+ * @author peter
+ * @since 10.7
+ */
+public final class NamespaceStack
+{
+
+    /**
+     * The prefix bound to {@link #XML_URI}
+     */
+    public static final String XML_PREFIX = "xml";
+    /**
+     * The prefix used by namespace declarations
+     */
+    public static final String XMLNS_PREFIX = "xmlns";
+    /**
+     * The Namespace URI bound to the xml prefix
+     */
+    public static final String XML_URI = NamespaceSupport.XMLNS;
+    /**
+     * The Namespace URI of namespace declaration attributes
+     */
+    public static final String XMLNS_URI = NamespaceSupport.NSDECL;
+    /**
+     * The maximum number of resolved names held in the cache
+     */
+    public static final int MAX_NAMES = 4096;
+    private static final int INITIAL_SIZE = 16;
+    private final SymbolTable symbolTable;
+    // The declared prefixes and their uri's
+    private String[] prefixes;
+    private String[] uris;
+    private int bindings;
+    // The index of the first declaration of each context
+    private int[] contexts;
+    private int depth;
+    // Cache of resolved names
+    private Entry[] names;
+    private int nameCount;
+    private View view;
+
+    /**
+     * Create a NamespaceStack
+     * @param symbolTable {@link SymbolTable} used for local names
+     */
+    public NamespaceStack( final SymbolTable symbolTable )
+    {
+        this.symbolTable = symbolTable;
+        prefixes = new String[ INITIAL_SIZE ];
+        uris = new String[ INITIAL_SIZE ];
+        contexts = new int[ INITIAL_SIZE ];
+        names = new Entry[ 64 ];
+    }
+
+    /**
+     * Remove all contexts and declarations. The cache of resolved names is
+     * kept as it remains valid.
+     */
+    public void reset()
+    {
+        for( int i = 0; i < bindings; i++ )
+        {
+            prefixes[i] = null;
+            uris[i] = null;
+        }
+        bindings = 0;
+        depth = 0;
+    }
+
+    /**
+     * Start a new context, usually for an element with namespace declarations
+     */
+    public void pushContext()
+    {
+        if( depth == contexts.length )
+        {
+            final int[] c = new int[ depth << 1 ];
+            System.arraycopy( contexts, 0, c, 0, depth );
+            contexts = c;
+        }
+        contexts[depth++] = bindings;
+    }
+
+    /**
+     * Remove the current context and all of its declarations
+     */
+    public void popContext()
+    {
+        final int start = contexts[--depth];
+        for( int i = start; i < bindings; i++ )
+        {
+            prefixes[i] = null;
+            uris[i] = null;
+        }
+        bindings = start;
+    }
+
+    /**
+     * The number of prefixes declared in the current context
+     * @return number of prefixes
+     */
+    public int getDeclaredPrefixCount()
+    {
+        return depth == 0 ? 0 : bindings - contexts[depth - 1];
+    }
+
+    /**
+     * A prefix declared in the current context
+     * @param index index between 0 and {@link #getDeclaredPrefixCount()}
+     * @return prefix
+     */
+    public String getDeclaredPrefix( final int index )
+    {
+        return prefixes[contexts[depth - 1] + index];
+    }
+
+    /**
+     * Declare a prefix in the current context.
+     *
+     * @param prefix prefix or the empty string for the default namespace
+     * @param uri Namespace URI
+     * @return false if the prefix may not be declared
+     * @see org.xml.sax.helpers.NamespaceSupport#declarePrefix(String, String)
+     */
+    public boolean declarePrefix( final String prefix, final String uri )
+    {
+        if( XML_PREFIX.equals( prefix ) || XMLNS_PREFIX.equals( prefix ) )
+        {
+            return false;
+        }
+
+        if( bindings == prefixes.length )
+        {
+            final String[] p = new String[ bindings << 1 ];
+            final String[] u = new String[ bindings << 1 ];
+            System.arraycopy( prefixes, 0, p, 0, bindings );
+            System.arraycopy( uris, 0, u, 0, bindings );
+            prefixes = p;
+            uris = u;
+        }
+
+        prefixes[bindings] = prefix;
+        uris[bindings] = uri;
+        bindings++;
+        return true;
+    }
+
+    /**
+     * The Namespace URI bound to a prefix
+     * @param prefix prefix or the empty string for the default namespace
+     * @return Namespace URI or null if not declared
+     */
+    public String getURI( final String prefix )
+    {
+        return findURI( prefix, prefix.length() );
+    }
+
+    /**
+     * Process a raw XML qualified name.
+     *
+     * @param qName qName to process
+     * @param attribute true if the name is for an attribute, false for an element
+     * @return {@link QualifiedName} or null if the prefix is undeclared
+     * @see org.xml.sax.helpers.NamespaceSupport#processName(String, String[], boolean)
+     */
+    public QualifiedName processName( final String qName,
+                                      final boolean attribute )
+    {
+        final int colon = qName.indexOf( ':' );
+
+        String uri;
+        if( colon < 0 )
+        {
+            if( attribute )
+            {
+                uri = XMLNS_PREFIX.equals( qName ) ? XMLNS_URI : "";
+            }
+            else
+            {
+                uri = findURI( qName, 0 );
+                if( uri == null )
+                {
+                    uri = "";
+                }
+            }
+        }
+        else if( colon == XMLNS_PREFIX.length() && qName.startsWith( XMLNS_PREFIX ) )
+        {
+            if( !attribute )
+            {
+                return null;
+            }
+            uri = XMLNS_URI;
+        }
+        else
+        {
+            uri = findURI( qName, colon );
+            if( uri == null )
+            {
+                return null;
+            }
+        }
+
+        final int hash = 31 * qName.hashCode() + uri.hashCode();
+        for( Entry e = names[hash & (names.length - 1)]; e != null; e = e.next )
+        {
+            final QualifiedName n = e.name;
+            if( e.hash == hash && n.getQName().equals( qName ) && n.getURI().equals( uri ) )
+            {
+                return n;
+            }
+        }
+
+        final QualifiedName name = new QualifiedName(
+                uri,
+                colon < 0 ? qName : symbolTable.getSymbol( qName, colon + 1, qName.length() - colon - 1 ),
+                qName );
+        addName( name, hash );
+        return name;
+    }
+
+    /**
+     * A read-only {@link org.xml.sax.helpers.NamespaceSupport} view of the
+     * declarations in scope. Any attempt to modify the view will throw
+     * {@link UnsupportedOperationException}.
+     *
+     * @return {@link org.xml.sax.helpers.NamespaceSupport} view
+     */
+    public NamespaceSupport getNamespaceSupport()
+    {
+        if( view == null )
+        {
+            view = new View();
+        }
+        return view;
+    }
+
+    /**
+     * Find the uri bound to the prefix at the start of a qName
+     * @param qName qName
+     * @param len length of the prefix, 0 for the default namespace
+     * @return uri or null if not bound
+     */
+    private String findURI( final String qName, final int len )
+    {
+        for( int i = bindings - 1; i >= 0; i-- )
+        {
+            final String p = prefixes[i];
+            if( p.length() == len && qName.regionMatches( 0, p, 0, len ) )
+            {
+                final String uri = uris[i];
+                // xmlns="" removes the default namespace
+                return len == 0 && uri.isEmpty() ? null : uri;
+            }
+        }
+
+        if( len == XML_PREFIX.length() && qName.startsWith( XML_PREFIX ) )
+        {
+            return XML_URI;
+        }
+        return null;
+    }
+
+    private void addName( final QualifiedName name, final int hash )
+    {
+        if( nameCount >= MAX_NAMES )
+        {
+            return;
+        }
+
+        if( nameCount >= (names.length >> 1) + (names.length >> 2) )
+        {
+            final Entry[] old = names;
+            names = new Entry[ old.length << 1 ];
+            for( Entry e : old )
+            {
+                while( e != null )
+                {
+                    final int idx = e.hash & (names.length - 1);
+                    names[idx] = new Entry( e.name, e.hash, names[idx] );
+                    e = e.next;
+                }
+            }
+        }
+
+        final int idx = hash & (names.length - 1);
+        names[idx] = new Entry( name, hash, names[idx] );
+        nameCount++;
+    }
+
+    /**
+     * The prefixes currently in scope, most recent declaration first
+     * @return list of prefixes
+     */
+    private List<String> getPrefixesInScope()
+    {
+        final List<String> l = new ArrayList<String>();
+        for( int i = bindings - 1; i >= 0; i-- )
+        {
+            if( !l.contains( prefixes[i] ) )
+            {
+                l.add( prefixes[i] );
+            }
+        }
+        return l;
+    }
+
+    private static final class Entry
+    {
+
+        final QualifiedName name;
+        final int hash;
+        final Entry next;
+
+        Entry( final QualifiedName name, final int hash, final Entry next )
+        {
+            this.name = name;
+            this.hash = hash;
+            this.next = next;
+        }
+    }
+
+    /**
+     * Read-only {@link org.xml.sax.helpers.NamespaceSupport} view
+     */
+    private final class View
+            extends NamespaceSupport
+    {
+
+        // false whilst the NamespaceSupport constructor calls reset()
+        private final boolean initialised;
+
+        View()
+        {
+            initialised = true;
+        }
+
+        @Override
+        public void reset()
+        {
+            if( initialised )
+            {
+                throw new UnsupportedOperationException();
+            }
+            super.reset();
+        }
+
+        @Override
+        public void pushContext()
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void popContext()
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean declarePrefix( final String prefix, final String uri )
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void setNamespaceDeclUris( final boolean value )
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean isNamespaceDeclUris()
+        {
+            return true;
+        }
+
+        @Override
+        public String[] processName( final String qName, final String[] parts,
+                                     final boolean isAttribute )
+        {
+            final QualifiedName name = NamespaceStack.this.processName( qName, isAttribute );
+            if( name == null )
+            {
+                return null;
+            }
+            parts[XmlSpec.NAMESPACEURI] = name.getURI();
+            parts[XmlSpec.LOCALNAME] = name.getLocalName();
+            parts[XmlSpec.QNAME] = name.getQName();
+            return parts;
+        }
+
+        @Override
+        public String getURI( final String prefix )
+        {
+            return NamespaceStack.this.getURI( prefix );
+        }
+
+        @Override
+        public Enumeration<String> getPrefixes()
+        {
+            final List<String> l = getPrefixesInScope();
+            l.remove( "" );
+            l.add( XML_PREFIX );
+            return Collections.enumeration( l );
+        }
+
+        @Override
+        public String getPrefix( final String uri )
+        {
+            for( String prefix : getPrefixesInScope() )
+            {
+                if( !prefix.isEmpty() && uri.equals( NamespaceStack.this.getURI( prefix ) ) )
+                {
+                    return prefix;
+                }
+            }
+            return XML_URI.equals( uri ) ? XML_PREFIX : null;
+        }
+
+        @Override
+        public Enumeration<String> getPrefixes( final String uri )
+        {
+            final List<String> l = new ArrayList<String>();
+            for( String prefix : getPrefixesInScope() )
+            {
+                if( !prefix.isEmpty() && uri.equals( NamespaceStack.this.getURI( prefix ) ) )
+                {
+                    l.add( prefix );
+                }
+            }
+            if( XML_URI.equals( uri ) )
+            {
+                l.add( XML_PREFIX );
+            }
+            return Collections.enumeration( l );
+        }
+
+        @Override
+        public Enumeration<String> getDeclaredPrefixes()
+        {
+            final List<String> l = new ArrayList<String>();
+            for( int i = 0, n = getDeclaredPrefixCount(); i < n; i++ )
+            {
+                l.add( getDeclaredPrefix( i ) );
+            }
+            return Collections.enumeration( l );
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * <p>Copyright (c) 1998-2010, Peter T Mount<br>
+ * All rights reserved.</p>
+ *
+ * <p>Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:</p>
+ *
+ * <ul>
+ *   <li>Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.</li>
+ *
+ *   <li>Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.</li>
+ *
+ *   <li>Neither the name of the retep.org.uk nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.</li>
+ *
+ * </ul>
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.</p>
+ */
+package uk.org.retep.niosax.internal.helper;
+
+/**
+ * A processed XML name, holding the Namespace URI, local name and raw qName.
+ *
+ * <p>
+ *  Instances are immutable and are cached by {@link NamespaceStack} so the
+ *  same instance is usually returned every time a name resolves to the same
+ *  Namespace URI.
+ * </p>
+ *
+ * @author peter
+ * @since 10.7
+ * @see NamespaceStack#processName(String, boolean)
+ */
+public final class QualifiedName
+{
+
+    private final String uri;
+    private final String localName;
+    private final String qName;
+
+    /**
+     * Create a QualifiedName
+     *
+     * @param uri Namespace URI, or the empty string if none
+     * @param localName local name without any prefix
+     * @param qName the raw XML qualified name
+     */
+    public QualifiedName( final String uri, final String localName,
+                          final String qName )
+    {
+        this.uri = uri;
+        this.localName = localName;
+        this.qName = qName;
+    }
+
+    /**
+     * The Namespace URI
+     * @return Namespace URI, or the empty string if none
+     */
+    public String getURI()
+    {
+        return uri;
+    }
+
+    /**
+     * The local name
+     * @return local name without any prefix
+     */
+    public String getLocalName()
+    {
+        return localName;
+    }
+
+    /**
+     * The raw XML qualified name
+     * @return qualified name
+     */
+    public String getQName()
+    {
+        return qName;
+    }
+
+    @Override
+    public boolean equals( final Object obj )
+    {
+        if( obj == this )
+        {
+            return true;
+        }
+        else if( obj instanceof QualifiedName )
+        {
+            final QualifiedName o = (QualifiedName) obj;
+            return qName.equals( o.qName ) && uri.equals( o.uri );
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return 31 * qName.hashCode() + uri.hashCode();
+    }
+
+    @Override
+    public String toString()
+    {
+        return qName;
+    }
+}
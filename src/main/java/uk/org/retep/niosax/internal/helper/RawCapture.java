@@ -0,0 +1,390 @@
+/*
+ * <p>Copyright (c) 1998-2010, Peter T Mount<br>
+ * All rights reserved.</p>
+ *
+ * <p>Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:</p>
+ *
+ * <ul>
+ *   <li>Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.</li>
+ *
+ *   <li>Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.</li>
+ *
+ *   <li>Neither the name of the retep.org.uk nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.</li>
+ *
+ * </ul>
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.</p>
+ */
+package uk.org.retep.niosax.internal.helper;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.xml.sax.SAXException;
+import uk.org.retep.niosax.NioSaxCaptureHandler;
+
+/**
+ * Tracks where in the source the current start tag began so that the raw
+ * bytes of an element can be passed to a {@link NioSaxCaptureHandler}.
+ *
+ * <p>
+ *  The parser calls {@link #update(int, char)} with the position of every
+ *  character it decodes itself. This only remembers the position of the
+ *  last &lt;, so nothing is copied unless a start tag is split between two
+ *  calls to parse, in which case the part already parsed is kept until the
+ *  tag is complete. Once capturing, the element is passed to the handler as
+ *  slices of the source at the end of each parse and when it ends.
+ * </p>
+ *
+ * <p>
+ *  With a pass through handler every byte of the source is passed on in the
+ *  same way, except for elements that are skipped. The start of any tag
+ *  still being parsed at the end of a parse is held back, so that if the
+ *  element is skipped none of it has been passed on.
+ * </p>
+ *
+ * @author peter
+ * @since 10.7
+ */
+public final class RawCapture
+{
+
+    // Nothing of interest
+    private static final int NONE = 0;
+    // Immediately after a <
+    private static final int LT = 1;
+    // Within a start tag
+    private static final int TAG = 2;
+    private ByteBuffer buffer;
+    private int state;
+    /**
+     * Position in the buffer of the first byte not yet saved or captured
+     */
+    private int mark;
+    /**
+     * The start of a tag carried over from previous buffers
+     */
+    private byte[] saved = new byte[ 64 ];
+    private int savedLength;
+    private NioSaxCaptureHandler handler;
+    private int nesting;
+    private NioSaxCaptureHandler passThrough;
+    /**
+     * Position in the buffer of the first byte not yet passed through
+     */
+    private int passMark;
+    private boolean skipping;
+    private int skipNesting;
+
+    /**
+     * The handler receiving every byte of the source not skipped
+     * @return {@link NioSaxCaptureHandler} or null if none
+     */
+    public NioSaxCaptureHandler getPassThroughHandler()
+    {
+        return passThrough;
+    }
+
+    /**
+     * Set the handler receiving every byte of the source not skipped. This
+     * is not cleared by {@link #reset()}.
+     * @param passThrough {@link NioSaxCaptureHandler} or null for none
+     */
+    public void setPassThroughHandler( final NioSaxCaptureHandler passThrough )
+    {
+        this.passThrough = passThrough;
+    }
+
+    /**
+     * Discard all state, including any capture in progress
+     */
+    public void reset()
+    {
+        buffer = null;
+        state = NONE;
+        savedLength = 0;
+        handler = null;
+        skipping = false;
+    }
+
+    /**
+     * Called at the start of each parse
+     * @param buffer the buffer being parsed
+     */
+    public void startParse( final ByteBuffer buffer )
+    {
+        this.buffer = buffer;
+        mark = buffer.position();
+        passMark = mark;
+    }
+
+    /**
+     * Called for each character decoded by the parser, before it is parsed
+     *
+     * @param pos the position of the character in the buffer
+     * @param c the character
+     * @throws SAXException from the pass through handler
+     */
+    public void update( final int pos, final char c )
+            throws SAXException
+    {
+        if( c == '<' && handler == null && !skipping )
+        {
+            releaseSaved();
+            state = LT;
+            mark = pos;
+        }
+        else if( state == LT )
+        {
+            // Anything but a start tag. The default parser only calls
+            // startTag after this so anything saved is kept until the next
+            // tag, which is still before any more is passed through
+            state = NONE;
+        }
+    }
+
+    /**
+     * Called by the parser once it has found the first character of the
+     * name in a start tag
+     */
+    public void startTag()
+    {
+        if( handler == null && !skipping )
+        {
+            state = TAG;
+        }
+    }
+
+    /**
+     * Called at the end of each parse, passing any captured bytes to the
+     * handler or keeping an incomplete start tag for the next parse
+     * @throws SAXException from the handler
+     */
+    public void endParse()
+            throws SAXException
+    {
+        if( handler != null )
+        {
+            captured( mark, buffer.position() );
+        }
+        else if( passThrough != null && !skipping )
+        {
+            if( state != NONE )
+            {
+                pass( mark );
+                save();
+            }
+            else
+            {
+                releaseSaved();
+                pass( buffer.position() );
+            }
+        }
+        else if( state != NONE )
+        {
+            save();
+        }
+        buffer = null;
+    }
+
+    /**
+     * Start capturing the element whose start tag has just been parsed
+     *
+     * @param handler {@link NioSaxCaptureHandler} to receive the bytes
+     * @throws SAXException from the handler
+     * @throws IllegalStateException if not called whilst notifying the
+     * handler of a start tag or if already capturing
+     */
+    public void capture( final NioSaxCaptureHandler handler )
+            throws SAXException
+    {
+        if( this.handler != null )
+        {
+            throw new IllegalStateException( "Already capturing an element" );
+        }
+        if( passThrough != null )
+        {
+            throw new IllegalStateException( "Cannot capture whilst passing through" );
+        }
+        if( state != TAG || buffer == null )
+        {
+            throw new IllegalStateException( "capture must be called from startElement" );
+        }
+
+        this.handler = handler;
+        nesting = 0;
+        state = NONE;
+
+        if( savedLength > 0 )
+        {
+            handler.captured( ByteBuffer.wrap( saved, 0, savedLength ).asReadOnlyBuffer() );
+            savedLength = 0;
+        }
+        captured( mark, buffer.position() );
+    }
+
+    /**
+     * Stop passing through the element whose start tag has just been parsed
+     *
+     * @throws SAXException from the pass through handler
+     * @throws IllegalStateException if there is no pass through handler, if
+     * not called whilst notifying the handler of a start tag or if already
+     * skipping
+     */
+    public void skip()
+            throws SAXException
+    {
+        if( passThrough == null )
+        {
+            throw new IllegalStateException( "Not passing through" );
+        }
+        if( skipping )
+        {
+            throw new IllegalStateException( "Already skipping an element" );
+        }
+        if( state != TAG || buffer == null )
+        {
+            throw new IllegalStateException( "skip must be called from startElement" );
+        }
+
+        // Pass on everything before the start tag and drop the tag
+        pass( mark );
+        savedLength = 0;
+        skipping = true;
+        skipNesting = 0;
+        state = NONE;
+    }
+
+    /**
+     * Called by the parser after the handler has been notified of the start
+     * of an element
+     * @throws SAXException from the pass through handler
+     */
+    public void startElement()
+            throws SAXException
+    {
+        if( handler != null )
+        {
+            nesting++;
+        }
+        else if( skipping )
+        {
+            skipNesting++;
+        }
+        else
+        {
+            state = NONE;
+            releaseSaved();
+        }
+    }
+
+    /**
+     * Called by the parser after the handler has been notified of the end of
+     * an element, completing the capture if it was the captured element
+     * @throws SAXException from the handler
+     */
+    public void endElement()
+            throws SAXException
+    {
+        if( handler != null && --nesting <= 0 )
+        {
+            final NioSaxCaptureHandler h = handler;
+            captured( mark, buffer.position() );
+            handler = null;
+            h.endCapture();
+        }
+        else if( skipping && --skipNesting <= 0 )
+        {
+            // Resume after the end tag
+            skipping = false;
+            passMark = buffer.position();
+        }
+    }
+
+    /**
+     * Called by the parser at the end of the document, notifying the pass
+     * through handler
+     * @throws SAXException from the pass through handler
+     */
+    public void endDocument()
+            throws SAXException
+    {
+        if( passThrough != null )
+        {
+            passThrough.endCapture();
+        }
+    }
+
+    private void captured( final int from, final int to )
+            throws SAXException
+    {
+        if( to > from )
+        {
+            final ByteBuffer b = buffer.duplicate();
+            b.limit( to );
+            b.position( from );
+            mark = to;
+            handler.captured( b.slice().asReadOnlyBuffer() );
+        }
+    }
+
+    /**
+     * Pass through the bytes from passMark up to a position
+     */
+    private void pass( final int to )
+            throws SAXException
+    {
+        if( to > passMark )
+        {
+            final ByteBuffer b = buffer.duplicate();
+            b.limit( to );
+            b.position( passMark );
+            passMark = to;
+            passThrough.captured( b.slice().asReadOnlyBuffer() );
+        }
+    }
+
+    /**
+     * Pass through the start of a tag saved from previous buffers, as it was
+     * not the start of an element that has been skipped
+     */
+    private void releaseSaved()
+            throws SAXException
+    {
+        if( savedLength > 0 && passThrough != null && !skipping )
+        {
+            passThrough.captured( ByteBuffer.wrap( saved, 0, savedLength ).asReadOnlyBuffer() );
+        }
+        savedLength = 0;
+    }
+
+    private void save()
+    {
+        final int len = buffer.position() - mark;
+        if( savedLength + len > saved.length )
+        {
+            saved = Arrays.copyOf( saved, Math.max( saved.length << 1, savedLength + len ) );
+        }
+
+        final ByteBuffer b = buffer.duplicate();
+        b.position( mark );
+        b.get( saved, savedLength, len );
+        savedLength += len;
+    }
+}
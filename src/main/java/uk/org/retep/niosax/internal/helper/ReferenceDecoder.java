@@ -0,0 +1,335 @@
+/*
+ * <p>Copyright (c) 1998-2010, Peter T Mount<br>
+ * All rights reserved.</p>
+ *
+ * <p>Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:</p>
+ *
+ * <ul>
+ *   <li>Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.</li>
+ *
+ *   <li>Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.</li>
+ *
+ *   <li>Neither the name of the retep.org.uk nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.</li>
+ *
+ * </ul>
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.</p>
+ */
+package uk.org.retep.niosax.internal.helper;
+
+import org.xml.sax.SAXException;
+import uk.org.retep.niosax.IllegalCharacterException;
+import static uk.org.retep.niosax.internal.helper.XmlSpec.*;
+
+/**
+ * Decodes entity and character references, i.e. the characters between
+ * &amp; and ; inclusive, one character at a time.
+ *
+ * <p>
+ *  The predefined entities (lt, gt, amp, apos and quot) are matched against a
+ *  small static trie, and decimal or hexadecimal character references are
+ *  accumulated as an int. In both cases the result is appended straight to
+ *  an {@link Appendable} so no objects are created, and characters outside
+ *  of the Basic Multilingual Plane are appended as a surrogate pair.
+ * </p>
+ *
+ * <p>
+ *  As only one reference can be parsed at a time, a single instance is owned
+ *  by the parser and shared between element content and attribute values.
+ * </p>
+ *
+ * @author peter
+ * @since 10.7
+ */
+public final class ReferenceDecoder
+{
+
+    /**
+     * The predefined entities, XML 1.0 section 4.6
+     */
+    private static final String[] ENTITY_NAMES =
+    {
+        "lt", "gt", "amp", "apos", "quot"
+    };
+    private static final char[] ENTITY_VALUES =
+    {
+        '<', '>', '&', '\'', '"'
+    };
+    // The trie. Node 0 is the root, each node holding the character leading
+    // to it, its parent, first child, next sibling and the entity value if a
+    // name ends there.
+    private static final char[] TRIE_CHAR;
+    private static final int[] TRIE_PARENT;
+    private static final int[] TRIE_CHILD;
+    private static final int[] TRIE_SIBLING;
+    private static final char[] TRIE_VALUE;
+    // States used once outside of the trie
+    private static final int START = -1;
+    private static final int HASH = -2;
+    private static final int DECIMAL = -3;
+    private static final int HEX_START = -4;
+    private static final int HEX = -5;
+    private static final int MAX_CODE_POINT = 0x10FFFF;
+
+    static
+    {
+        int size = 1;
+        for( String name : ENTITY_NAMES )
+        {
+            size += name.length();
+        }
+
+        TRIE_CHAR = new char[ size ];
+        TRIE_PARENT = new int[ size ];
+        TRIE_CHILD = new int[ size ];
+        TRIE_SIBLING = new int[ size ];
+        TRIE_VALUE = new char[ size ];
+
+        int count = 1;
+        for( int i = 0; i < ENTITY_NAMES.length; i++ )
+        {
+            int node = 0;
+            for( char c : ENTITY_NAMES[i].toCharArray() )
+            {
+                int next = find( node, c );
+                if( next == 0 )
+                {
+                    next = count++;
+                    TRIE_CHAR[next] = c;
+                    TRIE_PARENT[next] = node;
+                    TRIE_SIBLING[next] = TRIE_CHILD[node];
+                    TRIE_CHILD[node] = next;
+                }
+                node = next;
+            }
+            TRIE_VALUE[node] = ENTITY_VALUES[i];
+        }
+    }
+
+    /**
+     * Find the child of a trie node for a character
+     * @param node parent node
+     * @param c character
+     * @return child node or 0 if none
+     */
+    private static int find( final int node, final char c )
+    {
+        for( int n = TRIE_CHILD[node]; n != 0; n = TRIE_SIBLING[n] )
+        {
+            if( TRIE_CHAR[n] == c )
+            {
+                return n;
+            }
+        }
+        return 0;
+    }
+    /**
+     * The current trie node when &gt;= 0, otherwise one of the states above
+     */
+    private int state;
+    /**
+     * The value of a character reference
+     */
+    private int value;
+
+    public ReferenceDecoder()
+    {
+        reset();
+    }
+
+    /**
+     * Prepare for a new reference. This must be called when the &amp; is
+     * found, before passing the following characters to
+     * {@link #parse(char, Appendable)}
+     */
+    public void reset()
+    {
+        state = START;
+        value = 0;
+    }
+
+    /**
+     * Parse the next character of the reference.
+     *
+     * @param c character following the &amp;
+     * @param appendable {@link Appendable} to append the decoded character to
+     * @return true once the terminating ; has been parsed and the character
+     * appended, false if more characters are required
+     * @throws SAXException if the reference is not a predefined entity or is
+     * not a legal character
+     */
+    public boolean parse( final char c, final Appendable appendable )
+            throws SAXException
+    {
+        switch( state )
+        {
+            case START:
+                if( c == '#' )
+                {
+                    state = HASH;
+                    return false;
+                }
+                return entity( 0, c, appendable );
+
+            case HASH:
+                if( c == 'x' )
+                {
+                    state = HEX_START;
+                    return false;
+                }
+                state = DECIMAL;
+                return decimal( c );
+
+            case DECIMAL:
+                if( c == ';' )
+                {
+                    return charRef( appendable );
+                }
+                return decimal( c );
+
+            case HEX_START:
+                state = HEX;
+                return hex( c );
+
+            case HEX:
+                if( c == ';' )
+                {
+                    return charRef( appendable );
+                }
+                return hex( c );
+
+            default:
+                return entity( state, c, appendable );
+        }
+    }
+
+    private boolean entity( final int node, final char c,
+                            final Appendable appendable )
+            throws SAXException
+    {
+        if( c == ';' && node != 0 )
+        {
+            if( TRIE_VALUE[node] == 0 )
+            {
+                throw new SAXException( "Undeclared entity &" + getName( node ) + ";" );
+            }
+            appendable.append( TRIE_VALUE[node] );
+            return true;
+        }
+
+        final int next = find( node, c );
+        if( next == 0 )
+        {
+            if( isNameChar( c ) )
+            {
+                throw new SAXException( "Undeclared entity beginning &" + getName( node ) + c );
+            }
+            throw new IllegalCharacterException( c );
+        }
+
+        state = next;
+        return false;
+    }
+
+    private boolean decimal( final char c )
+            throws SAXException
+    {
+        if( c < '0' || c > '9' )
+        {
+            throw new IllegalCharacterException( c );
+        }
+        value = value * 10 + (c - '0');
+        checkRange();
+        return false;
+    }
+
+    private boolean hex( final char c )
+            throws SAXException
+    {
+        // Only ASCII digits, Character.digit() would accept others
+        final int digit;
+        if( c >= '0' && c <= '9' )
+        {
+            digit = c - '0';
+        }
+        else if( c >= 'a' && c <= 'f' )
+        {
+            digit = c - 'a' + 10;
+        }
+        else if( c >= 'A' && c <= 'F' )
+        {
+            digit = c - 'A' + 10;
+        }
+        else
+        {
+            throw new IllegalCharacterException( c );
+        }
+        value = (value << 4) | digit;
+        checkRange();
+        return false;
+    }
+
+    private void checkRange()
+            throws SAXException
+    {
+        if( value > MAX_CODE_POINT )
+        {
+            throw new SAXException( "Character reference out of range" );
+        }
+    }
+
+    private boolean charRef( final Appendable appendable )
+            throws SAXException
+    {
+        // Char ::= #x9 | #xA | #xD | [#x20-#xD7FF] | [#xE000-#xFFFD] | [#x10000-#x10FFFF]
+        if( value > 0xFFFF )
+        {
+            appendable.append( Character.highSurrogate( value ) );
+            appendable.append( Character.lowSurrogate( value ) );
+        }
+        else if( value == 0x9 || value == 0xA || value == 0xD
+                 || (value >= 0x20 && value <= 0xD7FF)
+                 || (value >= 0xE000 && value <= 0xFFFD) )
+        {
+            appendable.append( (char) value );
+        }
+        else
+        {
+            throw new SAXException( String.format(
+                    "Character reference &#x%X; is not a legal character", value ) );
+        }
+        return true;
+    }
+
+    /**
+     * Rebuild the name leading to a trie node, only used for error messages
+     * @param node trie node
+     * @return name
+     */
+    private static String getName( final int node )
+    {
+        final StringBuilder sb = new StringBuilder();
+        for( int n = node; n != 0; n = TRIE_PARENT[n] )
+        {
+            sb.insert( 0, TRIE_CHAR[n] );
+        }
+        return sb.toString();
+    }
+}
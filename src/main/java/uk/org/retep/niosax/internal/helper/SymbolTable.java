@@ -0,0 +1,261 @@
+/*
+ * <p>Copyright (c) 1998-2010, Peter T Mount<br>
+ * All rights reserved.</p>
+ *
+ * <p>Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:</p>
+ *
+ * <ul>
+ *   <li>Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.</li>
+ *
+ *   <li>Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.</li>
+ *
+ *   <li>Neither the name of the retep.org.uk nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.</li>
+ *
+ * </ul>
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.</p>
+ */
+package uk.org.retep.niosax.internal.helper;
+
+import java.util.Arrays;
+
+/**
+ * A table of the names found within a document.
+ *
+ * <p>
+ *  Documents tend to use a small vocabulary of element and attribute names
+ *  over and over again, so rather than create a new String every time a name
+ *  is parsed the characters are looked up here and the same String instance
+ *  is returned. Only the first occurrence of a name allocates.
+ * </p>
+ *
+ * <p>
+ *  When created with interning enabled every symbol is also
+ *  {@link String#intern() interned} so they can be compared with {@code ==}
+ *  against String literals, as required by the SAX
+ *  http://xml.org/sax/features/string-interning feature.
+ * </p>
+ *
+ * <p>
+ *  To prevent a hostile document from growing the table without limit, once
+ *  it holds {@link #MAX_SYMBOLS} entries new names are still returned but are
+ *  no longer added to the table.
+ * </p>
+ *
+ * @author peter
+ * @since 10.7
+ */
+public final class SymbolTable
+{
+
+    /**
+     * The maximum number of symbols held in the table
+     */
+    public static final int MAX_SYMBOLS = 4096;
+    private static final int INITIAL_SIZE = 64;
+    private final boolean intern;
+    private Entry[] table;
+    private int count;
+
+    /**
+     * Create a new SymbolTable
+     * @param intern true if symbols should also be interned
+     */
+    public SymbolTable( final boolean intern )
+    {
+        this.intern = intern;
+        table = new Entry[ INITIAL_SIZE ];
+    }
+
+    /**
+     * Are the symbols in this table interned
+     * @return true if symbols are interned
+     */
+    public boolean isIntern()
+    {
+        return intern;
+    }
+
+    /**
+     * The number of symbols in the table
+     * @return number of symbols
+     */
+    public int size()
+    {
+        return count;
+    }
+
+    /**
+     * Returns the symbol for a range of characters, adding it to the table if
+     * it is not present.
+     *
+     * @param c char array containing the name
+     * @param off offset of the name in the array
+     * @param len length of the name
+     * @return symbol
+     */
+    public String getSymbol( final char[] c, final int off, final int len )
+    {
+        // The same hash as String.hashCode() so getSymbol(String) can use the
+        // cached hash from the String
+        int hash = 0;
+        for( int i = off, end = off + len; i < end; i++ )
+        {
+            hash = 31 * hash + c[i];
+        }
+
+        for( Entry e = table[hash & (table.length - 1)]; e != null; e = e.next )
+        {
+            if( e.hash == hash && matches( e.symbol, c, off, len ) )
+            {
+                return e.symbol;
+            }
+        }
+
+        return add( new String( c, off, len ), hash );
+    }
+
+    /**
+     * Returns the symbol for a String, adding it to the table if it is not
+     * present.
+     *
+     * @param s String
+     * @return symbol, which may not be the same instance as s
+     */
+    public String getSymbol( final String s )
+    {
+        final int hash = s.hashCode();
+
+        for( Entry e = table[hash & (table.length - 1)]; e != null; e = e.next )
+        {
+            if( e.hash == hash && e.symbol.equals( s ) )
+            {
+                return e.symbol;
+            }
+        }
+
+        return add( s, hash );
+    }
+
+    /**
+     * Returns the symbol for part of a String, adding it to the table if it is
+     * not present.
+     *
+     * @param s String containing the name
+     * @param off offset of the name in s
+     * @param len length of the name
+     * @return symbol
+     */
+    public String getSymbol( final String s, final int off, final int len )
+    {
+        int hash = 0;
+        for( int i = off, end = off + len; i < end; i++ )
+        {
+            hash = 31 * hash + s.charAt( i );
+        }
+
+        for( Entry e = table[hash & (table.length - 1)]; e != null; e = e.next )
+        {
+            if( e.hash == hash && e.symbol.length() == len
+                    && e.symbol.regionMatches( 0, s, off, len ) )
+            {
+                return e.symbol;
+            }
+        }
+
+        return add( s.substring( off, off + len ), hash );
+    }
+
+    /**
+     * Removes all symbols from the table
+     */
+    public void clear()
+    {
+        Arrays.fill( table, null );
+        count = 0;
+    }
+
+    private static boolean matches( final String symbol, final char[] c,
+                                    final int off, final int len )
+    {
+        if( symbol.length() != len )
+        {
+            return false;
+        }
+
+        for( int i = 0; i < len; i++ )
+        {
+            if( symbol.charAt( i ) != c[off + i] )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String add( final String s, final int hash )
+    {
+        final String symbol = intern ? s.intern() : s;
+
+        if( count < MAX_SYMBOLS )
+        {
+            if( count >= (table.length >> 1) + (table.length >> 2) )
+            {
+                rehash();
+            }
+
+            final int idx = hash & (table.length - 1);
+            table[idx] = new Entry( symbol, hash, table[idx] );
+            count++;
+        }
+
+        return symbol;
+    }
+
+    private void rehash()
+    {
+        final Entry[] old = table;
+        table = new Entry[ old.length << 1 ];
+        for( Entry e : old )
+        {
+            while( e != null )
+            {
+                final int idx = e.hash & (table.length - 1);
+                table[idx] = new Entry( e.symbol, e.hash, table[idx] );
+                e = e.next;
+            }
+        }
+    }
+
+    private static final class Entry
+    {
+
+        final String symbol;
+        final int hash;
+        final Entry next;
+
+        Entry( final String symbol, final int hash, final Entry next )
+        {
+            this.symbol = symbol;
+            this.hash = hash;
+            this.next = next;
+        }
+    }
+}
@@ -41,6 +41,7 @@ import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 import uk.org.retep.niosax.internal.helper.DefaultNioSaxParserHandler;
 
+import javax.xml.XMLConstants;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 
@@ -129,13 +130,21 @@ public abstract class AbstractNioDomParser
         final int count = attributes.getLength();
         if (count > 0) {
             for (int i = 0; i < count; i++) {
-                e.setAttributeNS(attributes.getURI(i),
-                        attributes.getLocalName(i),
+                // The qName keeps the prefix, and DOM requires namespace
+                // declarations to be in the xmlns namespace
+                final String attributeQName = attributes.getQName(i);
+                String attributeUri = attributes.getURI(i);
+                if (attributeQName.equals(XMLConstants.XMLNS_ATTRIBUTE)
+                        || attributeQName.startsWith("xmlns:")) {
+                    attributeUri = XMLConstants.XMLNS_ATTRIBUTE_NS_URI;
+                }
+                e.setAttributeNS(attributeUri == null || attributeUri.isEmpty() ? null : attributeUri,
+                        attributeQName,
                         attributes.getValue(i));
             }
         }
 
-        appendElement(node);
+        appendElement(e);
     }
 
     /**
@@ -148,6 +157,11 @@ public abstract class AbstractNioDomParser
     @Override
     public void characters(final char[] ch, final int start, final int length)
             throws SAXException {
+        if (node == null) {
+            // Outside of any element that is being kept
+            return;
+        }
+
         final String s = String.valueOf(ch, start, length);
         if (inCData) {
             node.appendChild(document.createCDATASection(s));
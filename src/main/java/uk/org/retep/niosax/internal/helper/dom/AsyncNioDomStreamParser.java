@@ -0,0 +1,533 @@
+/*
+ * <p>Copyright (c) 1998-2010, Peter T Mount<br>
+ * All rights reserved.</p>
+ *
+ * <p>Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:</p>
+ *
+ * <ul>
+ *   <li>Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.</li>
+ *
+ *   <li>Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.</li>
+ *
+ *   <li>Neither the name of the retep.org.uk nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.</li>
+ *
+ * </ul>
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.</p>
+ */
+package uk.org.retep.niosax.internal.helper.dom;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import javax.xml.parsers.ParserConfigurationException;
+import org.w3c.dom.DOMImplementation;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+import uk.org.retep.niosax.NioSaxParser;
+
+/**
+ * A {@link NioDomStreamParser} which passes each completed node to
+ * {@link StreamListener#nodeTriggered(org.w3c.dom.Node)} on an
+ * {@link Executor} instead of the parsing thread, so that slow listeners do
+ * not hold up parsing and nodes can be processed on many threads.
+ *
+ * <p>
+ *  Nodes with the same key, as returned by a {@link KeyFunction}, are
+ *  delivered one at a time in document order, whilst nodes with different
+ *  keys are delivered in parallel. Without a {@link KeyFunction} every
+ *  node has the same key, so all are delivered in document order but still
+ *  off the parsing thread. A key of null places no order on a node.
+ * </p>
+ *
+ * <p>
+ *  At most maxInFlight nodes are queued or being delivered at once. When
+ *  the limit is reached, if a parser has been set with
+ *  {@link #setParser(uk.org.retep.niosax.NioSaxParser)} it is
+ *  {@link NioSaxParser#pause() paused} so that an event loop thread is never
+ *  blocked, and the capacity listener is called from a worker once there is
+ *  room to resume parsing. Otherwise the parsing thread blocks until there
+ *  is room.
+ * </p>
+ *
+ * <p>
+ *  DOM implementations are not thread safe, not even for reads, so before a
+ *  node is queued it is adopted into a {@link Document} of its own. The
+ *  listener may then use the node, and create nodes in its owner document,
+ *  without racing the parsing thread, which goes on building the next node
+ *  in the parser's document. Nodes must not be moved between documents by
+ *  the listener except through {@link Document#importNode(Node, boolean)}
+ *  or {@link Document#adoptNode(Node)} on the destination's own thread.
+ * </p>
+ *
+ * <p>
+ *  The other {@link StreamListener} methods are still called on the parsing
+ *  thread, so {@link StreamListener#endRootNode(org.w3c.dom.Node)} may be
+ *  called before the last nodes have been delivered.
+ *  {@link #awaitIdle()} waits for them.
+ * </p>
+ *
+ * @author peter
+ * @see NioDomStreamParser
+ * @since 10.7
+ */
+public class AsyncNioDomStreamParser
+        extends NioDomStreamParser
+{
+
+    /**
+     * The key given to every node when there is no {@link KeyFunction}
+     */
+    private static final Object DOCUMENT_ORDER = new Object();
+    private final Executor executor;
+    private final int maxInFlight;
+    private final KeyFunction keyFunction;
+    private final DOMImplementation implementation;
+    private final Object lock = new Object();
+    /**
+     * The nodes waiting for each key being delivered
+     */
+    private final Map<Object, Lane> lanes = new HashMap<Object, Lane>();
+    private int inFlight;
+    private boolean paused;
+    private NioSaxParser parser;
+    private Runnable capacityListener;
+
+    /**
+     * Construct a handler delivering all nodes in document order
+     *
+     * @param triggerDepth the depth in the document to trigger events
+     * @param listener {@link StreamListener} to receive events
+     * @param executor {@link Executor} to deliver nodes on
+     * @param maxInFlight the maximum number of nodes queued or being delivered
+     * @throws ParserConfigurationException if the {@link org.w3c.dom.Document} could not
+     * be created
+     */
+    public AsyncNioDomStreamParser( final int triggerDepth,
+                                    final StreamListener listener,
+                                    final Executor executor,
+                                    final int maxInFlight )
+            throws ParserConfigurationException
+    {
+        this( triggerDepth, listener, executor, maxInFlight, null );
+    }
+
+    /**
+     * Construct a handler delivering nodes in order by key
+     *
+     * @param triggerDepth the depth in the document to trigger events
+     * @param listener {@link StreamListener} to receive events
+     * @param executor {@link Executor} to deliver nodes on
+     * @param maxInFlight the maximum number of nodes queued or being delivered
+     * @param keyFunction {@link KeyFunction} returning the key of each node,
+     * null to deliver all in document order
+     * @throws ParserConfigurationException if the {@link org.w3c.dom.Document} could not
+     * be created
+     * @throws IllegalArgumentException if triggerDepth &lt; 1 or maxInFlight &lt; 1
+     */
+    public AsyncNioDomStreamParser( final int triggerDepth,
+                                    final StreamListener listener,
+                                    final Executor executor,
+                                    final int maxInFlight,
+                                    final KeyFunction keyFunction )
+            throws ParserConfigurationException
+    {
+        super( triggerDepth, listener );
+        if( maxInFlight < 1 )
+        {
+            throw new IllegalArgumentException( "maxInFlight < 1" );
+        }
+        this.executor = executor;
+        this.maxInFlight = maxInFlight;
+        this.keyFunction = keyFunction;
+        implementation = document.getImplementation();
+    }
+
+    /**
+     * A {@link KeyFunction} keying nodes by the value of an attribute, for
+     * example the sender of a stanza. Nodes without the attribute, or which
+     * are not elements, have a null key.
+     *
+     * @param name name of the attribute
+     * @return {@link KeyFunction}
+     */
+    public static KeyFunction attributeKey( final String name )
+    {
+        return new KeyFunction()
+        {
+
+            @Override
+            public Object getKey( final Node node )
+            {
+                return node instanceof Element && ((Element) node).hasAttribute( name )
+                        ? ((Element) node).getAttribute( name ) : null;
+            }
+        };
+    }
+
+    /**
+     * Set the parser to pause when the limit is reached, instead of blocking
+     * the parsing thread
+     *
+     * @param parser {@link NioSaxParser} using this handler, or null to block
+     */
+    public final void setParser( final NioSaxParser parser )
+    {
+        this.parser = parser;
+    }
+
+    /**
+     * Set the {@link Runnable} called once there is room to resume a parser
+     * that was paused because the limit was reached. It is called on the
+     * thread that delivered a node.
+     *
+     * <p>
+     *  The listener may be called before the paused call to
+     *  {@link NioSaxParser#parse(uk.org.retep.niosax.NioSaxSource)} has
+     *  returned, and with an {@link Executor} that runs tasks immediately it
+     *  is called on the parsing thread from within that call. It must
+     *  therefore never call parse itself, but hand the resume to the parsing
+     *  thread, which should check {@link #hasCapacity()} when parse returns
+     *  paused rather than waiting for the listener.
+     * </p>
+     *
+     * @param capacityListener {@link Runnable} or null for none
+     */
+    public final void setCapacityListener( final Runnable capacityListener )
+    {
+        this.capacityListener = capacityListener;
+    }
+
+    /**
+     * The number of nodes queued or being delivered
+     * @return number of nodes in flight
+     */
+    public final int getInFlight()
+    {
+        synchronized( lock )
+        {
+            return inFlight;
+        }
+    }
+
+    /**
+     * Is there room for another node without reaching the limit
+     * @return true if there is room
+     */
+    public final boolean hasCapacity()
+    {
+        synchronized( lock )
+        {
+            return inFlight < maxInFlight;
+        }
+    }
+
+    /**
+     * Block until there is room for another node
+     * @throws InterruptedException if interrupted whilst waiting
+     */
+    public final void awaitCapacity()
+            throws InterruptedException
+    {
+        synchronized( lock )
+        {
+            while( inFlight >= maxInFlight )
+            {
+                lock.wait();
+            }
+        }
+    }
+
+    /**
+     * Block until every node has been delivered
+     * @throws InterruptedException if interrupted whilst waiting
+     */
+    public final void awaitIdle()
+            throws InterruptedException
+    {
+        synchronized( lock )
+        {
+            while( inFlight > 0 )
+            {
+                lock.wait();
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     *  This moves the node into a {@link Document} of its own and queues it
+     *  for delivery on the {@link Executor}.
+     * </p>
+     */
+    @Override
+    protected void nodeTriggered( final Node triggered )
+            throws SAXException
+    {
+        final Node node = detach( triggered );
+        final Object key = keyFunction == null ? DOCUMENT_ORDER : keyFunction.getKey( node );
+
+        Runnable task = null;
+        final boolean full;
+        synchronized( lock )
+        {
+            inFlight++;
+            if( key == null )
+            {
+                task = new Delivery( node );
+            }
+            else
+            {
+                Lane lane = lanes.get( key );
+                if( lane == null )
+                {
+                    lane = new Lane( key );
+                    lanes.put( key, lane );
+                    task = lane;
+                }
+                lane.nodes.addLast( node );
+            }
+            full = inFlight >= maxInFlight;
+            paused = full && parser != null;
+            if( paused )
+            {
+                // Before the task is published, so the parser is always
+                // paused by the time a worker can call the capacity listener
+                parser.pause();
+            }
+        }
+
+        if( task != null )
+        {
+            try
+            {
+                executor.execute( task );
+            }
+            catch( RejectedExecutionException ex )
+            {
+                synchronized( lock )
+                {
+                    if( key != null )
+                    {
+                        lanes.remove( key );
+                    }
+                    inFlight -= key == null ? 1 : ((Lane) task).nodes.size();
+                    paused = false;
+                    lock.notifyAll();
+                }
+                throw new SAXException( ex );
+            }
+        }
+
+        if( full && parser == null )
+        {
+            try
+            {
+                awaitCapacity();
+            }
+            catch( InterruptedException ex )
+            {
+                Thread.currentThread().interrupt();
+                throw new SAXException( ex );
+            }
+        }
+    }
+
+    /**
+     * Move a node out of the parser's document, which the parsing thread
+     * goes on using, into a new document
+     */
+    private Node detach( final Node node )
+            throws SAXException
+    {
+        try
+        {
+            final Document owner = implementation.createDocument( null, null, null );
+            final Node adopted = owner.adoptNode( node );
+            // adoptNode may refuse a node from another implementation
+            return adopted != null ? adopted : owner.importNode( node, true );
+        }
+        catch( RuntimeException ex )
+        {
+            // DOMException
+            throw new SAXException( ex );
+        }
+    }
+
+    private void deliver( final Node node )
+    {
+        try
+        {
+            this.<StreamListener>getListener().nodeTriggered( node );
+        }
+        finally
+        {
+            release( 1 );
+        }
+    }
+
+    /**
+     * Remove nodes from the in flight count, calling the capacity listener
+     * if the parser was paused and there is now room
+     */
+    private void release( final int count )
+    {
+        Runnable resume = null;
+        synchronized( lock )
+        {
+            inFlight -= count;
+            lock.notifyAll();
+            if( paused && inFlight < maxInFlight )
+            {
+                paused = false;
+                resume = capacityListener;
+            }
+        }
+
+        if( resume != null )
+        {
+            resume.run();
+        }
+    }
+
+    /**
+     * Returns the key used to order the delivery of a node
+     */
+    public static interface KeyFunction
+    {
+
+        /**
+         * The key of a node. Nodes with equal keys are delivered in document
+         * order.
+         *
+         * @param node the completed {@link org.w3c.dom.Node}
+         * @return key or null to place no order on the node
+         */
+        Object getKey( Node node );
+    }
+
+    /**
+     * Delivers a node with no key
+     */
+    private final class Delivery
+            implements Runnable
+    {
+
+        private final Node node;
+
+        private Delivery( final Node node )
+        {
+            this.node = node;
+        }
+
+        @Override
+        public void run()
+        {
+            deliver( node );
+        }
+    }
+
+    /**
+     * Delivers the nodes for a key one at a time, running until none are
+     * left so that only one task per key is ever queued on the executor
+     */
+    private final class Lane
+            implements Runnable
+    {
+
+        private final Object key;
+        private final ArrayDeque<Node> nodes = new ArrayDeque<Node>();
+
+        private Lane( final Object key )
+        {
+            this.key = key;
+        }
+
+        @Override
+        public void run()
+        {
+            while( true )
+            {
+                final Node node;
+                synchronized( lock )
+                {
+                    node = nodes.pollFirst();
+                    if( node == null )
+                    {
+                        lanes.remove( key );
+                        return;
+                    }
+                }
+
+                boolean delivered = false;
+                try
+                {
+                    deliver( node );
+                    delivered = true;
+                }
+                finally
+                {
+                    if( !delivered )
+                    {
+                        // The listener failed, so leave the remaining nodes
+                        // to a new task rather than stalling the key
+                        resubmit();
+                    }
+                }
+            }
+        }
+
+        private void resubmit()
+        {
+            synchronized( lock )
+            {
+                if( nodes.isEmpty() )
+                {
+                    lanes.remove( key );
+                    return;
+                }
+            }
+
+            try
+            {
+                executor.execute( this );
+            }
+            catch( RejectedExecutionException ex )
+            {
+                // The remaining nodes can never be delivered so drop them,
+                // otherwise awaitIdle() and awaitCapacity() would never
+                // return
+                final int dropped;
+                synchronized( lock )
+                {
+                    dropped = nodes.size();
+                    nodes.clear();
+                    lanes.remove( key );
+                }
+                release( dropped );
+            }
+        }
+    }
+}
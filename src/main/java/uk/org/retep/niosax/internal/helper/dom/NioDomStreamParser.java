@@ -71,6 +71,11 @@ public class NioDomStreamParser
 
     private final int triggerDepth;
     private int depth;
+    /**
+     * The root node, as nodes down to the trigger depth are not attached to
+     * their parents
+     */
+    private Node root;
 
     /**
      * Construct a handler using the supplied listener.
@@ -121,17 +126,18 @@ public class NioDomStreamParser
     {
         depth++;
 
-        if( depth == 1 )
-        {
-            this.<StreamListener>getListener().startRootNode( node );
-        }
-
         if( depth > triggerDepth )
         {
             node.appendChild( child );
         }
 
         node = child;
+
+        if( depth == 1 )
+        {
+            root = node;
+            this.<StreamListener>getListener().startRootNode( node );
+        }
     }
 
     /**
@@ -145,12 +151,13 @@ public class NioDomStreamParser
     {
         if( depth == triggerDepth )
         {
-            this.<StreamListener>getListener().nodeTriggered( node );
+            nodeTriggered( node );
         }
 
         if( depth == 1 )
         {
-            this.<StreamListener>getListener().endRootNode( node );
+            this.<StreamListener>getListener().endRootNode( root );
+            root = null;
         }
 
         if( depth > triggerDepth )
@@ -165,6 +172,20 @@ public class NioDomStreamParser
         depth--;
     }
 
+    /**
+     * Called once a node at the trigger depth has been completed, passing it
+     * to {@link StreamListener#nodeTriggered(org.w3c.dom.Node)}. The node is
+     * no longer referenced by this parser.
+     *
+     * @param node the completed {@link org.w3c.dom.Node}
+     * @throws SAXException to abort parsing
+     */
+    protected void nodeTriggered( final Node node )
+            throws SAXException
+    {
+        this.<StreamListener>getListener().nodeTriggered( node );
+    }
+
     /**
      * The current depth in the document. The root element has depth 1, it's
      * immediate children 2 and so on.
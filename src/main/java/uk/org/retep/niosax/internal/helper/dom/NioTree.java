@@ -0,0 +1,686 @@
+/*
+ * <p>Copyright (c) 1998-2010, Peter T Mount<br>
+ * All rights reserved.</p>
+ *
+ * <p>Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:</p>
+ *
+ * <ul>
+ *   <li>Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.</li>
+ *
+ *   <li>Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.</li>
+ *
+ *   <li>Neither the name of the retep.org.uk nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.</li>
+ *
+ * </ul>
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.</p>
+ */
+package uk.org.retep.niosax.internal.helper.dom;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import org.xml.sax.Attributes;
+import uk.org.retep.niosax.NioSaxAttributes;
+
+/**
+ * A compact read only tree built by a {@link NioTreeBuilder}, as a lighter
+ * alternative to a DOM {@link org.w3c.dom.Document}.
+ *
+ * <p>
+ *  Nodes are not objects but int identifiers indexing a few parallel int
+ *  arrays, in document order with the root element as node 0. All text and
+ *  attribute values share one char array, and element and attribute names
+ *  are held once each in a name table. Adjacent text is held as a single
+ *  node. Strings are only created when asked for, so a tree costs a few
+ *  ints per node plus its text, and building one allocates almost nothing
+ *  once the arrays have grown to size.
+ * </p>
+ *
+ * <p>
+ *  Navigation uses the identifiers, with -1 meaning no node:
+ * </p>
+ *
+ * <pre>
+ * for( int n = tree.getFirstChildElement( tree.getRoot() ); n != -1; n = tree.getNextSiblingElement( n ) )
+ * {
+ *     String id = tree.getAttribute( n, "id" );
+ * }
+ * String body = tree.getText( tree.find( "message/body" ) );
+ * </pre>
+ *
+ * <p>
+ *  Comments and processing instructions are not kept, and CDATA sections
+ *  are held as text. A tree can be {@link #clear() cleared} and built again,
+ *  reusing its arrays.
+ * </p>
+ *
+ * @author peter
+ * @since 10.7
+ */
+public final class NioTree
+{
+
+    /**
+     * The kind of an element node
+     */
+    public static final int ELEMENT = 1;
+    /**
+     * The kind of a text node
+     */
+    public static final int TEXT = 2;
+    private static final int INITIAL_SIZE = 16;
+    /**
+     * The number of names kept when the tree is cleared, so a tree reused
+     * for documents with unbounded vocabularies does not grow forever
+     */
+    private static final int MAX_NAMES = 4096;
+    // Per node
+    private int[] kind = new int[ INITIAL_SIZE ];
+    private int[] parent = new int[ INITIAL_SIZE ];
+    private int[] firstChild = new int[ INITIAL_SIZE ];
+    private int[] lastChild = new int[ INITIAL_SIZE ];
+    private int[] nextSibling = new int[ INITIAL_SIZE ];
+    /**
+     * The name of an element
+     */
+    private int[] name = new int[ INITIAL_SIZE ];
+    /**
+     * The first attribute of an element or the start of a text node's chars
+     */
+    private int[] start = new int[ INITIAL_SIZE ];
+    /**
+     * The number of attributes of an element or the length of a text node
+     */
+    private int[] length = new int[ INITIAL_SIZE ];
+    private int nodeCount;
+    // Per attribute
+    private int[] attributeName = new int[ INITIAL_SIZE ];
+    private int[] valueStart = new int[ INITIAL_SIZE ];
+    private int[] valueLength = new int[ INITIAL_SIZE ];
+    private int attributeCount;
+    // Shared chars
+    private char[] chars = new char[ 256 ];
+    private int charCount;
+    /**
+     * uri, localName and qName of each name
+     */
+    private String[] names = new String[ 3 * INITIAL_SIZE ];
+    private int nameCount;
+    private final Map<String, Integer> nameIndex = new HashMap<String, Integer>();
+
+    /**
+     * Remove all nodes so the tree can be built again
+     */
+    public void clear()
+    {
+        nodeCount = 0;
+        attributeCount = 0;
+        charCount = 0;
+        if( nameCount > MAX_NAMES )
+        {
+            Arrays.fill( names, null );
+            nameCount = 0;
+            nameIndex.clear();
+        }
+    }
+
+    /**
+     * The number of nodes in the tree
+     * @return number of nodes
+     */
+    public int getNodeCount()
+    {
+        return nodeCount;
+    }
+
+    /**
+     * The root element
+     * @return the root element, or -1 if the tree is empty
+     */
+    public int getRoot()
+    {
+        return nodeCount > 0 ? 0 : -1;
+    }
+
+    /**
+     * The kind of a node
+     * @param node node
+     * @return {@link #ELEMENT} or {@link #TEXT}
+     */
+    public int getKind( final int node )
+    {
+        return kind[check( node )];
+    }
+
+    /**
+     * Is a node an element
+     * @param node node
+     * @return true if the node is an element
+     */
+    public boolean isElement( final int node )
+    {
+        return getKind( node ) == ELEMENT;
+    }
+
+    /**
+     * The parent of a node
+     * @param node node
+     * @return parent element or -1 for the root
+     */
+    public int getParent( final int node )
+    {
+        return parent[check( node )];
+    }
+
+    /**
+     * The first child of a node
+     * @param node node
+     * @return first child or -1 if none
+     */
+    public int getFirstChild( final int node )
+    {
+        return firstChild[check( node )];
+    }
+
+    /**
+     * The next sibling of a node
+     * @param node node
+     * @return next sibling or -1 if none
+     */
+    public int getNextSibling( final int node )
+    {
+        return nextSibling[check( node )];
+    }
+
+    /**
+     * The first child of a node that is an element
+     * @param node node
+     * @return first child element or -1 if none
+     */
+    public int getFirstChildElement( final int node )
+    {
+        return element( getFirstChild( node ) );
+    }
+
+    /**
+     * The next sibling of a node that is an element
+     * @param node node
+     * @return next sibling element or -1 if none
+     */
+    public int getNextSiblingElement( final int node )
+    {
+        return element( getNextSibling( node ) );
+    }
+
+    /**
+     * The first child element of a node with a local name
+     * @param node node
+     * @param localName local name of the child
+     * @return child element or -1 if none
+     */
+    public int getChild( final int node, final String localName )
+    {
+        for( int n = getFirstChildElement( node ); n != -1; n = getNextSiblingElement( n ) )
+        {
+            if( localName.equals( names[3 * name[n] + 1] ) )
+            {
+                return n;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The namespace uri of an element
+     * @param node element
+     * @return namespace uri, empty if none
+     */
+    public String getURI( final int node )
+    {
+        return names[3 * name[checkElement( node )]];
+    }
+
+    /**
+     * The local name of an element
+     * @param node element
+     * @return local name
+     */
+    public String getLocalName( final int node )
+    {
+        return names[3 * name[checkElement( node )] + 1];
+    }
+
+    /**
+     * The qualified name of an element
+     * @param node element
+     * @return qualified name
+     */
+    public String getQName( final int node )
+    {
+        return names[3 * name[checkElement( node )] + 2];
+    }
+
+    /**
+     * The number of attributes of an element
+     * @param node element
+     * @return number of attributes
+     */
+    public int getAttributeCount( final int node )
+    {
+        return length[checkElement( node )];
+    }
+
+    /**
+     * The namespace uri of an attribute
+     * @param node element
+     * @param index index of the attribute
+     * @return namespace uri, empty if none
+     */
+    public String getAttributeURI( final int node, final int index )
+    {
+        return names[3 * attributeName[attribute( node, index )]];
+    }
+
+    /**
+     * The local name of an attribute
+     * @param node element
+     * @param index index of the attribute
+     * @return local name
+     */
+    public String getAttributeLocalName( final int node, final int index )
+    {
+        return names[3 * attributeName[attribute( node, index )] + 1];
+    }
+
+    /**
+     * The qualified name of an attribute
+     * @param node element
+     * @param index index of the attribute
+     * @return qualified name
+     */
+    public String getAttributeQName( final int node, final int index )
+    {
+        return names[3 * attributeName[attribute( node, index )] + 2];
+    }
+
+    /**
+     * The value of an attribute
+     * @param node element
+     * @param index index of the attribute
+     * @return value
+     */
+    public String getAttributeValue( final int node, final int index )
+    {
+        final int a = attribute( node, index );
+        return new String( chars, valueStart[a], valueLength[a] );
+    }
+
+    /**
+     * The value of an attribute by its qualified name
+     * @param node element
+     * @param qName qualified name of the attribute
+     * @return value or null if the element does not have the attribute
+     */
+    public String getAttribute( final int node, final String qName )
+    {
+        final int first = start[checkElement( node )];
+        for( int a = first; a < first + length[node]; a++ )
+        {
+            if( qName.equals( names[3 * attributeName[a] + 2] ) )
+            {
+                return new String( chars, valueStart[a], valueLength[a] );
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The value of an attribute by its namespace uri and local name
+     * @param node element
+     * @param uri namespace uri of the attribute, empty for none
+     * @param localName local name of the attribute
+     * @return value or null if the element does not have the attribute
+     */
+    public String getAttribute( final int node, final String uri,
+                                final String localName )
+    {
+        final int first = start[checkElement( node )];
+        for( int a = first; a < first + length[node]; a++ )
+        {
+            final int n = 3 * attributeName[a];
+            if( localName.equals( names[n + 1] ) && uri.equals( names[n] ) )
+            {
+                return new String( chars, valueStart[a], valueLength[a] );
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The text of a node. For an element this is all of the text within it,
+     * in document order.
+     * @param node node
+     * @return text, empty if none
+     */
+    public String getText( final int node )
+    {
+        if( kind[check( node )] == TEXT )
+        {
+            return new String( chars, start[node], length[node] );
+        }
+
+        final StringBuilder sb = new StringBuilder();
+        appendText( node, sb );
+        return sb.toString();
+    }
+
+    /**
+     * Append the text of a node to a StringBuilder without creating
+     * intermediate Strings.
+     * @param node node
+     * @param sb StringBuilder to append to
+     */
+    public void appendText( final int node, final StringBuilder sb )
+    {
+        if( kind[check( node )] == TEXT )
+        {
+            sb.append( chars, start[node], length[node] );
+        }
+        else
+        {
+            for( int n = firstChild[node]; n != -1; n = nextSibling[n] )
+            {
+                appendText( n, sb );
+            }
+        }
+    }
+
+    /**
+     * Find an element by path from the root, for example
+     * {@code message/body}. Each step of the path is a local name or
+     * {@code *} for any, and the first step matches the root.
+     *
+     * @param path path to the element
+     * @return the first matching element in document order, or -1 if none
+     */
+    public int find( final String path )
+    {
+        final int root = getRoot();
+        if( root == -1 )
+        {
+            return -1;
+        }
+
+        final int end = stepEnd( path, 0 );
+        if( !matches( root, path, 0, end ) )
+        {
+            return -1;
+        }
+        return end == path.length() ? root : find( root, path, end + 1 );
+    }
+
+    /**
+     * Find an element by path relative to an element, for example
+     * {@code body} or {@code html/body}. Each step of the path is a local
+     * name or {@code *} for any.
+     *
+     * @param node the element to start from
+     * @param path path to the element
+     * @return the first matching element in document order, or -1 if none
+     */
+    public int find( final int node, final String path )
+    {
+        return find( checkElement( node ), path, 0 );
+    }
+
+    private int find( final int node, final String path, final int from )
+    {
+        final int end = stepEnd( path, from );
+        for( int n = getFirstChildElement( node ); n != -1; n = getNextSiblingElement( n ) )
+        {
+            if( matches( n, path, from, end ) )
+            {
+                final int found = end == path.length() ? n : find( n, path, end + 1 );
+                if( found != -1 )
+                {
+                    return found;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static int stepEnd( final String path, final int from )
+    {
+        final int end = path.indexOf( '/', from );
+        return end == -1 ? path.length() : end;
+    }
+
+    private boolean matches( final int node, final String path,
+                             final int from, final int end )
+    {
+        final int len = end - from;
+        if( len == 1 && path.charAt( from ) == '*' )
+        {
+            return true;
+        }
+
+        final String localName = names[3 * name[node] + 1];
+        return localName.length() == len && localName.regionMatches( 0, path, from, len );
+    }
+
+    /**
+     * Add an element as the last child of a parent
+     *
+     * @param parentNode parent element or -1 for the root
+     * @param uri namespace uri
+     * @param localName local name
+     * @param qName qualified name
+     * @param atts attributes
+     * @return the new element
+     */
+    int addElement( final int parentNode, final String uri,
+                    final String localName, final String qName,
+                    final Attributes atts )
+    {
+        final int n = addNode( ELEMENT, parentNode );
+        name[n] = name( uri, localName, qName );
+
+        final int count = atts.getLength();
+        start[n] = attributeCount;
+        length[n] = count;
+        if( attributeCount + count > attributeName.length )
+        {
+            final int size = Math.max( attributeName.length << 1, attributeCount + count );
+            attributeName = Arrays.copyOf( attributeName, size );
+            valueStart = Arrays.copyOf( valueStart, size );
+            valueLength = Arrays.copyOf( valueLength, size );
+        }
+        // Copy values straight from a niosax parser's buffer rather than
+        // creating a String for each
+        final NioSaxAttributes nioAtts = atts instanceof NioSaxAttributes
+                ? (NioSaxAttributes) atts : null;
+        for( int i = 0; i < count; i++ )
+        {
+            attributeName[attributeCount] = name( atts.getURI( i ), atts.getLocalName( i ), atts.getQName( i ) );
+            valueStart[attributeCount] = charCount;
+            if( nioAtts != null )
+            {
+                final int len = nioAtts.getValueLength( i );
+                ensureChars( len );
+                System.arraycopy( nioAtts.getValueCharacters(), nioAtts.getValueStart( i ), chars, charCount, len );
+                valueLength[attributeCount] = len;
+                charCount += len;
+            }
+            else
+            {
+                final String value = atts.getValue( i );
+                valueLength[attributeCount] = value.length();
+                ensureChars( value.length() );
+                value.getChars( 0, value.length(), chars, charCount );
+                charCount += value.length();
+            }
+            attributeCount++;
+        }
+        return n;
+    }
+
+    /**
+     * Add text as the last child of a parent, joining it to the previous
+     * text node if there is one
+     *
+     * @param parentNode parent element
+     * @param ch chars
+     * @param offset offset in ch
+     * @param len number of chars
+     */
+    void addText( final int parentNode, final char[] ch, final int offset,
+                  final int len )
+    {
+        final int last = lastChild[parentNode];
+        if( last != -1 && kind[last] == TEXT && start[last] + length[last] == charCount )
+        {
+            length[last] += len;
+        }
+        else
+        {
+            final int n = addNode( TEXT, parentNode );
+            name[n] = -1;
+            start[n] = charCount;
+            length[n] = len;
+        }
+
+        ensureChars( len );
+        System.arraycopy( ch, offset, chars, charCount, len );
+        charCount += len;
+    }
+
+    private int addNode( final int k, final int parentNode )
+    {
+        if( nodeCount == kind.length )
+        {
+            final int size = nodeCount << 1;
+            kind = Arrays.copyOf( kind, size );
+            parent = Arrays.copyOf( parent, size );
+            firstChild = Arrays.copyOf( firstChild, size );
+            lastChild = Arrays.copyOf( lastChild, size );
+            nextSibling = Arrays.copyOf( nextSibling, size );
+            name = Arrays.copyOf( name, size );
+            start = Arrays.copyOf( start, size );
+            length = Arrays.copyOf( length, size );
+        }
+
+        final int n = nodeCount++;
+        kind[n] = k;
+        parent[n] = parentNode;
+        firstChild[n] = -1;
+        lastChild[n] = -1;
+        nextSibling[n] = -1;
+
+        if( parentNode != -1 )
+        {
+            if( lastChild[parentNode] == -1 )
+            {
+                firstChild[parentNode] = n;
+            }
+            else
+            {
+                nextSibling[lastChild[parentNode]] = n;
+            }
+            lastChild[parentNode] = n;
+        }
+        return n;
+    }
+
+    /**
+     * The index of a name in the name table, adding it if new
+     */
+    private int name( final String uri, final String localName,
+                      final String qName )
+    {
+        return name( uri == null ? "" : uri, localName, qName, nameIndex.get( qName ) );
+    }
+
+    private int name( final String uri, final String localName,
+                      final String qName, final Integer i )
+    {
+        if( i != null && uri.equals( names[3 * i] ) )
+        {
+            return i;
+        }
+
+        // New, or a prefix bound to a different uri
+        if( 3 * nameCount == names.length )
+        {
+            names = Arrays.copyOf( names, names.length << 1 );
+        }
+        final int n = nameCount++;
+        names[3 * n] = uri;
+        names[3 * n + 1] = localName;
+        names[3 * n + 2] = qName;
+        nameIndex.put( qName, n );
+        return n;
+    }
+
+    private void ensureChars( final int len )
+    {
+        if( charCount + len > chars.length )
+        {
+            chars = Arrays.copyOf( chars, Math.max( chars.length << 1, charCount + len ) );
+        }
+    }
+
+    private int element( int node )
+    {
+        while( node != -1 && kind[node] != ELEMENT )
+        {
+            node = nextSibling[node];
+        }
+        return node;
+    }
+
+    private int attribute( final int node, final int index )
+    {
+        if( index < 0 || index >= length[checkElement( node )] )
+        {
+            throw new IndexOutOfBoundsException( "No attribute " + index );
+        }
+        return start[node] + index;
+    }
+
+    private int check( final int node )
+    {
+        if( node < 0 || node >= nodeCount )
+        {
+            throw new IndexOutOfBoundsException( "No node " + node );
+        }
+        return node;
+    }
+
+    private int checkElement( final int node )
+    {
+        if( kind[check( node )] != ELEMENT )
+        {
+            throw new IllegalArgumentException( "Node " + node + " is not an element" );
+        }
+        return node;
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * <p>Copyright (c) 1998-2010, Peter T Mount<br>
+ * All rights reserved.</p>
+ *
+ * <p>Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:</p>
+ *
+ * <ul>
+ *   <li>Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.</li>
+ *
+ *   <li>Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.</li>
+ *
+ *   <li>Neither the name of the retep.org.uk nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.</li>
+ *
+ * </ul>
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.</p>
+ */
+package uk.org.retep.niosax.internal.helper.dom;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import uk.org.retep.niosax.internal.helper.DefaultNioSaxParserHandler;
+
+/**
+ * A {@link uk.org.retep.niosax.NioSaxParserHandler} implementation which
+ * builds a compact {@link NioTree} from an {@link uk.org.retep.niosax.NioSaxParser}.
+ *
+ * <p>
+ *  Unlike {@link NioDomParser} no object is created per node, so this is
+ *  suited to inspecting many small documents or stanzas. The tree is
+ *  cleared by {@link #startDocument()}, so a builder and its tree can be
+ *  reused for each document without allocating again.
+ * </p>
+ *
+ * @author peter
+ * @see NioTree
+ * @since 10.7
+ */
+public class NioTreeBuilder
+        extends DefaultNioSaxParserHandler
+{
+
+    private final NioTree tree;
+    /**
+     * The current element, -1 outside the root
+     */
+    private int node = -1;
+
+    /**
+     * Construct a builder with a new tree
+     */
+    public NioTreeBuilder()
+    {
+        this( new NioTree() );
+    }
+
+    /**
+     * Construct a builder that populates an existing tree
+     * @param tree {@link NioTree} to build
+     */
+    public NioTreeBuilder( final NioTree tree )
+    {
+        this.tree = tree;
+    }
+
+    /**
+     * The {@link NioTree} being built
+     * @return {@link NioTree}
+     */
+    public final NioTree getTree()
+    {
+        return tree;
+    }
+
+    @Override
+    public void startDocument()
+            throws SAXException
+    {
+        tree.clear();
+        node = -1;
+    }
+
+    @Override
+    public void startElement( final String uri, final String localName,
+                              final String qName, final Attributes attributes )
+            throws SAXException
+    {
+        if( node == -1 && tree.getNodeCount() > 0 )
+        {
+            throw new SAXException( "Document already has a root element" );
+        }
+        node = tree.addElement( node, uri, localName, qName, attributes );
+    }
+
+    @Override
+    public void endElement( final String uri, final String localName,
+                            final String qName )
+            throws SAXException
+    {
+        node = tree.getParent( node );
+    }
+
+    @Override
+    public void characters( final char[] ch, final int start, final int length )
+            throws SAXException
+    {
+        // Whitespace outside the root is not part of the tree
+        if( node != -1 && length > 0 )
+        {
+            tree.addText( node, ch, start, length );
+        }
+    }
+
+    @Override
+    public void ignorableWhitespace( final char[] ch, final int start,
+                                     final int length )
+            throws SAXException
+    {
+        characters( ch, start, length );
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * <p>Copyright (c) 1998-2010, Peter T Mount<br>
+ * All rights reserved.</p>
+ *
+ * <p>Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:</p>
+ *
+ * <ul>
+ *   <li>Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.</li>
+ *
+ *   <li>Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.</li>
+ *
+ *   <li>Neither the name of the retep.org.uk nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.</li>
+ *
+ * </ul>
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.</p>
+ */
+package uk.org.retep.niosax.io;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import uk.org.retep.niosax.CompositeNioSaxSource;
+
+/**
+ * A pool of equally sized {@link ByteBuffer}s, direct unless created
+ * otherwise.
+ *
+ * <p>
+ *  Connections that are idle for most of their life need only hold a buffer
+ *  whilst they have unparsed content, so by returning buffers to a pool the
+ *  memory used is proportional to the number of active connections rather
+ *  than the number of open ones.
+ * </p>
+ *
+ * <p>
+ *  By default a BufferPool is not thread safe. It is intended to be owned by
+ *  a single thread, such as one of the event loops in a {@link NioSaxReactor},
+ *  so that no locking is required. A shared pool, as used by
+ *  {@link NioSaxDriver}, may be used by any number of threads and is lock
+ *  free.
+ * </p>
+ *
+ * <p>
+ *  As a {@link CompositeNioSaxSource.Recycler} a pool can be passed directly
+ *  to a {@link CompositeNioSaxSource} to have buffers returned once parsed.
+ * </p>
+ *
+ * @author peter
+ * @since 10.7
+ */
+public final class BufferPool
+        implements CompositeNioSaxSource.Recycler
+{
+
+    private final Deque<ByteBuffer> pool;
+    /**
+     * The number of free buffers in a shared pool, whose deque cannot count
+     * them cheaply. null if the pool is not shared.
+     */
+    private final AtomicInteger count;
+    private final int bufferSize;
+    private final int maxPooled;
+    private final boolean direct;
+
+    /**
+     * Create an unshared pool of direct buffers
+     * @param bufferSize capacity of each buffer
+     * @param maxPooled the maximum number of free buffers to hold, any more
+     * are left to the garbage collector
+     */
+    public BufferPool( final int bufferSize, final int maxPooled )
+    {
+        this( bufferSize, maxPooled, true, false );
+    }
+
+    /**
+     * Create a pool
+     * @param bufferSize capacity of each buffer
+     * @param maxPooled the maximum number of free buffers to hold, any more
+     * are left to the garbage collector
+     * @param direct true for direct buffers, false for heap buffers
+     * @param shared true if the pool is to be used by more than one thread
+     */
+    public BufferPool( final int bufferSize, final int maxPooled,
+                       final boolean direct, final boolean shared )
+    {
+        if( bufferSize < 1 || maxPooled < 0 )
+        {
+            throw new IllegalArgumentException();
+        }
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+        this.direct = direct;
+        if( shared )
+        {
+            pool = new ConcurrentLinkedDeque<ByteBuffer>();
+            count = new AtomicInteger();
+        }
+        else
+        {
+            pool = new ArrayDeque<ByteBuffer>( Math.min( maxPooled, 64 ) );
+            count = null;
+        }
+    }
+
+    /**
+     * The capacity of the buffers in this pool
+     * @return capacity in bytes
+     */
+    public int getBufferSize()
+    {
+        return bufferSize;
+    }
+
+    /**
+     * Does this pool hold direct buffers
+     * @return true if direct, false if heap buffers
+     */
+    public boolean isDirect()
+    {
+        return direct;
+    }
+
+    /**
+     * Can this pool be used by more than one thread
+     * @return true if shared
+     */
+    public boolean isShared()
+    {
+        return count != null;
+    }
+
+    /**
+     * The number of free buffers held by the pool
+     * @return number of free buffers
+     */
+    public int size()
+    {
+        return count == null ? pool.size() : count.get();
+    }
+
+    /**
+     * Take a cleared buffer from the pool, allocating a new one if the pool is
+     * empty
+     * @return {@link ByteBuffer} ready to be written to
+     */
+    public ByteBuffer acquire()
+    {
+        final ByteBuffer buffer = pool.pollFirst();
+        if( buffer == null )
+        {
+            return direct ? ByteBuffer.allocateDirect( bufferSize ) : ByteBuffer.allocate( bufferSize );
+        }
+        if( count != null )
+        {
+            count.decrementAndGet();
+        }
+        return buffer;
+    }
+
+    /**
+     * Return a buffer to the pool. The buffer must not be used by the caller
+     * afterwards.
+     * @param buffer {@link ByteBuffer} previously returned by {@link #acquire()}
+     */
+    public void release( final ByteBuffer buffer )
+    {
+        if( buffer.capacity() != bufferSize || buffer.isDirect() != direct )
+        {
+            return;
+        }
+
+        if( count == null )
+        {
+            if( pool.size() < maxPooled )
+            {
+                buffer.clear();
+                pool.addFirst( buffer );
+            }
+        }
+        else if( count.incrementAndGet() <= maxPooled )
+        {
+            buffer.clear();
+            pool.addFirst( buffer );
+        }
+        else
+        {
+            count.decrementAndGet();
+        }
+    }
+
+    /**
+     * {@inheritDoc }
+     * <p>
+     *  This is the same as {@link #release(java.nio.ByteBuffer)}.
+     * </p>
+     */
+    @Override
+    public void recycle( final ByteBuffer buffer )
+    {
+        release( buffer );
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * <p>Copyright (c) 1998-2010, Peter T Mount<br>
+ * All rights reserved.</p>
+ *
+ * <p>Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:</p>
+ *
+ * <ul>
+ *   <li>Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.</li>
+ *
+ *   <li>Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.</li>
+ *
+ *   <li>Neither the name of the retep.org.uk nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.</li>
+ *
+ * </ul>
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.</p>
+ */
+package uk.org.retep.niosax.io;
+
+import java.nio.channels.SelectableChannel;
+import uk.org.retep.niosax.NioSaxParser;
+
+/**
+ * Notified by a {@link NioSaxReactor} when it stops reading from a channel.
+ *
+ * <p>
+ *  Methods are called on the reactor's event loop thread so must not block.
+ * </p>
+ *
+ * @author peter
+ * @since 10.7
+ */
+public interface NioSaxChannelListener
+{
+
+    /**
+     * The end of stream has been reached. {@link NioSaxParser#endDocument()}
+     * has been called and the channel closed.
+     *
+     * @param channel the channel
+     * @param parser the {@link NioSaxParser} attached to the channel
+     */
+    void closed( SelectableChannel channel, NioSaxParser parser );
+
+    /**
+     * Reading or parsing failed. The channel has been closed.
+     *
+     * @param channel the channel
+     * @param parser the {@link NioSaxParser} attached to the channel
+     * @param e the cause, an {@link java.io.IOException}, a
+     * {@link org.xml.sax.SAXException} or a {@link RuntimeException} thrown
+     * by a handler
+     */
+    void failed( SelectableChannel channel, NioSaxParser parser, Exception e );
+}
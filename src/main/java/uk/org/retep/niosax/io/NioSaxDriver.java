@@ -0,0 +1,255 @@
+/*
+ * <p>Copyright (c) 1998-2010, Peter T Mount<br>
+ * All rights reserved.</p>
+ *
+ * <p>Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:</p>
+ *
+ * <ul>
+ *   <li>Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.</li>
+ *
+ *   <li>Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.</li>
+ *
+ *   <li>Neither the name of the retep.org.uk nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.</li>
+ *
+ * </ul>
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.</p>
+ */
+package uk.org.retep.niosax.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+import org.xml.sax.SAXException;
+import uk.org.retep.niosax.NioSaxParser;
+import uk.org.retep.niosax.NioSaxSource;
+import uk.org.retep.niosax.charset.Charset;
+
+/**
+ * Parses a complete document from a blocking {@link ReadableByteChannel} or
+ * {@link InputStream}, managing the buffer and read loop on behalf of the
+ * caller.
+ *
+ * <p>
+ *  A single instance can be shared by any number of threads, each parsing
+ *  its own document with its own {@link NioSaxParser}. Buffers are taken
+ *  from shared {@link BufferPool}s, which are lock free, so no monitor is
+ *  held while reading. This makes
+ *  the driver suitable for running one document per task on a large number
+ *  of threads, including virtual threads on later JVMs where blocking
+ *  inside a synchronized block would pin the carrier thread.
+ * </p>
+ *
+ * <p>
+ *  Channels are read into direct buffers. Streams are read into heap
+ *  buffers through their backing array, as reading an InputStream into a
+ *  direct buffer needs an extra copy, and {@link java.nio.channels.Channels#newChannel(java.io.InputStream) }
+ *  synchronizes around each read.
+ * </p>
+ *
+ * <p>
+ *  As the driver owns the read loop a handler that
+ *  {@link NioSaxParser#pause() pauses} the parser only splits the parse of
+ *  the current buffer. Parsing resumes straight away with whatever remains,
+ *  including at the end of the stream.
+ * </p>
+ *
+ * @author peter
+ * @since 10.7
+ */
+public final class NioSaxDriver
+{
+
+    /**
+     * The default size of the buffers
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+    /**
+     * The default number of free buffers of each kind kept in the pool
+     */
+    public static final int DEFAULT_MAX_POOLED = 64;
+    private final BufferPool directPool;
+    private final BufferPool heapPool;
+
+    /**
+     * Create a driver with the default buffer size and pool
+     */
+    public NioSaxDriver()
+    {
+        this( DEFAULT_BUFFER_SIZE, DEFAULT_MAX_POOLED );
+    }
+
+    /**
+     * Create a driver
+     * @param bufferSize size of the buffers used to read
+     * @param maxPooled the number of free buffers of each kind to keep
+     */
+    public NioSaxDriver( final int bufferSize, final int maxPooled )
+    {
+        if( bufferSize < 16 || maxPooled < 0 )
+        {
+            throw new IllegalArgumentException();
+        }
+        directPool = new BufferPool( bufferSize, maxPooled, true, true );
+        heapPool = new BufferPool( bufferSize, maxPooled, false, true );
+    }
+
+    /**
+     * Parse a document from a blocking channel until the end of stream.
+     *
+     * <p>
+     *  This calls {@link NioSaxParser#startDocument()} and, once the content
+     *  has been parsed, {@link NioSaxParser#endDocument()}. The channel is not
+     *  closed. If parsing fails the parser is {@link NioSaxParser#reset() reset}
+     *  so that it can be reused, unless it fails because the parser is
+     *  already parsing another document.
+     * </p>
+     *
+     * @param parser {@link NioSaxParser} to parse the content
+     * @param channel channel to read from, which must be in blocking mode
+     * @param charset {@link Charset} of the content, null for UTF-8
+     * @throws IOException if reading fails
+     * @throws SAXException if the content fails to parse
+     */
+    public void parse( final NioSaxParser parser,
+                       final ReadableByteChannel channel,
+                       final Charset charset )
+            throws IOException,
+                   SAXException
+    {
+        if( channel instanceof SelectableChannel && !((SelectableChannel) channel).isBlocking() )
+        {
+            throw new IllegalArgumentException( "Channel must be in blocking mode" );
+        }
+
+        // Outside the try, as a parser already in use must not be reset
+        parser.startDocument();
+
+        final ByteBuffer buffer = directPool.acquire();
+        boolean complete = false;
+        try
+        {
+            final NioSaxSource source = new NioSaxSource( charset, buffer );
+            while( channel.read( buffer ) >= 0 )
+            {
+                parse( parser, source );
+            }
+            endDocument( parser, source );
+            complete = true;
+        }
+        finally
+        {
+            if( !complete )
+            {
+                parser.reset();
+            }
+            directPool.release( buffer );
+        }
+    }
+
+    /**
+     * Parse a document from an InputStream until the end of stream.
+     *
+     * <p>
+     *  This calls {@link NioSaxParser#startDocument()} and, once the content
+     *  has been parsed, {@link NioSaxParser#endDocument()}. The stream is not
+     *  closed. If parsing fails the parser is {@link NioSaxParser#reset() reset}
+     *  so that it can be reused, unless it fails because the parser is
+     *  already parsing another document.
+     * </p>
+     *
+     * @param parser {@link NioSaxParser} to parse the content
+     * @param in InputStream to read from
+     * @param charset {@link Charset} of the content, null for UTF-8
+     * @throws IOException if reading fails
+     * @throws SAXException if the content fails to parse
+     */
+    public void parse( final NioSaxParser parser,
+                       final InputStream in,
+                       final Charset charset )
+            throws IOException,
+                   SAXException
+    {
+        // Outside the try, as a parser already in use must not be reset
+        parser.startDocument();
+
+        final ByteBuffer buffer = heapPool.acquire();
+        boolean complete = false;
+        try
+        {
+            final NioSaxSource source = new NioSaxSource( charset, buffer );
+            final byte[] b = buffer.array();
+            final int offset = buffer.arrayOffset();
+
+            int n;
+            while( (n = in.read( b, offset + buffer.position(), buffer.remaining() )) >= 0 )
+            {
+                buffer.position( buffer.position() + n );
+                parse( parser, source );
+            }
+            endDocument( parser, source );
+            complete = true;
+        }
+        finally
+        {
+            if( !complete )
+            {
+                parser.reset();
+            }
+            heapPool.release( buffer );
+        }
+    }
+
+    /**
+     * Parse what has been read, keeping any incomplete character at the
+     * start of the buffer for the next read
+     */
+    private void parse( final NioSaxParser parser, final NioSaxSource source )
+            throws SAXException
+    {
+        final ByteBuffer buffer = source.getByteBuffer();
+        buffer.flip();
+        parser.parse( source );
+        buffer.compact();
+    }
+
+    /**
+     * Parse anything left unparsed because the parser was paused, then end
+     * the document
+     */
+    private void endDocument( final NioSaxParser parser,
+                              final NioSaxSource source )
+            throws SAXException
+    {
+        final ByteBuffer buffer = source.getByteBuffer();
+        while( buffer.position() > 0 && parser.isPaused() )
+        {
+            parse( parser, source );
+        }
+
+        if( buffer.position() > 0 )
+        {
+            throw new SAXException( "Incomplete character at end of input" );
+        }
+        parser.endDocument();
+    }
+}
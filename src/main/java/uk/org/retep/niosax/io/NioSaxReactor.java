@@ -0,0 +1,582 @@
+/*
+ * <p>Copyright (c) 1998-2010, Peter T Mount<br>
+ * All rights reserved.</p>
+ *
+ * <p>Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:</p>
+ *
+ * <ul>
+ *   <li>Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.</li>
+ *
+ *   <li>Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.</li>
+ *
+ *   <li>Neither the name of the retep.org.uk nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.</li>
+ *
+ * </ul>
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.</p>
+ */
+package uk.org.retep.niosax.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.xml.sax.SAXException;
+import uk.org.retep.niosax.CompositeNioSaxSource;
+import uk.org.retep.niosax.NioSaxParser;
+import uk.org.retep.niosax.charset.Charset;
+
+/**
+ * Drives many {@link NioSaxParser}s from a small number of event loop
+ * threads, each with its own {@link Selector}.
+ *
+ * <p>
+ *  A channel is registered together with the {@link NioSaxParser} that will
+ *  parse its content. Whenever the channel is readable the reactor reads what
+ *  is available into a buffer and passes it to the parser through a
+ *  {@link CompositeNioSaxSource}, so an incomplete character at the end of
+ *  one read is completed by the next without compacting the buffer. Buffers
+ *  are taken from a {@link BufferPool} owned by the event loop and are
+ *  returned as soon as their content has been parsed, so idle channels hold
+ *  no buffer unless a character is split between reads.
+ * </p>
+ *
+ * <p>
+ *  All parsing for a channel happens on the same event loop thread, so the
+ *  handlers attached to a parser are never called concurrently and must not
+ *  block.
+ * </p>
+ *
+ * <p>
+ *  A handler may {@link NioSaxParser#pause() pause} its parser, for example
+ *  to hand a stanza to another thread. The reactor then stops reading from
+ *  that channel, keeping any unparsed content, until {@link #resume(SelectableChannel)}
+ *  is called, which continues parsing from where it stopped.
+ * </p>
+ *
+ * <pre>
+ * NioSaxReactor reactor = new NioSaxReactor();
+ * reactor.start();
+ * ...
+ * SocketChannel channel = serverSocketChannel.accept();
+ * reactor.register( channel, factory.newInstance( handler ), null, listener );
+ * </pre>
+ *
+ * @author peter
+ * @since 10.7
+ */
+public final class NioSaxReactor
+        implements Closeable
+{
+
+    /**
+     * The default size of the buffers used to read from channels
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+    /**
+     * The default number of free buffers each event loop keeps
+     */
+    public static final int DEFAULT_MAX_POOLED = 1024;
+    private final EventLoop[] loops;
+    private final AtomicInteger next = new AtomicInteger();
+    private volatile boolean running;
+
+    /**
+     * Create a reactor with one event loop per available processor
+     * @throws IOException if a {@link Selector} cannot be opened
+     */
+    public NioSaxReactor()
+            throws IOException
+    {
+        this( Runtime.getRuntime().availableProcessors(), DEFAULT_BUFFER_SIZE, DEFAULT_MAX_POOLED );
+    }
+
+    /**
+     * Create a reactor
+     * @param threads number of event loop threads
+     * @param bufferSize size of the buffers used to read from channels
+     * @param maxPooled the number of free buffers each event loop keeps
+     * @throws IOException if a {@link Selector} cannot be opened
+     */
+    public NioSaxReactor( final int threads, final int bufferSize,
+                          final int maxPooled )
+            throws IOException
+    {
+        if( threads < 1 )
+        {
+            throw new IllegalArgumentException( "threads must be at least 1" );
+        }
+
+        loops = new EventLoop[ threads ];
+        try
+        {
+            for( int i = 0; i < threads; i++ )
+            {
+                loops[i] = new EventLoop( i, new BufferPool( bufferSize, maxPooled ) );
+            }
+        }
+        catch( IOException ex )
+        {
+            close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Start the event loop threads
+     */
+    public void start()
+    {
+        if( running )
+        {
+            throw new IllegalStateException( "Reactor already started" );
+        }
+        running = true;
+        for( EventLoop loop : loops )
+        {
+            loop.thread.start();
+        }
+    }
+
+    /**
+     * Is the reactor running
+     * @return true if started and not closed
+     */
+    public boolean isRunning()
+    {
+        return running;
+    }
+
+    /**
+     * Register a channel with the reactor. The channel is placed into
+     * non-blocking mode and assigned to one of the event loops.
+     *
+     * <p>
+     *  The event loop calls {@link NioSaxParser#startDocument()} before the
+     *  first read, and {@link NioSaxParser#endDocument()} once the end of the
+     *  stream has been reached.
+     * </p>
+     *
+     * @param channel channel to read from, which must also be a
+     * {@link ReadableByteChannel}
+     * @param parser {@link NioSaxParser} to parse the content
+     * @param charset {@link Charset} of the content, null for UTF-8
+     * @param listener {@link NioSaxChannelListener} to notify when the channel
+     * is closed, may be null
+     * @throws IOException if the channel cannot be made non-blocking
+     */
+    public void register( final SelectableChannel channel,
+                          final NioSaxParser parser,
+                          final Charset charset,
+                          final NioSaxChannelListener listener )
+            throws IOException
+    {
+        if( !(channel instanceof ReadableByteChannel) )
+        {
+            throw new IllegalArgumentException( "Channel is not readable" );
+        }
+        if( !running )
+        {
+            throw new IllegalStateException( "Reactor is not running" );
+        }
+
+        channel.configureBlocking( false );
+
+        final int i = (next.getAndIncrement() & Integer.MAX_VALUE) % loops.length;
+        final EventLoop loop = loops[i];
+        loop.register( new Connection( channel, parser, charset, listener, loop.pool ) );
+    }
+
+    /**
+     * Resume a channel whose parser was paused by one of its handlers. The
+     * content already read is parsed on the channel's event loop thread, and
+     * unless the parser is paused again the reactor goes back to reading
+     * from the channel. This may be called from any thread.
+     *
+     * @param channel a channel registered with this reactor
+     * @return true if the channel is registered, false if it is unknown or
+     * has been closed
+     */
+    public boolean resume( final SelectableChannel channel )
+    {
+        for( EventLoop loop : loops )
+        {
+            final SelectionKey key = channel.keyFor( loop.selector );
+            if( key != null )
+            {
+                if( !key.isValid() )
+                {
+                    return false;
+                }
+                loop.resume( (Connection) key.attachment() );
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Stop the event loops. Any channels still registered are closed without
+     * their listeners being notified.
+     */
+    @Override
+    public void close()
+    {
+        running = false;
+        for( EventLoop loop : loops )
+        {
+            if( loop != null )
+            {
+                if( loop.thread.getState() == Thread.State.NEW )
+                {
+                    // Never started so clean up here
+                    loop.shutdown();
+                }
+                else
+                {
+                    loop.selector.wakeup();
+                }
+            }
+        }
+
+        for( EventLoop loop : loops )
+        {
+            if( loop != null && loop.thread.isAlive() && loop.thread != Thread.currentThread() )
+            {
+                try
+                {
+                    loop.thread.join();
+                }
+                catch( InterruptedException ex )
+                {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * The state held for each registered channel
+     */
+    private static final class Connection
+    {
+
+        private final SelectableChannel channel;
+        private final NioSaxParser parser;
+        /**
+         * Holds any buffer with unparsed content
+         */
+        private final CompositeNioSaxSource source;
+        private final NioSaxChannelListener listener;
+        /**
+         * True while the parser is paused and the channel is not being read.
+         * Only used by the event loop thread.
+         */
+        private boolean paused;
+
+        private Connection( final SelectableChannel channel,
+                            final NioSaxParser parser,
+                            final Charset charset,
+                            final NioSaxChannelListener listener,
+                            final BufferPool pool )
+        {
+            this.channel = channel;
+            this.parser = parser;
+            this.source = new CompositeNioSaxSource( charset, pool );
+            this.listener = listener;
+        }
+    }
+
+    /**
+     * A single event loop thread and its {@link Selector}
+     */
+    private final class EventLoop
+            implements Runnable
+    {
+
+        private final Selector selector;
+        private final BufferPool pool;
+        private final Queue<Connection> pending;
+        private final Queue<Connection> resumed;
+        private final Thread thread;
+
+        private EventLoop( final int id, final BufferPool pool )
+                throws IOException
+        {
+            this.pool = pool;
+            selector = Selector.open();
+            pending = new ConcurrentLinkedQueue<Connection>();
+            resumed = new ConcurrentLinkedQueue<Connection>();
+            thread = new Thread( this, "niosax-reactor-" + id );
+            thread.setDaemon( true );
+        }
+
+        private void register( final Connection connection )
+        {
+            pending.add( connection );
+            selector.wakeup();
+        }
+
+        private void resume( final Connection connection )
+        {
+            resumed.add( connection );
+            selector.wakeup();
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                while( running )
+                {
+                    selector.select();
+                    registerPending();
+                    resumePending();
+
+                    final Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while( it.hasNext() )
+                    {
+                        final SelectionKey key = it.next();
+                        it.remove();
+                        if( key.isValid() && key.isReadable() )
+                        {
+                            read( key, (Connection) key.attachment() );
+                        }
+                    }
+                }
+            }
+            catch( IOException ex )
+            {
+                // The selector has failed so nothing more can be done
+            }
+            finally
+            {
+                shutdown();
+            }
+        }
+
+        private void registerPending()
+        {
+            Connection connection;
+            while( (connection = pending.poll()) != null )
+            {
+                try
+                {
+                    connection.parser.startDocument();
+                    connection.channel.register( selector, SelectionKey.OP_READ, connection );
+                }
+                catch( IOException ex )
+                {
+                    failed( null, connection, ex );
+                }
+                catch( SAXException ex )
+                {
+                    failed( null, connection, ex );
+                }
+                catch( RuntimeException ex )
+                {
+                    // A faulty handler must only fail its own connection
+                    failed( null, connection, ex );
+                }
+            }
+        }
+
+        private void resumePending()
+        {
+            Connection connection;
+            while( (connection = resumed.poll()) != null )
+            {
+                final SelectionKey key = connection.channel.keyFor( selector );
+                if( key == null || !key.isValid() || !connection.paused )
+                {
+                    continue;
+                }
+
+                try
+                {
+                    connection.paused = false;
+                    parse( key, connection );
+                }
+                catch( SAXException ex )
+                {
+                    failed( key, connection, ex );
+                }
+                catch( RuntimeException ex )
+                {
+                    failed( key, connection, ex );
+                }
+            }
+        }
+
+        /**
+         * Parse the content held for a connection. If the parser is paused
+         * stop reading from the channel until it is resumed.
+         */
+        private void parse( final SelectionKey key, final Connection connection )
+                throws SAXException
+        {
+            // With nothing to parse the parser is not called, so its paused
+            // flag would be left over from the last pause
+            if( connection.source.getBufferCount() > 0 )
+            {
+                connection.source.parse( connection.parser );
+                connection.paused = connection.parser.isPaused();
+            }
+            key.interestOps( connection.paused ? 0 : SelectionKey.OP_READ );
+        }
+
+        private void read( final SelectionKey key, final Connection connection )
+        {
+            final ByteBuffer buffer = pool.acquire();
+            try
+            {
+                final int n;
+                try
+                {
+                    n = ((ReadableByteChannel) connection.channel).read( buffer );
+                }
+                catch( IOException ex )
+                {
+                    pool.release( buffer );
+                    throw ex;
+                }
+
+                if( n < 0 )
+                {
+                    pool.release( buffer );
+                    if( connection.source.remaining() > 0 )
+                    {
+                        throw new SAXException( "Incomplete character at end of input" );
+                    }
+                    release( connection );
+                    key.cancel();
+                    connection.channel.close();
+                    connection.parser.endDocument();
+                    if( connection.listener != null )
+                    {
+                        connection.listener.closed( connection.channel, connection.parser );
+                    }
+                    return;
+                }
+
+                // The source returns each buffer to the pool once parsed
+                buffer.flip();
+                connection.source.add( buffer );
+                parse( key, connection );
+            }
+            catch( IOException ex )
+            {
+                failed( key, connection, ex );
+            }
+            catch( SAXException ex )
+            {
+                failed( key, connection, ex );
+            }
+            catch( RuntimeException ex )
+            {
+                // A faulty handler must only fail its own connection
+                failed( key, connection, ex );
+            }
+        }
+
+        private void release( final Connection connection )
+        {
+            connection.source.clear();
+        }
+
+        private void failed( final SelectionKey key, final Connection connection,
+                             final Exception e )
+        {
+            release( connection );
+            if( key != null )
+            {
+                key.cancel();
+            }
+
+            try
+            {
+                connection.channel.close();
+            }
+            catch( IOException ex )
+            {
+                // Ignore, we are already failing
+            }
+
+            if( connection.listener != null )
+            {
+                try
+                {
+                    connection.listener.failed( connection.channel, connection.parser, e );
+                }
+                catch( RuntimeException ex )
+                {
+                    // Ignore, the connection has already gone
+                }
+            }
+        }
+
+        private void shutdown()
+        {
+            for( SelectionKey key : selector.keys() )
+            {
+                release( (Connection) key.attachment() );
+                try
+                {
+                    key.channel().close();
+                }
+                catch( IOException ex )
+                {
+                    // Ignore
+                }
+            }
+
+            Connection connection;
+            while( (connection = pending.poll()) != null )
+            {
+                try
+                {
+                    connection.channel.close();
+                }
+                catch( IOException ex )
+                {
+                    // Ignore
+                }
+            }
+
+            try
+            {
+                selector.close();
+            }
+            catch( IOException ex )
+            {
+                // Ignore
+            }
+        }
+    }
+}
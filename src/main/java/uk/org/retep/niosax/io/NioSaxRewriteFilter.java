@@ -0,0 +1,79 @@
+/*
+ * <p>Copyright (c) 1998-2010, Peter T Mount<br>
+ * All rights reserved.</p>
+ *
+ * <p>Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:</p>
+ *
+ * <ul>
+ *   <li>Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.</li>
+ *
+ *   <li>Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.</li>
+ *
+ *   <li>Neither the name of the retep.org.uk nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.</li>
+ *
+ * </ul>
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.</p>
+ */
+package uk.org.retep.niosax.io;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+/**
+ * Selects the elements a {@link NioSaxRewriter} rewrites and rewrites them.
+ *
+ * <p>
+ *  For each element outside of one already selected,
+ *  {@link #select(String, String, String, org.xml.sax.Attributes)} decides
+ *  whether it is to be rewritten. The events of a selected element and its
+ *  content are then passed to this filter, whose content handler is the
+ *  {@link NioSaxWriter} producing the output. By default every event is
+ *  passed on unchanged, so a subclass overrides just the events it wants to
+ *  change, as with any other {@link XMLFilterImpl}.
+ * </p>
+ *
+ * <p>
+ *  The events of a selected element are balanced, so a subclass can drop
+ *  an element by not passing on its start and end events, or add one by
+ *  generating them itself.
+ * </p>
+ *
+ * @author peter
+ * @since 10.7
+ */
+public abstract class NioSaxRewriteFilter
+        extends XMLFilterImpl
+{
+
+    /**
+     * Does this filter want to rewrite an element. Elements that are not
+     * selected are copied from the source unchanged, apart from any
+     * selected elements within them.
+     *
+     * @param uri namespace uri of the element
+     * @param localName local name of the element
+     * @param qName qualified name of the element
+     * @param atts attributes of the element
+     * @return true to rewrite the element
+     */
+    public abstract boolean select( String uri, String localName,
+                                    String qName, Attributes atts );
+}
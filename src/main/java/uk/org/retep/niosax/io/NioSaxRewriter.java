@@ -0,0 +1,338 @@
+/*
+ * <p>Copyright (c) 1998-2010, Peter T Mount<br>
+ * All rights reserved.</p>
+ *
+ * <p>Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:</p>
+ *
+ * <ul>
+ *   <li>Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.</li>
+ *
+ *   <li>Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.</li>
+ *
+ *   <li>Neither the name of the retep.org.uk nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.</li>
+ *
+ * </ul>
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.</p>
+ */
+package uk.org.retep.niosax.io;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+import uk.org.retep.niosax.NioSaxCaptureHandler;
+import uk.org.retep.niosax.NioSaxParser;
+
+/**
+ * Rewrites a document by copying it byte for byte from the source, apart
+ * from the elements selected by a {@link NioSaxRewriteFilter} which are
+ * encoded again from their, possibly modified, events.
+ *
+ * <p>
+ *  This uses the parser's pass through handler: every region of the source
+ *  outside a selected element is copied straight into the
+ *  {@link NioSaxWriter}'s buffers without being encoded again. When an
+ *  element is selected the parser {@link NioSaxParser#skip() skips} it and
+ *  its events are sent through the filter to the writer instead. As only a
+ *  few elements are usually changed, a document can be rewritten at little
+ *  more than the cost of parsing it and copying its bytes.
+ * </p>
+ *
+ * <pre>
+ * NioSaxRewriter rewriter = new NioSaxRewriter( parser, filter, writer );
+ * parser.startDocument();
+ * parser.parse( source );
+ * parser.endDocument();
+ * </pre>
+ *
+ * <p>
+ *  As the bytes are copied as they are, the writer must use the same
+ *  {@link uk.org.retep.niosax.charset.Charset} as the source. The XML
+ *  declaration is copied from the source so the writer does not write one.
+ *  Comments and CDATA sections within a selected element are written as
+ *  they are; the document type declaration is only ever copied.
+ * </p>
+ *
+ * @author peter
+ * @since 10.7
+ */
+public class NioSaxRewriter
+        implements ContentHandler,
+                   LexicalHandler,
+                   NioSaxCaptureHandler
+{
+
+    private final NioSaxParser parser;
+    private final NioSaxRewriteFilter filter;
+    private final NioSaxWriter writer;
+    /**
+     * Prefix and uri pairs declared for the next element
+     */
+    private final List<String> mappings = new ArrayList<String>();
+    /**
+     * Depth within the selected element, 0 if outside one
+     */
+    private int depth;
+
+    /**
+     * Create a rewriter, setting it as the parser's handler and pass through
+     * handler and the writer as the filter's content handler.
+     *
+     * @param parser {@link NioSaxParser} to parse the source
+     * @param filter {@link NioSaxRewriteFilter} selecting the elements to rewrite
+     * @param writer {@link NioSaxWriter} to write the output
+     */
+    public NioSaxRewriter( final NioSaxParser parser,
+                           final NioSaxRewriteFilter filter,
+                           final NioSaxWriter writer )
+    {
+        this.parser = parser;
+        this.filter = filter;
+        this.writer = writer;
+
+        writer.setXmlDeclaration( false );
+        filter.setContentHandler( writer );
+        parser.setHandler( this );
+        parser.setPassThroughHandler( this );
+    }
+
+    /**
+     * The {@link NioSaxWriter} writing the output
+     * @return {@link NioSaxWriter}
+     */
+    public final NioSaxWriter getWriter()
+    {
+        return writer;
+    }
+
+    /**
+     * {@inheritDoc }
+     * <p>
+     *  The bytes are copied to the writer.
+     * </p>
+     */
+    @Override
+    public void captured( final ByteBuffer bytes )
+            throws SAXException
+    {
+        writer.write( bytes );
+    }
+
+    /**
+     * {@inheritDoc }
+     * <p>
+     *  Called once the whole document has been passed through, this flushes
+     *  the writer.
+     * </p>
+     */
+    @Override
+    public void endCapture()
+            throws SAXException
+    {
+        writer.flush();
+    }
+
+    @Override
+    public void setDocumentLocator( final Locator locator )
+    {
+        filter.setDocumentLocator( locator );
+    }
+
+    @Override
+    public void startDocument()
+            throws SAXException
+    {
+        depth = 0;
+        mappings.clear();
+    }
+
+    @Override
+    public void endDocument()
+            throws SAXException
+    {
+    }
+
+    @Override
+    public void startPrefixMapping( final String prefix, final String uri )
+            throws SAXException
+    {
+        if( depth > 0 )
+        {
+            filter.startPrefixMapping( prefix, uri );
+        }
+        else
+        {
+            // Not known until startElement if the element is selected
+            mappings.add( prefix );
+            mappings.add( uri );
+        }
+    }
+
+    @Override
+    public void endPrefixMapping( final String prefix )
+            throws SAXException
+    {
+        if( depth > 0 )
+        {
+            filter.endPrefixMapping( prefix );
+        }
+    }
+
+    @Override
+    public void startElement( final String uri, final String localName,
+                              final String qName, final Attributes atts )
+            throws SAXException
+    {
+        if( depth > 0 )
+        {
+            depth++;
+            filter.startElement( uri, localName, qName, atts );
+        }
+        else if( filter.select( uri, localName, qName, atts ) )
+        {
+            parser.skip();
+            depth = 1;
+            for( int i = 0; i < mappings.size(); i += 2 )
+            {
+                filter.startPrefixMapping( mappings.get( i ), mappings.get( i + 1 ) );
+            }
+            mappings.clear();
+            filter.startElement( uri, localName, qName, atts );
+        }
+        else
+        {
+            mappings.clear();
+        }
+    }
+
+    @Override
+    public void endElement( final String uri, final String localName,
+                            final String qName )
+            throws SAXException
+    {
+        if( depth > 0 )
+        {
+            depth--;
+            filter.endElement( uri, localName, qName );
+        }
+    }
+
+    @Override
+    public void characters( final char[] ch, final int start,
+                            final int length )
+            throws SAXException
+    {
+        if( depth > 0 )
+        {
+            filter.characters( ch, start, length );
+        }
+    }
+
+    @Override
+    public void ignorableWhitespace( final char[] ch, final int start,
+                                     final int length )
+            throws SAXException
+    {
+        if( depth > 0 )
+        {
+            filter.ignorableWhitespace( ch, start, length );
+        }
+    }
+
+    @Override
+    public void processingInstruction( final String target, final String data )
+            throws SAXException
+    {
+        if( depth > 0 )
+        {
+            filter.processingInstruction( target, data );
+        }
+    }
+
+    @Override
+    public void skippedEntity( final String name )
+            throws SAXException
+    {
+        if( depth > 0 )
+        {
+            filter.skippedEntity( name );
+        }
+    }
+
+    @Override
+    public void startDTD( final String name, final String publicId,
+                          final String systemId )
+            throws SAXException
+    {
+    }
+
+    @Override
+    public void endDTD()
+            throws SAXException
+    {
+    }
+
+    @Override
+    public void startEntity( final String name )
+            throws SAXException
+    {
+    }
+
+    @Override
+    public void endEntity( final String name )
+            throws SAXException
+    {
+    }
+
+    @Override
+    public void startCDATA()
+            throws SAXException
+    {
+        if( depth > 0 )
+        {
+            writer.startCDATA();
+        }
+    }
+
+    @Override
+    public void endCDATA()
+            throws SAXException
+    {
+        if( depth > 0 )
+        {
+            writer.endCDATA();
+        }
+    }
+
+    @Override
+    public void comment( final char[] ch, final int start, final int length )
+            throws SAXException
+    {
+        if( depth > 0 )
+        {
+            writer.comment( ch, start, length );
+        }
+    }
+}
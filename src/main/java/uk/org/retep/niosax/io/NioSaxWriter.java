@@ -0,0 +1,792 @@
+/*
+ * <p>Copyright (c) 1998-2010, Peter T Mount<br>
+ * All rights reserved.</p>
+ *
+ * <p>Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:</p>
+ *
+ * <ul>
+ *   <li>Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.</li>
+ *
+ *   <li>Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.</li>
+ *
+ *   <li>Neither the name of the retep.org.uk nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.</li>
+ *
+ * </ul>
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.</p>
+ */
+package uk.org.retep.niosax.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+import uk.org.retep.niosax.charset.AbstractAsciiCharset;
+import uk.org.retep.niosax.charset.AbstractUTF_16;
+import uk.org.retep.niosax.charset.Charset;
+import uk.org.retep.niosax.charset.CharsetFactory;
+import uk.org.retep.niosax.charset.Encoding;
+import uk.org.retep.niosax.charset.ISO_8859_1;
+import uk.org.retep.niosax.charset.US_ASCII;
+
+/**
+ * Writes SAX events as XML, encoding directly into {@link ByteBuffer}s taken
+ * from a {@link BufferPool} using a niosax {@link Charset}, so the same
+ * charset layer is used in both directions and no {@link java.io.Writer}
+ * sits in between.
+ *
+ * <p>
+ *  The characters that have to be escaped in text and attribute values are
+ *  found with a lookup table, so runs of plain ASCII are copied straight
+ *  into the buffer. Characters that the charset cannot represent are
+ *  written as character references.
+ * </p>
+ *
+ * <p>
+ *  Once a buffer is full it is queued, and when enough buffers have been
+ *  queued they are handed to the {@link GatheringByteChannel} in a single
+ *  gathering write. Buffers are returned to the pool once written.
+ *  {@link #endDocument()} and {@link #flush()} write everything queued so
+ *  far. If the channel is non-blocking anything it does not accept stays
+ *  queued for the next write.
+ * </p>
+ *
+ * <p>
+ *  Like {@link BufferPool} a writer is not thread safe. As an empty element
+ *  is written as {@code <name/>} the end of each start tag is not written
+ *  until the next event.
+ * </p>
+ *
+ * @author peter
+ * @since 10.7
+ */
+public class NioSaxWriter
+        implements ContentHandler,
+                   LexicalHandler
+{
+
+    /**
+     * The default number of full buffers queued before they are written
+     */
+    public static final int DEFAULT_MAX_PENDING = 16;
+    /**
+     * The smallest buffer the writer can use, which must hold the longest
+     * escape sequence
+     */
+    public static final int MIN_BUFFER_SIZE = 16;
+    /**
+     * Marks characters that are not allowed in XML
+     */
+    private static final String ILLEGAL = "";
+    private static final String[] TEXT_ESCAPES = new String[ 0x80 ];
+    private static final String[] ATTRIBUTE_ESCAPES = new String[ 0x80 ];
+
+    static
+    {
+        for( char c = 0; c < 0x20; c++ )
+        {
+            TEXT_ESCAPES[c] = ILLEGAL;
+        }
+        TEXT_ESCAPES['\t'] = null;
+        TEXT_ESCAPES['\n'] = null;
+        TEXT_ESCAPES['\r'] = "&#13;";
+        TEXT_ESCAPES['&'] = "&amp;";
+        TEXT_ESCAPES['<'] = "&lt;";
+        TEXT_ESCAPES['>'] = "&gt;";
+
+        System.arraycopy( TEXT_ESCAPES, 0, ATTRIBUTE_ESCAPES, 0, 0x80 );
+        ATTRIBUTE_ESCAPES['\t'] = "&#9;";
+        ATTRIBUTE_ESCAPES['\n'] = "&#10;";
+        ATTRIBUTE_ESCAPES['"'] = "&quot;";
+    }
+    private final Charset charset;
+    private final BufferPool pool;
+    private final GatheringByteChannel channel;
+    private final int maxPending;
+    private final ArrayDeque<ByteBuffer> pending = new ArrayDeque<ByteBuffer>();
+    private ByteBuffer[] gather;
+    /**
+     * true if ASCII characters are encoded as a single byte of the same value
+     */
+    private final boolean ascii;
+    /**
+     * true if surrogates can be encoded individually
+     */
+    private final boolean surrogates;
+    /**
+     * The highest character the charset can represent
+     */
+    private final char maxChar;
+    /**
+     * Prefix and uri pairs declared for the next element
+     */
+    private final List<String> mappings = new ArrayList<String>();
+    private ByteBuffer buffer;
+    private boolean startTagOpen;
+    private boolean cdata;
+    private int cdataBrackets;
+    private boolean xmlDeclaration = true;
+
+    /**
+     * Create a writer with the default number of pending buffers
+     *
+     * @param charset {@link Charset} to encode with, null for UTF-8
+     * @param pool {@link BufferPool} to take buffers from
+     * @param channel {@link GatheringByteChannel} to write to
+     */
+    public NioSaxWriter( final Charset charset, final BufferPool pool,
+                         final GatheringByteChannel channel )
+    {
+        this( charset, pool, channel, DEFAULT_MAX_PENDING );
+    }
+
+    /**
+     * Create a writer
+     *
+     * @param charset {@link Charset} to encode with, null for UTF-8
+     * @param pool {@link BufferPool} to take buffers from
+     * @param channel {@link GatheringByteChannel} to write to
+     * @param maxPending number of full buffers to queue before writing
+     * them to the channel
+     */
+    public NioSaxWriter( final Charset charset, final BufferPool pool,
+                         final GatheringByteChannel channel,
+                         final int maxPending )
+    {
+        if( pool.getBufferSize() < MIN_BUFFER_SIZE || maxPending < 1 )
+        {
+            throw new IllegalArgumentException();
+        }
+        if( channel == null )
+        {
+            throw new NullPointerException();
+        }
+
+        this.charset = charset == null ? CharsetFactory.getCharset( "UTF-8" ) : charset;
+        this.pool = pool;
+        this.channel = channel;
+        this.maxPending = maxPending;
+        gather = new ByteBuffer[ maxPending ];
+
+        ascii = this.charset instanceof AbstractAsciiCharset;
+        surrogates = this.charset instanceof AbstractUTF_16;
+        if( this.charset instanceof US_ASCII )
+        {
+            maxChar = 0x7f;
+        }
+        else if( this.charset instanceof ISO_8859_1 )
+        {
+            maxChar = 0xff;
+        }
+        else
+        {
+            maxChar = 0xffff;
+        }
+    }
+
+    /**
+     * The {@link Charset} used to encode
+     * @return {@link Charset} used to encode
+     */
+    public final Charset getCharset()
+    {
+        return charset;
+    }
+
+    /**
+     * Is the XML declaration written by {@link #startDocument()}
+     * @return true if the declaration is written, the default
+     */
+    public final boolean isXmlDeclaration()
+    {
+        return xmlDeclaration;
+    }
+
+    /**
+     * Set whether {@link #startDocument()} writes the XML declaration
+     * @param xmlDeclaration true to write the declaration
+     */
+    public final void setXmlDeclaration( final boolean xmlDeclaration )
+    {
+        this.xmlDeclaration = xmlDeclaration;
+    }
+
+    /**
+     * Is there any content that has not yet been written to the channel
+     * @return true if content is waiting to be written
+     */
+    public final boolean hasPending()
+    {
+        return !pending.isEmpty() || (buffer != null && buffer.position() > 0);
+    }
+
+    /**
+     * Write everything so far to the channel, including the end of an open
+     * start tag.
+     *
+     * @return true if everything was written, false if a non-blocking
+     * channel did not accept it all
+     * @throws SAXException wrapping the {@link IOException} if the write fails
+     */
+    public final boolean flush()
+            throws SAXException
+    {
+        closeStartTag();
+        if( buffer != null && buffer.position() > 0 )
+        {
+            buffer.flip();
+            pending.addLast( buffer );
+            buffer = null;
+        }
+        return write();
+    }
+
+    /**
+     * Write bytes that are already encoded in this writer's charset, such as
+     * a part of the source passed through unchanged. The bytes are copied so
+     * the buffer can be reused once this returns.
+     *
+     * @param bytes {@link ByteBuffer} holding the bytes between its position
+     * and limit, which is left at its limit
+     * @throws SAXException wrapping the {@link IOException} if a write fails
+     */
+    public final void write( final ByteBuffer bytes )
+            throws SAXException
+    {
+        closeStartTag();
+        while( bytes.hasRemaining() )
+        {
+            if( buffer == null || !buffer.hasRemaining() )
+            {
+                next();
+            }
+
+            if( bytes.remaining() <= buffer.remaining() )
+            {
+                buffer.put( bytes );
+            }
+            else
+            {
+                final ByteBuffer b = bytes.duplicate();
+                b.limit( b.position() + buffer.remaining() );
+                buffer.put( b );
+                bytes.position( b.position() );
+            }
+        }
+    }
+
+    /**
+     * Discard anything not yet written, returning all buffers to the pool,
+     * so that the writer can be reused for a new document
+     */
+    public final void reset()
+    {
+        if( buffer != null )
+        {
+            pool.release( buffer );
+            buffer = null;
+        }
+
+        ByteBuffer b;
+        while( (b = pending.pollFirst()) != null )
+        {
+            pool.release( b );
+        }
+
+        mappings.clear();
+        startTagOpen = false;
+        cdata = false;
+        cdataBrackets = 0;
+    }
+
+    @Override
+    public void setDocumentLocator( final Locator locator )
+    {
+    }
+
+    @Override
+    public void startDocument()
+            throws SAXException
+    {
+        if( xmlDeclaration )
+        {
+            final Encoding encoding = charset.getClass().getAnnotation( Encoding.class );
+            writeMarkup( "<?xml version=\"1.0\"" );
+            if( encoding != null )
+            {
+                writeMarkup( " encoding=\"" );
+                writeMarkup( encoding.value()[0] );
+                put( '"' );
+            }
+            writeMarkup( "?>" );
+        }
+    }
+
+    /**
+     * {@inheritDoc }
+     * <p>
+     *  This writes everything to the channel with {@link #flush()}.
+     * </p>
+     */
+    @Override
+    public void endDocument()
+            throws SAXException
+    {
+        flush();
+    }
+
+    @Override
+    public void startPrefixMapping( final String prefix, final String uri )
+            throws SAXException
+    {
+        mappings.add( prefix );
+        mappings.add( uri );
+    }
+
+    @Override
+    public void endPrefixMapping( final String prefix )
+            throws SAXException
+    {
+    }
+
+    @Override
+    public void startElement( final String uri, final String localName,
+                              final String qName, final Attributes atts )
+            throws SAXException
+    {
+        closeStartTag();
+
+        put( '<' );
+        writeMarkup( qName.isEmpty() ? localName : qName );
+
+        // A parser reporting namespace prefixes passes the declarations as
+        // attributes as well so only write those that are missing
+        for( int i = 0; i < mappings.size(); i += 2 )
+        {
+            final String prefix = mappings.get( i );
+            if( !isDeclared( atts, prefix ) )
+            {
+                writeMarkup( prefix.isEmpty() ? " xmlns" : " xmlns:" );
+                writeMarkup( prefix );
+                writeAttributeValue( mappings.get( i + 1 ) );
+            }
+        }
+        mappings.clear();
+
+        final int n = atts.getLength();
+        for( int i = 0; i < n; i++ )
+        {
+            final String name = atts.getQName( i );
+            put( ' ' );
+            writeMarkup( name.isEmpty() ? atts.getLocalName( i ) : name );
+            writeAttributeValue( atts.getValue( i ) );
+        }
+
+        startTagOpen = true;
+    }
+
+    @Override
+    public void endElement( final String uri, final String localName,
+                            final String qName )
+            throws SAXException
+    {
+        if( startTagOpen )
+        {
+            startTagOpen = false;
+            put( '/' );
+            put( '>' );
+        }
+        else
+        {
+            put( '<' );
+            put( '/' );
+            writeMarkup( qName.isEmpty() ? localName : qName );
+            put( '>' );
+        }
+    }
+
+    @Override
+    public void characters( final char[] ch, final int start,
+                            final int length )
+            throws SAXException
+    {
+        closeStartTag();
+        if( cdata )
+        {
+            writeCData( ch, start, length );
+        }
+        else
+        {
+            write( ch, start, length, TEXT_ESCAPES );
+        }
+    }
+
+    @Override
+    public void ignorableWhitespace( final char[] ch, final int start,
+                                     final int length )
+            throws SAXException
+    {
+        characters( ch, start, length );
+    }
+
+    @Override
+    public void processingInstruction( final String target, final String data )
+            throws SAXException
+    {
+        closeStartTag();
+        put( '<' );
+        put( '?' );
+        writeMarkup( target );
+        if( data != null && !data.isEmpty() )
+        {
+            put( ' ' );
+            writeMarkup( data );
+        }
+        put( '?' );
+        put( '>' );
+    }
+
+    @Override
+    public void skippedEntity( final String name )
+            throws SAXException
+    {
+        closeStartTag();
+        put( '&' );
+        writeMarkup( name );
+        put( ';' );
+    }
+
+    @Override
+    public void startDTD( final String name, final String publicId,
+                          final String systemId )
+            throws SAXException
+    {
+        writeMarkup( "<!DOCTYPE " );
+        writeMarkup( name );
+        if( publicId != null )
+        {
+            writeMarkup( " PUBLIC \"" );
+            writeMarkup( publicId );
+            writeMarkup( "\" \"" );
+            writeMarkup( systemId );
+            put( '"' );
+        }
+        else if( systemId != null )
+        {
+            writeMarkup( " SYSTEM \"" );
+            writeMarkup( systemId );
+            put( '"' );
+        }
+        put( '>' );
+    }
+
+    @Override
+    public void endDTD()
+            throws SAXException
+    {
+    }
+
+    @Override
+    public void startEntity( final String name )
+            throws SAXException
+    {
+    }
+
+    @Override
+    public void endEntity( final String name )
+            throws SAXException
+    {
+    }
+
+    @Override
+    public void startCDATA()
+            throws SAXException
+    {
+        closeStartTag();
+        writeMarkup( "<![CDATA[" );
+        cdata = true;
+        cdataBrackets = 0;
+    }
+
+    @Override
+    public void endCDATA()
+            throws SAXException
+    {
+        writeMarkup( "]]>" );
+        cdata = false;
+    }
+
+    @Override
+    public void comment( final char[] ch, final int start, final int length )
+            throws SAXException
+    {
+        closeStartTag();
+        writeMarkup( "<!--" );
+        for( int i = start; i < start + length; i++ )
+        {
+            putMarkup( ch[i] );
+        }
+        writeMarkup( "-->" );
+    }
+
+    private void closeStartTag()
+            throws SAXException
+    {
+        if( startTagOpen )
+        {
+            startTagOpen = false;
+            put( '>' );
+        }
+    }
+
+    private static boolean isDeclared( final Attributes atts,
+                                       final String prefix )
+    {
+        final int n = atts.getLength();
+        for( int i = 0; i < n; i++ )
+        {
+            final String name = atts.getQName( i );
+            if( prefix.isEmpty() ? name.equals( "xmlns" )
+                : name.length() == prefix.length() + 6 && name.startsWith( "xmlns:" ) && name.endsWith( prefix ) )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void writeAttributeValue( final String value )
+            throws SAXException
+    {
+        put( '=' );
+        put( '"' );
+        final int n = value.length();
+        for( int i = 0; i < n; i++ )
+        {
+            final char c = value.charAt( i );
+            if( Character.isHighSurrogate( c ) && !surrogates && i + 1 < n && Character.isLowSurrogate( value.charAt( i + 1 ) ) )
+            {
+                reference( Character.toCodePoint( c, value.charAt( ++i ) ) );
+            }
+            else
+            {
+                writeEscaped( c, ATTRIBUTE_ESCAPES );
+            }
+        }
+        put( '"' );
+    }
+
+    /**
+     * Write text escaping it with a table
+     */
+    private void write( final char[] ch, final int start, final int length,
+                        final String[] escapes )
+            throws SAXException
+    {
+        final int end = start + length;
+        for( int i = start; i < end; i++ )
+        {
+            final char c = ch[i];
+            if( c < 0x80 && ascii && escapes[c] == null )
+            {
+                // The common case, plain ascii
+                if( buffer == null || !buffer.hasRemaining() )
+                {
+                    next();
+                }
+                buffer.put( (byte) c );
+            }
+            else if( Character.isHighSurrogate( c ) && !surrogates && i + 1 < end && Character.isLowSurrogate( ch[i + 1] ) )
+            {
+                reference( Character.toCodePoint( c, ch[++i] ) );
+            }
+            else
+            {
+                writeEscaped( c, escapes );
+            }
+        }
+    }
+
+    private void writeEscaped( final char c, final String[] escapes )
+            throws SAXException
+    {
+        if( c < 0x80 )
+        {
+            final String escape = escapes[c];
+            if( escape == null )
+            {
+                put( c );
+            }
+            else if( escape == ILLEGAL )
+            {
+                throw new SAXException( "Character 0x" + Integer.toHexString( c ) + " is not allowed in XML" );
+            }
+            else
+            {
+                writeMarkup( escape );
+            }
+        }
+        else if( c > maxChar )
+        {
+            reference( c );
+        }
+        else
+        {
+            putMarkup( c );
+        }
+    }
+
+    /**
+     * Write CDATA content, splitting the section around any ]]&gt;
+     */
+    private void writeCData( final char[] ch, final int start,
+                             final int length )
+            throws SAXException
+    {
+        for( int i = start; i < start + length; i++ )
+        {
+            final char c = ch[i];
+            if( c == '>' && cdataBrackets >= 2 )
+            {
+                writeMarkup( "]]><![CDATA[" );
+            }
+            cdataBrackets = c == ']' ? cdataBrackets + 1 : 0;
+            putMarkup( c );
+        }
+    }
+
+    /**
+     * Write a character reference
+     */
+    private void reference( final int codePoint )
+            throws SAXException
+    {
+        put( '&' );
+        put( '#' );
+        writeMarkup( Integer.toString( codePoint ) );
+        put( ';' );
+    }
+
+    private void writeMarkup( final String s )
+            throws SAXException
+    {
+        final int n = s.length();
+        for( int i = 0; i < n; i++ )
+        {
+            putMarkup( s.charAt( i ) );
+        }
+    }
+
+    /**
+     * Write a character that cannot be replaced by a reference
+     */
+    private void putMarkup( final char c )
+            throws SAXException
+    {
+        if( c > maxChar || (Character.isSurrogate( c ) && !surrogates) )
+        {
+            throw new SAXException( "Character 0x" + Integer.toHexString( c ) + " cannot be encoded in " + charset.getClass().getSimpleName() );
+        }
+        put( c );
+    }
+
+    private void put( final char c )
+            throws SAXException
+    {
+        if( c < 0x80 && ascii )
+        {
+            if( buffer == null || !buffer.hasRemaining() )
+            {
+                next();
+            }
+            buffer.put( (byte) c );
+        }
+        else
+        {
+            while( buffer == null || !charset.encode( buffer, c ) )
+            {
+                next();
+            }
+        }
+    }
+
+    /**
+     * Queue the current buffer, writing the queue once it is long enough, and
+     * take a new one from the pool
+     */
+    private void next()
+            throws SAXException
+    {
+        if( buffer != null )
+        {
+            buffer.flip();
+            pending.addLast( buffer );
+            buffer = null;
+            if( pending.size() >= maxPending )
+            {
+                write();
+            }
+        }
+        buffer = pool.acquire();
+    }
+
+    /**
+     * Write the queued buffers with a gathering write
+     *
+     * @return true if the queue is now empty
+     */
+    private boolean write()
+            throws SAXException
+    {
+        try
+        {
+            while( !pending.isEmpty() )
+            {
+                final int n = pending.size();
+                gather = pending.toArray( gather );
+                final long written = channel.write( gather, 0, n );
+
+                ByteBuffer b;
+                while( (b = pending.peekFirst()) != null && !b.hasRemaining() )
+                {
+                    pool.release( pending.pollFirst() );
+                }
+
+                if( written == 0 )
+                {
+                    // A non-blocking channel that is full
+                    break;
+                }
+            }
+            return pending.isEmpty();
+        }
+        catch( IOException ex )
+        {
+            throw new SAXException( ex );
+        }
+    }
+}
@@ -0,0 +1,719 @@
+/*
+ * <p>Copyright (c) 1998-2010, Peter T Mount<br>
+ * All rights reserved.</p>
+ *
+ * <p>Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:</p>
+ *
+ * <ul>
+ *   <li>Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.</li>
+ *
+ *   <li>Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.</li>
+ *
+ *   <li>Neither the name of the retep.org.uk nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.</li>
+ *
+ * </ul>
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.</p>
+ */
+package uk.org.retep.niosax.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * A recording of the SAX events of a document, made by a
+ * {@link SaxTapeRecorder}, which can be replayed into any
+ * {@link ContentHandler} without lexing or decoding the original document
+ * again.
+ *
+ * <p>
+ *  Names, namespace uris and prefixes are held once in a symbol table and
+ *  referred to by index, all character data and attribute values are held
+ *  in a single {@code char[]} and the events themselves are a compact stream
+ *  of opcodes and variable length integers. Replaying passes the shared
+ *  symbol strings and slices of the character array straight to the
+ *  handler, so beyond a reused {@link AttributesImpl} and the attribute
+ *  value strings nothing is allocated or copied.
+ *  As the character array is shared, handlers must not modify the content
+ *  passed to {@link ContentHandler#characters(char[], int, int)}.
+ * </p>
+ *
+ * <p>
+ *  A tape is immutable, so it can be cached and played by several threads at
+ *  once. It can be serialized with {@link #toByteBuffer()}, {@link #save(File)}
+ *  or {@link #writeTo(WritableByteChannel)}, and restored with
+ *  {@link #read(ByteBuffer)} or {@link #load(File)}.
+ * </p>
+ *
+ * <pre>
+ * SaxTapeRecorder recorder = new SaxTapeRecorder();
+ * parser = factory.newInstance( recorder );
+ * ...
+ * SaxTape tape = recorder.getTape();
+ * tape.play( handler );
+ * </pre>
+ *
+ * @author peter
+ * @since 10.7
+ */
+public final class SaxTape
+{
+
+    /**
+     * "NSXT"
+     */
+    private static final int MAGIC = 0x4e535854;
+    private static final int VERSION = 3;
+    /**
+     * magic, version, symbol count, text length and event length
+     */
+    private static final int HEADER_SIZE = 20;
+    static final byte START_DOCUMENT = 1;
+    static final byte END_DOCUMENT = 2;
+    static final byte START_PREFIX_MAPPING = 3;
+    static final byte END_PREFIX_MAPPING = 4;
+    static final byte START_ELEMENT = 5;
+    static final byte END_ELEMENT = 6;
+    static final byte CHARACTERS = 7;
+    static final byte IGNORABLE_WHITESPACE = 8;
+    static final byte PROCESSING_INSTRUCTION = 9;
+    static final byte SKIPPED_ENTITY = 10;
+    static final byte START_DTD = 11;
+    static final byte END_DTD = 12;
+    static final byte START_ENTITY = 13;
+    static final byte END_ENTITY = 14;
+    static final byte START_CDATA = 15;
+    static final byte END_CDATA = 16;
+    static final byte COMMENT = 17;
+    /**
+     * The symbol table, entry 0 is always null
+     */
+    private final String[] symbols;
+    private final char[] text;
+    private final ByteBuffer events;
+
+    SaxTape( final String[] symbols, final char[] text,
+             final ByteBuffer events )
+    {
+        this.symbols = symbols;
+        this.text = text;
+        this.events = events.asReadOnlyBuffer();
+    }
+
+    /**
+     * The number of distinct names and values in the symbol table
+     * @return number of symbols
+     */
+    public int getSymbolCount()
+    {
+        return symbols.length - 1;
+    }
+
+    /**
+     * The number of characters of character data, comments and processing
+     * instruction data on the tape
+     * @return number of characters
+     */
+    public int getTextLength()
+    {
+        return text.length;
+    }
+
+    /**
+     * Replay the tape into a handler. If the handler is also a
+     * {@link LexicalHandler} it receives the lexical events as well.
+     *
+     * @param handler {@link ContentHandler} to receive the events
+     * @throws SAXException if the handler throws it
+     */
+    public void play( final ContentHandler handler )
+            throws SAXException
+    {
+        play( handler,
+              handler instanceof LexicalHandler ? (LexicalHandler) handler : null );
+    }
+
+    /**
+     * Replay the tape into a handler
+     *
+     * @param handler {@link ContentHandler} to receive the events
+     * @param lexicalHandler {@link LexicalHandler} to receive the lexical
+     * events, null to drop them
+     * @throws SAXException if either handler throws it
+     */
+    public void play( final ContentHandler handler,
+                      final LexicalHandler lexicalHandler )
+            throws SAXException
+    {
+        final ByteBuffer b = events.duplicate();
+        final AttributesImpl attributes = new AttributesImpl();
+        // the symbols of each open element so end tags need no operands
+        int[] stack = new int[ 48 ];
+        int depth = 0;
+        int offset = 0;
+
+        while( b.hasRemaining() )
+        {
+            final byte op = b.get();
+            switch( op )
+            {
+                case START_DOCUMENT:
+                    handler.startDocument();
+                    break;
+
+                case END_DOCUMENT:
+                    handler.endDocument();
+                    break;
+
+                case START_PREFIX_MAPPING:
+                {
+                    final String prefix = symbol( b );
+                    handler.startPrefixMapping( prefix, symbol( b ) );
+                    break;
+                }
+
+                case END_PREFIX_MAPPING:
+                    handler.endPrefixMapping( symbol( b ) );
+                    break;
+
+                case START_ELEMENT:
+                {
+                    if( depth + 3 > stack.length )
+                    {
+                        final int[] s = new int[ stack.length << 1 ];
+                        System.arraycopy( stack, 0, s, 0, depth );
+                        stack = s;
+                    }
+                    final int uri = readInt( b );
+                    final int localName = readInt( b );
+                    final int qName = readInt( b );
+                    stack[depth++] = uri;
+                    stack[depth++] = localName;
+                    stack[depth++] = qName;
+
+                    attributes.clear();
+                    for( int n = readInt( b ); n > 0; n-- )
+                    {
+                        final String aUri = symbol( b );
+                        final String aLocalName = symbol( b );
+                        final String aQName = symbol( b );
+                        final String aType = symbol( b );
+                        final int length = readInt( b );
+                        attributes.addAttribute( aUri, aLocalName, aQName, aType,
+                                                 new String( text, offset, length ) );
+                        offset += length;
+                    }
+                    handler.startElement( symbols[uri], symbols[localName],
+                                          symbols[qName], attributes );
+                    break;
+                }
+
+                case END_ELEMENT:
+                    depth -= 3;
+                    handler.endElement( symbols[stack[depth]],
+                                        symbols[stack[depth + 1]],
+                                        symbols[stack[depth + 2]] );
+                    break;
+
+                case CHARACTERS:
+                {
+                    final int length = readInt( b );
+                    handler.characters( text, offset, length );
+                    offset += length;
+                    break;
+                }
+
+                case IGNORABLE_WHITESPACE:
+                {
+                    final int length = readInt( b );
+                    handler.ignorableWhitespace( text, offset, length );
+                    offset += length;
+                    break;
+                }
+
+                case PROCESSING_INSTRUCTION:
+                {
+                    final String target = symbol( b );
+                    // one more than the length of the data, 0 for null
+                    final int length = readInt( b ) - 1;
+                    if( length < 0 )
+                    {
+                        handler.processingInstruction( target, null );
+                    }
+                    else
+                    {
+                        handler.processingInstruction( target,
+                                                       new String( text, offset, length ) );
+                        offset += length;
+                    }
+                    break;
+                }
+
+                case SKIPPED_ENTITY:
+                    handler.skippedEntity( symbol( b ) );
+                    break;
+
+                case COMMENT:
+                {
+                    final int length = readInt( b );
+                    if( lexicalHandler != null )
+                    {
+                        lexicalHandler.comment( text, offset, length );
+                    }
+                    offset += length;
+                    break;
+                }
+
+                case START_DTD:
+                {
+                    final String name = symbol( b );
+                    final String publicId = symbol( b );
+                    final String systemId = symbol( b );
+                    if( lexicalHandler != null )
+                    {
+                        lexicalHandler.startDTD( name, publicId, systemId );
+                    }
+                    break;
+                }
+
+                case END_DTD:
+                    if( lexicalHandler != null )
+                    {
+                        lexicalHandler.endDTD();
+                    }
+                    break;
+
+                case START_ENTITY:
+                {
+                    final String name = symbol( b );
+                    if( lexicalHandler != null )
+                    {
+                        lexicalHandler.startEntity( name );
+                    }
+                    break;
+                }
+
+                case END_ENTITY:
+                {
+                    final String name = symbol( b );
+                    if( lexicalHandler != null )
+                    {
+                        lexicalHandler.endEntity( name );
+                    }
+                    break;
+                }
+
+                case START_CDATA:
+                    if( lexicalHandler != null )
+                    {
+                        lexicalHandler.startCDATA();
+                    }
+                    break;
+
+                case END_CDATA:
+                    if( lexicalHandler != null )
+                    {
+                        lexicalHandler.endCDATA();
+                    }
+                    break;
+
+                default:
+                    throw new SAXException( "Corrupt tape, unknown event " + op );
+            }
+        }
+    }
+
+    private String symbol( final ByteBuffer b )
+    {
+        return symbols[readInt( b )];
+    }
+
+    /**
+     * Read an unsigned variable length integer, seven bits per byte with the
+     * high bit set on all but the last byte
+     */
+    static int readInt( final ByteBuffer b )
+    {
+        int v = 0;
+        int shift = 0;
+        byte c;
+        do
+        {
+            c = b.get();
+            v |= (c & 0x7f) << shift;
+            shift += 7;
+        }
+        while( c < 0 );
+        return v;
+    }
+
+    /**
+     * Write an unsigned variable length integer. The buffer must have room
+     * for five bytes.
+     */
+    static void writeInt( final ByteBuffer b, int v )
+    {
+        while( (v & ~0x7f) != 0 )
+        {
+            b.put( (byte) ((v & 0x7f) | 0x80) );
+            v >>>= 7;
+        }
+        b.put( (byte) v );
+    }
+
+    /**
+     * The number of bytes the serialized form of this tape occupies
+     * @return size in bytes
+     */
+    public int size()
+    {
+        int n = HEADER_SIZE + (text.length << 1) + events.limit();
+        for( int i = 1; i < symbols.length; i++ )
+        {
+            final int length = symbols[i].length();
+            n += (length < 0x80 ? 1 : 5) + (length << 1);
+        }
+        return n;
+    }
+
+    /**
+     * Serialize the tape into a new buffer
+     * @return {@link ByteBuffer} ready to be read
+     */
+    public ByteBuffer toByteBuffer()
+    {
+        final ByteBuffer b = ByteBuffer.allocate( size() );
+        writeTo( b );
+        b.flip();
+        return b;
+    }
+
+    /**
+     * Serialize the tape into a buffer
+     *
+     * @param b {@link ByteBuffer} with at least {@link #size()} bytes remaining
+     * @throws java.nio.BufferOverflowException if there is not enough room
+     */
+    public void writeTo( final ByteBuffer b )
+    {
+        b.putInt( MAGIC ).
+                putInt( VERSION ).
+                putInt( symbols.length - 1 ).
+                putInt( text.length ).
+                putInt( events.limit() );
+
+        for( int i = 1; i < symbols.length; i++ )
+        {
+            final String s = symbols[i];
+            final int length = s.length();
+            if( length < 0x80 )
+            {
+                b.put( (byte) length );
+            }
+            else
+            {
+                // fixed width so size() can be computed without encoding
+                b.put( (byte) 0xff ).putInt( length );
+            }
+            for( int j = 0; j < length; j++ )
+            {
+                b.putChar( s.charAt( j ) );
+            }
+        }
+
+        b.asCharBuffer().put( text );
+        b.position( b.position() + (text.length << 1) );
+        b.put( events.duplicate() );
+    }
+
+    /**
+     * Serialize the tape to a channel
+     *
+     * @param channel {@link WritableByteChannel} to write to, which must be
+     * blocking
+     * @throws IOException if the write fails
+     */
+    public void writeTo( final WritableByteChannel channel )
+            throws IOException
+    {
+        final ByteBuffer b = toByteBuffer();
+        while( b.hasRemaining() )
+        {
+            channel.write( b );
+        }
+    }
+
+    /**
+     * Save the tape to a file, replacing any existing content
+     *
+     * @param file {@link File} to write
+     * @throws IOException if the write fails
+     */
+    public void save( final File file )
+            throws IOException
+    {
+        final RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+        try
+        {
+            final FileChannel channel = raf.getChannel();
+            channel.truncate( 0 );
+            writeTo( channel );
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+
+    /**
+     * Restore a tape serialized by {@link #writeTo(ByteBuffer)}. The buffer's
+     * position is left after the tape.
+     *
+     * <p>
+     *  The whole tape is validated here, so that {@link #play(ContentHandler)}
+     *  need not check anything and a corrupt tape is always reported as a
+     *  {@link SAXException}.
+     * </p>
+     *
+     * @param b {@link ByteBuffer} positioned at the start of the tape
+     * @return the {@link SaxTape}
+     * @throws SAXException if the buffer does not contain a valid tape
+     */
+    public static SaxTape read( final ByteBuffer b )
+            throws SAXException
+    {
+        if( b.remaining() < HEADER_SIZE || b.getInt() != MAGIC )
+        {
+            throw new SAXException( "Not a SaxTape" );
+        }
+        final int version = b.getInt();
+        if( version != VERSION )
+        {
+            throw new SAXException( "Unsupported SaxTape version " + version );
+        }
+
+        final int symbolCount = b.getInt();
+        final int textLength = b.getInt();
+        final int eventLength = b.getInt();
+        // Every symbol takes at least a byte, so nothing is allocated for a
+        // header claiming more than the buffer holds
+        if( symbolCount < 0 || textLength < 0 || eventLength < 0
+            || (long) symbolCount + ((long) textLength << 1) + eventLength > b.remaining() )
+        {
+            throw new SAXException( "Corrupt tape" );
+        }
+
+        try
+        {
+            final String[] symbols = new String[ symbolCount + 1 ];
+            char[] ch = new char[ 0x80 ];
+            for( int i = 1; i < symbols.length; i++ )
+            {
+                int length = b.get() & 0xff;
+                if( length == 0xff )
+                {
+                    length = b.getInt();
+                    if( length < 0 || (long) length << 1 > b.remaining() )
+                    {
+                        throw new SAXException( "Corrupt tape" );
+                    }
+                }
+                if( length > ch.length )
+                {
+                    ch = new char[ length ];
+                }
+                b.asCharBuffer().get( ch, 0, length );
+                b.position( b.position() + (length << 1) );
+                symbols[i] = new String( ch, 0, length );
+            }
+
+            final char[] text = new char[ textLength ];
+            b.asCharBuffer().get( text );
+            b.position( b.position() + (textLength << 1) );
+
+            final ByteBuffer events = ByteBuffer.allocate( eventLength );
+            final ByteBuffer src = b.duplicate();
+            src.limit( src.position() + eventLength );
+            events.put( src ).flip();
+            b.position( src.position() );
+
+            validate( events, symbols.length, textLength );
+            return new SaxTape( symbols, text, events );
+        }
+        catch( RuntimeException ex )
+        {
+            // BufferUnderflowException or IllegalArgumentException from a
+            // truncated buffer
+            throw new SAXException( "Corrupt tape", ex );
+        }
+    }
+
+    /**
+     * Check that every event is known, that every symbol index and text
+     * length is in range and that end tags match start tags, by walking the
+     * events in the same way as {@link #play(ContentHandler, LexicalHandler)}.
+     * A truncated buffer throws a {@link java.nio.BufferUnderflowException}.
+     */
+    private static void validate( final ByteBuffer events, final int symbolCount,
+                                  final int textLength )
+            throws SAXException
+    {
+        final ByteBuffer b = events.duplicate();
+        int depth = 0;
+        long offset = 0;
+        while( b.hasRemaining() )
+        {
+            final byte op = b.get();
+            switch( op )
+            {
+                case START_DOCUMENT:
+                case END_DOCUMENT:
+                case END_DTD:
+                case START_CDATA:
+                case END_CDATA:
+                    break;
+
+                case START_PREFIX_MAPPING:
+                    checkSymbols( b, 2, symbolCount );
+                    break;
+
+                case END_PREFIX_MAPPING:
+                case SKIPPED_ENTITY:
+                case START_ENTITY:
+                case END_ENTITY:
+                    checkSymbols( b, 1, symbolCount );
+                    break;
+
+                case START_DTD:
+                    checkSymbols( b, 3, symbolCount );
+                    break;
+
+                case START_ELEMENT:
+                    checkSymbols( b, 3, symbolCount );
+                    for( int n = checkInt( b ); n > 0; n-- )
+                    {
+                        checkSymbols( b, 4, symbolCount );
+                        offset += checkInt( b );
+                    }
+                    depth++;
+                    break;
+
+                case END_ELEMENT:
+                    if( depth == 0 )
+                    {
+                        throw new SAXException( "Corrupt tape, unmatched end element" );
+                    }
+                    depth--;
+                    break;
+
+                case PROCESSING_INSTRUCTION:
+                {
+                    checkSymbols( b, 1, symbolCount );
+                    final int length = checkInt( b );
+                    offset += length == 0 ? 0 : length - 1;
+                    break;
+                }
+
+                case CHARACTERS:
+                case IGNORABLE_WHITESPACE:
+                case COMMENT:
+                    offset += checkInt( b );
+                    break;
+
+                default:
+                    throw new SAXException( "Corrupt tape, unknown event " + op );
+            }
+
+            if( offset > textLength )
+            {
+                throw new SAXException( "Corrupt tape, text out of range" );
+            }
+        }
+    }
+
+    private static void checkSymbols( final ByteBuffer b, final int count,
+                                      final int symbolCount )
+            throws SAXException
+    {
+        for( int i = 0; i < count; i++ )
+        {
+            if( checkInt( b ) >= symbolCount )
+            {
+                throw new SAXException( "Corrupt tape, symbol out of range" );
+            }
+        }
+    }
+
+    /**
+     * {@link #readInt(ByteBuffer)} rejecting values longer than five bytes
+     * or negative
+     */
+    private static int checkInt( final ByteBuffer b )
+            throws SAXException
+    {
+        int v = 0;
+        for( int shift = 0; shift < 35; shift += 7 )
+        {
+            final byte c = b.get();
+            v |= (c & 0x7f) << shift;
+            if( c >= 0 )
+            {
+                if( v < 0 )
+                {
+                    break;
+                }
+                return v;
+            }
+        }
+        throw new SAXException( "Corrupt tape, bad integer" );
+    }
+
+    /**
+     * Load a tape saved by {@link #save(File)}
+     *
+     * @param file {@link File} to read
+     * @return the {@link SaxTape}
+     * @throws IOException if the read fails
+     * @throws SAXException if the file does not contain a valid tape
+     */
+    public static SaxTape load( final File file )
+            throws IOException,
+                   SAXException
+    {
+        final RandomAccessFile raf = new RandomAccessFile( file, "r" );
+        try
+        {
+            final FileChannel channel = raf.getChannel();
+            return read( channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() ) );
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+}
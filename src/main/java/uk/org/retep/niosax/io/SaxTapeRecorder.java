@@ -0,0 +1,368 @@
+/*
+ * <p>Copyright (c) 1998-2010, Peter T Mount<br>
+ * All rights reserved.</p>
+ *
+ * <p>Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:</p>
+ *
+ * <ul>
+ *   <li>Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.</li>
+ *
+ *   <li>Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.</li>
+ *
+ *   <li>Neither the name of the retep.org.uk nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.</li>
+ *
+ * </ul>
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.</p>
+ */
+package uk.org.retep.niosax.io;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+import uk.org.retep.niosax.NioSaxAttributes;
+
+/**
+ * Records SAX events onto a {@link SaxTape} so a document that is parsed
+ * repeatedly, such as configuration or a catalog, can be parsed once and
+ * replayed from then on.
+ *
+ * <p>
+ *  Each distinct name, uri and prefix is stored once in the tape's symbol
+ *  table. Character data and attribute values, which are often unique, are
+ *  appended to a single character array instead, so the symbol table only
+ *  grows with the vocabulary of the document.
+ *  {@link #getTape()} may be called at any time, and the recorder can go on
+ *  recording afterwards or be {@link #reset()} for another document.
+ * </p>
+ *
+ * <p>
+ *  The {@link Locator} is not recorded. Like the other handlers in this
+ *  package a recorder is not thread safe, but the tapes it returns are.
+ * </p>
+ *
+ * @author peter
+ * @since 10.7
+ */
+public class SaxTapeRecorder
+        implements ContentHandler,
+                   LexicalHandler
+{
+
+    /**
+     * Room for an opcode and five variable length integers
+     */
+    private static final int MAX_FIXED = 26;
+    private final Map<String, Integer> symbolIndex = new HashMap<String, Integer>();
+    private final List<String> symbols = new ArrayList<String>();
+    private ByteBuffer events;
+    private char[] text;
+    private int textLength;
+
+    /**
+     * Create a recorder
+     */
+    public SaxTapeRecorder()
+    {
+        events = ByteBuffer.allocate( 1024 );
+        text = new char[ 1024 ];
+        symbols.add( null );
+    }
+
+    /**
+     * Discard everything recorded so far
+     */
+    public void reset()
+    {
+        symbolIndex.clear();
+        symbols.clear();
+        symbols.add( null );
+        events.clear();
+        textLength = 0;
+    }
+
+    /**
+     * A {@link SaxTape} of the events recorded so far
+     * @return {@link SaxTape}
+     */
+    public SaxTape getTape()
+    {
+        final ByteBuffer b = ByteBuffer.allocate( events.position() );
+        b.put( (ByteBuffer) events.duplicate().flip() ).flip();
+        return new SaxTape( symbols.toArray( new String[ symbols.size() ] ),
+                            Arrays.copyOf( text, textLength ),
+                            b );
+    }
+
+    private void ensure( final int n )
+    {
+        if( events.remaining() < n )
+        {
+            final ByteBuffer b = ByteBuffer.allocate( Math.max( events.capacity() << 1,
+                                                                events.position() + n ) );
+            events.flip();
+            b.put( events );
+            events = b;
+        }
+    }
+
+    private void op( final byte op )
+    {
+        ensure( MAX_FIXED );
+        events.put( op );
+    }
+
+    private void symbol( final String s )
+    {
+        if( s == null )
+        {
+            SaxTape.writeInt( events, 0 );
+            return;
+        }
+
+        Integer i = symbolIndex.get( s );
+        if( i == null )
+        {
+            i = symbols.size();
+            symbols.add( s );
+            symbolIndex.put( s, i );
+        }
+        SaxTape.writeInt( events, i );
+    }
+
+    private void text( final char[] ch, final int start, final int length )
+    {
+        if( textLength + length > text.length )
+        {
+            text = Arrays.copyOf( text, Math.max( text.length << 1,
+                                                  textLength + length ) );
+        }
+        System.arraycopy( ch, start, text, textLength, length );
+        textLength += length;
+        SaxTape.writeInt( events, length );
+    }
+
+    private void text( final String s )
+    {
+        final int length = s == null ? 0 : s.length();
+        appendText( s, length );
+        SaxTape.writeInt( events, length );
+    }
+
+    private void appendText( final String s, final int length )
+    {
+        if( textLength + length > text.length )
+        {
+            text = Arrays.copyOf( text, Math.max( text.length << 1,
+                                                  textLength + length ) );
+        }
+        if( length > 0 )
+        {
+            s.getChars( 0, length, text, textLength );
+        }
+        textLength += length;
+    }
+
+    @Override
+    public void setDocumentLocator( final Locator locator )
+    {
+    }
+
+    @Override
+    public void startDocument()
+            throws SAXException
+    {
+        op( SaxTape.START_DOCUMENT );
+    }
+
+    @Override
+    public void endDocument()
+            throws SAXException
+    {
+        op( SaxTape.END_DOCUMENT );
+    }
+
+    @Override
+    public void startPrefixMapping( final String prefix, final String uri )
+            throws SAXException
+    {
+        op( SaxTape.START_PREFIX_MAPPING );
+        symbol( prefix );
+        symbol( uri );
+    }
+
+    @Override
+    public void endPrefixMapping( final String prefix )
+            throws SAXException
+    {
+        op( SaxTape.END_PREFIX_MAPPING );
+        symbol( prefix );
+    }
+
+    @Override
+    public void startElement( final String uri, final String localName,
+                              final String qName, final Attributes atts )
+            throws SAXException
+    {
+        op( SaxTape.START_ELEMENT );
+        symbol( uri );
+        symbol( localName );
+        symbol( qName );
+
+        final int n = atts == null ? 0 : atts.getLength();
+        final NioSaxAttributes nioAtts = atts instanceof NioSaxAttributes
+                ? (NioSaxAttributes) atts : null;
+        SaxTape.writeInt( events, n );
+        for( int i = 0; i < n; i++ )
+        {
+            ensure( MAX_FIXED );
+            symbol( atts.getURI( i ) );
+            symbol( atts.getLocalName( i ) );
+            symbol( atts.getQName( i ) );
+            symbol( atts.getType( i ) );
+            if( nioAtts != null )
+            {
+                // Straight from the parser's buffer, without a String
+                text( nioAtts.getValueCharacters(), nioAtts.getValueStart( i ),
+                      nioAtts.getValueLength( i ) );
+            }
+            else
+            {
+                text( atts.getValue( i ) );
+            }
+        }
+    }
+
+    @Override
+    public void endElement( final String uri, final String localName,
+                            final String qName )
+            throws SAXException
+    {
+        // the player keeps the names of the open elements
+        op( SaxTape.END_ELEMENT );
+    }
+
+    @Override
+    public void characters( final char[] ch, final int start, final int length )
+            throws SAXException
+    {
+        op( SaxTape.CHARACTERS );
+        text( ch, start, length );
+    }
+
+    @Override
+    public void ignorableWhitespace( final char[] ch, final int start,
+                                     final int length )
+            throws SAXException
+    {
+        op( SaxTape.IGNORABLE_WHITESPACE );
+        text( ch, start, length );
+    }
+
+    @Override
+    public void processingInstruction( final String target, final String data )
+            throws SAXException
+    {
+        op( SaxTape.PROCESSING_INSTRUCTION );
+        symbol( target );
+        // The length is one more than that of the data, so null is 0
+        if( data == null )
+        {
+            SaxTape.writeInt( events, 0 );
+        }
+        else
+        {
+            appendText( data, data.length() );
+            SaxTape.writeInt( events, data.length() + 1 );
+        }
+    }
+
+    @Override
+    public void skippedEntity( final String name )
+            throws SAXException
+    {
+        op( SaxTape.SKIPPED_ENTITY );
+        symbol( name );
+    }
+
+    @Override
+    public void startDTD( final String name, final String publicId,
+                          final String systemId )
+            throws SAXException
+    {
+        op( SaxTape.START_DTD );
+        symbol( name );
+        symbol( publicId );
+        symbol( systemId );
+    }
+
+    @Override
+    public void endDTD()
+            throws SAXException
+    {
+        op( SaxTape.END_DTD );
+    }
+
+    @Override
+    public void startEntity( final String name )
+            throws SAXException
+    {
+        op( SaxTape.START_ENTITY );
+        symbol( name );
+    }
+
+    @Override
+    public void endEntity( final String name )
+            throws SAXException
+    {
+        op( SaxTape.END_ENTITY );
+        symbol( name );
+    }
+
+    @Override
+    public void startCDATA()
+            throws SAXException
+    {
+        op( SaxTape.START_CDATA );
+    }
+
+    @Override
+    public void endCDATA()
+            throws SAXException
+    {
+        op( SaxTape.END_CDATA );
+    }
+
+    @Override
+    public void comment( final char[] ch, final int start, final int length )
+            throws SAXException
+    {
+        op( SaxTape.COMMENT );
+        text( ch, start, length );
+    }
+}
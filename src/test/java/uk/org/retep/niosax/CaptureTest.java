@@ -0,0 +1,219 @@
+/*
+ * <p>Copyright (c) 1998-2010, Peter T Mount<br>
+ * All rights reserved.</p>
+ *
+ * <p>Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:</p>
+ *
+ * <ul>
+ *   <li>Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.</li>
+ *
+ *   <li>Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.</li>
+ *
+ *   <li>Neither the name of the retep.org.uk nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.</li>
+ *
+ * </ul>
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.</p>
+ */
+package uk.org.retep.niosax;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import uk.org.retep.niosax.internal.core.DefaultNioSaxFactory;
+import uk.org.retep.niosax.internal.flat.FlatNioSaxFactory;
+import uk.org.retep.niosax.internal.helper.DefaultNioSaxParserHandler;
+import uk.org.retep.niosax.io.NioSaxDriver;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link NioSaxParser#capture(uk.org.retep.niosax.NioSaxCaptureHandler)}
+ *
+ * @author peter
+ */
+public class CaptureTest
+{
+
+    private static final String[] STANZAS =
+    {
+        "<message to='a>b' id=\"1\"><body>h\u00e9llo &amp; <b/></body><message/></message>",
+        "<presence\n/>",
+        "<iq><!-- <c> --><?p d?><![CDATA[<x>]]>\u20ac</iq >"
+    };
+    private static final String XML;
+
+    static
+    {
+        final StringBuilder sb = new StringBuilder( "<?xml version='1.0'?><stream:stream xmlns:stream='urn:s'>" );
+        for( String s : STANZAS )
+        {
+            sb.append( s ).append( "\n " );
+        }
+        XML = sb.append( "</stream:stream>" ).toString();
+    }
+    private final NioSaxParserFactory[] factories =
+    {
+        new DefaultNioSaxFactory(), new FlatNioSaxFactory()
+    };
+
+    /**
+     * Capture each stanza with the whole document in one buffer and split
+     * into two at every position
+     * @throws Exception
+     */
+    @Test
+    public void testSplit()
+            throws Exception
+    {
+        final byte[] b = XML.getBytes( StandardCharsets.UTF_8 );
+        for( NioSaxParserFactory factory : factories )
+        {
+            for( int split = 0; split <= b.length; split++ )
+            {
+                final Capturer capturer = new Capturer();
+                final NioSaxParser parser = factory.newInstance( capturer );
+                capturer.parser = parser;
+
+                final ByteBuffer buffer = ByteBuffer.wrap( b );
+                final NioSaxSource source = new NioSaxSource( buffer );
+                parser.startDocument();
+                buffer.limit( split );
+                parser.parse( source );
+                buffer.limit( b.length );
+                parser.parse( source );
+                parser.endDocument();
+
+                assertEquals( factory.getClass().getSimpleName() + " split at " + split,
+                              Arrays.asList( STANZAS ), capturer.stanzas );
+            }
+        }
+    }
+
+    /**
+     * Capture with small buffers which are compacted between reads
+     * @throws Exception
+     */
+    @Test
+    public void testDriver()
+            throws Exception
+    {
+        final NioSaxDriver driver = new NioSaxDriver( 17, 1 );
+        for( NioSaxParserFactory factory : factories )
+        {
+            final Capturer capturer = new Capturer();
+            final NioSaxParser parser = factory.newInstance( capturer );
+            capturer.parser = parser;
+
+            driver.parse( parser,
+                          new ByteArrayInputStream( XML.getBytes( StandardCharsets.UTF_8 ) ),
+                          null );
+
+            assertEquals( Arrays.asList( STANZAS ), capturer.stanzas );
+        }
+    }
+
+    /**
+     * capture can only be called from startElement
+     * @throws Exception
+     */
+    @Test
+    public void testNotInStartElement()
+            throws Exception
+    {
+        for( NioSaxParserFactory factory : factories )
+        {
+            final List<IllegalStateException> failures = new ArrayList<IllegalStateException>();
+            final NioSaxParser parser = factory.newInstance();
+            parser.setHandler( new DefaultNioSaxParserHandler()
+            {
+
+                @Override
+                public void characters( final char[] ch, final int start,
+                                        final int length )
+                        throws SAXException
+                {
+                    try
+                    {
+                        parser.capture( new NioSaxCaptureBuffer() );
+                    }
+                    catch( IllegalStateException ex )
+                    {
+                        failures.add( ex );
+                    }
+                }
+            } );
+
+            parser.startDocument();
+            parser.parse( new NioSaxSource( ByteBuffer.wrap( "<a>text</a>".getBytes( StandardCharsets.UTF_8 ) ) ) );
+            parser.endDocument();
+            assertEquals( 1, failures.size() );
+        }
+    }
+
+    /**
+     * Captures every child of the root element
+     */
+    private static class Capturer
+            extends DefaultNioSaxParserHandler
+    {
+
+        private final List<String> stanzas = new ArrayList<String>();
+        private final NioSaxCaptureBuffer buffer = new NioSaxCaptureBuffer( ByteBuffer.allocate( 8 ) )
+        {
+
+            @Override
+            public void endCapture()
+            {
+                // The capture completes after endElement
+                assertEquals( 1, depth );
+                stanzas.add( StandardCharsets.UTF_8.decode( getByteBuffer() ).toString() );
+                clear();
+            }
+        };
+        private NioSaxParser parser;
+        private int depth;
+
+        @Override
+        public void startElement( final String uri, final String localName,
+                                  final String qName,
+                                  final Attributes attributes )
+                throws SAXException
+        {
+            if( depth++ == 1 )
+            {
+                parser.capture( buffer );
+            }
+        }
+
+        @Override
+        public void endElement( final String uri, final String localName,
+                                final String qName )
+        {
+            depth--;
+        }
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * <p>Copyright (c) 1998-2010, Peter T Mount<br>
+ * All rights reserved.</p>
+ *
+ * <p>Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:</p>
+ *
+ * <ul>
+ *   <li>Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.</li>
+ *
+ *   <li>Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.</li>
+ *
+ *   <li>Neither the name of the retep.org.uk nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.</li>
+ *
+ * </ul>
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.</p>
+ */
+package uk.org.retep.niosax;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import uk.org.retep.niosax.internal.core.DefaultNioSaxFactory;
+import uk.org.retep.niosax.internal.flat.FlatNioSaxFactory;
+import uk.org.retep.niosax.internal.helper.DefaultNioSaxParserHandler;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link CompositeNioSaxSource}
+ *
+ * @author peter
+ */
+public class CompositeNioSaxSourceTest
+{
+
+    /**
+     * Contains two and three byte UTF-8 characters
+     */
+    private static final String XML = "<r a='\u00e9\u20ac'>caf\u00e9 \u20ac\u20ac<b>\u00e9</b>\u20ac</r>";
+    private static final byte[] BYTES = XML.getBytes( StandardCharsets.UTF_8 );
+    private final NioSaxParserFactory[] factories =
+    {
+        new DefaultNioSaxFactory(), new FlatNioSaxFactory()
+    };
+
+    /**
+     * Parse the document split into buffers of every size up to 7 bytes,
+     * all added to the chain at once
+     * @throws Exception
+     */
+    @Test
+    public void testChain()
+            throws Exception
+    {
+        for( NioSaxParserFactory factory : factories )
+        {
+            final List<String> expected = parse( factory, BYTES.length, false );
+            for( int size = 1; size < 8; size++ )
+            {
+                assertEquals( "size " + size, expected, parse( factory, size, false ) );
+            }
+        }
+    }
+
+    /**
+     * Parse the document one buffer at a time, as it would arrive from a
+     * network
+     * @throws Exception
+     */
+    @Test
+    public void testIncremental()
+            throws Exception
+    {
+        for( NioSaxParserFactory factory : factories )
+        {
+            final List<String> expected = parse( factory, BYTES.length, false );
+            for( int size = 1; size < 8; size++ )
+            {
+                final Log log = new Log();
+                final NioSaxParser parser = factory.newInstance( log );
+                final List<ByteBuffer> recycled = new ArrayList<ByteBuffer>();
+                final CompositeNioSaxSource source = new CompositeNioSaxSource( null, recycler( recycled ) );
+
+                parser.startDocument();
+                final List<ByteBuffer> buffers = split( size );
+                for( ByteBuffer b : buffers )
+                {
+                    source.add( b );
+                    source.parse( parser );
+                    // only the bytes of an incomplete character are kept
+                    assertTrue( source.remaining() < 3 );
+                }
+                parser.endDocument();
+
+                assertEquals( "size " + size, expected, log.events );
+                assertEquals( 0, source.remaining() );
+                assertEquals( buffers.size(), recycled.size() );
+            }
+        }
+    }
+
+    /**
+     * The parser is paused on every event, including those generated by a
+     * character split between buffers
+     * @throws Exception
+     */
+    @Test
+    public void testPause()
+            throws Exception
+    {
+        for( NioSaxParserFactory factory : factories )
+        {
+            final List<String> expected = parse( factory, BYTES.length, false );
+            for( int size = 1; size < 8; size++ )
+            {
+                assertEquals( "size " + size, expected, parse( factory, size, true ) );
+            }
+        }
+    }
+
+    private List<String> parse( final NioSaxParserFactory factory,
+                                final int size, final boolean pause )
+            throws SAXException
+    {
+        final Log log = new Log();
+        final NioSaxParser parser = factory.newInstance( log );
+        log.parser = pause ? parser : null;
+
+        final List<ByteBuffer> recycled = new ArrayList<ByteBuffer>();
+        final CompositeNioSaxSource source = new CompositeNioSaxSource( null, recycler( recycled ) );
+        final List<ByteBuffer> buffers = split( size );
+        for( ByteBuffer b : buffers )
+        {
+            source.add( b );
+        }
+
+        parser.startDocument();
+        int calls = 0;
+        do
+        {
+            source.parse( parser );
+            calls++;
+        }
+        while( source.getBufferCount() > 0 );
+        parser.endDocument();
+
+        assertEquals( 0, source.getBufferCount() );
+        assertEquals( buffers.size(), recycled.size() );
+        if( pause )
+        {
+            assertTrue( calls > 1 );
+        }
+        return log.events;
+    }
+
+    private List<ByteBuffer> split( final int size )
+    {
+        final List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+        for( int i = 0; i < BYTES.length; i += size )
+        {
+            buffers.add( ByteBuffer.wrap( BYTES, i, Math.min( size, BYTES.length - i ) ) );
+        }
+        return buffers;
+    }
+
+    private CompositeNioSaxSource.Recycler recycler( final List<ByteBuffer> recycled )
+    {
+        return new CompositeNioSaxSource.Recycler()
+        {
+
+            @Override
+            public void recycle( final ByteBuffer buffer )
+            {
+                assertFalse( buffer.hasRemaining() );
+                recycled.add( buffer );
+            }
+        };
+    }
+
+    /**
+     * Records events, optionally pausing the parser on each one
+     */
+    private static class Log
+            extends DefaultNioSaxParserHandler
+    {
+
+        private final List<String> events = new ArrayList<String>();
+        private NioSaxParser parser;
+
+        private void add( final String event )
+        {
+            events.add( event );
+            if( parser != null )
+            {
+                parser.pause();
+            }
+        }
+
+        @Override
+        public void startElement( final String uri, final String localName,
+                                  final String qName,
+                                  final Attributes attributes )
+        {
+            add( "start " + qName + " " + attributes.getValue( "a" ) );
+        }
+
+        @Override
+        public void endElement( final String uri, final String localName,
+                                final String qName )
+        {
+            add( "end " + qName );
+        }
+
+        @Override
+        public void characters( final char[] ch, final int start,
+                                final int length )
+        {
+            // Content may be reported in several parts so join it up
+            final String s = new String( ch, start, length );
+            final int last = events.size() - 1;
+            if( last >= 0 && events.get( last ).startsWith( "text " ) )
+            {
+                events.set( last, events.get( last ) + s );
+            }
+            else
+            {
+                add( "text " + s );
+            }
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * <p>Copyright (c) 1998-2010, Peter T Mount<br>
+ * All rights reserved.</p>
+ *
+ * <p>Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:</p>
+ *
+ * <ul>
+ *   <li>Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.</li>
+ *
+ *   <li>Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.</li>
+ *
+ *   <li>Neither the name of the retep.org.uk nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.</li>
+ *
+ * </ul>
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.</p>
+ */
+package uk.org.retep.niosax;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import uk.org.retep.niosax.internal.core.DefaultNioSaxFactory;
+import uk.org.retep.niosax.internal.helper.DefaultNioSaxParserHandler;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link MappedNioSaxSource}
+ *
+ * @author peter
+ */
+public class MappedNioSaxSourceTest
+{
+
+    // Multi-byte UTF-8 characters so windows end part way through a character
+    private static final String TEXT = "café €£ 中文 ";
+    private static final int COUNT = 50;
+    private File file;
+    private String expected;
+
+    @Before
+    public void setUp()
+            throws IOException
+    {
+        final StringBuilder sb = new StringBuilder();
+        for( int i = 0; i < COUNT; i++ )
+        {
+            sb.append( TEXT );
+        }
+        expected = sb.toString();
+
+        file = File.createTempFile( "niosax", ".xml" );
+        try( FileOutputStream os = new FileOutputStream( file ) )
+        {
+            os.write( ("<r><t a='" + TEXT + "'>" + expected + "</t></r>").getBytes( StandardCharsets.UTF_8 ) );
+        }
+    }
+
+    @After
+    public void tearDown()
+    {
+        file.delete();
+    }
+
+    /**
+     * Parse the file with the default window which holds the whole file
+     * @throws Exception
+     */
+    @Test
+    public void testSingleWindow()
+            throws Exception
+    {
+        try( MappedNioSaxSource source = new MappedNioSaxSource( file ) )
+        {
+            parse( source );
+        }
+    }
+
+    /**
+     * Parse the file with a range of small windows so that characters,
+     * names and attributes span windows
+     * @throws Exception
+     */
+    @Test
+    public void testSlidingWindow()
+            throws Exception
+    {
+        for( int windowSize = MappedNioSaxSource.MIN_WINDOW_SIZE; windowSize < 40; windowSize++ )
+        {
+            try( MappedNioSaxSource source = new MappedNioSaxSource( file, null, windowSize ) )
+            {
+                parse( source );
+            }
+        }
+    }
+
+    /**
+     * A file ending part way through a character must not loop forever
+     * @throws Exception
+     */
+    @Test
+    public void testTruncated()
+            throws Exception
+    {
+        try( FileOutputStream os = new FileOutputStream( file ) )
+        {
+            os.write( new byte[]
+                    {
+                        '<', 'r', '>', (byte) 0xe2, (byte) 0x82
+                    } );
+        }
+
+        try( MappedNioSaxSource source = new MappedNioSaxSource( file, null, 16 ) )
+        {
+            final NioSaxParser parser = new DefaultNioSaxFactory().newInstance( new DefaultNioSaxParserHandler() );
+            parser.startDocument();
+            source.parse( parser );
+            assertTrue( source.hasRemaining() );
+            assertEquals( 3, source.getPosition() );
+        }
+    }
+
+    private void parse( final MappedNioSaxSource source )
+            throws Exception
+    {
+        final StringBuilder text = new StringBuilder();
+        final String[] attribute = new String[ 1 ];
+
+        final NioSaxParser parser = new DefaultNioSaxFactory().newInstance( new DefaultNioSaxParserHandler()
+        {
+
+            @Override
+            public void startElement( final String uri, final String localName,
+                                      final String qName,
+                                      final Attributes attributes )
+                    throws SAXException
+            {
+                if( "t".equals( qName ) )
+                {
+                    attribute[0] = attributes.getValue( "a" );
+                }
+            }
+
+            @Override
+            public void characters( final char[] ch, final int start,
+                                    final int length )
+                    throws SAXException
+            {
+                text.append( ch, start, length );
+            }
+        } );
+
+        parser.startDocument();
+        source.parse( parser );
+        parser.endDocument();
+
+        assertFalse( source.hasRemaining() );
+        assertEquals( source.size(), source.getPosition() );
+        assertEquals( TEXT, attribute[0] );
+        assertEquals( expected, text.toString() );
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * <p>Copyright (c) 1998-2010, Peter T Mount<br>
+ * All rights reserved.</p>
+ *
+ * <p>Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:</p>
+ *
+ * <ul>
+ *   <li>Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.</li>
+ *
+ *   <li>Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.</li>
+ *
+ *   <li>Neither the name of the retep.org.uk nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.</li>
+ *
+ * </ul>
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.</p>
+ */
+package uk.org.retep.niosax;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import uk.org.retep.niosax.internal.core.DefaultNioSaxFactory;
+import uk.org.retep.niosax.internal.flat.FlatNioSaxFactory;
+import uk.org.retep.niosax.internal.helper.DefaultNioSaxParserHandler;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link NioSaxParser#reset()} and {@link NioSaxParserPool}
+ *
+ * @author peter
+ */
+public class NioSaxParserPoolTest
+{
+
+    private static final String XML = "<s:a xmlns:s='urn:s'><b x='1'>t</b><c/></s:a>";
+    private static final String EXPECTED = "[start s:a, start b, characters t, end b, start c, end c, end s:a]";
+
+    /**
+     * Parsers are reused after both successful and failed documents with the
+     * default parser
+     * @throws Exception
+     */
+    @Test
+    public void testDefaultParser()
+            throws Exception
+    {
+        reuse( new DefaultNioSaxFactory() );
+    }
+
+    /**
+     * Parsers are reused after both successful and failed documents with the
+     * flat parser
+     * @throws Exception
+     */
+    @Test
+    public void testFlatParser()
+            throws Exception
+    {
+        reuse( new FlatNioSaxFactory() );
+    }
+
+    /**
+     * The pool never holds more than its capacity
+     */
+    @Test
+    public void testBounded()
+    {
+        final NioSaxParserPool pool = new DefaultNioSaxFactory().newPool( 2 );
+        final EventLog log = new EventLog();
+
+        final NioSaxParser p1 = pool.acquire( log );
+        final NioSaxParser p2 = pool.acquire( log );
+        final NioSaxParser p3 = pool.acquire( log );
+        assertNotSame( p1, p2 );
+        assertNotSame( p2, p3 );
+
+        pool.release( p1 );
+        pool.release( p2 );
+        pool.release( p3 );
+        assertEquals( 2, pool.size() );
+
+        assertSame( p1, pool.acquire( log ) );
+        assertSame( p2, pool.acquire( log ) );
+        assertEquals( 0, pool.size() );
+    }
+
+    /**
+     * A failed document must be reset before the parser can be used again
+     * @throws Exception
+     */
+    @Test( expected = SAXException.class )
+    public void testNotReset()
+            throws Exception
+    {
+        final NioSaxParser parser = new DefaultNioSaxFactory().newInstance( new EventLog() );
+        parser.startDocument();
+        parse( parser, "<a><b>" );
+        parser.startDocument();
+    }
+
+    private void reuse( final NioSaxParserFactory factory )
+            throws Exception
+    {
+        final NioSaxParserPool pool = factory.newPool( 1 );
+
+        // A document that fails part way through, inside a namespace scope
+        EventLog log = new EventLog();
+        final NioSaxParser parser = pool.acquire( log );
+        parser.startDocument();
+        try
+        {
+            parse( parser, "<s:a xmlns:s='urn:s'><b x='1'><c></b>" );
+            fail( "Accepted mismatched end tag" );
+        }
+        catch( SAXException ex )
+        {
+            // expected
+        }
+        pool.release( parser );
+
+        for( int i = 0; i < 3; i++ )
+        {
+            log = new EventLog();
+            final NioSaxParser p = pool.acquire( log );
+            assertSame( parser, p );
+            assertSame( log, p.getLexicalHandler() );
+            assertSame( log, p.getNioSaxParserHandler() );
+
+            p.startDocument();
+            parse( p, XML );
+            p.endDocument();
+            pool.release( p );
+            assertNull( p.getLexicalHandler() );
+            assertNull( p.getNioSaxParserHandler() );
+
+            assertEquals( EXPECTED, log.events.toString() );
+            assertEquals( "urn:s", log.uri );
+        }
+    }
+
+    private void parse( final NioSaxParser parser, final String xml )
+            throws SAXException
+    {
+        parser.parse( new NioSaxSource( ByteBuffer.wrap( xml.getBytes( StandardCharsets.UTF_8 ) ) ) );
+    }
+
+    /**
+     * Records elements and character content
+     */
+    private static class EventLog
+            extends DefaultNioSaxParserHandler
+    {
+
+        private final List<String> events = new ArrayList<String>();
+        private String uri;
+
+        @Override
+        public void startElement( final String uri, final String localName,
+                                  final String qName,
+                                  final Attributes attributes )
+        {
+            if( this.uri == null )
+            {
+                this.uri = uri;
+            }
+            events.add( "start " + qName );
+        }
+
+        @Override
+        public void endElement( final String uri, final String localName,
+                                final String qName )
+        {
+            events.add( "end " + qName );
+        }
+
+        @Override
+        public void characters( final char[] ch, final int start,
+                                final int length )
+        {
+            events.add( "characters " + new String( ch, start, length ) );
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * <p>Copyright (c) 1998-2010, Peter T Mount<br>
+ * All rights reserved.</p>
+ *
+ * <p>Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:</p>
+ *
+ * <ul>
+ *   <li>Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.</li>
+ *
+ *   <li>Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.</li>
+ *
+ *   <li>Neither the name of the retep.org.uk nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.</li>
+ *
+ * </ul>
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.</p>
+ */
+package uk.org.retep.niosax;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import uk.org.retep.niosax.internal.core.DefaultNioSaxFactory;
+import uk.org.retep.niosax.internal.flat.FlatNioSaxFactory;
+import uk.org.retep.niosax.internal.helper.DefaultNioSaxParserHandler;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link NioSaxParser#pause()}
+ *
+ * @author peter
+ */
+public class PauseTest
+{
+
+    private static final String XML = "<a x='1'><b>t&amp;t</b><c/>text</a>";
+    /**
+     * The event and the buffer position when parse returned, which is just
+     * after the character that generated the event
+     */
+    private static final String[] EVENTS =
+    {
+        "start a 9",
+        "start b 12",
+        "characters t&t 20",
+        "end b 23",
+        "start c 27",
+        "end c 27",
+        "characters text 32",
+        "end a 35"
+    };
+
+    /**
+     * Pause on every event with the default parser
+     * @throws Exception
+     */
+    @Test
+    public void testDefaultParser()
+            throws Exception
+    {
+        pause( new DefaultNioSaxFactory() );
+    }
+
+    /**
+     * Pause on every event with the flat parser
+     * @throws Exception
+     */
+    @Test
+    public void testFlatParser()
+            throws Exception
+    {
+        pause( new FlatNioSaxFactory() );
+    }
+
+    private void pause( final NioSaxParserFactory factory )
+            throws Exception
+    {
+        final ByteBuffer buffer = ByteBuffer.wrap( XML.getBytes( StandardCharsets.UTF_8 ) );
+        final NioSaxSource source = new NioSaxSource( buffer );
+        final List<String> events = new ArrayList<String>();
+        final List<String> pending = new ArrayList<String>();
+
+        final NioSaxParser parser = factory.newInstance();
+        parser.setHandler( new DefaultNioSaxParserHandler()
+        {
+
+            @Override
+            public void startElement( final String uri, final String localName,
+                                      final String qName,
+                                      final Attributes attributes )
+                    throws SAXException
+            {
+                pending.add( "start " + qName );
+                parser.pause();
+            }
+
+            @Override
+            public void endElement( final String uri, final String localName,
+                                    final String qName )
+                    throws SAXException
+            {
+                pending.add( "end " + qName );
+                parser.pause();
+            }
+
+            @Override
+            public void characters( final char[] ch, final int start,
+                                    final int length )
+                    throws SAXException
+            {
+                pending.add( "characters " + new String( ch, start, length ) );
+                parser.pause();
+            }
+        } );
+
+        parser.startDocument();
+        int calls = 0;
+        while( buffer.hasRemaining() )
+        {
+            parser.parse( source );
+            calls++;
+            assertTrue( parser.isPaused() || !buffer.hasRemaining() );
+            for( String e : pending )
+            {
+                events.add( e + " " + buffer.position() );
+            }
+            pending.clear();
+        }
+        parser.endDocument();
+
+        assertArrayEquals( EVENTS, events.toArray() );
+        // <c/> generates both of its events from the same character
+        assertEquals( EVENTS.length - 1, calls );
+    }
+}
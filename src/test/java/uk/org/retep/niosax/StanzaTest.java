@@ -0,0 +1,222 @@
+/*
+ * <p>Copyright (c) 1998-2010, Peter T Mount<br>
+ * All rights reserved.</p>
+ *
+ * <p>Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:</p>
+ *
+ * <ul>
+ *   <li>Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.</li>
+ *
+ *   <li>Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.</li>
+ *
+ *   <li>Neither the name of the retep.org.uk nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.</li>
+ *
+ * </ul>
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.</p>
+ */
+package uk.org.retep.niosax;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import org.xml.sax.Attributes;
+import uk.org.retep.niosax.internal.core.AbstractNioSaxParser;
+import uk.org.retep.niosax.internal.core.AppendableParserDelegate;
+import uk.org.retep.niosax.internal.core.DefaultNioSaxFactory;
+import uk.org.retep.niosax.internal.flat.FlatNioSaxFactory;
+import uk.org.retep.niosax.internal.helper.DefaultNioSaxParserHandler;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests stanza mode, enabled by a {@link NioSaxStanzaHandler}
+ *
+ * @author peter
+ */
+public class StanzaTest
+{
+
+    private static final String OPEN = "<stream:stream xmlns:stream='urn:s' xmlns='jabber:client'>";
+    private static final String[] EXPECTED =
+    {
+        "start stream:stream",
+        "start message",
+        "start body",
+        "end body",
+        "end message",
+        "endStanza",
+        "start iq",
+        "start q",
+        "end q",
+        "endPrefixMapping q",
+        "end iq",
+        "endStanza",
+        "start presence",
+        "end presence",
+        "endStanza"
+    };
+
+    /**
+     * Stanza events with the default parser
+     * @throws Exception
+     */
+    @Test
+    public void testDefaultParser()
+            throws Exception
+    {
+        final AbstractNioSaxParser parser = stanzas( new DefaultNioSaxFactory() );
+
+        // Only the usual number of frames are kept, none holding a large buffer
+        assertNull( parser.getFrame( 20 ) );
+        for( int i = 0; i < 16; i++ )
+        {
+            final AppendableParserDelegate<?> frame = parser.getFrame( i );
+            if( frame != null )
+            {
+                assertTrue( frame.getAppendable().getCharBuffer().length <= AbstractNioSaxParser.STANZA_BUFFER_LIMIT );
+            }
+        }
+    }
+
+    /**
+     * Stanza events with the flat parser
+     * @throws Exception
+     */
+    @Test
+    public void testFlatParser()
+            throws Exception
+    {
+        stanzas( new FlatNioSaxFactory() );
+    }
+
+    /**
+     * Without a stanza handler nothing changes
+     * @throws Exception
+     */
+    @Test
+    public void testNotStanzaMode()
+            throws Exception
+    {
+        final EventLog log = new EventLog();
+        final NioSaxParser parser = new DefaultNioSaxFactory().newInstance();
+        parser.setHandler( new DefaultNioSaxParserHandler()
+        {
+
+            @Override
+            public void startElement( final String uri, final String localName,
+                                      final String qName,
+                                      final Attributes attributes )
+            {
+                log.events.add( "start " + qName );
+            }
+        } );
+        assertNull( parser.getStanzaHandler() );
+
+        parser.startDocument();
+        parse( parser, OPEN + "<a/><b/>" );
+        assertEquals( Arrays.asList( "start stream:stream", "start a", "start b" ), log.events );
+    }
+
+    private AbstractNioSaxParser stanzas( final NioSaxParserFactory factory )
+            throws Exception
+    {
+        final EventLog log = new EventLog();
+        final AbstractNioSaxParser parser = (AbstractNioSaxParser) factory.newInstance( log );
+        assertSame( log, parser.getStanzaHandler() );
+
+        // A large body and deep nesting must not be retained by the parser
+        final char[] text = new char[ AbstractNioSaxParser.STANZA_BUFFER_LIMIT * 4 ];
+        Arrays.fill( text, 'x' );
+        final StringBuilder deep = new StringBuilder();
+        for( int i = 0; i < 40; i++ )
+        {
+            deep.append( "<d>" );
+        }
+        for( int i = 0; i < 40; i++ )
+        {
+            deep.append( "</d>" );
+        }
+
+        parser.startDocument();
+        parse( parser, OPEN );
+        parse( parser, "<message to='a' v='" + new String( text ) + "'><body>" );
+        parse( parser, new String( text ) + "</body></message>" );
+        parse( parser, "<iq><q xmlns:q='urn:q'>" + deep + "</q></iq>" );
+        parse( parser, "\n <presence/>" );
+
+        assertEquals( Arrays.asList( EXPECTED ), log.events );
+        assertTrue( parser.getAttributeList().getValueCharacters().length <= AbstractNioSaxParser.STANZA_BUFFER_LIMIT );
+        return parser;
+    }
+
+    private void parse( final NioSaxParser parser, final String xml )
+            throws Exception
+    {
+        parser.parse( new NioSaxSource( ByteBuffer.wrap( xml.getBytes( StandardCharsets.UTF_8 ) ) ) );
+    }
+
+    /**
+     * Records the events of interest, ignoring the nested d elements
+     */
+    private static class EventLog
+            extends DefaultNioSaxParserHandler
+            implements NioSaxStanzaHandler
+    {
+
+        private final List<String> events = new ArrayList<String>();
+
+        @Override
+        public void endPrefixMapping( final String prefix )
+        {
+            events.add( "endPrefixMapping " + prefix );
+        }
+
+        @Override
+        public void startElement( final String uri, final String localName,
+                                  final String qName,
+                                  final Attributes attributes )
+        {
+            if( !"d".equals( qName ) )
+            {
+                events.add( "start " + qName );
+            }
+        }
+
+        @Override
+        public void endElement( final String uri, final String localName,
+                                final String qName )
+        {
+            if( !"d".equals( qName ) )
+            {
+                events.add( "end " + qName );
+            }
+        }
+
+        @Override
+        public void endStanza()
+        {
+            events.add( "endStanza" );
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * <p>Copyright (c) 1998-2010, Peter T Mount<br>
+ * All rights reserved.</p>
+ *
+ * <p>Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:</p>
+ *
+ * <ul>
+ *   <li>Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.</li>
+ *
+ *   <li>Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.</li>
+ *
+ *   <li>Neither the name of the retep.org.uk nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.</li>
+ *
+ * </ul>
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.</p>
+ */
+package uk.org.retep.niosax.charset;
+
+import java.nio.ByteBuffer;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the bulk decode path of the {@link Charset} implementations against
+ * the single character one.
+ *
+ * @author peter
+ */
+public class CharsetTest
+{
+
+    private static final String TEXT = "<body>Plain ascii text, café €10 &amp; more ascii</body>";
+
+    @Test
+    public void utf8Heap()
+    {
+        bulkDecode( "UTF-8", TEXT, false );
+    }
+
+    @Test
+    public void utf8Direct()
+    {
+        bulkDecode( "UTF-8", TEXT, true );
+    }
+
+    @Test
+    public void iso88591()
+    {
+        bulkDecode( "ISO-8859-1", "café crème brûlée", false );
+    }
+
+    @Test
+    public void usAscii()
+    {
+        bulkDecode( "US-ASCII", "plain ascii", true );
+    }
+
+    @Test
+    public void utf16()
+    {
+        bulkDecode( "UTF-16BE", "abc", false );
+    }
+
+    /**
+     * A multi-byte character split at the end of the buffer must be left in
+     * the buffer
+     */
+    @Test
+    public void utf8Partial()
+    {
+        final Charset cs = CharsetFactory.getCharset( "UTF-8" );
+        final ByteBuffer buffer = ByteBuffer.wrap( new byte[]
+                {
+                    'a', 'b', (byte) 0xe2, (byte) 0x82
+                } );
+
+        final char[] c = new char[ 10 ];
+        assertEquals( 2, cs.decode( buffer, c, 0, c.length ) );
+        assertEquals( "ab", new String( c, 0, 2 ) );
+        assertEquals( 2, buffer.position() );
+        assertEquals( 0, cs.decode( buffer, c, 0, c.length ) );
+        assertEquals( 2, buffer.position() );
+    }
+
+    /**
+     * Encoding must match the jdk
+     */
+    @Test
+    public void encode()
+    {
+        encode( "UTF-8", TEXT + " \u4e2d\u6587" );
+        encode( "UTF-16BE", TEXT );
+        encode( "UTF-16LE", TEXT );
+        encode( "ISO-8859-1", "caf\u00e9 \u00ff" );
+        encode( "US-ASCII", "plain ascii" );
+    }
+
+    private void encode( final String name, final String text )
+    {
+        final Charset cs = CharsetFactory.getCharset( name );
+        final ByteBuffer buffer = ByteBuffer.allocate( text.length() * 3 );
+        assertEquals( text.length(), cs.write( buffer, text.toCharArray() ) );
+        buffer.flip();
+
+        final byte[] b = new byte[ buffer.remaining() ];
+        buffer.get( b );
+        assertArrayEquals( name, text.getBytes( java.nio.charset.Charset.forName( name ) ), b );
+    }
+
+    private void bulkDecode( final String name, final String text,
+                             final boolean direct )
+    {
+        final Charset cs = CharsetFactory.getCharset( name );
+        assertNotNull( name, cs );
+
+        // Encode using the jdk so we are only testing our decoder
+        final byte[] b = text.getBytes( java.nio.charset.Charset.forName( name ) );
+        final ByteBuffer buffer = direct ? ByteBuffer.allocateDirect( b.length ) : ByteBuffer.allocate( b.length );
+        buffer.put( b ).flip();
+
+        // decode in small windows to exercise the length limit
+        final StringBuilder sb = new StringBuilder();
+        final char[] c = new char[ 7 ];
+        int n;
+        while( (n = cs.decode( buffer, c, 0, c.length )) > 0 )
+        {
+            sb.append( c, 0, n );
+        }
+
+        assertEquals( text, sb.toString() );
+        assertFalse( buffer.hasRemaining() );
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * <p>Copyright (c) 1998-2010, Peter T Mount<br>
+ * All rights reserved.</p>
+ *
+ * <p>Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:</p>
+ *
+ * <ul>
+ *   <li>Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.</li>
+ *
+ *   <li>Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.</li>
+ *
+ *   <li>Neither the name of the retep.org.uk nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.</li>
+ *
+ * </ul>
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.</p>
+ */
+package uk.org.retep.niosax.flow;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import uk.org.retep.niosax.internal.core.DefaultNioSaxFactory;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link NioSaxProcessor}
+ *
+ * @author peter
+ */
+public class NioSaxProcessorTest
+{
+
+    private static final String XML = "<s:stream xmlns:s='urn:s'><m a='1'>café €</m><e/><?pi x?></s:stream>";
+    private static final String[] EVENTS =
+    {
+        "START_DOCUMENT",
+        "START_PREFIX_MAPPING s=urn:s",
+        "START_ELEMENT s:stream urn:s",
+        "START_ELEMENT m 1",
+        "CHARACTERS café €",
+        "END_ELEMENT m",
+        "START_ELEMENT e",
+        "END_ELEMENT e",
+        "PROCESSING_INSTRUCTION pi x",
+        "END_ELEMENT s:stream",
+        "END_PREFIX_MAPPING s",
+        "END_DOCUMENT"
+    };
+
+    /**
+     * Request one event at a time with the input split into single bytes
+     * @throws Exception
+     */
+    @Test
+    public void testOneAtATime()
+            throws Exception
+    {
+        run( 1, 1 );
+    }
+
+    /**
+     * Request events in batches with the input in chunks that split
+     * multi-byte characters
+     * @throws Exception
+     */
+    @Test
+    public void testBatches()
+            throws Exception
+    {
+        for( int chunk = 1; chunk < 12; chunk++ )
+        {
+            for( int batch = 1; batch < 5; batch++ )
+            {
+                run( chunk, batch );
+            }
+        }
+        run( 1000, Long.MAX_VALUE );
+    }
+
+    /**
+     * Invalid content is reported through onError
+     * @throws Exception
+     */
+    @Test
+    public void testError()
+            throws Exception
+    {
+        final Subscriber subscriber = new Subscriber( 100 );
+        final Publisher publisher = new Publisher( "<a></b>".getBytes( StandardCharsets.UTF_8 ), 3 );
+        final NioSaxProcessor processor = new NioSaxProcessor( new DefaultNioSaxFactory().newInstance(), null );
+        processor.subscribe( subscriber );
+        publisher.subscribe( processor );
+        assertNotNull( subscriber.error );
+        assertTrue( publisher.cancelled );
+        assertFalse( subscriber.complete );
+    }
+
+    private void run( final int chunk, final long batch )
+    {
+        final Subscriber subscriber = new Subscriber( batch );
+        final Publisher publisher = new Publisher( XML.getBytes( StandardCharsets.UTF_8 ), chunk );
+        final NioSaxProcessor processor = new NioSaxProcessor( new DefaultNioSaxFactory().newInstance(), null );
+
+        processor.subscribe( subscriber );
+        publisher.subscribe( processor );
+
+        final String msg = "chunk " + chunk + " batch " + batch;
+        assertNull( msg, subscriber.error );
+        assertTrue( msg, subscriber.complete );
+        assertArrayEquals( msg, EVENTS, subscriber.events.toArray() );
+        assertTrue( msg, publisher.maxOutstanding <= 1 );
+    }
+
+    /**
+     * Publishes a byte array in chunks, tracking the demand it receives
+     */
+    private static class Publisher
+            implements Flow.Publisher<ByteBuffer>
+    {
+
+        private final byte[] data;
+        private final int chunk;
+        private int offset;
+        private long outstanding;
+        private long maxOutstanding;
+        private boolean cancelled;
+        private boolean emitting;
+        private Flow.Subscriber<? super ByteBuffer> subscriber;
+
+        Publisher( final byte[] data, final int chunk )
+        {
+            this.data = data;
+            this.chunk = chunk;
+        }
+
+        @Override
+        public void subscribe( final Flow.Subscriber<? super ByteBuffer> s )
+        {
+            subscriber = s;
+            s.onSubscribe( new Flow.Subscription()
+            {
+
+                @Override
+                public void request( final long n )
+                {
+                    outstanding += n;
+                    maxOutstanding = Math.max( maxOutstanding, outstanding );
+                    if( emitting )
+                    {
+                        return;
+                    }
+                    emitting = true;
+                    while( outstanding > 0 && !cancelled )
+                    {
+                        if( offset >= data.length )
+                        {
+                            subscriber.onComplete();
+                            break;
+                        }
+                        final int len = Math.min( chunk, data.length - offset );
+                        outstanding--;
+                        final ByteBuffer b = ByteBuffer.wrap( data, offset, len ).slice();
+                        offset += len;
+                        subscriber.onNext( b );
+                    }
+                    emitting = false;
+                }
+
+                @Override
+                public void cancel()
+                {
+                    cancelled = true;
+                }
+            } );
+        }
+    }
+
+    /**
+     * Records events, requesting more in batches as each batch is consumed
+     */
+    private static class Subscriber
+            implements Flow.Subscriber<XmlEvent>
+    {
+
+        private final long batch;
+        private final List<String> events = new ArrayList<String>();
+        private Flow.Subscription subscription;
+        private long remaining;
+        private Throwable error;
+        private boolean complete;
+
+        Subscriber( final long batch )
+        {
+            this.batch = batch;
+        }
+
+        @Override
+        public void onSubscribe( final Flow.Subscription s )
+        {
+            subscription = s;
+            remaining = batch;
+            s.request( batch );
+        }
+
+        @Override
+        public void onNext( final XmlEvent item )
+        {
+            assertTrue( "more events than requested", remaining > 0 );
+            if( item.getType() == XmlEvent.Type.START_ELEMENT && item.getAttributes().getLength() > 0 )
+            {
+                events.add( item + " " + item.getAttributes().getValue( 0 ) );
+            }
+            else
+            {
+                events.add( item.toString() );
+            }
+
+            if( batch != Long.MAX_VALUE && --remaining == 0 )
+            {
+                remaining = batch;
+                subscription.request( batch );
+            }
+        }
+
+        @Override
+        public void onError( final Throwable throwable )
+        {
+            error = throwable;
+        }
+
+        @Override
+        public void onComplete()
+        {
+            complete = true;
+        }
+    }
+}
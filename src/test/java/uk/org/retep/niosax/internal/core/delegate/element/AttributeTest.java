@@ -0,0 +1,141 @@
+/*
+ * <p>Copyright (c) 1998-2010, Peter T Mount<br>
+ * All rights reserved.</p>
+ *
+ * <p>Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:</p>
+ *
+ * <ul>
+ *   <li>Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.</li>
+ *
+ *   <li>Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.</li>
+ *
+ *   <li>Neither the name of the retep.org.uk nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.</li>
+ *
+ * </ul>
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.</p>
+ */
+package uk.org.retep.niosax.internal.core.delegate.element;
+
+import org.junit.Test;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import uk.org.retep.niosax.NioSaxAttributes;
+import uk.org.retep.niosax.internal.core.delegate.BaseSaxTest;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test the attributes passed to startElement
+ *
+ * @author peter
+ */
+public class AttributeTest
+        extends BaseSaxTest
+{
+
+    private static final String XML = "<stream xmlns:a='urn:a' to='example.com' a:id=\"1\"><node1 type='chat'/><node1/></stream>";
+
+    /**
+     * Tests XML without splitting
+     * @throws Exception
+     */
+    @Test
+    public void testAttributes()
+            throws Exception
+    {
+        parseDecl( new AttributeHandler(), false, XML );
+    }
+
+    /**
+     * Tests XML with splitting
+     * @throws Exception
+     */
+    @Test
+    public void testAttributesSplit()
+            throws Exception
+    {
+        parseDecl( new AttributeHandler(), true, XML );
+    }
+
+    /**
+     * TestHandler checking the attributes of each element
+     */
+    private class AttributeHandler
+            extends TestHandler
+    {
+
+        private int node1;
+
+        @Override
+        public void resetHandler()
+                throws Exception
+        {
+            super.resetHandler();
+            node1 = 0;
+        }
+
+        @Override
+        public void assertHandler()
+                throws Exception
+        {
+            assertEquals( 2, node1 );
+        }
+
+        @Override
+        public void startElement( final String uri,
+                                  final String localName,
+                                  final String qName,
+                                  final Attributes attributes )
+                throws SAXException
+        {
+            if( ElementTest.STREAM.equals( localName ) )
+            {
+                assertEquals( 3, attributes.getLength() );
+                assertEquals( "example.com", attributes.getValue( "to" ) );
+                assertEquals( "1", attributes.getValue( "urn:a", "id" ) );
+                assertEquals( "a:id", attributes.getQName( attributes.getIndex( "urn:a", "id" ) ) );
+                assertEquals( "CDATA", attributes.getType( "to" ) );
+                assertEquals( -1, attributes.getIndex( "from" ) );
+                assertNull( attributes.getValue( "from" ) );
+                assertNull( attributes.getValue( 3 ) );
+            }
+            else if( node1++ == 0 )
+            {
+                assertEquals( 1, attributes.getLength() );
+                assertEquals( "", attributes.getURI( 0 ) );
+                assertEquals( "type", attributes.getLocalName( 0 ) );
+                assertEquals( "chat", attributes.getValue( 0 ) );
+
+                // The value is available without creating a String
+                final NioSaxAttributes a = (NioSaxAttributes) attributes;
+                assertEquals( "chat", new String( a.getValueCharacters(),
+                                                  a.getValueStart( 0 ),
+                                                  a.getValueLength( 0 ) ) );
+                assertEquals( -1, a.getValueStart( 1 ) );
+            }
+            else
+            {
+                // Nothing must be left over from the previous element
+                assertEquals( 0, attributes.getLength() );
+            }
+        }
+    }
+}
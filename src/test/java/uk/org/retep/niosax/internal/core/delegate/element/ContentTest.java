@@ -0,0 +1,109 @@
+/*
+ * <p>Copyright (c) 1998-2010, Peter T Mount<br>
+ * All rights reserved.</p>
+ *
+ * <p>Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:</p>
+ *
+ * <ul>
+ *   <li>Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.</li>
+ *
+ *   <li>Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.</li>
+ *
+ *   <li>Neither the name of the retep.org.uk nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.</li>
+ *
+ * </ul>
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.</p>
+ */
+package uk.org.retep.niosax.internal.core.delegate.element;
+
+import org.junit.Test;
+import org.xml.sax.SAXException;
+import uk.org.retep.niosax.internal.core.delegate.BaseSaxTest;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the text content of elements
+ *
+ * @author peter
+ */
+public class ContentTest
+        extends BaseSaxTest
+{
+
+    private static final String TEXT = "The quick brown fox jumps over the lazy dog";
+    private static final String XML = "<stream><body>%s &amp; %<s</body>tail</stream>";
+
+    /**
+     * Tests XML without splitting
+     * @throws Exception
+     */
+    @Test
+    public void testContent()
+            throws Exception
+    {
+        parseDecl( new Content(), false, XML, TEXT );
+    }
+
+    /**
+     * Tests XML with splitting
+     * @throws Exception
+     */
+    @Test
+    public void testContentSplit()
+            throws Exception
+    {
+        parseDecl( new Content(), true, XML, TEXT );
+    }
+
+    /**
+     * TestHandler collecting the text of each element
+     */
+    private class Content
+            extends TestHandler
+    {
+
+        private StringBuilder text;
+
+        @Override
+        public void resetHandler()
+                throws Exception
+        {
+            text = new StringBuilder();
+            super.resetHandler();
+        }
+
+        @Override
+        public void assertHandler()
+                throws Exception
+        {
+            assertEquals( TEXT + " & " + TEXT + "tail", text.toString() );
+        }
+
+        @Override
+        public void characters( final char[] ch, final int start,
+                                final int length )
+                throws SAXException
+        {
+            text.append( ch, start, length );
+        }
+    }
+}
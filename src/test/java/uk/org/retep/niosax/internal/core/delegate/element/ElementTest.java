@@ -113,6 +113,17 @@ public class ElementTest
         parseDecl( new ChildElement1(), split, CHILD1_XML );
     }
 
+    /**
+     * Tests that names are interned by default
+     * @throws Exception
+     */
+    @Test
+    public void testStringInterning()
+            throws Exception
+    {
+        parseDecl( new InternedElement(), false, CHILD1_XML );
+    }
+
     /**
      * TestHandler for simple tests
      */
@@ -266,4 +277,25 @@ public class ElementTest
             }
         }
     }
+
+    /**
+     * TestHandler ensuring names can be compared by identity
+     */
+    private class InternedElement
+            extends ChildElement1
+    {
+
+        @Override
+        public void startElement( final String uri,
+                                  final String localName,
+                                  final String qName,
+                                  Attributes attributes )
+                throws SAXException
+        {
+            assertTrue( "localName not interned " + localName,
+                        localName == STREAM || localName == NODE1 );
+            assertSame( localName, qName );
+            super.startElement( uri, localName, qName, attributes );
+        }
+    }
 }
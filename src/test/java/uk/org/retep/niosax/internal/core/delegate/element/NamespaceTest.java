@@ -35,6 +35,7 @@
 package uk.org.retep.niosax.internal.core.delegate.element;
 
 import org.junit.Test;
+import static org.junit.Assert.*;
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 import uk.org.retep.niosax.internal.core.delegate.BaseSaxTest;
@@ -91,31 +92,49 @@ public class NamespaceTest
     private class NSElement
             extends TestHandler
     {
-        
+
+        private int started;
+        private int ended;
+        private String messageURI;
+        private String streamURI;
+        private boolean streamEnded;
 
         @Override
         public void resetHandler()
                 throws Exception
         {
             super.resetHandler();
+            started = 0;
+            ended = 0;
+            messageURI = null;
+            streamURI = null;
+            streamEnded = false;
         }
 
         @Override
         public void assertHandler()
                 throws Exception
         {
+            assertEquals( 2, started );
+            assertEquals( 2, ended );
+            assertEquals( "http://etherx.jabber.org/streams", streamURI );
+            assertEquals( "jabber:client", messageURI );
         }
 
         @Override
         public void startPrefixMapping( String prefix, String uri )
                 throws SAXException
         {
+            started++;
         }
 
         @Override
         public void endPrefixMapping( String prefix )
                 throws SAXException
         {
+            // Mappings end only once the declaring element has ended
+            assertTrue( streamEnded );
+            ended++;
         }
 
         @Override
@@ -123,8 +142,24 @@ public class NamespaceTest
                                   Attributes attributes )
                 throws SAXException
         {
+            if( "stream".equals( localName ) )
+            {
+                streamURI = uri;
+            }
+            else if( "message".equals( localName ) )
+            {
+                messageURI = uri;
+            }
+        }
 
-
+        @Override
+        public void endElement( String uri, String localName, String qName )
+                throws SAXException
+        {
+            if( "stream:stream".equals( qName ) )
+            {
+                streamEnded = true;
+            }
         }
     }
 }
@@ -0,0 +1,289 @@
+/*
+ * <p>Copyright (c) 1998-2010, Peter T Mount<br>
+ * All rights reserved.</p>
+ *
+ * <p>Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:</p>
+ *
+ * <ul>
+ *   <li>Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.</li>
+ *
+ *   <li>Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.</li>
+ *
+ *   <li>Neither the name of the retep.org.uk nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.</li>
+ *
+ * </ul>
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.</p>
+ */
+package uk.org.retep.niosax.internal.flat;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import uk.org.retep.niosax.NioSaxParser;
+import uk.org.retep.niosax.NioSaxParserFactory;
+import uk.org.retep.niosax.NioSaxSource;
+import uk.org.retep.niosax.internal.core.DefaultNioSaxFactory;
+import uk.org.retep.niosax.internal.helper.DefaultNioSaxParserHandler;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that {@link FlatNioSaxParser} generates exactly the same events as
+ * the default parser, both when given the whole document and when the
+ * content arrives in two parts split at every possible position.
+ *
+ * @author peter
+ */
+public class FlatNioSaxParserTest
+{
+
+    private static final String[] DOCUMENTS =
+    {
+        "<stream/>",
+        "<?xml version='1.1' encoding='UTF-8'?>\n"
+        + "<stream a='1' b=\"two\"><node1>text &amp; more &lt;x&gt;</node1>"
+        + "<node2 />\n  <node3></node3 ></stream>",
+        "<s:stream xmlns:s='urn:s' xmlns='urn:d'><msg to='a' s:id='1'>"
+        + "<body>hi</body></msg></s:stream>",
+        "<s><m a='1'><b>x</b></m><m><b/></m><m xmlns='urn:x' c='2'><b y='3'/></m>"
+        + "<m><b>z</b></m></s>",
+        "<?pi data?>\n<!-- a comment -->\n<r><![CDATA[ <raw> ] ]] ]]>"
+        + "<!--x - y--><?pa d?><e/></r>\n<!-- trailing -->",
+        "<r a='&lt;&#65;&#x1F600;' b=\"&quot;&apos;&amp;\">&#x1F600;&#169; &gt;&#10;</r>"
+    };
+    private final NioSaxParserFactory defaultFactory = new DefaultNioSaxFactory();
+    private final NioSaxParserFactory flatFactory = new FlatNioSaxFactory();
+
+    /**
+     * Parse each document in one go
+     * @throws Exception
+     */
+    @Test
+    public void testSameEvents()
+            throws Exception
+    {
+        for( String xml : DOCUMENTS )
+        {
+            assertEquals( xml,
+                          parse( defaultFactory, xml, -1 ),
+                          parse( flatFactory, xml, -1 ) );
+        }
+    }
+
+    /**
+     * Parse each document split at every position
+     * @throws Exception
+     */
+    @Test
+    public void testSameEventsSplit()
+            throws Exception
+    {
+        for( String xml : DOCUMENTS )
+        {
+            final List<String> expected = parse( defaultFactory, xml, -1 );
+            for( int i = 0; i < xml.length(); i++ )
+            {
+                assertEquals( xml + " split at " + i,
+                              expected,
+                              parse( flatFactory, xml, i ) );
+            }
+        }
+    }
+
+    /**
+     * A mismatched end tag must fail
+     * @throws Exception
+     */
+    @Test( expected = SAXException.class )
+    public void testMismatchedEnd()
+            throws Exception
+    {
+        parse( flatFactory, "<a><b></a></b>", -1 );
+    }
+
+    /**
+     * Both parsers must reject a mismatched end tag, whether or not it is
+     * followed by whitespace
+     * @throws Exception
+     */
+    @Test
+    public void testMismatchedEndBothParsers()
+            throws Exception
+    {
+        final String[] xml =
+        {
+            "<a><b></c></a>",
+            "<a><b></c ></a>",
+            "<a><bc></b></a>",
+            "<a><b></bc ></a>",
+            "<p:a xmlns:p='urn:p' xmlns:q='urn:p'></q:a>"
+        };
+
+        for( NioSaxParserFactory factory : new NioSaxParserFactory[]
+                {
+                    defaultFactory, flatFactory
+                } )
+        {
+            for( String doc : xml )
+            {
+                try
+                {
+                    parse( factory, doc, -1 );
+                    fail( factory.getClass().getSimpleName() + " accepted " + doc );
+                }
+                catch( SAXException ex )
+                {
+                    // expected
+                }
+            }
+        }
+    }
+
+    private List<String> parse( final NioSaxParserFactory factory,
+                                final String xml,
+                                final int split )
+            throws SAXException
+    {
+        final EventLog log = new EventLog();
+        final NioSaxParser parser = factory.newInstance( log );
+
+        final ByteBuffer buffer = ByteBuffer.wrap( xml.getBytes( StandardCharsets.UTF_8 ) );
+        final NioSaxSource source = new NioSaxSource( buffer );
+
+        parser.startDocument();
+        try
+        {
+            if( split >= 0 )
+            {
+                buffer.limit( split );
+                parser.parse( source );
+                buffer.limit( buffer.capacity() );
+            }
+            parser.parse( source );
+        }
+        finally
+        {
+            parser.endDocument();
+        }
+
+        return log.events;
+    }
+
+    /**
+     * Records every event as a string
+     */
+    private static class EventLog
+            extends DefaultNioSaxParserHandler
+    {
+
+        private final List<String> events = new ArrayList<String>();
+
+        @Override
+        public void xmlDeclaration( final String versionInfo,
+                                    final String encoding,
+                                    final boolean standalone )
+        {
+            events.add( "decl " + versionInfo + " " + encoding + " " + standalone );
+        }
+
+        @Override
+        public void startDocument()
+        {
+            events.add( "startDocument" );
+        }
+
+        @Override
+        public void endDocument()
+        {
+            events.add( "endDocument" );
+        }
+
+        @Override
+        public void startPrefixMapping( final String prefix, final String uri )
+        {
+            events.add( "startPrefixMapping " + prefix + " " + uri );
+        }
+
+        @Override
+        public void endPrefixMapping( final String prefix )
+        {
+            events.add( "endPrefixMapping " + prefix );
+        }
+
+        @Override
+        public void startElement( final String uri,
+                                  final String localName,
+                                  final String qName,
+                                  final Attributes attributes )
+        {
+            final StringBuilder sb = new StringBuilder( "startElement " ).append( uri ).append( ' ' ).append( localName ).append( ' ' ).append( qName );
+            for( int i = 0; i < attributes.getLength(); i++ )
+            {
+                sb.append( " [" ).append( attributes.getURI( i ) ).append( ' ' ).append( attributes.getLocalName( i ) ).append( ' ' ).append( attributes.getQName( i ) ).append( '=' ).append( attributes.getValue( i ) ).append( ']' );
+            }
+            events.add( sb.toString() );
+        }
+
+        @Override
+        public void endElement( final String uri,
+                                final String localName,
+                                final String qName )
+        {
+            events.add( "endElement " + uri + " " + localName + " " + qName );
+        }
+
+        @Override
+        public void characters( final char[] ch, final int start,
+                                final int length )
+        {
+            events.add( "characters " + new String( ch, start, length ) );
+        }
+
+        @Override
+        public void processingInstruction( final String target,
+                                           final String data )
+        {
+            events.add( "processingInstruction " + target + " " + data );
+        }
+
+        @Override
+        public void comment( final char[] ch, final int start, final int length )
+        {
+            events.add( "comment " + new String( ch, start, length ) );
+        }
+
+        @Override
+        public void startCDATA()
+        {
+            events.add( "startCDATA" );
+        }
+
+        @Override
+        public void endCDATA()
+        {
+            events.add( "endCDATA" );
+        }
+    }
+}
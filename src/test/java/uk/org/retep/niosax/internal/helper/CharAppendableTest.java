@@ -0,0 +1,103 @@
+/*
+ * <p>Copyright (c) 1998-2010, Peter T Mount<br>
+ * All rights reserved.</p>
+ *
+ * <p>Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:</p>
+ *
+ * <ul>
+ *   <li>Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.</li>
+ *
+ *   <li>Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.</li>
+ *
+ *   <li>Neither the name of the retep.org.uk nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.</li>
+ *
+ * </ul>
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.</p>
+ */
+package uk.org.retep.niosax.internal.helper;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+import uk.org.retep.niosax.NioSaxSource;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link CharAppendable}
+ *
+ * @author peter
+ */
+public class CharAppendableTest
+{
+
+    private static NioSaxSource source( final String s )
+    {
+        return new NioSaxSource( ByteBuffer.wrap( s.getBytes( StandardCharsets.UTF_8 ) ) );
+    }
+
+    /**
+     * Short text does not grow the buffer far beyond its content, however
+     * much of the source is left
+     */
+    @Test
+    public void testShortText()
+    {
+        final StringBuilder sb = new StringBuilder( "hello<" );
+        for( int i = 0; i < 8192; i++ )
+        {
+            sb.append( 'x' );
+        }
+        final NioSaxSource source = source( sb.toString() );
+
+        final CharAppendable a = new CharAppendable();
+        assertEquals( 5, a.appendUntil( source, '<', '&' ) );
+        assertEquals( "hello", a.toString() );
+        assertEquals( 32, a.getCharBuffer().length );
+        assertEquals( '<', (char) source.getByteBuffer().get() );
+
+        // Filling the buffer exactly grows it only by what remains
+        final CharAppendable b = new CharAppendable( 4 );
+        final NioSaxSource s2 = source( "abcdefgh" );
+        assertEquals( 8, b.appendUntil( s2, '<', '&' ) );
+        assertEquals( "abcdefgh", b.toString() );
+        assertEquals( 8, b.getCharBuffer().length );
+    }
+
+    /**
+     * Text longer than the buffer is read in full
+     */
+    @Test
+    public void testLongText()
+    {
+        final StringBuilder sb = new StringBuilder();
+        for( int i = 0; i < 5000; i++ )
+        {
+            sb.append( (char) ('a' + i % 26) ).append( '\u00e9' );
+        }
+        final String text = sb.toString();
+
+        final CharAppendable a = new CharAppendable();
+        a.append( 'x' );
+        assertEquals( text.length(), a.appendUntil( source( text + "&amp;" ), '<', '&' ) );
+        assertEquals( "x" + text, a.toString() );
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * <p>Copyright (c) 1998-2010, Peter T Mount<br>
+ * All rights reserved.</p>
+ *
+ * <p>Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:</p>
+ *
+ * <ul>
+ *   <li>Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.</li>
+ *
+ *   <li>Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.</li>
+ *
+ *   <li>Neither the name of the retep.org.uk nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.</li>
+ *
+ * </ul>
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.</p>
+ */
+package uk.org.retep.niosax.internal.helper;
+
+import org.junit.Test;
+import org.xml.sax.SAXException;
+import uk.org.retep.niosax.IllegalCharacterException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link ReferenceDecoder}
+ *
+ * @author peter
+ */
+public class ReferenceDecoderTest
+{
+
+    private final ReferenceDecoder decoder = new ReferenceDecoder();
+
+    /**
+     * Decode the characters following an &amp;
+     * @param reference reference including the trailing ;
+     * @return decoded characters
+     * @throws SAXException
+     */
+    private String decode( final String reference )
+            throws SAXException
+    {
+        final CharAppendable a = new CharAppendable();
+        decoder.reset();
+        for( int i = 0; i < reference.length(); i++ )
+        {
+            final boolean complete = decoder.parse( reference.charAt( i ), a );
+            assertEquals( reference, i == reference.length() - 1, complete );
+        }
+        return a.toString();
+    }
+
+    /**
+     * The predefined entities
+     * @throws Exception
+     */
+    @Test
+    public void testEntities()
+            throws Exception
+    {
+        assertEquals( "<", decode( "lt;" ) );
+        assertEquals( ">", decode( "gt;" ) );
+        assertEquals( "&", decode( "amp;" ) );
+        assertEquals( "'", decode( "apos;" ) );
+        assertEquals( "\"", decode( "quot;" ) );
+    }
+
+    /**
+     * Decimal and hex character references
+     * @throws Exception
+     */
+    @Test
+    public void testCharacterReferences()
+            throws Exception
+    {
+        assertEquals( "A", decode( "#65;" ) );
+        assertEquals( "\u00a9", decode( "#xA9;" ) );
+        assertEquals( "\u00a9", decode( "#xa9;" ) );
+        assertEquals( "\ud83d\ude00", decode( "#x1F600;" ) );
+        assertEquals( "\ud83d\ude00", decode( "#128512;" ) );
+    }
+
+    /**
+     * Only the predefined entities are known
+     * @throws Exception
+     */
+    @Test( expected = SAXException.class )
+    public void testUndeclaredEntity()
+            throws Exception
+    {
+        decode( "nbsp;" );
+    }
+
+    /**
+     * A prefix of a predefined entity is not an entity
+     * @throws Exception
+     */
+    @Test( expected = SAXException.class )
+    public void testPartialEntity()
+            throws Exception
+    {
+        decode( "am;" );
+    }
+
+    /**
+     * Character references must be legal characters
+     * @throws Exception
+     */
+    @Test( expected = SAXException.class )
+    public void testIllegalCharacter()
+            throws Exception
+    {
+        decode( "#0;" );
+    }
+
+    /**
+     * Character references must be within the unicode range
+     * @throws Exception
+     */
+    @Test( expected = SAXException.class )
+    public void testOutOfRange()
+            throws Exception
+    {
+        decode( "#x110000;" );
+    }
+
+    /**
+     * A character reference must have digits
+     * @throws Exception
+     */
+    @Test( expected = SAXException.class )
+    public void testEmptyCharacterReference()
+            throws Exception
+    {
+        decode( "#x;" );
+    }
+
+    /**
+     * Hexadecimal references accept only ASCII digits, not the fullwidth
+     * forms {@link Character#digit(char, int)} allows
+     * @throws Exception
+     */
+    @Test( expected = IllegalCharacterException.class )
+    public void testNonAsciiHexDigit()
+            throws Exception
+    {
+        decode( "#x\uFF21;" );
+    }
+}
@@ -0,0 +1,378 @@
+/*
+ * <p>Copyright (c) 1998-2010, Peter T Mount<br>
+ * All rights reserved.</p>
+ *
+ * <p>Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:</p>
+ *
+ * <ul>
+ *   <li>Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.</li>
+ *
+ *   <li>Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.</li>
+ *
+ *   <li>Neither the name of the retep.org.uk nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.</li>
+ *
+ * </ul>
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.</p>
+ */
+package uk.org.retep.niosax.internal.helper.dom;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import uk.org.retep.niosax.NioSaxParser;
+import uk.org.retep.niosax.NioSaxSource;
+import uk.org.retep.niosax.internal.core.DefaultNioSaxFactory;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link AsyncNioDomStreamParser}
+ *
+ * @author peter
+ */
+public class AsyncNioDomStreamParserTest
+{
+
+    private static final int STANZAS = 60;
+    private static final int MAX_IN_FLIGHT = 4;
+    private static final byte[] XML;
+
+    static
+    {
+        final StringBuilder sb = new StringBuilder( "<stream:stream xmlns:stream='urn:s' xmlns='jabber:client'>" );
+        for( int i = 0; i < STANZAS; i++ )
+        {
+            sb.append( "<message from='user" ).append( i % 3 ).append( "' id='" ).append( i ).append( "'><body>b" ).append( i ).append( "</body></message> " );
+        }
+        XML = sb.append( "</stream:stream>" ).toString().getBytes( StandardCharsets.UTF_8 );
+    }
+    private final ExecutorService executor = Executors.newFixedThreadPool( 4 );
+
+    @After
+    public void shutdown()
+    {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Deliver in order per sender, blocking the parsing thread at the limit
+     * @throws Exception
+     */
+    @Test
+    public void testKeyed()
+            throws Exception
+    {
+        final Listener listener = new Listener( true );
+        final AsyncNioDomStreamParser handler = new AsyncNioDomStreamParser( 2, listener, executor, MAX_IN_FLIGHT,
+                                                                             AsyncNioDomStreamParser.attributeKey( "from" ) );
+        listener.handler = handler;
+
+        final NioSaxParser parser = new DefaultNioSaxFactory().newInstance( handler );
+        parser.startDocument();
+        parser.parse( new NioSaxSource( ByteBuffer.wrap( XML ) ) );
+        parser.endDocument();
+        handler.awaitIdle();
+
+        listener.assertDelivered();
+        assertEquals( "stream", listener.root.getLocalName() );
+        assertEquals( "urn:s", listener.root.getNamespaceURI() );
+    }
+
+    /**
+     * Deliver in document order, pausing the parser at the limit
+     * @throws Exception
+     */
+    @Test
+    public void testPause()
+            throws Exception
+    {
+        final Listener listener = new Listener( false );
+        final AsyncNioDomStreamParser handler = new AsyncNioDomStreamParser( 2, listener, executor, MAX_IN_FLIGHT );
+        listener.handler = handler;
+
+        final NioSaxParser parser = new DefaultNioSaxFactory().newInstance( handler );
+        handler.setParser( parser );
+        final AtomicInteger resumes = new AtomicInteger();
+        handler.setCapacityListener( new Runnable()
+        {
+
+            @Override
+            public void run()
+            {
+                resumes.incrementAndGet();
+            }
+        } );
+
+        final ByteBuffer buffer = ByteBuffer.wrap( XML );
+        final NioSaxSource source = new NioSaxSource( buffer );
+        int pauses = 0;
+        parser.startDocument();
+        parser.parse( source );
+        while( parser.isPaused() )
+        {
+            pauses++;
+            handler.awaitCapacity();
+            parser.parse( source );
+        }
+        parser.endDocument();
+        handler.awaitIdle();
+
+        assertFalse( buffer.hasRemaining() );
+        assertTrue( pauses > 0 );
+        assertTrue( resumes.get() > 0 );
+        listener.assertDelivered();
+    }
+
+    /**
+     * With an executor running tasks immediately the capacity listener is
+     * called from within parse, after the parser has been paused
+     * @throws Exception
+     */
+    @Test
+    public void testImmediateExecutor()
+            throws Exception
+    {
+        final Listener listener = new Listener( false );
+        final AsyncNioDomStreamParser handler = new AsyncNioDomStreamParser( 2, listener, new Executor()
+        {
+
+            @Override
+            public void execute( final Runnable command )
+            {
+                command.run();
+            }
+        }, 1 );
+        listener.handler = handler;
+
+        final NioSaxParser parser = new DefaultNioSaxFactory().newInstance( handler );
+        handler.setParser( parser );
+        final AtomicInteger resumes = new AtomicInteger();
+        final AtomicInteger notPaused = new AtomicInteger();
+        handler.setCapacityListener( new Runnable()
+        {
+
+            @Override
+            public void run()
+            {
+                resumes.incrementAndGet();
+                if( !parser.isPaused() )
+                {
+                    notPaused.incrementAndGet();
+                }
+            }
+        } );
+
+        final ByteBuffer buffer = ByteBuffer.wrap( XML );
+        final NioSaxSource source = new NioSaxSource( buffer );
+        parser.startDocument();
+        parser.parse( source );
+        while( parser.isPaused() )
+        {
+            // The listener has already been called, so check for room
+            // rather than waiting for it
+            assertTrue( handler.hasCapacity() );
+            parser.parse( source );
+        }
+        parser.endDocument();
+
+        assertFalse( buffer.hasRemaining() );
+        assertEquals( STANZAS, resumes.get() );
+        assertEquals( 0, notPaused.get() );
+        listener.assertDelivered();
+    }
+
+    /**
+     * If the executor rejects the task continuing a lane after a listener
+     * failed, the remaining nodes are dropped rather than left in flight
+     * @throws Exception
+     */
+    @Test
+    public void testRejectedResubmit()
+            throws Exception
+    {
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        final boolean[] reject = new boolean[ 1 ];
+        final Executor queue = new Executor()
+        {
+
+            @Override
+            public void execute( final Runnable command )
+            {
+                if( reject[0] )
+                {
+                    throw new RejectedExecutionException();
+                }
+                tasks.add( command );
+            }
+        };
+        final AsyncNioDomStreamParser handler = new AsyncNioDomStreamParser( 2, new NioDomStreamParser.StreamListenerAdapter()
+        {
+
+            @Override
+            public void nodeTriggered( final Node node )
+            {
+                throw new IllegalStateException();
+            }
+        }, queue, STANZAS + 1 );
+
+        final NioSaxParser parser = new DefaultNioSaxFactory().newInstance( handler );
+        parser.startDocument();
+        parser.parse( new NioSaxSource( ByteBuffer.wrap( XML ) ) );
+        parser.endDocument();
+
+        // every node is queued on the one lane
+        assertEquals( 1, tasks.size() );
+        assertEquals( STANZAS, handler.getInFlight() );
+
+        reject[0] = true;
+        try
+        {
+            tasks.get( 0 ).run();
+            fail( "listener exception not thrown" );
+        }
+        catch( IllegalStateException ex )
+        {
+            // expected
+        }
+        assertEquals( 0, handler.getInFlight() );
+        handler.awaitIdle();
+    }
+
+    /**
+     * Records the ids delivered for each sender, checking that the nodes
+     * of each ordering key are never delivered concurrently
+     */
+    private static class Listener
+            extends NioDomStreamParser.StreamListenerAdapter
+    {
+
+        private final boolean keyed;
+        private final Map<String, List<Integer>> delivered = new HashMap<String, List<Integer>>();
+        private final List<Integer> order = new ArrayList<Integer>();
+        private final Map<String, AtomicInteger> active = new HashMap<String, AtomicInteger>();
+        private final Set<Document> documents = Collections.newSetFromMap( new IdentityHashMap<Document, Boolean>() );
+        private volatile AsyncNioDomStreamParser handler;
+        private volatile Node root;
+        private volatile Throwable failure;
+
+        private Listener( final boolean keyed )
+        {
+            this.keyed = keyed;
+        }
+
+        @Override
+        public void startRootNode( final Node node )
+        {
+            root = node;
+        }
+
+        @Override
+        public void nodeTriggered( final Node node )
+        {
+            try
+            {
+                final Element e = (Element) node;
+                final String from = e.getAttribute( "from" );
+                final Integer id = Integer.valueOf( e.getAttribute( "id" ) );
+                final AtomicInteger a = get( active, keyed ? from : "", new AtomicInteger() );
+
+                assertEquals( "key delivered concurrently", 1, a.incrementAndGet() );
+                assertTrue( handler.getInFlight() <= MAX_IN_FLIGHT );
+                assertEquals( "b" + id, e.getTextContent() );
+
+                // Each node has a document of its own, so it can be walked
+                // whilst the parser builds the next
+                final Document owner = node.getOwnerDocument();
+                assertNotSame( handler.getDocument(), owner );
+                final NodeList children = node.getChildNodes();
+                assertEquals( 1, children.getLength() );
+                assertEquals( "body", children.item( 0 ).getLocalName() );
+                node.appendChild( owner.createElement( "seen" ) );
+                Thread.sleep( 1 );
+
+                synchronized( this )
+                {
+                    documents.add( owner );
+                    get( delivered, from, new ArrayList<Integer>() ).add( id );
+                    order.add( id );
+                }
+                a.decrementAndGet();
+            }
+            catch( Throwable t )
+            {
+                failure = t;
+            }
+        }
+
+        private synchronized <T> T get( final Map<String, T> map,
+                                        final String key, final T value )
+        {
+            final T v = map.get( key );
+            if( v != null )
+            {
+                return v;
+            }
+            map.put( key, value );
+            return value;
+        }
+
+        private synchronized void assertDelivered()
+        {
+            assertNull( String.valueOf( failure ), failure );
+            assertEquals( STANZAS, order.size() );
+            assertEquals( STANZAS, documents.size() );
+            assertEquals( 3, delivered.size() );
+            for( List<Integer> ids : delivered.values() )
+            {
+                assertOrdered( ids );
+            }
+            if( !keyed )
+            {
+                assertOrdered( order );
+            }
+        }
+
+        private static void assertOrdered( final List<Integer> ids )
+        {
+            for( int i = 1; i < ids.size(); i++ )
+            {
+                assertTrue( "out of order " + ids, ids.get( i - 1 ) < ids.get( i ) );
+            }
+        }
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * <p>Copyright (c) 1998-2010, Peter T Mount<br>
+ * All rights reserved.</p>
+ *
+ * <p>Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:</p>
+ *
+ * <ul>
+ *   <li>Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.</li>
+ *
+ *   <li>Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.</li>
+ *
+ *   <li>Neither the name of the retep.org.uk nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.</li>
+ *
+ * </ul>
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.</p>
+ */
+package uk.org.retep.niosax.internal.helper.dom;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+import org.xml.sax.helpers.AttributesImpl;
+import uk.org.retep.niosax.NioSaxAttributes;
+import uk.org.retep.niosax.NioSaxParser;
+import uk.org.retep.niosax.NioSaxSource;
+import uk.org.retep.niosax.internal.core.DefaultNioSaxFactory;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link NioTree} and {@link NioTreeBuilder}
+ *
+ * @author peter
+ */
+public class NioTreeTest
+{
+
+    private static final String XML = "<message xmlns='jabber:client' xmlns:x='urn:x' to='a@b' id=\"1\">"
+                                      + "<thread/>"
+                                      + "<x:data x:type='t'><item>one</item></x:data>"
+                                      + "<x:data><item n='2'>two</item></x:data>"
+                                      + "<body>h\u00e9llo &amp; <b>bold</b> world</body>"
+                                      + "</message>";
+    private final NioTreeBuilder builder = new NioTreeBuilder();
+    private final NioSaxParser parser = new DefaultNioSaxFactory().newInstance( builder );
+
+    /**
+     * Navigate the children and attributes
+     * @throws Exception
+     */
+    @Test
+    public void testNavigation()
+            throws Exception
+    {
+        final NioTree tree = parse( XML, 3 );
+
+        final int root = tree.getRoot();
+        assertEquals( 0, root );
+        assertEquals( "message", tree.getLocalName( root ) );
+        assertEquals( "jabber:client", tree.getURI( root ) );
+        assertEquals( "a@b", tree.getAttribute( root, "to" ) );
+        assertEquals( "1", tree.getAttribute( root, "", "id" ) );
+        assertNull( tree.getAttribute( root, "from" ) );
+
+        final int thread = tree.getFirstChildElement( root );
+        assertEquals( "thread", tree.getQName( thread ) );
+        assertEquals( -1, tree.getFirstChild( thread ) );
+
+        final int data = tree.getNextSiblingElement( thread );
+        assertEquals( "x:data", tree.getQName( data ) );
+        assertEquals( "urn:x", tree.getURI( data ) );
+        assertEquals( "t", tree.getAttribute( data, "urn:x", "type" ) );
+        assertEquals( "x:type", tree.getAttributeQName( data, 0 ) );
+        assertEquals( root, tree.getParent( data ) );
+
+        final int body = tree.getChild( root, "body" );
+        assertEquals( "body", tree.getLocalName( body ) );
+        assertEquals( -1, tree.getChild( root, "missing" ) );
+
+        // Text split between buffers is held as one node
+        final int text = tree.getFirstChild( body );
+        assertFalse( tree.isElement( text ) );
+        assertEquals( "h\u00e9llo & ", tree.getText( text ) );
+        assertEquals( "h\u00e9llo & bold world", tree.getText( body ) );
+    }
+
+    /**
+     * Find elements by path
+     * @throws Exception
+     */
+    @Test
+    public void testFind()
+            throws Exception
+    {
+        final NioTree tree = parse( XML, XML.length() );
+
+        assertEquals( "h\u00e9llo & bold world", tree.getText( tree.find( "message/body" ) ) );
+        assertEquals( "bold", tree.getText( tree.find( "*/body/b" ) ) );
+        assertEquals( "one", tree.getText( tree.find( "message/data/item" ) ) );
+        assertEquals( -1, tree.find( "body" ) );
+        assertEquals( tree.getRoot(), tree.find( "message" ) );
+
+        assertEquals( "one", tree.getText( tree.find( tree.getRoot(), "data/item" ) ) );
+        // Only the last child has a b so the earlier ones are tried first
+        assertEquals( "bold", tree.getText( tree.find( tree.getRoot(), "*/b" ) ) );
+        assertEquals( -1, tree.find( tree.getRoot(), "*/missing" ) );
+    }
+
+    /**
+     * A builder reuses its tree for each document
+     * @throws Exception
+     */
+    @Test
+    public void testReuse()
+            throws Exception
+    {
+        parse( XML, XML.length() );
+        final NioTree tree = parse( "<presence type='away'/>", 1 );
+
+        assertSame( builder.getTree(), tree );
+        assertEquals( 1, tree.getNodeCount() );
+        assertEquals( "away", tree.getAttribute( tree.getRoot(), "type" ) );
+        assertEquals( -1, tree.getFirstChild( tree.getRoot() ) );
+    }
+
+    /**
+     * Values are copied from the character ranges of
+     * {@link NioSaxAttributes} without calling getValue
+     * @throws Exception
+     */
+    @Test
+    public void testNioSaxAttributes()
+            throws Exception
+    {
+        final Values atts = new Values( "xxidyaway".toCharArray() );
+        atts.addAttribute( "", "id", "id", "CDATA", null );
+        atts.addAttribute( "", "type", "type", "CDATA", null );
+        atts.ranges = new int[]
+                {
+                    2, 2, 5, 4
+                };
+
+        final NioTreeBuilder b = new NioTreeBuilder();
+        b.startDocument();
+        b.startElement( "", "presence", "presence", atts );
+        b.endElement( "", "presence", "presence" );
+        b.endDocument();
+
+        final NioTree tree = b.getTree();
+        assertEquals( "id", tree.getAttribute( tree.getRoot(), "id" ) );
+        assertEquals( "away", tree.getAttribute( tree.getRoot(), "type" ) );
+    }
+
+    /**
+     * Attributes whose values are only available as character ranges
+     */
+    private static class Values
+            extends AttributesImpl
+            implements NioSaxAttributes
+    {
+
+        private final char[] ch;
+        private int[] ranges;
+
+        Values( final char[] ch )
+        {
+            this.ch = ch;
+        }
+
+        @Override
+        public String getValue( final int index )
+        {
+            throw new AssertionError( "String created for a value" );
+        }
+
+        @Override
+        public char[] getValueCharacters()
+        {
+            return ch;
+        }
+
+        @Override
+        public int getValueStart( final int index )
+        {
+            return ranges[index << 1];
+        }
+
+        @Override
+        public int getValueLength( final int index )
+        {
+            return ranges[(index << 1) + 1];
+        }
+    }
+
+    private NioTree parse( final String xml, final int size )
+            throws Exception
+    {
+        final byte[] b = xml.getBytes( StandardCharsets.UTF_8 );
+        final ByteBuffer buffer = ByteBuffer.wrap( b );
+        buffer.limit( 0 );
+        final NioSaxSource source = new NioSaxSource( buffer );
+
+        parser.startDocument();
+        for( int limit = size; buffer.limit() < b.length; limit += size )
+        {
+            buffer.limit( Math.min( limit, b.length ) );
+            parser.parse( source );
+        }
+        parser.endDocument();
+        return builder.getTree();
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * <p>Copyright (c) 1998-2010, Peter T Mount<br>
+ * All rights reserved.</p>
+ *
+ * <p>Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:</p>
+ *
+ * <ul>
+ *   <li>Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.</li>
+ *
+ *   <li>Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.</li>
+ *
+ *   <li>Neither the name of the retep.org.uk nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.</li>
+ *
+ * </ul>
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.</p>
+ */
+package uk.org.retep.niosax.io;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import uk.org.retep.niosax.NioSaxParser;
+import uk.org.retep.niosax.NioSaxSource;
+import uk.org.retep.niosax.internal.core.DefaultNioSaxFactory;
+import uk.org.retep.niosax.internal.helper.DefaultNioSaxParserHandler;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link NioSaxDriver}
+ *
+ * @author peter
+ */
+public class NioSaxDriverTest
+{
+
+    private static final String TEXT = "€£ 中文 text ";
+    private static final byte[] XML;
+
+    static
+    {
+        final StringBuilder sb = new StringBuilder( "<r>" );
+        for( int i = 0; i < 100; i++ )
+        {
+            sb.append( TEXT );
+        }
+        XML = sb.append( "</r>" ).toString().getBytes( StandardCharsets.UTF_8 );
+    }
+    // Small buffers so characters are split between reads
+    private final NioSaxDriver driver = new NioSaxDriver( 17, 4 );
+
+    /**
+     * Parse from an InputStream
+     * @throws Exception
+     */
+    @Test
+    public void testInputStream()
+            throws Exception
+    {
+        final Handler handler = new Handler();
+        driver.parse( newParser( handler ), new ByteArrayInputStream( XML ), null );
+        handler.assertContent();
+    }
+
+    /**
+     * Parse from a channel
+     * @throws Exception
+     */
+    @Test
+    public void testChannel()
+            throws Exception
+    {
+        final Handler handler = new Handler();
+        driver.parse( newParser( handler ), Channels.newChannel( new ByteArrayInputStream( XML ) ), null );
+        handler.assertContent();
+    }
+
+    /**
+     * Parse many documents concurrently sharing the driver's pool
+     * @throws Exception
+     */
+    @Test
+    public void testConcurrent()
+            throws Exception
+    {
+        final ExecutorService executor = Executors.newFixedThreadPool( 8 );
+        try
+        {
+            final Future<?>[] futures = new Future<?>[ 64 ];
+            for( int i = 0; i < futures.length; i++ )
+            {
+                futures[i] = executor.submit( () ->
+                {
+                    final Handler handler = new Handler();
+                    driver.parse( newParser( handler ), new ByteArrayInputStream( XML ), null );
+                    handler.assertContent();
+                    return null;
+                } );
+            }
+
+            for( Future<?> future : futures )
+            {
+                future.get();
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * A stream ending part way through a character must fail
+     * @throws Exception
+     */
+    @Test( expected = SAXException.class )
+    public void testTruncated()
+            throws Exception
+    {
+        driver.parse( newParser( new Handler() ), new ByteArrayInputStream( XML, 0, 5 ), null );
+    }
+
+    /**
+     * A handler throwing a RuntimeException leaves the parser reset, so it
+     * can parse another document
+     * @throws Exception
+     */
+    @Test
+    public void testRuntimeException()
+            throws Exception
+    {
+        final Handler handler = new Handler()
+        {
+
+            private boolean fail = true;
+
+            @Override
+            public void characters( final char[] ch, final int start,
+                                    final int length )
+                    throws SAXException
+            {
+                if( fail )
+                {
+                    fail = false;
+                    throw new IllegalStateException();
+                }
+                super.characters( ch, start, length );
+            }
+        };
+        final NioSaxParser parser = newParser( handler );
+        try
+        {
+            driver.parse( parser, new ByteArrayInputStream( XML ), null );
+            fail( "exception not thrown" );
+        }
+        catch( IllegalStateException ex )
+        {
+            // expected
+        }
+
+        driver.parse( parser, new ByteArrayInputStream( XML ), null );
+        handler.assertContent();
+    }
+
+    /**
+     * Pausing the parser in the last buffer of the stream must not leave
+     * content unparsed
+     * @throws Exception
+     */
+    @Test
+    public void testPause()
+            throws Exception
+    {
+        final byte[] xml = "<a><b/><c/></a>".getBytes( StandardCharsets.UTF_8 );
+        for( int i = 0; i < 2; i++ )
+        {
+            final StringBuilder elements = new StringBuilder();
+            final NioSaxParser[] parser = new NioSaxParser[ 1 ];
+            final Handler handler = new Handler()
+            {
+
+                @Override
+                public void startElement( final String uri,
+                                          final String localName,
+                                          final String qName,
+                                          final Attributes attributes )
+                        throws SAXException
+                {
+                    elements.append( qName );
+                    parser[0].pause();
+                }
+            };
+            parser[0] = newParser( handler );
+
+            if( i == 0 )
+            {
+                driver.parse( parser[0], new ByteArrayInputStream( xml ), null );
+            }
+            else
+            {
+                driver.parse( parser[0], Channels.newChannel( new ByteArrayInputStream( xml ) ), null );
+            }
+            assertEquals( "abc", elements.toString() );
+            assertTrue( handler.ended );
+        }
+    }
+
+    /**
+     * A parser already parsing a document is rejected without being reset,
+     * so its document can still be completed
+     * @throws Exception
+     */
+    @Test
+    public void testParserInUse()
+            throws Exception
+    {
+        final Handler handler = new Handler();
+        final NioSaxParser parser = newParser( handler );
+        parser.startDocument();
+        parser.parse( new NioSaxSource( ByteBuffer.wrap( XML, 0, 3 ) ) );
+
+        try
+        {
+            driver.parse( parser, new ByteArrayInputStream( XML ), null );
+            fail( "parser in use" );
+        }
+        catch( SAXException ex )
+        {
+            // expected
+        }
+
+        parser.parse( new NioSaxSource( ByteBuffer.wrap( XML, 3, XML.length - 3 ) ) );
+        parser.endDocument();
+        handler.assertContent();
+    }
+
+    private NioSaxParser newParser( final Handler handler )
+    {
+        return new DefaultNioSaxFactory().newInstance( handler );
+    }
+
+    private static class Handler
+            extends DefaultNioSaxParserHandler
+    {
+
+        private final StringBuilder text = new StringBuilder();
+        private boolean ended;
+
+        @Override
+        public void characters( final char[] ch, final int start,
+                                final int length )
+                throws SAXException
+        {
+            text.append( ch, start, length );
+        }
+
+        @Override
+        public void endDocument()
+                throws SAXException
+        {
+            ended = true;
+        }
+
+        void assertContent()
+        {
+            assertTrue( ended );
+            assertEquals( 100 * TEXT.length(), text.length() );
+            assertTrue( text.toString().startsWith( TEXT ) );
+        }
+    }
+}
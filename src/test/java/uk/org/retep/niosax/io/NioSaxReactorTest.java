@@ -0,0 +1,391 @@
+/*
+ * <p>Copyright (c) 1998-2010, Peter T Mount<br>
+ * All rights reserved.</p>
+ *
+ * <p>Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:</p>
+ *
+ * <ul>
+ *   <li>Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.</li>
+ *
+ *   <li>Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.</li>
+ *
+ *   <li>Neither the name of the retep.org.uk nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.</li>
+ *
+ * </ul>
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.</p>
+ */
+package uk.org.retep.niosax.io;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.channels.SelectableChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import uk.org.retep.niosax.NioSaxParser;
+import uk.org.retep.niosax.internal.core.DefaultNioSaxFactory;
+import uk.org.retep.niosax.internal.helper.DefaultNioSaxParserHandler;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link NioSaxReactor} using pipes as the channels
+ *
+ * @author peter
+ */
+public class NioSaxReactorTest
+{
+
+    // The euro sign is split between writes to test incomplete characters
+    private static final byte[] XML = "<stream><message>\u20ac100</message><message/></stream>".getBytes( StandardCharsets.UTF_8 );
+    private static final int CHANNELS = 20;
+
+    /**
+     * Parse several documents written a few bytes at a time
+     * @throws Exception
+     */
+    @Test
+    public void testReactor()
+            throws Exception
+    {
+        final CountDownLatch latch = new CountDownLatch( CHANNELS );
+        final Exception[] failure = new Exception[ 1 ];
+        final Pipe[] pipes = new Pipe[ CHANNELS ];
+        final Handler[] handlers = new Handler[ CHANNELS ];
+
+        final NioSaxReactor reactor = new NioSaxReactor( 2, 16, 4 );
+        reactor.start();
+        try
+        {
+            for( int i = 0; i < CHANNELS; i++ )
+            {
+                pipes[i] = Pipe.open();
+                handlers[i] = new Handler();
+                final NioSaxParser parser = new DefaultNioSaxFactory().newInstance( handlers[i] );
+                reactor.register( pipes[i].source(), parser, null, new NioSaxChannelListener()
+                {
+
+                    @Override
+                    public void closed( final SelectableChannel channel,
+                                        final NioSaxParser parser )
+                    {
+                        latch.countDown();
+                    }
+
+                    @Override
+                    public void failed( final SelectableChannel channel,
+                                        final NioSaxParser parser,
+                                        final Exception e )
+                    {
+                        failure[0] = e;
+                        latch.countDown();
+                    }
+                } );
+            }
+
+            for( int off = 0; off < XML.length; off += 3 )
+            {
+                for( Pipe pipe : pipes )
+                {
+                    pipe.sink().write( ByteBuffer.wrap( XML, off, Math.min( 3, XML.length - off ) ) );
+                }
+                Thread.sleep( 1 );
+            }
+
+            for( Pipe pipe : pipes )
+            {
+                pipe.sink().close();
+            }
+
+            assertTrue( "Not all documents completed", latch.await( 10, TimeUnit.SECONDS ) );
+            if( failure[0] != null )
+            {
+                throw failure[0];
+            }
+            for( Handler handler : handlers )
+            {
+                assertEquals( 3, handler.elements );
+                assertEquals( "\u20ac100", handler.text.toString() );
+                assertTrue( handler.ended );
+            }
+        }
+        finally
+        {
+            reactor.close();
+        }
+        assertFalse( reactor.isRunning() );
+    }
+
+    /**
+     * A handler throwing a RuntimeException fails only its own channel, and
+     * the event loop goes on serving the others
+     * @throws Exception
+     */
+    @Test
+    public void testHandlerFailure()
+            throws Exception
+    {
+        final CountDownLatch failed = new CountDownLatch( 1 );
+        final CountDownLatch closed = new CountDownLatch( 2 );
+        final Exception[] cause = new Exception[ 1 ];
+        final NioSaxChannelListener listener = new NioSaxChannelListener()
+        {
+
+            @Override
+            public void closed( final SelectableChannel channel,
+                                final NioSaxParser parser )
+            {
+                closed.countDown();
+            }
+
+            @Override
+            public void failed( final SelectableChannel channel,
+                                final NioSaxParser parser,
+                                final Exception e )
+            {
+                cause[0] = e;
+                failed.countDown();
+            }
+        };
+
+        // A single event loop so every channel shares it
+        final NioSaxReactor reactor = new NioSaxReactor( 1, 16, 4 );
+        reactor.start();
+        try
+        {
+            final Pipe bad = Pipe.open();
+            reactor.register( bad.source(), new DefaultNioSaxFactory().newInstance( new Handler()
+            {
+
+                @Override
+                public void startElement( final String uri,
+                                          final String localName,
+                                          final String qName,
+                                          final Attributes attributes )
+                {
+                    throw new NullPointerException();
+                }
+            } ), null, listener );
+            bad.sink().write( ByteBuffer.wrap( XML ) );
+            assertTrue( "Failure not reported", failed.await( 10, TimeUnit.SECONDS ) );
+            assertTrue( cause[0] instanceof NullPointerException );
+
+            // Connections registered afterwards are still served
+            final Handler[] handlers =
+            {
+                new Handler(), new Handler()
+            };
+            for( Handler handler : handlers )
+            {
+                final Pipe pipe = Pipe.open();
+                reactor.register( pipe.source(), new DefaultNioSaxFactory().newInstance( handler ), null, listener );
+                pipe.sink().write( ByteBuffer.wrap( XML ) );
+                pipe.sink().close();
+            }
+            assertTrue( "Event loop stopped", closed.await( 10, TimeUnit.SECONDS ) );
+            for( Handler handler : handlers )
+            {
+                assertEquals( 3, handler.elements );
+                assertTrue( handler.ended );
+            }
+        }
+        finally
+        {
+            reactor.close();
+        }
+    }
+
+    /**
+     * A paused channel is not read until resumed, and resuming parses the
+     * content already read even though the peer sends nothing more
+     * @throws Exception
+     */
+    @Test
+    public void testPause()
+            throws Exception
+    {
+        final CountDownLatch paused = new CountDownLatch( 1 );
+        final CountDownLatch closed = new CountDownLatch( 1 );
+        final Exception[] failure = new Exception[ 1 ];
+        final NioSaxParser[] parser = new NioSaxParser[ 1 ];
+        final Handler handler = new Handler()
+        {
+
+            @Override
+            public void startElement( final String uri,
+                                      final String localName,
+                                      final String qName,
+                                      final Attributes attributes )
+                    throws SAXException
+            {
+                super.startElement( uri, localName, qName, attributes );
+                if( "message".equals( qName ) && paused.getCount() > 0 )
+                {
+                    parser[0].pause();
+                    paused.countDown();
+                }
+            }
+        };
+        parser[0] = new DefaultNioSaxFactory().newInstance( handler );
+
+        final NioSaxReactor reactor = new NioSaxReactor( 1, 16, 4 );
+        reactor.start();
+        try
+        {
+            final Pipe pipe = Pipe.open();
+            reactor.register( pipe.source(), parser[0], null, new NioSaxChannelListener()
+            {
+
+                @Override
+                public void closed( final SelectableChannel channel,
+                                    final NioSaxParser parser )
+                {
+                    closed.countDown();
+                }
+
+                @Override
+                public void failed( final SelectableChannel channel,
+                                    final NioSaxParser parser,
+                                    final Exception e )
+                {
+                    failure[0] = e;
+                    paused.countDown();
+                    closed.countDown();
+                }
+            } );
+            pipe.sink().write( ByteBuffer.wrap( XML ) );
+            pipe.sink().close();
+
+            assertTrue( "Not paused", paused.await( 10, TimeUnit.SECONDS ) );
+            if( failure[0] != null )
+            {
+                throw failure[0];
+            }
+            assertFalse( "Parsed while paused", closed.await( 200, TimeUnit.MILLISECONDS ) );
+            assertEquals( 2, handler.elements );
+            assertFalse( handler.ended );
+
+            assertTrue( reactor.resume( pipe.source() ) );
+            assertTrue( "Not resumed", closed.await( 10, TimeUnit.SECONDS ) );
+            if( failure[0] != null )
+            {
+                throw failure[0];
+            }
+            assertEquals( 3, handler.elements );
+            assertEquals( "\u20ac100", handler.text.toString() );
+            assertTrue( handler.ended );
+            assertFalse( reactor.resume( pipe.source() ) );
+        }
+        finally
+        {
+            reactor.close();
+        }
+    }
+
+    /**
+     * A stream ending part way through a character fails rather than being
+     * reported as closed
+     * @throws Exception
+     */
+    @Test
+    public void testTruncated()
+            throws Exception
+    {
+        final CountDownLatch done = new CountDownLatch( 1 );
+        final Exception[] cause = new Exception[ 1 ];
+        final NioSaxReactor reactor = new NioSaxReactor( 1, 16, 4 );
+        reactor.start();
+        try
+        {
+            final Pipe pipe = Pipe.open();
+            reactor.register( pipe.source(), new DefaultNioSaxFactory().newInstance( new Handler() ), null, new NioSaxChannelListener()
+            {
+
+                @Override
+                public void closed( final SelectableChannel channel,
+                                    final NioSaxParser parser )
+                {
+                    done.countDown();
+                }
+
+                @Override
+                public void failed( final SelectableChannel channel,
+                                    final NioSaxParser parser,
+                                    final Exception e )
+                {
+                    cause[0] = e;
+                    done.countDown();
+                }
+            } );
+
+            // The first byte of a three byte character
+            pipe.sink().write( ByteBuffer.wrap( XML ) );
+            pipe.sink().write( ByteBuffer.wrap( new byte[]
+                    {
+                        (byte) 0xe2
+                    } ) );
+            pipe.sink().close();
+
+            assertTrue( "Not completed", done.await( 10, TimeUnit.SECONDS ) );
+            assertTrue( String.valueOf( cause[0] ), cause[0] instanceof SAXException );
+        }
+        finally
+        {
+            reactor.close();
+        }
+    }
+
+    private static class Handler
+            extends DefaultNioSaxParserHandler
+    {
+
+        private final StringBuilder text = new StringBuilder();
+        private int elements;
+        private boolean ended;
+
+        @Override
+        public void startElement( final String uri, final String localName,
+                                  final String qName,
+                                  final Attributes attributes )
+                throws SAXException
+        {
+            elements++;
+        }
+
+        @Override
+        public void characters( final char[] ch, final int start,
+                                final int length )
+                throws SAXException
+        {
+            text.append( ch, start, length );
+        }
+
+        @Override
+        public void endDocument()
+                throws SAXException
+        {
+            ended = true;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * <p>Copyright (c) 1998-2010, Peter T Mount<br>
+ * All rights reserved.</p>
+ *
+ * <p>Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:</p>
+ *
+ * <ul>
+ *   <li>Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.</li>
+ *
+ *   <li>Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.</li>
+ *
+ *   <li>Neither the name of the retep.org.uk nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.</li>
+ *
+ * </ul>
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.</p>
+ */
+package uk.org.retep.niosax.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+import uk.org.retep.niosax.CompositeNioSaxSource;
+import uk.org.retep.niosax.NioSaxParser;
+import uk.org.retep.niosax.NioSaxParserFactory;
+import uk.org.retep.niosax.internal.core.DefaultNioSaxFactory;
+import uk.org.retep.niosax.internal.flat.FlatNioSaxFactory;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link NioSaxRewriter}
+ *
+ * @author peter
+ */
+public class NioSaxRewriterTest
+{
+
+    private static final String XML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                                      + "<!-- head -->\n"
+                                      + "<r  xmlns:p='urn:p' >\n"
+                                      + "  <a x='1'   y=\"caf\u00e9\">text &amp; more<![CDATA[<raw>]]></a>\n"
+                                      + "  <p:b id='2'><c>\u20ac</c><d/></p:b>\n"
+                                      + "  <b id=\"3\"/>\n"
+                                      + "</r>\n";
+    private final NioSaxParserFactory[] factories =
+    {
+        new DefaultNioSaxFactory(), new FlatNioSaxFactory()
+    };
+
+    /**
+     * Nothing selected so the output is identical to the input
+     * @throws Exception
+     */
+    @Test
+    public void testUnchanged()
+            throws Exception
+    {
+        for( NioSaxParserFactory factory : factories )
+        {
+            for( int size = 1; size < 8; size++ )
+            {
+                assertEquals( "size " + size, XML, rewrite( factory, size, new Filter( "none" ) ) );
+            }
+        }
+    }
+
+    /**
+     * Only the selected elements are written again
+     * @throws Exception
+     */
+    @Test
+    public void testRewrite()
+            throws Exception
+    {
+        final String expected = XML.replace( "<p:b id='2'>", "<p:b id=\"20\">" )
+                .replace( "<b id=\"3\"/>", "<b id=\"30\"/>" );
+        for( NioSaxParserFactory factory : factories )
+        {
+            for( int size = 1; size < 8; size++ )
+            {
+                assertEquals( "size " + size, expected, rewrite( factory, size, new Filter( "b" ) ) );
+            }
+        }
+    }
+
+    /**
+     * skip must be called from startElement
+     * @throws Exception
+     */
+    @Test( expected = IllegalStateException.class )
+    public void testSkipOutsideStartElement()
+            throws Exception
+    {
+        final NioSaxParser parser = new DefaultNioSaxFactory().newInstance();
+        new NioSaxRewriter( parser, new Filter( "b" ), newWriter( new ByteArrayOutputStream() ) );
+        parser.startDocument();
+        parser.skip();
+    }
+
+    private String rewrite( final NioSaxParserFactory factory, final int size,
+                            final Filter filter )
+            throws SAXException
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final NioSaxParser parser = factory.newInstance();
+        new NioSaxRewriter( parser, filter, newWriter( out ) );
+
+        // Split the source so tags are split between parse calls
+        final byte[] b = XML.getBytes( StandardCharsets.UTF_8 );
+        final CompositeNioSaxSource source = new CompositeNioSaxSource( null, null );
+        for( int i = 0; i < b.length; i += size )
+        {
+            source.add( ByteBuffer.wrap( b, i, Math.min( size, b.length - i ) ) );
+        }
+
+        parser.startDocument();
+        source.parse( parser );
+        parser.endDocument();
+
+        return new String( out.toByteArray(), StandardCharsets.UTF_8 );
+    }
+
+    private NioSaxWriter newWriter( final ByteArrayOutputStream out )
+    {
+        final WritableByteChannel channel = Channels.newChannel( out );
+        return new NioSaxWriter( null, new BufferPool( 16, 4 ), new GatheringByteChannel()
+        {
+
+            @Override
+            public long write( final ByteBuffer[] srcs, final int offset,
+                               final int length )
+                    throws IOException
+            {
+                long n = 0;
+                for( int i = offset; i < offset + length; i++ )
+                {
+                    n += channel.write( srcs[i] );
+                }
+                return n;
+            }
+
+            @Override
+            public long write( final ByteBuffer[] srcs )
+                    throws IOException
+            {
+                return write( srcs, 0, srcs.length );
+            }
+
+            @Override
+            public int write( final ByteBuffer src )
+                    throws IOException
+            {
+                return channel.write( src );
+            }
+
+            @Override
+            public boolean isOpen()
+            {
+                return true;
+            }
+
+            @Override
+            public void close()
+            {
+            }
+        } );
+    }
+
+    /**
+     * Selects elements by local name and multiplies their id by 10
+     */
+    private static class Filter
+            extends NioSaxRewriteFilter
+    {
+
+        private final String name;
+
+        private Filter( final String name )
+        {
+            this.name = name;
+        }
+
+        @Override
+        public boolean select( final String uri, final String localName,
+                               final String qName, final Attributes atts )
+        {
+            return name.equals( localName );
+        }
+
+        @Override
+        public void startElement( final String uri, final String localName,
+                                  final String qName, final Attributes atts )
+                throws SAXException
+        {
+            final String id = atts.getValue( "id" );
+            if( id == null )
+            {
+                super.startElement( uri, localName, qName, atts );
+            }
+            else
+            {
+                final AttributesImpl a = new AttributesImpl( atts );
+                a.setValue( a.getIndex( "id" ), id + "0" );
+                super.startElement( uri, localName, qName, a );
+            }
+        }
+    }
+}
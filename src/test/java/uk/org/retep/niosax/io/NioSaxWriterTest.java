@@ -0,0 +1,251 @@
+/*
+ * <p>Copyright (c) 1998-2010, Peter T Mount<br>
+ * All rights reserved.</p>
+ *
+ * <p>Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:</p>
+ *
+ * <ul>
+ *   <li>Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.</li>
+ *
+ *   <li>Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.</li>
+ *
+ *   <li>Neither the name of the retep.org.uk nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.</li>
+ *
+ * </ul>
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.</p>
+ */
+package uk.org.retep.niosax.io;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+import uk.org.retep.niosax.NioSaxParser;
+import uk.org.retep.niosax.NioSaxSource;
+import uk.org.retep.niosax.charset.CharsetFactory;
+import uk.org.retep.niosax.internal.core.DefaultNioSaxFactory;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link NioSaxWriter}
+ *
+ * @author peter
+ */
+public class NioSaxWriterTest
+{
+
+    private static final String DECL = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>";
+    // Small buffers so characters and escapes are split between them
+    private final BufferPool pool = new BufferPool( 16, 8 );
+
+    /**
+     * Parse a document straight into a writer
+     * @throws Exception
+     */
+    @Test
+    public void testRoundTrip()
+            throws Exception
+    {
+        final String xml = "<r xmlns=\"urn:a\" xmlns:p=\"urn:p\">"
+                           + "<p:e a=\"1 &amp; &lt;2&gt;\" b='q\"'>caf\u00e9 \u20ac &amp; &lt;x&gt;</p:e>"
+                           + "<empty/></r>";
+        final Channel channel = new Channel( Integer.MAX_VALUE );
+        final NioSaxWriter writer = new NioSaxWriter( null, pool, channel, 2 );
+        final NioSaxParser parser = new DefaultNioSaxFactory().newInstance( writer );
+
+        parser.startDocument();
+        parser.parse( new NioSaxSource( ByteBuffer.wrap( xml.getBytes( StandardCharsets.UTF_8 ) ) ) );
+        parser.endDocument();
+
+        assertEquals( DECL + "<r xmlns=\"urn:a\" xmlns:p=\"urn:p\">"
+                      + "<p:e a=\"1 &amp; &lt;2&gt;\" b=\"q&quot;\">caf\u00e9 \u20ac &amp; &lt;x&gt;</p:e>"
+                      + "<empty/></r>", channel.toString( StandardCharsets.UTF_8 ) );
+        assertTrue( channel.writes > 1 );
+        assertFalse( writer.hasPending() );
+    }
+
+    /**
+     * Escapes, markup and characters the charset cannot represent
+     * @throws Exception
+     */
+    @Test
+    public void testEscapes()
+            throws Exception
+    {
+        final Channel channel = new Channel( Integer.MAX_VALUE );
+        final NioSaxWriter writer = new NioSaxWriter( CharsetFactory.getCharset( "US-ASCII" ), pool, channel );
+        writer.setXmlDeclaration( false );
+
+        final AttributesImpl atts = new AttributesImpl();
+        atts.addAttribute( "", "a", "a", "CDATA", "x\ty\n\u00e9" );
+
+        writer.startDocument();
+        writer.startPrefixMapping( "p", "urn:p" );
+        writer.startElement( "urn:p", "r", "p:r", atts );
+        characters( writer, "a\r\nb \u00e9\ud83d\ude00" );
+        writer.startCDATA();
+        characters( writer, "<x>]]>" );
+        writer.endCDATA();
+        writer.comment( " c ".toCharArray(), 0, 3 );
+        writer.processingInstruction( "pi", "data" );
+        writer.endElement( "urn:p", "r", "p:r" );
+        writer.endDocument();
+
+        assertEquals( "<p:r xmlns:p=\"urn:p\" a=\"x&#9;y&#10;&#233;\">a&#13;\nb &#233;&#128512;"
+                      + "<![CDATA[<x>]]]]><![CDATA[>]]><!-- c --><?pi data?></p:r>",
+                      channel.toString( StandardCharsets.US_ASCII ) );
+    }
+
+    /**
+     * Characters that cannot be written fail
+     * @throws Exception
+     */
+    @Test
+    public void testIllegal()
+            throws Exception
+    {
+        final NioSaxWriter writer = new NioSaxWriter( CharsetFactory.getCharset( "US-ASCII" ), pool, new Channel( Integer.MAX_VALUE ) );
+        writer.startElement( "", "r", "r", new AttributesImpl() );
+        try
+        {
+            characters( writer, "\u0001" );
+            fail( "control character written" );
+        }
+        catch( SAXException ex )
+        {
+        }
+        try
+        {
+            writer.startElement( "", "\u00e9", "\u00e9", new AttributesImpl() );
+            fail( "unencodable name written" );
+        }
+        catch( SAXException ex )
+        {
+        }
+        writer.reset();
+        assertFalse( writer.hasPending() );
+    }
+
+    /**
+     * A channel accepting a few bytes at a time keeps the rest queued
+     * @throws Exception
+     */
+    @Test
+    public void testNonBlocking()
+            throws Exception
+    {
+        final Channel channel = new Channel( 5 );
+        final NioSaxWriter writer = new NioSaxWriter( CharsetFactory.getCharset( "UTF-16BE" ), pool, channel, 1 );
+        writer.setXmlDeclaration( false );
+
+        final String text = "caf\u00e9 \u20ac \u4e2d\u6587 some more text";
+        writer.startDocument();
+        writer.startElement( "", "r", "r", new AttributesImpl() );
+        characters( writer, text );
+        writer.endElement( "", "r", "r" );
+
+        int flushes = 0;
+        while( !writer.flush() )
+        {
+            flushes++;
+        }
+        assertTrue( flushes > 1 );
+
+        assertEquals( "<r>" + text + "</r>", channel.toString( StandardCharsets.UTF_16BE ) );
+        assertFalse( writer.hasPending() );
+        assertTrue( pool.size() > 0 );
+    }
+
+    private static void characters( final NioSaxWriter writer, final String s )
+            throws SAXException
+    {
+        writer.characters( s.toCharArray(), 0, s.length() );
+    }
+
+    /**
+     * Collects what is written. With a limit it behaves like a non-blocking
+     * channel, accepting at most limit bytes and then nothing on the next
+     * write.
+     */
+    private static class Channel
+            extends ByteArrayOutputStream
+            implements GatheringByteChannel
+    {
+
+        private final int limit;
+        private int writes;
+        private boolean full;
+
+        private Channel( final int limit )
+        {
+            this.limit = limit;
+        }
+
+        @Override
+        public long write( final ByteBuffer[] srcs, final int offset,
+                           final int length )
+        {
+            writes++;
+            if( full )
+            {
+                full = false;
+                return 0;
+            }
+            full = limit < Integer.MAX_VALUE;
+
+            long n = 0;
+            for( int i = offset; i < offset + length && n < limit; i++ )
+            {
+                while( srcs[i].hasRemaining() && n < limit )
+                {
+                    write( srcs[i].get() );
+                    n++;
+                }
+            }
+            return n;
+        }
+
+        @Override
+        public long write( final ByteBuffer[] srcs )
+        {
+            return write( srcs, 0, srcs.length );
+        }
+
+        @Override
+        public int write( final ByteBuffer src )
+        {
+            return (int) write( new ByteBuffer[]
+                    {
+                        src
+                    } );
+        }
+
+        @Override
+        public boolean isOpen()
+        {
+            return true;
+        }
+    }
+}
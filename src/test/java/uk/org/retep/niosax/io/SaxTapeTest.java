@@ -0,0 +1,486 @@
+/*
+ * <p>Copyright (c) 1998-2010, Peter T Mount<br>
+ * All rights reserved.</p>
+ *
+ * <p>Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:</p>
+ *
+ * <ul>
+ *   <li>Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.</li>
+ *
+ *   <li>Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.</li>
+ *
+ *   <li>Neither the name of the retep.org.uk nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.</li>
+ *
+ * </ul>
+ *
+ * <p>THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.</p>
+ */
+package uk.org.retep.niosax.io;
+
+import java.io.File;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.xml.parsers.SAXParserFactory;
+import org.junit.Test;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.ext.DefaultHandler2;
+import org.xml.sax.helpers.AttributesImpl;
+import uk.org.retep.niosax.CompositeNioSaxSource;
+import uk.org.retep.niosax.NioSaxAttributes;
+import uk.org.retep.niosax.NioSaxParser;
+import uk.org.retep.niosax.internal.core.DefaultNioSaxFactory;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link SaxTapeRecorder} and {@link SaxTape}
+ *
+ * @author peter
+ */
+public class SaxTapeTest
+{
+
+    private static final String XML = "<?xml version=\"1.0\"?>\n"
+                                      + "<!DOCTYPE r>\n"
+                                      + "<!-- head -->\n"
+                                      + "<r xmlns='urn:r' xmlns:p='urn:p'>\n"
+                                      + "  <a x='1' p:y='caf\u00e9'>text &amp; more<![CDATA[<raw>]]></a>\n"
+                                      + "  <?pi some data?>\n"
+                                      + "  <p:b id='2'><c>\u20ac</c><d/></p:b>\n"
+                                      + "  <p:b id='2'/>\n"
+                                      + "</r>\n";
+
+    /**
+     * Replaying a tape delivers the same events as the parser did
+     * @throws Exception
+     */
+    @Test
+    public void testPlay()
+            throws Exception
+    {
+        final Log direct = new Log();
+        parse( direct );
+
+        final SaxTapeRecorder recorder = new SaxTapeRecorder();
+        parse( recorder );
+        final SaxTape tape = recorder.getTape();
+
+        final Log replay = new Log();
+        tape.play( replay );
+        assertEquals( direct.events, replay.events );
+
+        // a tape can be played any number of times
+        final Log again = new Log();
+        tape.play( again );
+        assertEquals( direct.events, again.events );
+
+        // recording the document again adds no new names or values
+        parse( recorder );
+        final SaxTape twice = recorder.getTape();
+        assertEquals( tape.getSymbolCount(), twice.getSymbolCount() );
+        assertEquals( tape.getTextLength() << 1, twice.getTextLength() );
+    }
+
+    /**
+     * A tape survives serialization to a buffer and to a file
+     * @throws Exception
+     */
+    @Test
+    public void testSerialize()
+            throws Exception
+    {
+        final SaxTapeRecorder recorder = new SaxTapeRecorder();
+        parse( recorder );
+        final SaxTape tape = recorder.getTape();
+        final Log expected = new Log();
+        tape.play( expected );
+
+        final ByteBuffer b = tape.toByteBuffer();
+        assertEquals( tape.size(), b.remaining() );
+        final SaxTape read = SaxTape.read( b );
+        assertFalse( b.hasRemaining() );
+        final Log log = new Log();
+        read.play( log );
+        assertEquals( expected.events, log.events );
+
+        final File file = File.createTempFile( "niosax", ".tape" );
+        try
+        {
+            tape.save( file );
+            assertEquals( tape.size(), file.length() );
+            final Log loaded = new Log();
+            SaxTape.load( file ).play( loaded );
+            assertEquals( expected.events, loaded.events );
+        }
+        finally
+        {
+            file.delete();
+        }
+
+        try
+        {
+            SaxTape.read( ByteBuffer.wrap( XML.getBytes( StandardCharsets.UTF_8 ) ) );
+            fail( "read a document as a tape" );
+        }
+        catch( SAXException ex )
+        {
+            // expected
+        }
+    }
+
+    /**
+     * Record from a niosax parser, and record long symbols and text
+     * @throws Exception
+     */
+    @Test
+    public void testNioSaxParser()
+            throws Exception
+    {
+        final StringBuilder sb = new StringBuilder( "<r a='" );
+        for( int i = 0; i < 200; i++ )
+        {
+            sb.append( (char) ('a' + i % 26) );
+        }
+        sb.append( "'>" );
+        for( int i = 0; i < 5000; i++ )
+        {
+            sb.append( "<e n='" ).append( i % 7 ).append( "'>\u00e9" ).append( i ).append( "</e>" );
+        }
+        sb.append( "</r>" );
+        final byte[] bytes = sb.toString().getBytes( StandardCharsets.UTF_8 );
+
+        final Log direct = new Log();
+        final SaxTapeRecorder recorder = new SaxTapeRecorder();
+        parse( direct, bytes );
+        parse( recorder, bytes );
+
+        final SaxTape tape = SaxTape.read( recorder.getTape().toByteBuffer() );
+        final Log log = new Log();
+        tape.play( log );
+        assertEquals( direct.events, log.events );
+
+        recorder.reset();
+        assertEquals( 0, recorder.getTape().getSymbolCount() );
+        assertEquals( 0, recorder.getTape().getTextLength() );
+    }
+
+    /**
+     * Attribute values are held with the text, so unique values do not grow
+     * the symbol table
+     * @throws Exception
+     */
+    @Test
+    public void testAttributeValues()
+            throws Exception
+    {
+        final StringBuilder sb = new StringBuilder( "<r>" );
+        for( int i = 0; i < 1000; i++ )
+        {
+            sb.append( "<e id='id" ).append( i ).append( "'/>" );
+        }
+        final byte[] bytes = sb.append( "</r>" ).toString().getBytes( StandardCharsets.UTF_8 );
+
+        final SaxTapeRecorder recorder = new SaxTapeRecorder();
+        parse( recorder, bytes );
+        final SaxTape tape = recorder.getTape();
+        // "", r, e, id and the attribute type
+        assertTrue( "symbols " + tape.getSymbolCount(), tape.getSymbolCount() <= 6 );
+
+        final Log direct = new Log();
+        parse( direct, bytes );
+        final Log log = new Log();
+        SaxTape.read( tape.toByteBuffer() ).play( log );
+        assertEquals( direct.events, log.events );
+    }
+
+    /**
+     * Values of {@link NioSaxAttributes} are recorded from their character
+     * ranges without calling getValue
+     * @throws Exception
+     */
+    @Test
+    public void testNioSaxAttributes()
+            throws Exception
+    {
+        final char[] values = "--away".toCharArray();
+        final AttributesImpl atts = new NioAtts( values );
+        atts.addAttribute( "", "type", "type", "CDATA", null );
+
+        final SaxTapeRecorder recorder = new SaxTapeRecorder();
+        recorder.startElement( "", "presence", "presence", atts );
+        recorder.endElement( "", "presence", "presence" );
+
+        final Log log = new Log();
+        recorder.getTape().play( log );
+        assertEquals( "<{}presence presence {}type type CDATA=away", log.events.get( 0 ) );
+    }
+
+    /**
+     * Attributes whose single value is only available as a character range
+     */
+    private static class NioAtts
+            extends AttributesImpl
+            implements NioSaxAttributes
+    {
+
+        private final char[] ch;
+
+        NioAtts( final char[] ch )
+        {
+            this.ch = ch;
+        }
+
+        @Override
+        public String getValue( final int index )
+        {
+            throw new AssertionError( "String created for a value" );
+        }
+
+        @Override
+        public char[] getValueCharacters()
+        {
+            return ch;
+        }
+
+        @Override
+        public int getValueStart( final int index )
+        {
+            return 2;
+        }
+
+        @Override
+        public int getValueLength( final int index )
+        {
+            return ch.length - 2;
+        }
+    }
+
+    /**
+     * A processing instruction with null data replays as null, distinct
+     * from empty data
+     * @throws Exception
+     */
+    @Test
+    public void testNullData()
+            throws Exception
+    {
+        final SaxTapeRecorder recorder = new SaxTapeRecorder();
+        recorder.processingInstruction( "a", null );
+        recorder.processingInstruction( "b", "" );
+        recorder.processingInstruction( "c", "x" );
+
+        final Log log = new Log();
+        SaxTape.read( recorder.getTape().toByteBuffer() ).play( log );
+        assertEquals( Arrays.asList( "<?a null", "<?b ", "<?c x" ), log.events );
+    }
+
+    /**
+     * Corrupt tapes are rejected by read with a SAXException
+     * @throws Exception
+     */
+    @Test
+    public void testCorrupt()
+            throws Exception
+    {
+        // valid: <a>x</a>
+        SaxTape.read( tape( 1, 1, SaxTape.START_ELEMENT, 0, 1, 1, 0, SaxTape.CHARACTERS, 1, SaxTape.END_ELEMENT ) );
+
+        assertCorrupt( tape( 1, 1, SaxTape.START_ELEMENT, 0, 2, 2, 0 ) );
+        assertCorrupt( tape( 1, 1, SaxTape.CHARACTERS, 2 ) );
+        assertCorrupt( tape( 1, 1, SaxTape.END_ELEMENT ) );
+        assertCorrupt( tape( 1, 1, SaxTape.CHARACTERS, 0x80 ) );
+        assertCorrupt( tape( 1, 1, SaxTape.CHARACTERS, 0xff, 0xff, 0xff, 0xff, 0xff, 0 ) );
+        assertCorrupt( tape( 1, 1, 99 ) );
+
+        // A header claiming more than the buffer holds
+        final ByteBuffer b = tape( 1, 1, SaxTape.START_DOCUMENT );
+        b.putInt( 12, Integer.MAX_VALUE );
+        assertCorrupt( b );
+        b.putInt( 12, 1 ).putInt( 8, Integer.MAX_VALUE );
+        assertCorrupt( b );
+
+        // truncated
+        final ByteBuffer t = tape( 1, 1, SaxTape.START_ELEMENT, 0, 1, 1, 0 );
+        t.limit( t.limit() - 3 );
+        assertCorrupt( t );
+    }
+
+    /**
+     * A tape with the symbol "a" and text "x" followed by the given events
+     */
+    private ByteBuffer tape( final int symbols, final int text,
+                             final int... events )
+    {
+        final ByteBuffer b = ByteBuffer.allocate( 64 );
+        b.putInt( 0x4e535854 ).putInt( 3 ).putInt( symbols ).putInt( text ).putInt( events.length );
+        b.put( (byte) 1 ).putChar( 'a' );
+        b.putChar( 'x' );
+        for( int e : events )
+        {
+            b.put( (byte) e );
+        }
+        b.flip();
+        return b;
+    }
+
+    private void assertCorrupt( final ByteBuffer b )
+    {
+        try
+        {
+            SaxTape.read( b.duplicate() );
+            fail( "corrupt tape read" );
+        }
+        catch( SAXException ex )
+        {
+            // expected
+        }
+    }
+
+    private void parse( final ContentHandler handler )
+            throws Exception
+    {
+        final SAXParserFactory factory = SAXParserFactory.newInstance();
+        factory.setNamespaceAware( true );
+        final XMLReader reader = factory.newSAXParser().getXMLReader();
+        reader.setContentHandler( handler );
+        reader.setProperty( "http://xml.org/sax/properties/lexical-handler", handler );
+        reader.parse( new InputSource( new StringReader( XML ) ) );
+    }
+
+    private void parse( final ContentHandler handler, final byte[] bytes )
+            throws SAXException
+    {
+        final NioSaxParser parser = new DefaultNioSaxFactory().newInstance( handler );
+        final CompositeNioSaxSource source = new CompositeNioSaxSource( null, null );
+        parser.startDocument();
+        for( int i = 0; i < bytes.length; i += 1000 )
+        {
+            source.add( ByteBuffer.wrap( bytes, i, Math.min( 1000, bytes.length - i ) ) );
+            source.parse( parser );
+        }
+        parser.endDocument();
+    }
+
+    /**
+     * Logs events as strings
+     */
+    private static class Log
+            extends DefaultHandler2
+    {
+
+        private final List<String> events = new ArrayList<String>();
+
+        @Override
+        public void startDocument()
+        {
+            events.add( "startDocument" );
+        }
+
+        @Override
+        public void endDocument()
+        {
+            events.add( "endDocument" );
+        }
+
+        @Override
+        public void startPrefixMapping( final String prefix, final String uri )
+        {
+            events.add( "xmlns:" + prefix + "=" + uri );
+        }
+
+        @Override
+        public void endPrefixMapping( final String prefix )
+        {
+            events.add( "end xmlns:" + prefix );
+        }
+
+        @Override
+        public void startElement( final String uri, final String localName,
+                                  final String qName, final Attributes atts )
+        {
+            final StringBuilder sb = new StringBuilder( "<{" ).append( uri ).append( '}' ).append( localName ).append( ' ' ).append( qName );
+            for( int i = 0; i < atts.getLength(); i++ )
+            {
+                sb.append( ' ' ).append( '{' ).append( atts.getURI( i ) ).append( '}' ).append( atts.getLocalName( i ) ).append( ' ' ).append( atts.getQName( i ) ).append( ' ' ).append( atts.getType( i ) ).append( '=' ).append( atts.getValue( i ) );
+            }
+            events.add( sb.toString() );
+        }
+
+        @Override
+        public void endElement( final String uri, final String localName,
+                                final String qName )
+        {
+            events.add( "</{" + uri + "}" + localName + " " + qName );
+        }
+
+        @Override
+        public void characters( final char[] ch, final int start,
+                                final int length )
+        {
+            events.add( "text " + new String( ch, start, length ) );
+        }
+
+        @Override
+        public void processingInstruction( final String target,
+                                           final String data )
+        {
+            events.add( "<?" + target + " " + data );
+        }
+
+        @Override
+        public void startDTD( final String name, final String publicId,
+                              final String systemId )
+        {
+            events.add( "dtd " + name + " " + publicId + " " + systemId );
+        }
+
+        @Override
+        public void endDTD()
+        {
+            events.add( "end dtd" );
+        }
+
+        @Override
+        public void startCDATA()
+        {
+            events.add( "cdata" );
+        }
+
+        @Override
+        public void endCDATA()
+        {
+            events.add( "end cdata" );
+        }
+
+        @Override
+        public void comment( final char[] ch, final int start, final int length )
+        {
+            events.add( "comment " + new String( ch, start, length ) );
+        }
+    }
+}